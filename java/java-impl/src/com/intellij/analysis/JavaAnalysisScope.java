@@ -99,13 +99,13 @@ public class JavaAnalysisScope extends AnalysisScope {
   protected void initFilesSet() {
     if (myType == PACKAGE) {
       myFilesSet = new HashSet<VirtualFile>();
-      accept(createFileSearcher());
+      searchFiles();
       return;
     }
     super.initFilesSet();
   }
 
-  protected void accept(final PsiElementVisitor visitor, final boolean needReadAction) {
+  protected void accept(final PsiElementVisitor visitor, final boolean needReadAction, final boolean parseAhead) {
     if (myElement instanceof PsiPackage) {
       final PsiPackage pack = (PsiPackage)myElement;
       final Set<PsiDirectory> dirs = new HashSet<PsiDirectory>();
@@ -115,10 +115,10 @@ public class JavaAnalysisScope extends AnalysisScope {
         }
       });
       for (PsiDirectory dir : dirs) {
-        accept(dir, visitor, needReadAction);
+        accept(dir, visitor, needReadAction, parseAhead);
       }
     } else {
-      super.accept(visitor, needReadAction);
+      super.accept(visitor, needReadAction, parseAhead);
     }
   }
 
@@ -29,7 +29,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.Set;
 
-public class JavaLexer extends LexerBase {
+public class JavaLexer extends LexerBase implements RestartableLexer {
   private JavaLexer(boolean isAssertKeywordEnabled, boolean isJDK15) {
     myTable = getTable(isAssertKeywordEnabled, isJDK15);
     myFlexlexer = new _JavaLexer(isAssertKeywordEnabled, isJDK15);
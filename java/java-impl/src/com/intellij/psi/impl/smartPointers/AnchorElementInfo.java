@@ -31,11 +31,8 @@ import org.jetbrains.annotations.Nullable;
 */
 class AnchorElementInfo implements SmartPointerElementInfo {
   private static final Logger LOG = Logger.getInstance("#com.intellij.psi.impl.smartPointers.AnchorElementInfo");
-  private PsiFile myFile;
-  private final RangeMarker myMarker;
-  private int mySyncStartOffset;
-  private int mySyncEndOffset;
-  private boolean mySyncMarkerIsValid;
+  private volatile PsiFile myFile;
+  private final SyncedRangeMarker myMarker;
   private final Project myProject;
 
   AnchorElementInfo(@NotNull PsiElement anchor) {
@@ -64,11 +61,8 @@ class AnchorElementInfo implements SmartPointerElementInfo {
       });
       LOG.error("File=" + myFile);
     }
-    myMarker = document.createRangeMarker(range.getStartOffset(), range.getEndOffset(), true);
-
-    mySyncStartOffset = range.getStartOffset();
-    mySyncEndOffset = range.getEndOffset();
-    mySyncMarkerIsValid = true;
+    RangeMarker marker = document.createRangeMarker(range.getStartOffset(), range.getEndOffset(), true);
+    myMarker = new SyncedRangeMarker(marker, range);
   }
 
   public Document getDocumentToSynchronize() {
@@ -76,25 +70,20 @@ class AnchorElementInfo implements SmartPointerElementInfo {
   }
 
   public void documentAndPsiInSync() {
-    if (!myMarker.isValid()) {
-      mySyncMarkerIsValid = false;
-      return;
-    }
-
-    mySyncStartOffset = myMarker.getStartOffset();
-    mySyncEndOffset = myMarker.getEndOffset();
+    myMarker.documentAndPsiInSync();
   }
 
   @Nullable
   public PsiElement restoreElement() {
-    if (!mySyncMarkerIsValid) return null;
-    myFile = SelfElementInfo.restoreFile(myFile, myProject);
-    if (myFile == null) return null;
-    PsiElement anchor = myFile.findElementAt(mySyncStartOffset);
+    final TextRange syncRange = myMarker.getSyncRange(myFile);
+    if (syncRange == null) return null;
+    final PsiFile file = SelfElementInfo.restoreFile(myFile, myProject);
+    if (file == null) return null;
+    myFile = file;
+    PsiElement anchor = file.findElementAt(syncRange.getStartOffset());
     if (anchor == null) return null;
 
-    TextRange range = anchor.getTextRange();
-    if (range.getStartOffset() != mySyncStartOffset || range.getEndOffset() != mySyncEndOffset) return null;
+    if (!syncRange.equals(anchor.getTextRange())) return null;
 
     if (anchor instanceof PsiIdentifier) {
       PsiElement parent = anchor.getParent();
@@ -118,8 +107,6 @@ class AnchorElementInfo implements SmartPointerElementInfo {
 
   @Override
   public void dispose() {
-    if (myMarker != null) {
-      myMarker.dispose();
-    }
+    myMarker.dispose();
   }
 }
@@ -18,6 +18,7 @@ package com.intellij.psi.impl.source;
 
 import com.intellij.lang.LighterAST;
 import com.intellij.lang.LighterASTNode;
+import com.intellij.lang.LighterLazyParseableNode;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiJavaFile;
 import com.intellij.psi.impl.java.stubs.impl.PsiJavaFileStubImpl;
@@ -27,9 +28,12 @@ import com.intellij.psi.impl.source.tree.SourceUtil;
 import com.intellij.psi.stubs.LightStubBuilder;
 import com.intellij.psi.stubs.StubElement;
 import com.intellij.util.io.StringRef;
+import org.jetbrains.annotations.NonNls;
 
 
 public class JavaLightStubBuilder extends LightStubBuilder {
+  @NonNls private static final String[] CLASS_START_WORDS = {"new", "class", "interface", "enum"};
+
   @Override
   protected StubElement createStubForFile(final PsiFile file, final LighterAST tree) {
     if (!(file instanceof PsiJavaFile)) return super.createStubForFile(file, tree);
@@ -46,4 +50,47 @@ public class JavaLightStubBuilder extends LightStubBuilder {
 
     return new PsiJavaFileStubImpl((PsiJavaFile)file, StringRef.fromString(refText), false);
   }
+
+  @Override
+  protected boolean skipChildProcessingWhenBuildingStubs(final LighterAST tree, final LighterASTNode parent, final LighterASTNode node) {
+    // the only stubs inside of a code block are local and anonymous classes, there's no need to parse the block without them
+    if (node.getTokenType() == JavaElementType.CODE_BLOCK && node instanceof LighterLazyParseableNode) {
+      return !mayContainClasses(((LighterLazyParseableNode)node).getText());
+    }
+    return super.skipChildProcessingWhenBuildingStubs(tree, parent, node);
+  }
+
+  /**
+   * Looks for the words which may start a class in the text, including comments and literals.
+   * Any unicode escape may hide such a word, so a block with one is always parsed.
+   */
+  private static boolean mayContainClasses(final CharSequence text) {
+    final int length = text.length();
+    int i = 0;
+    while (i < length) {
+      final char c = text.charAt(i);
+      if (c == '\\' && i + 1 < length && text.charAt(i + 1) == 'u') return true;
+      if (!Character.isJavaIdentifierStart(c)) {
+        i++;
+        continue;
+      }
+
+      final int start = i;
+      while (i < length && Character.isJavaIdentifierPart(text.charAt(i))) i++;
+      if (isClassStart(text, start, i)) return true;
+    }
+    return false;
+  }
+
+  private static boolean isClassStart(final CharSequence text, final int start, final int end) {
+    nextWord:
+    for (String word : CLASS_START_WORDS) {
+      if (word.length() != end - start) continue;
+      for (int i = 0; i < word.length(); i++) {
+        if (text.charAt(start + i) != word.charAt(i)) continue nextWord;
+      }
+      return true;
+    }
+    return false;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.concurrency;
+
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.testFramework.LightIdeaTestCase;
+import com.intellij.util.Processor;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class JobUtilTest extends LightIdeaTestCase {
+  public void testNestedJobsDoNotStarveThePool() {
+    final AtomicInteger count = new AtomicInteger();
+    // more outer tasks than workers, each of them waits for its own nested job
+    boolean result = JobUtil.invokeConcurrentlyUnderProgress(Collections.nCopies(JobSchedulerImpl.CORES_COUNT * 4, null), new Processor<Object>() {
+      @Override
+      public boolean process(Object o) {
+        return JobUtil.invokeConcurrentlyUnderProgress(Collections.nCopies(100, null), new Processor<Object>() {
+          @Override
+          public boolean process(Object o) {
+            count.incrementAndGet();
+            return true;
+          }
+        }, false, ProgressManager.getInstance().getProgressIndicator());
+      }
+    }, false, ProgressManager.getInstance().getProgressIndicator());
+
+    assertTrue(result);
+    assertEquals(JobSchedulerImpl.CORES_COUNT * 4 * 100, count.get());
+  }
+
+  public void testStatistics() {
+    final long submitted = JobSchedulerImpl.getSubmittedCount();
+    assertTrue(JobUtil.invokeConcurrentlyUnderProgress(Collections.nCopies(JobSchedulerImpl.CORES_COUNT * 10, null), new Processor<Object>() {
+      @Override
+      public boolean process(Object o) {
+        return true;
+      }
+    }, false, ProgressManager.getInstance().getProgressIndicator()));
+
+    assertTrue(JobSchedulerImpl.getSubmittedCount() - submitted >= JobSchedulerImpl.CORES_COUNT * 10);
+    // the job is over, what is left in the deques has been run by the thread waiting for it
+    assertEquals(0, JobSchedulerImpl.getQueueDepth());
+    assertTrue(JobSchedulerImpl.getStatistics(), JobSchedulerImpl.getStatistics().contains("Waiting in indexing lane: 0"));
+  }
+
+  public void testIndexingTasksLetMoreImportantTasksRun() throws Exception {
+    final CountDownLatch indexingStarted = new CountDownLatch(JobSchedulerImpl.CORES_COUNT);
+    final CountDownLatch highlighted = new CountDownLatch(1);
+    // every worker is busy with a long indexing task
+    for (int i = 0; i < JobSchedulerImpl.CORES_COUNT; i++) {
+      JobUtil.submitToJobThread(new Runnable() {
+        public void run() {
+          indexingStarted.countDown();
+          final long end = System.currentTimeMillis() + 10000;
+          while (highlighted.getCount() > 0 && System.currentTimeMillis() < end) {
+            JobSchedulerImpl.runMoreImportantTasks();
+            Thread.yield();
+          }
+        }
+      }, Job.INDEXING_PRIORITY);
+    }
+    assertTrue(indexingStarted.await(5, TimeUnit.SECONDS));
+
+    JobUtil.submitToJobThread(new Runnable() {
+      public void run() {
+        highlighted.countDown();
+      }
+    }, Job.HIGHLIGHTING_PRIORITY);
+    assertTrue(highlighted.await(5, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.lexer;
+
+import com.intellij.testFramework.LexerTestCase;
+
+public class XmlRelexingTest extends LexerTestCase {
+  public void testRandomEdits() {
+    final StringBuilder text = new StringBuilder("<?xml version=\"1.0\"?>\n<!DOCTYPE root>\n<root>\n");
+    for (int i = 0; i < 50; i++) {
+      text.append("  <item id=\"").append(i).append("\" name='n'>text ").append(i).append("<!-- comment --><![CDATA[data]]></item>\n");
+    }
+    text.append("</root>");
+    checkIncrementalRelexing(text.toString(), "a <>/=\"'!-?&;[]\n");
+  }
+
+  @Override
+  protected Lexer createLexer() {
+    return new XmlLexer();
+  }
+
+  @Override
+  protected String getDirPath() {
+    return "java/java-tests/testData";
+  }
+}
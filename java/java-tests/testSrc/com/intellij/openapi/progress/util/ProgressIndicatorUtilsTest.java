@@ -0,0 +1,134 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.progress.util;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.EmptyRunnable;
+import com.intellij.testFramework.LightIdeaTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ProgressIndicatorUtilsTest extends LightIdeaTestCase {
+  private static final int READERS = 4;
+  private static final int READ_ACTION_MILLIS = 2000;
+  // a read action gives way at its next checkCanceled(), a write action shouldn't wait for much more than a thread switch
+  private static final int MAX_WRITE_ACTION_LATENCY_MILLIS = 100;
+
+  public void testWriteActionLatencyWithLongReadActions() throws Exception {
+    final AtomicBoolean stop = new AtomicBoolean();
+    final AtomicInteger restarts = new AtomicInteger();
+    final AtomicInteger completed = new AtomicInteger();
+    final Future[] readers = new Future[READERS];
+    for (int i = 0; i < READERS; i++) {
+      readers[i] = ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+        public void run() {
+          while (!stop.get()) {
+            ProgressIndicatorUtils.runWithWriteActionPriority(new Runnable() {
+              public void run() {
+                restarts.incrementAndGet();
+                final long end = System.currentTimeMillis() + READ_ACTION_MILLIS;
+                while (System.currentTimeMillis() < end && !stop.get()) {
+                  ProgressManager.checkCanceled();
+                }
+              }
+            }, null);
+            completed.incrementAndGet();
+          }
+        }
+      });
+    }
+
+    try {
+      Thread.sleep(100);
+      long worst = 0;
+      for (int i = 0; i < 20; i++) {
+        final long start = System.currentTimeMillis();
+        ApplicationManager.getApplication().runWriteAction(EmptyRunnable.getInstance());
+        worst = Math.max(worst, System.currentTimeMillis() - start);
+        Thread.sleep(20);
+      }
+      // without yielding every write action would wait for a READ_ACTION_MILLIS long read action to finish
+      assertTrue("Worst write action latency: " + worst + "ms", worst < MAX_WRITE_ACTION_LATENCY_MILLIS);
+      assertEquals(0, completed.get());
+      // every interrupted read action has been restarted
+      assertTrue(restarts.get() > READERS);
+    }
+    finally {
+      stop.set(true);
+      for (Future reader : readers) {
+        reader.get();
+      }
+    }
+  }
+
+  public void testRestartedRightAfterWriteAction() throws Exception {
+    final AtomicInteger runs = new AtomicInteger();
+    final AtomicLong restarted = new AtomicLong();
+    final CountDownLatch started = new CountDownLatch(1);
+    final Future reader = ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+      public void run() {
+        ProgressIndicatorUtils.runWithWriteActionPriority(new Runnable() {
+          public void run() {
+            if (runs.incrementAndGet() > 1) {
+              restarted.set(System.currentTimeMillis());
+              return;
+            }
+            started.countDown();
+            while (true) {
+              ProgressManager.checkCanceled();
+            }
+          }
+        }, null);
+      }
+    });
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    final long[] finished = {0};
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      public void run() {
+        try {
+          // the reader waits for the write action all this time
+          Thread.sleep(READ_ACTION_MILLIS / 4);
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        finished[0] = System.currentTimeMillis();
+      }
+    });
+    reader.get(10, TimeUnit.SECONDS);
+
+    assertEquals(2, runs.get());
+    final long delay = restarted.get() - finished[0];
+    assertTrue("Restarted " + delay + "ms after the write action", delay < MAX_WRITE_ACTION_LATENCY_MILLIS);
+  }
+
+  public void testRunsInPlaceUnderReadAction() {
+    final AtomicInteger runs = new AtomicInteger();
+    assertTrue(ProgressIndicatorUtils.runInReadActionWithWriteActionPriority(new Runnable() {
+      public void run() {
+        runs.incrementAndGet();
+      }
+    }, null));
+    assertEquals(1, runs.get());
+  }
+}
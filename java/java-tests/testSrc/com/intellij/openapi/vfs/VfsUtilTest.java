@@ -6,6 +6,7 @@ import com.intellij.openapi.application.WriteAction;
 import com.intellij.openapi.application.ex.PathManagerEx;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
 import com.intellij.testFramework.IdeaTestCase;
 import com.intellij.testFramework.IdeaTestUtil;
 import com.intellij.util.Processor;
@@ -240,4 +241,45 @@ public class VfsUtilTest extends IdeaTestCase {
 
     assertEmpty(vdir.getChildren());
   }
+
+  public void testPathComparisonWithoutBuildingStrings() throws IOException {
+    File tempDir = new WriteAction<File>() {
+      @Override
+      protected void run(Result<File> result) throws Throwable {
+        File res = createTempDirectory();
+        assertTrue(new File(res, "a/c").mkdirs());
+        assertTrue(new File(res, "a-b").mkdirs());
+        assertTrue(new File(res, "ab/a").mkdirs());
+        result.setResult(res);
+      }
+    }.execute().getResultObject();
+    VirtualFile vdir = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(tempDir);
+    assertNotNull(vdir);
+
+    List<VirtualFile> files = new ArrayList<VirtualFile>();
+    files.add(vdir);
+    for (String path : new String[]{"a", "a/c", "a-b", "ab", "ab/a"}) {
+      VirtualFile file = vdir.findFileByRelativePath(path);
+      assertNotNull(path, file);
+      files.add(file);
+    }
+
+    for (VirtualFile file : files) {
+      NewVirtualFile newFile = (NewVirtualFile)file;
+      assertTrue(newFile.isPathEqualTo(file.getPath()));
+      assertTrue(newFile.isUrlEqualTo(file.getUrl()));
+      assertFalse(newFile.isPathEqualTo(file.getPath() + "x"));
+      assertFalse(newFile.isUrlEqualTo(file.getPath()));
+
+      StringBuilder builder = new StringBuilder("prefix");
+      newFile.appendPath(builder);
+      assertEquals("prefix" + file.getPath(), builder.toString());
+
+      for (VirtualFile other : files) {
+        assertEquals(file.getPath() + " vs " + other.getPath(),
+                     Integer.signum(file.getPath().compareTo(other.getPath())),
+                     Integer.signum(VfsUtil.comparePaths(file, other)));
+      }
+    }
+  }
 }
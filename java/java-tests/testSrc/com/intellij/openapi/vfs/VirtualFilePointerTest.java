@@ -382,6 +382,43 @@ public class VirtualFilePointerTest extends IdeaTestCase {
     assertFalse(pointer_f1.isValid());
   }
 
+  public void testDeleteAfterRenameNotifiesOnlyPointersUnderDeletedDirectory() throws Exception {
+    final File tempDir = createTempDirectory();
+    final File dir = new File(tempDir, "dir");
+    final File sibling = new File(tempDir, "dir2");
+    new File(dir, "sub").mkdirs();
+    sibling.mkdirs();
+    final File inDir = new File(dir, "sub/a.txt");
+    final File inSibling = new File(sibling, "a.txt");
+    inDir.createNewFile();
+    inSibling.createNewFile();
+
+    final LoggingListener inDirListener = new LoggingListener();
+    final LoggingListener inSiblingListener = new LoggingListener();
+    final VirtualFilePointer inDirPointer = createPointerByFile(inDir, inDirListener);
+    final VirtualFilePointer inSiblingPointer = createPointerByFile(inSibling, inSiblingListener);
+    assertTrue(inDirPointer.isValid());
+    assertTrue(inSiblingPointer.isValid());
+
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          getVirtualFile(dir).rename(this, "renamed");
+          getVirtualFile(new File(tempDir, "renamed")).delete(this);
+        }
+        catch (IOException e) {
+          fail();
+        }
+      }
+    });
+    assertFalse(inDirPointer.isValid());
+    assertTrue(inSiblingPointer.isValid());
+    assertEquals("[before:true, after:false]", inDirListener.getLog().toString());
+    assertEquals("[]", inSiblingListener.getLog().toString());
+    myFilesToDelete.add(tempDir);
+  }
+
   public void testContainerDeletePerformance() throws Exception {
     PlatformTestUtil.assertTiming("", 3000, new Runnable() {
       @Override
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi;
+
+import com.intellij.lang.impl.PsiBuilderImpl;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.testFramework.LightCodeInsightTestCase;
+
+public class JavaIncrementalRelexingTest extends LightCodeInsightTestCase {
+  private static final int FIELDS = 100;
+  // "int fieldN = N;" and the whitespace after it
+  private static final int LEXEMES_PER_FIELD = 9;
+
+  public void testCommitReusesLexemes() throws Exception {
+    configureClass();
+    final Document document = getEditor().getDocument();
+
+    insert(document, document.getText().indexOf("int field50"), "int inserted = 0;\n  ");
+    assertEquals(document.getText(), getFile().getText());
+    assertEquals(FIELDS + 1, getPsiClass().getFields().length);
+    assertTrue(PsiBuilderImpl.getReusedLexemeCount(getFile().getNode()) > (FIELDS - 2) * LEXEMES_PER_FIELD);
+
+    insert(document, document.getText().indexOf("field70"), "x");
+    assertEquals("xfield70", getPsiClass().getFields()[71].getName());
+    assertTrue(PsiBuilderImpl.getReusedLexemeCount(getFile().getNode()) > (FIELDS - 2) * LEXEMES_PER_FIELD);
+  }
+
+  public void testLexemesNotReusedAfterPsiChange() throws Exception {
+    configureClass();
+    final Document document = getEditor().getDocument();
+    final PsiField field = getPsiClass().getFields()[10];
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      public void run() {
+        field.setName("renamed");
+      }
+    });
+    PsiDocumentManager.getInstance(getProject()).doPostponedOperationsAndUnblockDocument(document);
+    assertEquals(document.getText(), getFile().getText());
+
+    // the lexemes were taken before the rename, the tree doesn't have that text anymore
+    insert(document, document.getText().indexOf("int field50"), "int inserted = 0;\n  ");
+    assertEquals(document.getText(), getFile().getText());
+    assertEquals(0, PsiBuilderImpl.getReusedLexemeCount(getFile().getNode()));
+    assertEquals("renamed", getPsiClass().getFields()[10].getName());
+
+    insert(document, document.getText().indexOf("field70"), "x");
+    assertEquals(document.getText(), getFile().getText());
+    assertTrue(PsiBuilderImpl.getReusedLexemeCount(getFile().getNode()) > (FIELDS - 2) * LEXEMES_PER_FIELD);
+  }
+
+  private static void configureClass() throws Exception {
+    final StringBuilder text = new StringBuilder("class A {\n");
+    for (int i = 0; i < FIELDS; i++) {
+      text.append("  int field").append(i).append(" = ").append(i).append(";\n");
+    }
+    text.append("}");
+    configureFromFileText("a.java", text.toString());
+    // the lexemes of the whole file are taken when it's parsed
+    getFile().getNode().getFirstChildNode();
+  }
+
+  private static PsiClass getPsiClass() {
+    return ((PsiJavaFile)getFile()).getClasses()[0];
+  }
+
+  private static void insert(final Document document, final int offset, final String text) {
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      public void run() {
+        document.insertString(offset, text);
+      }
+    });
+    PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+  }
+}
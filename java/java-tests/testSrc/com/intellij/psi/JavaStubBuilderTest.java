@@ -215,6 +215,17 @@ public class JavaStubBuilderTest extends LightIdeaTestCase {
            "      ANONYMOUS_CLASS:PsiClassStub[anonymous name=null fqn=null baseref=Y inqualifnew]\n");
   }
 
+  public void testLocalClassesAndSkippedCodeBlocks() throws Exception {
+    doTest("class C {\n" +
+           "  void noClasses() { int i = 0; String s = \"newer\"; }\n" +
+           "  void local() { class L { void m() { } } }\n" +
+           "  void anonymous() { if (true) { Object o = x.new Y() { }; } }\n" +
+           "  void localInterface() { @interface A { } }\n" +
+           "  void escaped() { Object o = \\u006eew Object() { }; }\n" +
+           "}",
+           null);
+  }
+
   public void testEnums() throws Exception {
     doTest("enum E {\n" +
            "  E1() { }" +
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.impl;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethod;
+import com.intellij.testFramework.LightCodeInsightTestCase;
+import com.intellij.util.ui.UIUtil;
+
+public class BackgroundDocumentCommitterTest extends LightCodeInsightTestCase {
+  public void testCommitAppliesBackgroundResult() throws Exception {
+    configureFromFileText("a.java", "class A { void foo() { int i = 0; } void bar() {} }");
+    final PsiClass aClass = ((PsiJavaFile)getFile()).getClasses()[0];
+    final PsiMethod bar = aClass.getMethods()[1];
+    final Document document = getEditor().getDocument();
+    insert(document, document.getText().indexOf("int i"), "int j = 1; ");
+
+    final BackgroundDocumentCommitter.Result result = computeResult(document);
+    assertNotNull(result);
+    getCommitter().putResult(document, result);
+    final int applied = getCommitter().getAppliedCount();
+    PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+
+    assertEquals(applied + 1, getCommitter().getAppliedCount());
+    assertFalse(getCommitter().applyReparseLog(document, getFile()));
+    assertEquals(document.getText(), getFile().getText());
+    assertEquals(2, aClass.getMethods()[0].getBody().getStatements().length);
+    assertTrue(bar.isValid());
+    assertSame(bar, aClass.getMethods()[1]);
+  }
+
+  public void testStaleResultIsDropped() throws Exception {
+    configureFromFileText("a.java", "class A { void foo() { int i = 0; } }");
+    final Document document = getEditor().getDocument();
+    insert(document, document.getText().indexOf("int i"), "int j = 1; ");
+
+    final BackgroundDocumentCommitter.Result result = computeResult(document);
+    assertNotNull(result);
+    insert(document, document.getText().indexOf("int i"), "int k = 2; ");
+    getCommitter().putResult(document, result);
+    assertFalse(getCommitter().applyReparseLog(document, getFile()));
+
+    getCommitter().putResult(document, result);
+    final int applied = getCommitter().getAppliedCount();
+    PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+    assertEquals(applied, getCommitter().getAppliedCount());
+    assertEquals(document.getText(), getFile().getText());
+    assertEquals(3, ((PsiJavaFile)getFile()).getClasses()[0].getMethods()[0].getBody().getStatements().length);
+  }
+
+  public void testDocumentChangeCommittedFromPooledThread() throws Exception {
+    configureFromFileText("a.java", "class A { void foo() { int i = 0; } void bar() {} }");
+    final PsiClass aClass = ((PsiJavaFile)getFile()).getClasses()[0];
+    final PsiMethod bar = aClass.getMethods()[1];
+    final Document document = getEditor().getDocument();
+    final PsiDocumentManagerImpl documentManager = (PsiDocumentManagerImpl)PsiDocumentManager.getInstance(getProject());
+    final int applied = getCommitter().getAppliedCount();
+    getCommitter().setEnabled(true);
+    try {
+      insert(document, document.getText().indexOf("int i"), "int j = 1; ");
+
+      // the document is reparsed on a pooled thread, which then commits it on the dispatch thread
+      final long end = System.currentTimeMillis() + 10000;
+      while (documentManager.isUncommited(document) && System.currentTimeMillis() < end) {
+        UIUtil.dispatchAllInvocationEvents();
+        Thread.sleep(10);
+      }
+    }
+    finally {
+      getCommitter().setEnabled(false);
+    }
+
+    assertFalse(documentManager.isUncommited(document));
+    assertEquals(applied + 1, getCommitter().getAppliedCount());
+    assertEquals(document.getText(), getFile().getText());
+    assertEquals(2, aClass.getMethods()[0].getBody().getStatements().length);
+    assertSame(bar, aClass.getMethods()[1]);
+  }
+
+  private static BackgroundDocumentCommitter getCommitter() {
+    return ((PsiDocumentManagerImpl)PsiDocumentManager.getInstance(getProject())).getBackgroundCommitter();
+  }
+
+  private static BackgroundDocumentCommitter.Result computeResult(Document document) {
+    return getCommitter().computeResult(document, document.getModificationStamp());
+  }
+
+  private static void insert(final Document document, final int offset, final String text) {
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      public void run() {
+        document.insertString(offset, text);
+      }
+    });
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.impl.smartPointers;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.*;
+import com.intellij.testFramework.LightCodeInsightTestCase;
+
+public class SmartPsiElementPointersTest extends LightCodeInsightTestCase {
+  private static final String TEXT = "class A {\n  int field;\n  void method() {\n    return;\n  }\n  class Inner {}\n}";
+
+  public void testRestoreAfterPsiChange() throws Exception {
+    configureFromFileText("a.java", TEXT);
+    final PsiClass aClass = getPsiClass();
+    final PsiField field = aClass.getFields()[0];
+
+    final Pointers pointers = new Pointers(aClass);
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      public void run() {
+        PsiElementFactory factory = JavaPsiFacade.getInstance(getProject()).getElementFactory();
+        aClass.addBefore(factory.createFieldFromText("int inserted;", aClass), field);
+      }
+    });
+    commitPsiChanges();
+
+    pointers.invalidateAndCheck(aClass);
+  }
+
+  public void testRestoreAfterDocumentChange() throws Exception {
+    configureFromFileText("a.java", TEXT);
+    final PsiClass aClass = getPsiClass();
+
+    final Pointers pointers = new Pointers(aClass);
+    final Document document = getEditor().getDocument();
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      public void run() {
+        document.insertString(document.getText().indexOf("int field"), "int inserted;\n  ");
+      }
+    });
+    PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+
+    pointers.invalidateAndCheck(getPsiClass());
+  }
+
+  public void testRestoreAfterPsiAndDocumentChanges() throws Exception {
+    configureFromFileText("a.java", TEXT);
+    final PsiClass aClass = getPsiClass();
+    final PsiMethod method = aClass.getMethods()[0];
+
+    final Pointers pointers = new Pointers(aClass);
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      public void run() {
+        PsiElementFactory factory = JavaPsiFacade.getInstance(getProject()).getElementFactory();
+        aClass.addBefore(factory.createMethodFromText("void before() {}", aClass), method);
+      }
+    });
+    commitPsiChanges();
+
+    final Document document = getEditor().getDocument();
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      public void run() {
+        document.insertString(0, "// comment\n");
+      }
+    });
+    PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+
+    pointers.invalidateAndCheck(getPsiClass());
+  }
+
+  private static PsiClass getPsiClass() {
+    return ((PsiJavaFile)getFile()).getClasses()[0];
+  }
+
+  private static void commitPsiChanges() {
+    PsiDocumentManager.getInstance(getProject()).doPostponedOperationsAndUnblockDocument(getEditor().getDocument());
+    assertEquals(getEditor().getDocument().getText(), getFile().getText());
+  }
+
+  private static class Pointers {
+    private final SmartPsiElementPointer<PsiField> myField;
+    private final SmartPsiElementPointer<PsiMethod> myMethod;
+    private final SmartPsiElementPointer<PsiClass> myInner;
+    private final SmartPsiElementPointer<PsiStatement> myStatement;
+
+    private Pointers(PsiClass aClass) {
+      SmartPointerManager manager = SmartPointerManager.getInstance(getProject());
+      PsiMethod method = aClass.findMethodsByName("method", false)[0];
+      myField = manager.createSmartPsiElementPointer(aClass.findFieldByName("field", false));
+      myMethod = manager.createSmartPsiElementPointer(method);
+      myInner = manager.createSmartPsiElementPointer(aClass.findInnerClassByName("Inner", false));
+      myStatement = manager.createSmartPsiElementPointer(method.getBody().getStatements()[0]);
+    }
+
+    /**
+     * Replaces the pointed elements with their copies, which doesn't change the document, so the pointers can only find the new
+     * elements by the offsets they take from their range markers.
+     */
+    private void invalidateAndCheck(final PsiClass aClass) {
+      final PsiField field = myField.getElement();
+      final PsiMethod method = myMethod.getElement();
+      final PsiClass inner = myInner.getElement();
+      ApplicationManager.getApplication().runWriteAction(new Runnable() {
+        public void run() {
+          field.replace(field.copy());
+          method.replace(method.copy());
+          inner.replace(inner.copy());
+        }
+      });
+      commitPsiChanges();
+      assertFalse(field.isValid());
+      assertFalse(method.isValid());
+      assertFalse(inner.isValid());
+
+      PsiMethod newMethod = aClass.findMethodsByName("method", false)[0];
+      assertSame(aClass.findFieldByName("field", false), myField.getElement());
+      assertSame(newMethod, myMethod.getElement());
+      assertSame(aClass.findInnerClassByName("Inner", false), myInner.getElement());
+      assertSame(newMethod.getBody().getStatements()[0], myStatement.getElement());
+    }
+  }
+}
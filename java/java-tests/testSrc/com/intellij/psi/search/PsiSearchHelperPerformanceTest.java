@@ -0,0 +1,47 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.search;
+
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.search.searches.ReferencesSearch;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.PsiTestCase;
+
+import java.io.File;
+
+public class PsiSearchHelperPerformanceTest extends PsiTestCase {
+  private static final int FILES = 1000;
+
+  public void testReferencesInManyFiles() throws Exception {
+    final File dir = createTempDirectory();
+    final VirtualFile vDir = LocalFileSystem.getInstance().refreshAndFindFileByPath(dir.getCanonicalPath().replace(File.separatorChar, '/'));
+    final PsiJavaFile target = (PsiJavaFile)createFile(myModule, vDir, "Target.java", "public class Target {}");
+    for (int i = 0; i < FILES; i++) {
+      createFile(myModule, vDir, "User" + i + ".java", "class User" + i + " {\n  Target target;\n  void foo(Target t) {}\n}");
+    }
+
+    // every candidate file is loaded and searched in a task of the search lane, see PsiSearchHelperImpl.processPsiFileRoots()
+    final PsiClass targetClass = target.getClasses()[0];
+    PlatformTestUtil.assertTiming("References in " + FILES + " files", 5000, new Runnable() {
+      public void run() {
+        assertEquals(2 * FILES, ReferencesSearch.search(targetClass).findAll().size());
+      }
+    });
+  }
+}
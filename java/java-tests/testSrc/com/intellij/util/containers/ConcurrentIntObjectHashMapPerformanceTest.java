@@ -0,0 +1,43 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+import com.intellij.testFramework.PlatformTestUtil;
+import junit.framework.TestCase;
+
+public class ConcurrentIntObjectHashMapPerformanceTest extends TestCase {
+  private static final int COUNT = 1 << 16;
+
+  public void testGetAndPutIfAbsent() {
+    final Object value = new Object();
+    final ConcurrentIntObjectHashMap<Object> map = new ConcurrentIntObjectHashMap<Object>();
+    for (int i = 0; i < COUNT; i++) {
+      map.put(i * 31, value);
+    }
+
+    PlatformTestUtil.assertTiming("get+putIfAbsent of " + COUNT + " keys x20", 100, new Runnable() {
+      public void run() {
+        for (int repeat = 0; repeat < 20; repeat++) {
+          for (int i = 0; i < COUNT; i++) {
+            assertSame(value, map.get(i * 31));
+            assertSame(value, map.putIfAbsent(i * 31, value));
+          }
+        }
+      }
+    });
+    assertEquals(COUNT, map.size());
+  }
+}
@@ -43,8 +43,10 @@ import com.intellij.psi.*;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.search.LocalSearchScope;
 import com.intellij.psi.search.SearchScope;
+import com.intellij.psi.util.ParallelPsiLoader;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.Function;
+import com.intellij.util.Processor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -225,23 +227,30 @@ public class AnalysisScope {
     }
     else if (myType == DIRECTORY || myType == PROJECT || myType == MODULES || myType == MODULE || myType == CUSTOM) {
       myFilesSet = new HashSet<VirtualFile>();
-      accept(createFileSearcher());
+      searchFiles();
     }
   }
 
+  /**
+   * Fills the files set with the {@link #createFileSearcher()}, which needs the files only, so they aren't parsed ahead.
+   */
+  protected void searchFiles() {
+    accept(createFileSearcher(), !ApplicationManager.getApplication().isReadAccessAllowed(), false);
+  }
+
 
   public void accept(final PsiElementVisitor visitor) {
-    accept(visitor, !ApplicationManager.getApplication().isReadAccessAllowed());
+    accept(visitor, !ApplicationManager.getApplication().isReadAccessAllowed(), true);
   }
 
-  protected void accept(final PsiElementVisitor visitor, final boolean needReadAction) {
+  /**
+   * @param parseAhead whether the files are parsed on the pooled threads before the visitor gets them, see {@link ParallelPsiLoader}
+   */
+  protected void accept(final PsiElementVisitor visitor, final boolean needReadAction, final boolean parseAhead) {
     if (myType == VIRTUAL_FILES) {
-      final PsiManager psiManager = PsiManager.getInstance(myProject);
-      for (final VirtualFile file : myFilesSet) {
-        if (!processFile(file, visitor, psiManager, needReadAction)) return;
-      }
+      processFiles(new ArrayList<VirtualFile>(myFilesSet), visitor, PsiManager.getInstance(myProject), needReadAction, parseAhead);
     } else if (myScope instanceof GlobalSearchScope) {
-      final PsiManager psiManager = PsiManager.getInstance(myProject);
+      final List<VirtualFile> files = new ArrayList<VirtualFile>();
       final FileIndex projectFileIndex = ProjectRootManager.getInstance(myProject).getFileIndex();
       final ContentIterator contentIterator = new ContentIterator() {
         public boolean processFile(final VirtualFile fileOrDir) {
@@ -251,7 +260,7 @@ public class AnalysisScope {
             }
           }).booleanValue();
           if (isInScope) {
-            return AnalysisScope.processFile(fileOrDir, visitor, psiManager, needReadAction);
+            files.add(fileOrDir);
           }
           return true;
         }
@@ -263,6 +272,7 @@ public class AnalysisScope {
           FileIndexImplUtil.iterateRecursively(libraryRoot, VirtualFileFilter.ALL, contentIterator);
         }
       }
+      processFiles(files, visitor, PsiManager.getInstance(myProject), needReadAction, parseAhead);
     } else if (myScope instanceof LocalSearchScope) {
       ApplicationManager.getApplication().runReadAction(new Runnable() {
         public void run() {
@@ -274,27 +284,29 @@ public class AnalysisScope {
       });
     }
     else if (myModule != null) {
+      final List<VirtualFile> files = new ArrayList<VirtualFile>();
       final FileIndex moduleFileIndex = ModuleRootManager.getInstance(myModule).getFileIndex();
-      final PsiManager psiManager = PsiManager.getInstance(myModule.getProject());
       moduleFileIndex.iterateContent(new ContentIterator() {
         public boolean processFile(VirtualFile fileOrDir) {
-          return AnalysisScope.this.processFile(fileOrDir, visitor, moduleFileIndex, psiManager, needReadAction);
+          return collectFile(fileOrDir, files, moduleFileIndex);
         }
       });
+      processFiles(files, visitor, PsiManager.getInstance(myModule.getProject()), needReadAction, parseAhead);
     }
     else if (myModules != null) {
       for (final Module module : myModules) {
-        final PsiManager psiManager = PsiManager.getInstance(module.getProject());
+        final List<VirtualFile> files = new ArrayList<VirtualFile>();
         final FileIndex moduleFileIndex = ModuleRootManager.getInstance(module).getFileIndex();
         moduleFileIndex.iterateContent(new ContentIterator() {
           public boolean processFile(VirtualFile fileOrDir) {
-            return AnalysisScope.this.processFile(fileOrDir, visitor, moduleFileIndex, psiManager, needReadAction);
+            return collectFile(fileOrDir, files, moduleFileIndex);
           }
         });
+        processFiles(files, visitor, PsiManager.getInstance(module.getProject()), needReadAction, parseAhead);
       }
     }
     else if (myElement instanceof PsiDirectory) {
-      accept((PsiDirectory)myElement, visitor, needReadAction);
+      accept((PsiDirectory)myElement, visitor, needReadAction, parseAhead);
     }
     else if (myElement != null){
       ApplicationManager.getApplication().runReadAction(new Runnable() {
@@ -303,21 +315,19 @@ public class AnalysisScope {
         }
       });
     } else if (myProject != null) {
-      final PsiManager psiManager = PsiManager.getInstance(myProject);
+      final List<VirtualFile> files = new ArrayList<VirtualFile>();
       final FileIndex projectFileIndex = ProjectRootManager.getInstance(myProject).getFileIndex();
       projectFileIndex.iterateContent(new ContentIterator() {
         public boolean processFile(final VirtualFile fileOrDir) {
-          return AnalysisScope.this.processFile(fileOrDir, visitor, projectFileIndex, psiManager, needReadAction);
+          return collectFile(fileOrDir, files, projectFileIndex);
         }
       });
+      processFiles(files, visitor, PsiManager.getInstance(myProject), needReadAction, parseAhead);
     }
   }
 
   @SuppressWarnings({"SimplifiableIfStatement"})
-  private boolean processFile(final VirtualFile fileOrDir,
-                              final PsiElementVisitor visitor,
-                              final FileIndex projectFileIndex,
-                              final PsiManager psiManager, final boolean needReadAction) {
+  private boolean collectFile(final VirtualFile fileOrDir, final List<VirtualFile> files, final FileIndex projectFileIndex) {
     if (fileOrDir.isDirectory()) return true;
     final FileType fileType = fileOrDir.getFileType();
     if (fileType instanceof WorkspaceFileType ||
@@ -325,19 +335,43 @@ public class AnalysisScope {
         fileType instanceof ModuleFileType ||
         fileOrDir.getPath().contains("/.idea/")) return true;
     if (projectFileIndex.isInContent(fileOrDir) && (myIncludeTestSource || !projectFileIndex.isInTestSourceContent(fileOrDir))) {
-      return processFile(fileOrDir, visitor, psiManager, needReadAction);
+      files.add(fileOrDir);
     }
     return true;
   }
 
-  private static boolean processFile(final VirtualFile fileOrDir, final PsiElementVisitor visitor, final PsiManager psiManager,
-                                     final boolean needReadAction) {
-    if (!fileOrDir.isValid()) return false;
-    final PsiFile file = getPsiFileInReadAction(psiManager, fileOrDir);
-    if (file == null){
-      //skip .class files under src directory
+  /**
+   * Skips the invalid files and the files without PSI, e.g. .class files under src directory.
+   */
+  private static boolean processFiles(final List<VirtualFile> files, final PsiElementVisitor visitor, final PsiManager psiManager,
+                                      final boolean needReadAction, final boolean parseAhead) {
+    if (!parseAhead) {
+      for (VirtualFile file : files) {
+        if (!file.isValid()) continue;
+        final PsiFile psiFile = getPsiFileInReadAction(psiManager, file);
+        if (psiFile != null && !processFile(psiFile, visitor, psiManager, needReadAction)) return false;
+      }
       return true;
     }
+    return ParallelPsiLoader.processFiles(psiManager, files, new Processor<PsiFile>() {
+      public boolean process(PsiFile file) {
+        return processFile(file, visitor, psiManager, needReadAction);
+      }
+    });
+  }
+
+  private static PsiFile getPsiFileInReadAction(final PsiManager psiManager, final VirtualFile file) {
+    return ApplicationManager.getApplication().runReadAction(new Computable<PsiFile>() {
+      @Nullable
+      public PsiFile compute() {
+        final PsiFile psiFile = psiManager.findFile(file);
+        return psiFile != null && psiFile.isValid() ? psiFile : null;
+      }
+    });
+  }
+
+  private static boolean processFile(final PsiFile file, final PsiElementVisitor visitor, final PsiManager psiManager,
+                                     final boolean needReadAction) {
     if (needReadAction) {
       PsiDocumentManager.getInstance(psiManager.getProject()).commitAndRunReadAction(new Runnable(){
         public void run() {
@@ -353,20 +387,24 @@ public class AnalysisScope {
     return indicator == null || !indicator.isCanceled();
   }
 
-  protected void accept(@NotNull final PsiDirectory dir, @NotNull final PsiElementVisitor visitor, final boolean needReadAction) {
+  protected void accept(@NotNull final PsiDirectory dir,
+                        @NotNull final PsiElementVisitor visitor,
+                        final boolean needReadAction,
+                        final boolean parseAhead) {
     final Project project = dir.getProject();
-    final PsiManager psiManager = PsiManager.getInstance(project);
     final ProjectFileIndex index = ProjectRootManager.getInstance(project).getFileIndex();
+    final List<VirtualFile> files = new ArrayList<VirtualFile>();
     FileIndexImplUtil.iterateRecursively(dir.getVirtualFile(), VirtualFileFilter.ALL, new ContentIterator() {
       @SuppressWarnings({"SimplifiableIfStatement"})
       public boolean processFile(final VirtualFile fileOrDir) {
         if (!myIncludeTestSource && index.isInTestSourceContent(fileOrDir)) return true;
         if (!fileOrDir.isDirectory()) {
-          return AnalysisScope.processFile(fileOrDir, visitor, psiManager, needReadAction);
+          files.add(fileOrDir);
         }
         return true;
       }
     });
+    processFiles(files, visitor, PsiManager.getInstance(project), needReadAction, parseAhead);
   }
 
   public boolean isValid() {
@@ -494,16 +532,6 @@ public class AnalysisScope {
   }
 
   
-  private static PsiFile getPsiFileInReadAction(final PsiManager psiManager, final VirtualFile file) {
-    return ApplicationManager.getApplication().runReadAction(new Computable<PsiFile>() {
-      @Nullable
-      public PsiFile compute() {
-        final PsiFile psiFile = psiManager.findFile(file);
-        return psiFile != null && psiFile.isValid() ? psiFile : null;
-      }
-    });
-  }
-
   protected static void processDirectories(final PsiDirectory[] psiDirectories,
                                          final Set<String> result,
                                          final ProjectProfileManager profileManager) {
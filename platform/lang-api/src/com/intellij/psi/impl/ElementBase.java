@@ -26,6 +26,7 @@ import com.intellij.openapi.project.IndexNotReadyException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.IconLoader;
 import com.intellij.openapi.util.Iconable;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.UserDataHolderBase;
 import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -48,7 +49,8 @@ public abstract class ElementBase extends UserDataHolderBase implements Iconable
   private static final Logger LOG = Logger.getInstance("#com.intellij.psi.impl.ElementBase");
 
   public static final int FLAGS_LOCKED = 0x800;
-  private TIntObjectHashMap<Icon> myBaseIcon;
+  // kept in the user data rather than in a field, as every AST node including the leaves is an ElementBase, but few of them have icons
+  private static final Key<TIntObjectHashMap<Icon>> BASE_ICONS_KEY = Key.create("BASE_ICONS_KEY");
 
   private static final Icon VISIBILITY_ICON_PLACHOLDER = new EmptyIcon(Icons.PUBLIC_ICON);
   public static final Icon ICON_PLACHOLDER = IconLoader.getIcon("/nodes/nodePlaceholder.png");
@@ -79,13 +81,16 @@ public abstract class ElementBase extends UserDataHolderBase implements Iconable
     PsiElement psiElement = (PsiElement)this;
     Icon baseIcon = LastComputedIcon.get(psiElement, flags);
     if (baseIcon == null) {
-      if (myBaseIcon == null) {
-        myBaseIcon = new TIntObjectHashMap<Icon>(3);
+      TIntObjectHashMap<Icon> baseIcons = getUserData(BASE_ICONS_KEY);
+      if (baseIcons == null) {
+        baseIcons = putUserDataIfAbsent(BASE_ICONS_KEY, new TIntObjectHashMap<Icon>(3));
       }
-      if (!myBaseIcon.containsKey(flags)) {
-        myBaseIcon.put(flags, computeBaseIcon(flags));
+      synchronized (baseIcons) {
+        if (!baseIcons.containsKey(flags)) {
+          baseIcons.put(flags, computeBaseIcon(flags));
+        }
+        baseIcon = baseIcons.get(flags);
       }
-      baseIcon = myBaseIcon.get(flags);
     }
 
     final Project project = psiElement.getProject();
@@ -105,12 +105,12 @@ public class LightStubBuilder implements StubBuilder {
         parent = element;
         element = (children = kids).get(childNumber = 0);
         parentStub = stub;
-        if (!skipChildProcessingWhenBuildingStubs(parent.getTokenType(), element.getTokenType())) continue nextElement;
+        if (!skipChildProcessingWhenBuildingStubs(tree, parent, element)) continue nextElement;
       }
 
       while (children != null && ++childNumber < children.size()) {
         element = children.get(childNumber);
-        if (!skipChildProcessingWhenBuildingStubs(parent.getTokenType(), element.getTokenType())) continue nextElement;
+        if (!skipChildProcessingWhenBuildingStubs(tree, parent, element)) continue nextElement;
       }
 
       element = null;
@@ -121,7 +121,7 @@ public class LightStubBuilder implements StubBuilder {
         parentStub = parentStubs.pop();
         while (++childNumber < children.size()) {
           element = children.get(childNumber);
-          if (!skipChildProcessingWhenBuildingStubs(parent.getTokenType(), element.getTokenType())) continue nextElement;
+          if (!skipChildProcessingWhenBuildingStubs(tree, parent, element)) continue nextElement;
         }
         element = null;
       }
@@ -151,6 +151,14 @@ public class LightStubBuilder implements StubBuilder {
     return false;
   }
 
+  /**
+   * Same as {@link #skipChildProcessingWhenBuildingStubs(IElementType, IElementType)}, but may look at the text of the child,
+   * e.g. to avoid parsing a lazy-parseable child which can't contain stubs.
+   */
+  protected boolean skipChildProcessingWhenBuildingStubs(final LighterAST tree, final LighterASTNode parent, final LighterASTNode node) {
+    return skipChildProcessingWhenBuildingStubs(parent.getTokenType(), node.getTokenType());
+  }
+
 
   private static class FCTSBackedLighterAST extends LighterAST {
     private final FlyweightCapableTreeStructure<LighterASTNode> myTreeStructure;
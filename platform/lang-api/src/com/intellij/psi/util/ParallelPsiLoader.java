@@ -0,0 +1,185 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.util;
+
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiBinaryFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.util.Function;
+import com.intellij.util.Processor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Feeds the files to a processor one by one on the calling thread, while the pooled threads find and parse the next few files
+ * under their own read actions.
+ * <p/>
+ * The processor never waits for the loaders: a file which isn't loaded yet is found on the calling thread, so it's safe to call
+ * from within a read action. The loaders stay at most {@link #LOOKAHEAD} files ahead and stop when the heap is getting full.
+ */
+public class ParallelPsiLoader<T> {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.psi.util.ParallelPsiLoader");
+  private static final int LOADERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+  private static final int LOOKAHEAD = LOADERS * 4;
+
+  // put into the slot of a file taken by the processing thread, so a loader finishing late doesn't keep the file referenced
+  private static final Object TAKEN = new Object();
+
+  private final AtomicReferenceArray<T> myItems;
+  private final AtomicReferenceArray<Object> myLoaded;
+  private final Function<T, PsiFile> myFinder;
+  private int myNextToLoad; // guarded by this
+  private volatile int myProcessed;
+  private volatile boolean myDone;
+
+  private ParallelPsiLoader(@NotNull Collection<? extends T> items, @NotNull Function<T, PsiFile> finder) {
+    myItems = new AtomicReferenceArray<T>((T[])items.toArray());
+    myLoaded = new AtomicReferenceArray<Object>(items.size());
+    myFinder = finder;
+  }
+
+  /**
+   * @return false if the processor returned false
+   */
+  public static boolean processFiles(@NotNull final PsiManager manager,
+                                     @NotNull Collection<VirtualFile> files,
+                                     @NotNull Processor<PsiFile> processor) {
+    return new ParallelPsiLoader<VirtualFile>(files, new Function<VirtualFile, PsiFile>() {
+      public PsiFile fun(VirtualFile file) {
+        if (!file.isValid()) return null;
+        final PsiFile psiFile = manager.findFile(file);
+        return psiFile != null && psiFile.isValid() ? psiFile : null;
+      }
+    }).process(processor);
+  }
+
+  /**
+   * Unlike {@link #processFiles(PsiManager, Collection, Processor)}, passes every file to the processor, even an invalid one.
+   * @return false if the processor returned false
+   */
+  public static boolean processPsiFiles(@NotNull Collection<? extends PsiFile> files, @NotNull Processor<PsiFile> processor) {
+    return new ParallelPsiLoader<PsiFile>(files, Function.ID).process(processor);
+  }
+
+  private boolean process(@NotNull Processor<PsiFile> processor) {
+    final int size = myItems.length();
+    if (size > 1) {
+      final Application application = ApplicationManager.getApplication();
+      for (int i = 0; i < Math.min(LOADERS, size - 1); i++) {
+        application.executeOnPooledThread(new Runnable() {
+          public void run() {
+            runLoader();
+          }
+        });
+      }
+    }
+
+    try {
+      for (int i = 0; i < size; i++) {
+        final Object loaded = myLoaded.getAndSet(i, TAKEN);
+        final PsiFile file = loaded != null ? (PsiFile)loaded : find(myItems.get(i));
+        myItems.set(i, null);
+
+        if (file != null && !processor.process(file)) return false;
+
+        synchronized (this) {
+          myProcessed = i + 1;
+          notifyAll();
+        }
+      }
+      return true;
+    }
+    finally {
+      synchronized (this) {
+        myDone = true;
+        notifyAll();
+      }
+    }
+  }
+
+  private void runLoader() {
+    while (true) {
+      final int index;
+      synchronized (this) {
+        while (!myDone && myNextToLoad >= myProcessed + LOOKAHEAD) {
+          try {
+            wait();
+          }
+          catch (InterruptedException e) {
+            return;
+          }
+        }
+        myNextToLoad = Math.max(myNextToLoad, myProcessed);
+        if (myDone || myNextToLoad >= myItems.length() || isMemoryLow()) return;
+        index = myNextToLoad++;
+      }
+
+      try {
+        final PsiFile file = load(myItems.get(index));
+        if (file != null) {
+          myLoaded.compareAndSet(index, null, file);
+        }
+      }
+      catch (ProcessCanceledException ignored) {
+      }
+      catch (RuntimeException e) {
+        // the file will be loaded on the processing thread again, which reports the error if it repeats
+        LOG.debug(e);
+      }
+    }
+  }
+
+  @Nullable
+  private PsiFile find(@Nullable final T item) {
+    if (item == null) return null;
+    return ApplicationManager.getApplication().runReadAction(new Computable<PsiFile>() {
+      public PsiFile compute() {
+        return myFinder.fun(item);
+      }
+    });
+  }
+
+  @Nullable
+  private PsiFile load(@Nullable T item) {
+    final PsiFile file = myDone ? null : find(item);
+    if (file == null || file instanceof PsiBinaryFile || file.getFileType().isBinary()) return file;
+
+    file.getViewProvider().getContents(); // load contents outside read action
+    ApplicationManager.getApplication().runReadAction(new Runnable() {
+      public void run() {
+        if (!myDone && file.isValid()) {
+          file.getNode();
+        }
+      }
+    });
+    return file;
+  }
+
+  private static boolean isMemoryLow() {
+    final Runtime runtime = Runtime.getRuntime();
+    final long used = runtime.totalMemory() - runtime.freeMemory();
+    return runtime.maxMemory() - used < runtime.maxMemory() / 4;
+  }
+}
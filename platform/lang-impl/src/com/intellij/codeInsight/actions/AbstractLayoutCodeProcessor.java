@@ -38,7 +38,9 @@ import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.ui.ex.MessagesEx;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
+import com.intellij.psi.util.ParallelPsiLoader;
 import com.intellij.util.IncorrectOperationException;
+import com.intellij.util.Processor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -193,8 +195,8 @@ public abstract class AbstractLayoutCodeProcessor {
   }
 
   @Nullable
-  private Runnable preprocessFiles(List<PsiFile> files) {
-    ProgressIndicator progress = ProgressManager.getInstance().getProgressIndicator();
+  private Runnable preprocessFiles(final List<PsiFile> files) {
+    final ProgressIndicator progress = ProgressManager.getInstance().getProgressIndicator();
     String oldText = null;
     double oldFraction = 0;
     if (progress != null){
@@ -203,23 +205,31 @@ public abstract class AbstractLayoutCodeProcessor {
       progress.setText(myProgressText);
     }
 
-    final Runnable[] runnables = new Runnable[files.size()];
-    for(int i = 0; i < files.size(); i++) {
-      PsiFile file = files.get(i);
-      if (progress != null){
-        if (progress.isCanceled()) return null;
-        progress.setFraction((double)i / files.size());
-      }
-      if (file.isWritable()){
-        try{
-          runnables[i] = preprocessFile(file);
+    final int size = files.size();
+    final Runnable[] runnables = new Runnable[size];
+    // the files are parsed ahead on the pooled threads
+    final boolean completed = ParallelPsiLoader.processPsiFiles(files, new Processor<PsiFile>() {
+      private int myIndex;
+
+      public boolean process(PsiFile file) {
+        final int i = myIndex++;
+        if (progress != null){
+          if (progress.isCanceled()) return false;
+          progress.setFraction((double)i / size);
         }
-        catch(IncorrectOperationException e){
-          LOG.error(e);
+        if (file.isWritable()){
+          try{
+            runnables[i] = preprocessFile(file);
+          }
+          catch(IncorrectOperationException e){
+            LOG.error(e);
+          }
         }
+        files.set(i, null);
+        return true;
       }
-      files.set(i, null);
-    }
+    });
+    if (!completed) return null;
 
     if (progress != null){
       progress.setText(oldText);
@@ -194,7 +194,7 @@ public class DaemonCodeAnalyzerImpl extends DaemonCodeAnalyzer implements JDOMEx
 
     final DaemonProgressIndicator progress = createUpdateProgress();
     progress.setDebug(true);
-    myPassExecutorService.submitPasses(Collections.singletonMap((FileEditor)textEditor, array), progress, Job.DEFAULT_PRIORITY);
+    myPassExecutorService.submitPasses(Collections.singletonMap((FileEditor)textEditor, array), progress, Job.HIGHLIGHTING_PRIORITY);
     try {
       while (progress.isRunning()) {
         try {
@@ -680,7 +680,7 @@ public class DaemonCodeAnalyzerImpl extends DaemonCodeAnalyzer implements JDOMEx
         cancelUpdateProgress(true, "Cancel by alarm");
         myAlarm.cancelAllRequests();
         DaemonProgressIndicator progress = createUpdateProgress();
-        myPassExecutorService.submitPasses(passes, progress, Job.DEFAULT_PRIORITY);
+        myPassExecutorService.submitPasses(passes, progress, Job.HIGHLIGHTING_PRIORITY);
       }
     };
   }
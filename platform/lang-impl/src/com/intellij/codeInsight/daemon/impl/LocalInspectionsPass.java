@@ -44,6 +44,7 @@ import com.intellij.openapi.keymap.KeymapUtil;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
 import com.intellij.openapi.project.DumbAware;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.util.Pair;
@@ -137,15 +138,23 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
     result.clear();
   }
 
-  public void doInspectInBatch(final InspectionManagerEx iManager, List<InspectionProfileEntry> toolWrappers, boolean ignoreSuppressed) {
+  /**
+   * Called outside of a read action, gives way to write actions: the inspections are interrupted and run again once they are over.
+   */
+  public void doInspectInBatch(final InspectionManagerEx iManager, List<InspectionProfileEntry> toolWrappers, final boolean ignoreSuppressed) {
     Map<LocalInspectionTool, LocalInspectionToolWrapper> tool2Wrapper = new THashMap<LocalInspectionTool, LocalInspectionToolWrapper>(toolWrappers.size());
     for (InspectionProfileEntry toolWrapper : toolWrappers) {
       tool2Wrapper.put(((LocalInspectionToolWrapper)toolWrapper).getTool(), (LocalInspectionToolWrapper)toolWrapper);
     }
-    List<LocalInspectionTool> tools = new ArrayList<LocalInspectionTool>(tool2Wrapper.keySet());
+    final List<LocalInspectionTool> tools = new ArrayList<LocalInspectionTool>(tool2Wrapper.keySet());
 
-    ProgressIndicator progress = ProgressManager.getInstance().getProgressIndicator();
-    inspect(tools, iManager, false, ignoreSuppressed, false, progress);
+    ProgressIndicatorUtils.runWithWriteActionPriority(new Runnable() {
+      public void run() {
+        // the problems found before the interruption may be outdated
+        disposeDescriptors();
+        inspect(tools, iManager, false, ignoreSuppressed, false, ProgressManager.getInstance().getProgressIndicator());
+      }
+    }, ProgressManager.getInstance().getProgressIndicator());
     addDescriptorsFromInjectedResults(tool2Wrapper, iManager);
     List<InspectionResult> resultList = result.get(myFile);
     if (resultList == null) return;
@@ -428,7 +428,7 @@ public abstract class PassExecutorService implements Disposable {
             ShowIntentionsPass ip = new ShowIntentionsPass(myProject, editor, -1);
             ip.setId(nextPassId.incrementAndGet());
             threadsToStartCountdown.incrementAndGet();
-            submit(new ScheduledPass(fileEditors, ip, updateProgress, threadsToStartCountdown, Job.DEFAULT_PRIORITY));
+            submit(new ScheduledPass(fileEditors, ip, updateProgress, threadsToStartCountdown, Job.HIGHLIGHTING_PRIORITY));
           }
         }
       }
@@ -99,7 +99,7 @@ public class ProjectViewProjectNode extends AbstractProjectNode {
 
     Collections.sort(roots, new java.util.Comparator<VirtualFile>() {
       public int compare(VirtualFile o1, VirtualFile o2) {
-        return o1.getPath().compareTo(o2.getPath());
+        return VfsUtil.comparePaths(o1, o2);
       }
     });
 
@@ -755,7 +755,7 @@ public class StructureViewComponent extends SimpleToolWindowPanel implements Tre
       long currentStamp;
       if (( o instanceof PsiElement &&
             ((PsiElement)o).getNode() instanceof CompositeElement &&
-            childrenStamp != (currentStamp = ((CompositeElement)((PsiElement)o).getNode()).getModificationCount())
+            childrenStamp != (currentStamp = ((PsiElement)o).getManager().getModificationTracker().getModificationCount())
           ) ||
           ( o instanceof ModificationTracker &&
             childrenStamp != (currentStamp = ((ModificationTracker)o).getModificationCount())
@@ -19,6 +19,7 @@ import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.impl.FilePropertyPusher;
 import com.intellij.openapi.roots.impl.PushedFilePropertiesUpdater;
+import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
 import com.intellij.util.FileContentUtil;
@@ -154,7 +155,7 @@ public abstract class LanguagePerFileMappings<T> implements PersistentStateCompo
       Collections.sort(files, new Comparator<VirtualFile>() {
         public int compare(final VirtualFile o1, final VirtualFile o2) {
           if (o1 == null || o2 == null) return o1 == null ? o2 == null ? 0 : 1 : -1;
-          return o1.getPath().compareTo(o2.getPath());
+          return VfsUtil.comparePaths(o1, o2);
         }
       });
       for (VirtualFile file : files) {
@@ -18,11 +18,13 @@ package com.intellij.lang.impl;
 
 import com.intellij.lang.*;
 import com.intellij.lexer.Lexer;
+import com.intellij.lexer.RestartableLexer;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.util.UserDataHolder;
 import com.intellij.openapi.util.UserDataHolderBase;
 import com.intellij.pom.PomManager;
 import com.intellij.pom.PomModel;
@@ -40,6 +42,7 @@ import com.intellij.psi.impl.source.text.ASTDiffBuilder;
 import com.intellij.psi.impl.source.tree.*;
 import com.intellij.psi.text.BlockSupport;
 import com.intellij.psi.tree.*;
+import com.intellij.reference.SoftReference;
 import com.intellij.util.CharTable;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.ThreeState;
@@ -60,6 +63,8 @@ import org.jetbrains.annotations.TestOnly;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 
@@ -73,14 +78,22 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
   public static final Key<TripleFunction<ASTNode, LighterASTNode, FlyweightCapableTreeStructure<LighterASTNode>, ThreeState>>
     CUSTOM_COMPARATOR = Key.create("CUSTOM_COMPARATOR");
 
+  private static final boolean RELEX_INCREMENTALLY = !"false".equals(System.getProperty("idea.relex.incrementally"));
+  private static final Key<SoftReference<LexemeCache>> LEXEME_CACHE = Key.create("LEXEME_CACHE");
+
   private final Project myProject;
   private PsiFile myFile;
 
   private int[] myLexStarts;
   private IElementType[] myLexTypes;
+  private int myInitialState;
+  // the lexemes at which the lexer is in the initial state, only collected for the lexeme cache
+  private BitSet myInitialStateLexemes;
   private int myCurrentLexeme;
 
-  private final MyList myProduction = new MyList();
+  // the builder must be used in the thread which created it, see ReusableBuffers
+  private final ReusableBuffers myBuffers = ourBuffers.get();
+  private final MyList myProduction = myBuffers.takeProduction();
 
   private final Lexer myLexer;
   private final TokenSet myWhitespaces;
@@ -103,25 +116,70 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
 
   private Map<Key, Object> myUserData = null;
 
-  private final LimitedPool<StartMarker> START_MARKERS = new LimitedPool<StartMarker>(2000, new LimitedPool.ObjectFactory<StartMarker>() {
-    public StartMarker create() {
-      return new StartMarker();
+  private static final ThreadLocal<ReusableBuffers> ourBuffers = new ThreadLocal<ReusableBuffers>() {
+    @Override
+    protected ReusableBuffers initialValue() {
+      return new ReusableBuffers();
     }
+  };
+
+  // larger arrays aren't kept, as every thread which has ever parsed something holds its buffers
+  private static final int MAX_REUSED_LEXEMES = 1 << 15;
+
+  /**
+   * The lexeme arrays, the production list and the markers of the builders which have built their trees,
+   * reused by the next builders in the same thread instead of allocating them for every parse.
+   * <p/>
+   * The pools aren't synchronized: a builder takes the buffers of the thread which creates it, so it must only be used in that
+   * thread. The markers of a builder go back to the pools once its tree is built, so they mustn't be used after that.
+   */
+  private static class ReusableBuffers {
+    private final Thread myOwner = Thread.currentThread();
+    private int[] myLexStarts;
+    private IElementType[] myLexTypes;
+    private MyList myProduction;
+
+    private final LimitedPool<StartMarker> myStartMarkers = new LimitedPool<StartMarker>(2000, new LimitedPool.ObjectFactory<StartMarker>() {
+      public StartMarker create() {
+        return new StartMarker();
+      }
+
+      public void cleanup(final StartMarker startMarker) {
+        startMarker.clean();
+      }
+    });
+
+    private final LimitedPool<DoneMarker> myDoneMarkers = new LimitedPool<DoneMarker>(2000, new LimitedPool.ObjectFactory<DoneMarker>() {
+      public DoneMarker create() {
+        return new DoneMarker();
+      }
+
+      public void cleanup(final DoneMarker doneMarker) {
+        doneMarker.clean();
+      }
+    });
 
-    public void cleanup(final StartMarker startMarker) {
-      startMarker.clean();
+    @NotNull
+    private MyList takeProduction() {
+      final MyList production = myProduction;
+      if (production == null) return new MyList();
+      myProduction = null;
+      return production;
     }
-  });
 
-  private final LimitedPool<DoneMarker> DONE_MARKERS = new LimitedPool<DoneMarker>(2000, new LimitedPool.ObjectFactory<DoneMarker>() {
-    public DoneMarker create() {
-      return new DoneMarker();
+    private void releaseProduction(@NotNull MyList production) {
+      if (production.size() > MAX_REUSED_LEXEMES) return;
+      production.clear();
+      myProduction = production;
     }
 
-    public void cleanup(final DoneMarker doneMarker) {
-      doneMarker.clean();
+    private void releaseLexemes(@NotNull int[] starts, @NotNull IElementType[] types) {
+      if (types.length > MAX_REUSED_LEXEMES) return;
+      if (myLexTypes != null && myLexTypes.length >= types.length) return;
+      myLexStarts = starts;
+      myLexTypes = types;
     }
-  });
+  }
 
   private static final WhitespacesAndCommentsBinder DEFAULT_LEFT_EDGE_TOKEN_BINDER = new WhitespacesAndCommentsBinder() {
     public int getEdgePosition(final List<IElementType> tokens, final boolean atStreamEdge, final TokenTextGetter getter) {
@@ -163,7 +221,7 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
     myCharTable = SharedImplUtil.findCharTableByTree(chameleon);
     myOriginalTree = chameleon.getUserData(BlockSupport.TREE_TO_BE_REPARSED);
 
-    cacheLexemes();
+    cacheLexemes(getLexemeCacheHolder(chameleon, myOriginalTree, myFile), null);
   }
 
   public PsiBuilderImpl(@NotNull final Project project,
@@ -186,7 +244,7 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
     myCharTable = chameleon.getCharTable();
     myParentLightTree = ((LazyParseableToken)chameleon).myParent;
 
-    cacheLexemes();
+    cacheLexemes(null, null);
   }
 
   @TestOnly
@@ -194,6 +252,20 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
                         @NotNull final TokenSet whitespaces,
                         @NotNull final TokenSet comments,
                         @NotNull final CharSequence text) {
+    this(lexer, whitespaces, comments, text, null, null);
+  }
+
+  /**
+   * @param lexemeCacheHolder keeps the lexemes of the text, so that the next builder with the same holder relexes only the changed part
+   * @param cachedText the text of the previous builder with the same holder
+   */
+  @TestOnly
+  public PsiBuilderImpl(@NotNull final Lexer lexer,
+                        @NotNull final TokenSet whitespaces,
+                        @NotNull final TokenSet comments,
+                        @NotNull final CharSequence text,
+                        @Nullable final UserDataHolder lexemeCacheHolder,
+                        @Nullable final CharSequence cachedText) {
     myProject = null;
 
     myText = text;
@@ -204,7 +276,7 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
 
     myCharTable = null;
 
-    cacheLexemes();
+    cacheLexemes(lexemeCacheHolder, cachedText);
   }
 
   @TestOnly
@@ -214,11 +286,77 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
     myCharTable = SharedImplUtil.findCharTableByTree(originalTree);
   }
 
-  private void cacheLexemes() {
+  /**
+   * The lexemes of a whole file are kept on its file element, which survives the reparse as the tree is merged into it.
+   * Only physical files are reparsed on every change, the others (e.g. the ones being indexed) don't need the cache.
+   * The new text of a physical file is parsed in a non-physical copy, so it's the file being reparsed which is checked.
+   */
+  @Nullable
+  private static UserDataHolder getLexemeCacheHolder(@NotNull ASTNode chameleon, @Nullable ASTNode originalTree, @Nullable PsiFile file) {
+    if (!RELEX_INCREMENTALLY) return null;
+    if (originalTree != null) {
+      // merged into the original tree, see BlockSupportImpl.mergeTrees()
+      if (!(originalTree instanceof FileElement)) return null;
+      final PsiFile originalFile = SharedImplUtil.getContainingFile(originalTree);
+      return originalFile != null && originalFile.isPhysical() ? originalTree : null;
+    }
+    if (!(chameleon instanceof FileElement) || file == null) return null;
+    if (file.isPhysical()) return chameleon;
+
+    // a copy which replaces the original tree or is diffed against it
+    final PsiFile originalFile = file.getOriginalFile();
+    if (originalFile != file && originalFile.isPhysical() && originalFile instanceof PsiFileImpl) {
+      return ((PsiFileImpl)originalFile).getTreeElement();
+    }
+    return null;
+  }
+
+  /**
+   * @param cachedText the text the lexemes kept in the holder were taken from, by default the text of the holder node
+   */
+  private void cacheLexemes(@Nullable UserDataHolder lexemeCacheHolder, @Nullable CharSequence cachedText) {
+    // the lexer may keep a part of its state outside of getState(), so it can't be restarted in the middle of the text
+    if (lexemeCacheHolder == null || !(myLexer instanceof RestartableLexer)) {
+      lexAll();
+      return;
+    }
+
+    final SoftReference<LexemeCache> ref = lexemeCacheHolder.getUserData(LEXEME_CACHE);
+    final LexemeCache cache = ref == null ? null : ref.get();
+    myInitialStateLexemes = new BitSet();
+    int reused = -1;
+    if (cache != null && cache.myLexerClass == myLexer.getClass()) {
+      if (cachedText == null && lexemeCacheHolder instanceof ASTNode) {
+        cachedText = ((ASTNode)lexemeCacheHolder).getChars();
+      }
+      // the tree may have been changed after it was parsed, e.g. by a refactoring
+      if (cachedText != null && cache.isTakenFrom(cachedText)) {
+        reused = relexChangedRange(cache, cachedText);
+      }
+    }
+    if (reused < 0) {
+      lexAll();
+      reused = 0;
+    }
+
+    lexemeCacheHolder.putUserData(LEXEME_CACHE, new SoftReference<LexemeCache>(new LexemeCache(this, reused)));
+    myInitialStateLexemes = null;
+  }
+
+  /**
+   * @return number of the lexemes the last builder with the holder has taken from the previous one instead of lexing them again
+   */
+  @TestOnly
+  public static int getReusedLexemeCount(@NotNull UserDataHolder lexemeCacheHolder) {
+    final SoftReference<LexemeCache> ref = lexemeCacheHolder.getUserData(LEXEME_CACHE);
+    final LexemeCache cache = ref == null ? null : ref.get();
+    return cache == null ? 0 : cache.myReusedCount;
+  }
+
+  private void lexAll() {
     int approxLexCount = Math.max(10, myText.length() / 5);
 
-    myLexStarts = new int[approxLexCount];
-    myLexTypes = new IElementType[approxLexCount];
+    allocateLexemes(approxLexCount);
 
     myLexer.start(myText);
     int i = 0;
@@ -226,11 +364,7 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
       IElementType type = myLexer.getTokenType();
       if (type == null) break;
 
-      if (i >= myLexTypes.length - 1) {
-        resizeLexemes(i * 3 / 2);
-      }
-      myLexStarts[i] = myLexer.getTokenStart();
-      myLexTypes[i] = type;
+      addLexeme(i, type);
       i++;
       myLexer.advance();
     }
@@ -240,6 +374,156 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
     myLexemeCount = i;
   }
 
+  private void allocateLexemes(int approxLexCount) {
+    final IElementType[] types = myBuffers.myLexTypes;
+    if (types != null && types.length >= approxLexCount) {
+      myLexStarts = myBuffers.myLexStarts;
+      myLexTypes = types;
+      myBuffers.myLexStarts = null;
+      myBuffers.myLexTypes = null;
+    }
+    else {
+      myLexStarts = new int[approxLexCount + 1];
+      myLexTypes = new IElementType[approxLexCount];
+    }
+  }
+
+  private void addLexeme(int i, IElementType type) {
+    if (i >= myLexTypes.length - 1) {
+      resizeLexemes(i * 3 / 2);
+    }
+    myLexStarts[i] = myLexer.getTokenStart();
+    myLexTypes[i] = type;
+    if (myInitialStateLexemes != null) {
+      final int state = myLexer.getState();
+      if (i == 0) myInitialState = state;
+      if (state == myInitialState) myInitialStateLexemes.set(i);
+    }
+  }
+
+  /**
+   * Reuses the lexemes of the previous text before and after the changed range, the same way the editor highlighter does:
+   * the lexer restarts from a lexeme in the initial state a couple of lexemes before the change and stops as soon as it's back
+   * in the initial state at a lexeme which starts after the change in both texts.
+   *
+   * @return number of the reused lexemes, or -1 if the text hasn't changed, so there's no way to tell what else has
+   */
+  private int relexChangedRange(@NotNull LexemeCache cache, @NotNull CharSequence oldText) {
+    final int oldCount = cache.myCount;
+    final int oldLength = oldText.length();
+    final int newLength = myText.length();
+    if (oldCount == 0) return -1;
+
+    final int minLength = Math.min(oldLength, newLength);
+    int prefix = 0;
+    while (prefix < minLength && oldText.charAt(prefix) == myText.charAt(prefix)) prefix++;
+    if (prefix == oldLength && oldLength == newLength) return -1;
+    int suffix = 0;
+    while (suffix < minLength - prefix && oldText.charAt(oldLength - suffix - 1) == myText.charAt(newLength - suffix - 1)) suffix++;
+
+    final int newChangeEnd = newLength - suffix;
+    final int shift = newLength - oldLength;
+    final int initialState = cache.myInitialState;
+
+    int restart = Math.max(0, cache.findLexeme(prefix) - 2);
+    while (restart > 0 && !cache.myInitialStateLexemes.get(restart)) restart--;
+
+    final int approxLexCount = Math.max(10, oldCount + Math.max(0, shift) / 5 + 1);
+    allocateLexemes(approxLexCount);
+    System.arraycopy(cache.myStarts, 0, myLexStarts, 0, restart);
+    System.arraycopy(cache.myTypes, 0, myLexTypes, 0, restart);
+    myInitialState = initialState;
+    myInitialStateLexemes = cache.myInitialStateLexemes.get(0, restart);
+    int reused = restart;
+
+    myLexer.start(myText, cache.myStarts[restart], newLength, initialState);
+    int i = restart;
+    while (true) {
+      IElementType type = myLexer.getTokenType();
+      if (type == null) break;
+
+      final int start = myLexer.getTokenStart();
+      if (start >= newChangeEnd && myLexer.getState() == initialState) {
+        final int oldIndex = cache.findLexeme(start - shift);
+        if (cache.myStarts[oldIndex] == start - shift && cache.myTypes[oldIndex] == type && cache.myInitialStateLexemes.get(oldIndex)) {
+          final int tail = oldCount - oldIndex;
+          if (i + tail >= myLexTypes.length) {
+            resizeLexemes(i + tail + 1);
+          }
+          for (int j = 0; j < tail; j++) {
+            myLexStarts[i + j] = cache.myStarts[oldIndex + j] + shift;
+          }
+          System.arraycopy(cache.myTypes, oldIndex, myLexTypes, i, tail);
+          for (int j = cache.myInitialStateLexemes.nextSetBit(oldIndex); j >= 0; j = cache.myInitialStateLexemes.nextSetBit(j + 1)) {
+            myInitialStateLexemes.set(i + j - oldIndex);
+          }
+          i += tail;
+          reused += tail;
+          break;
+        }
+      }
+
+      addLexeme(i, type);
+      i++;
+      myLexer.advance();
+    }
+
+    myLexStarts[i] = newLength;
+
+    myLexemeCount = i;
+    return reused;
+  }
+
+  /**
+   * Immutable copy of the lexemes, as the builder remaps their types while parsing. Instead of the text it was taken from
+   * it keeps a hash of it: the text is taken from the tree of the file when it's reparsed.
+   */
+  private static class LexemeCache {
+    private final Class myLexerClass;
+    private final int myTextLength;
+    private final long myTextHash;
+    private final int myCount;
+    private final int[] myStarts;
+    private final IElementType[] myTypes;
+    private final int myInitialState;
+    private final BitSet myInitialStateLexemes;
+    private final int myReusedCount;
+
+    private LexemeCache(@NotNull PsiBuilderImpl builder, int reusedCount) {
+      myLexerClass = builder.myLexer.getClass();
+      myTextLength = builder.myText.length();
+      myTextHash = hash(builder.myText);
+      myCount = builder.myLexemeCount;
+      myStarts = Arrays.copyOf(builder.myLexStarts, myCount + 1);
+      myTypes = Arrays.copyOf(builder.myLexTypes, myCount);
+      myInitialState = builder.myInitialState;
+      myInitialStateLexemes = builder.myInitialStateLexemes;
+      myReusedCount = reusedCount;
+    }
+
+    private boolean isTakenFrom(@NotNull CharSequence text) {
+      return text.length() == myTextLength && hash(text) == myTextHash;
+    }
+
+    private static long hash(@NotNull CharSequence text) {
+      long hash = 0xcbf29ce484222325L;
+      for (int i = 0; i < text.length(); i++) {
+        hash ^= text.charAt(i);
+        hash *= 0x100000001b3L;
+      }
+      return hash;
+    }
+
+    /**
+     * @return index of the lexeme containing the offset, or the last one
+     */
+    private int findLexeme(int offset) {
+      int index = Arrays.binarySearch(myStarts, 0, myCount, offset);
+      if (index < 0) index = -index - 2;
+      return Math.max(0, Math.min(index, myCount - 1));
+    }
+  }
+
   public Project getProject() {
     return myProject;
   }
@@ -525,6 +809,7 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
     public void clean() {
       super.clean();
       myStart = null;
+      myCollapse = false;
       myEdgeTokenBinder = DEFAULT_RIGHT_EDGE_TOKEN_BINDER;
     }
 
@@ -717,7 +1002,8 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
   }
 
   private StartMarker createMarker(final int lexemeIndex) {
-    StartMarker marker = START_MARKERS.alloc();
+    assert Thread.currentThread() == myBuffers.myOwner : "The builder is used outside of the thread which has created it";
+    StartMarker marker = myBuffers.myStartMarkers.alloc();
     marker.myLexemeIndex = lexemeIndex;
     marker.myBuilder = this;
 
@@ -746,7 +1032,7 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
       LOG.error("The marker must be added before rolled back to.");
     }
     myProduction.removeRange(idx, myProduction.size());
-    START_MARKERS.recycle((StartMarker)marker);
+    myBuffers.myStartMarkers.recycle((StartMarker)marker);
   }
 
   @SuppressWarnings({"SuspiciousMethodCalls"})
@@ -755,7 +1041,7 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
     if (!removed) {
       LOG.error("The marker must be added before it is dropped.");
     }
-    START_MARKERS.recycle((StartMarker)marker);
+    myBuffers.myStartMarkers.recycle((StartMarker)marker);
   }
 
   public void error(Marker marker, String message) {
@@ -786,7 +1072,7 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
   public void done(final Marker marker) {
     doValidityChecks(marker, null);
 
-    DoneMarker doneMarker = DONE_MARKERS.alloc();
+    DoneMarker doneMarker = myBuffers.myDoneMarkers.alloc();
     doneMarker.myStart = (StartMarker)marker;
     doneMarker.myLexemeIndex = myCurrentLexeme;
     boolean tieToTheLeft = doneMarker.myStart.myType.isLeftBound() &&
@@ -803,7 +1089,7 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
 
     int beforeIndex = myProduction.lastIndexOf(before);
 
-    DoneMarker doneMarker = DONE_MARKERS.alloc();
+    DoneMarker doneMarker = myBuffers.myDoneMarkers.alloc();
     doneMarker.myLexemeIndex = ((StartMarker)before).myLexemeIndex;
     doneMarker.myStart = (StartMarker)marker;
     boolean tieToTheLeft = doneMarker.myStart.myType.isLeftBound() &&
@@ -881,13 +1167,17 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
       return buildTree();
     }
     finally {
-      for (ProductionMarker marker : myProduction) {
-        if (marker instanceof StartMarker) {
-          START_MARKERS.recycle((StartMarker)marker);
-        }
-        else if (marker instanceof DoneMarker) {
-          DONE_MARKERS.recycle((DoneMarker)marker);
+      if (Thread.currentThread() == myBuffers.myOwner) {
+        for (ProductionMarker marker : myProduction) {
+          if (marker instanceof StartMarker) {
+            myBuffers.myStartMarkers.recycle((StartMarker)marker);
+          }
+          else if (marker instanceof DoneMarker) {
+            myBuffers.myDoneMarkers.recycle((DoneMarker)marker);
+          }
         }
+        myBuffers.releaseProduction(myProduction);
+        myBuffers.releaseLexemes(myLexStarts, myLexTypes);
       }
     }
   }
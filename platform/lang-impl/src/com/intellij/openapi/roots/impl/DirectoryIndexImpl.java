@@ -306,12 +306,13 @@ public class DirectoryIndexImpl extends DirectoryIndex implements ProjectCompone
       DirectoryInfo parentInfo = state.myDirToInfoMap.get(parent);
 
       // fill info for all nested roots
+      final String fileUrl = file.getUrl();
       for (Module eachModule : ModuleManager.getInstance(myProject).getModules()) {
         for (ContentEntry eachRoot : getContentEntries(eachModule)) {
           if (parentInfo != null && eachRoot == parentInfo.contentRoot) continue;
 
-          if (FileUtil.startsWith(eachRoot.getUrl(), file.getUrl())) {
-            String rel = FileUtil.getRelativePath(file.getUrl(), eachRoot.getUrl(), '/');
+          if (FileUtil.startsWith(eachRoot.getUrl(), fileUrl)) {
+            String rel = FileUtil.getRelativePath(fileUrl, eachRoot.getUrl(), '/');
             if (rel != null) {
               VirtualFile f = file.findFileByRelativePath(rel);
               if (f != null) {
@@ -406,8 +407,58 @@ public class DirectoryIndexImpl extends DirectoryIndex implements ProjectCompone
     }
   }
 
+  /**
+   * Exclude root urls hashed by the name of the excluded directory. The exclude check runs for every directory under
+   * the content roots, this way it only compares the url of a directory with the urls ending with its name and doesn't build it.
+   */
+  private static class ExcludeUrls {
+    private final Map<String, List<String>> myUrlsByName = new THashMap<String, List<String>>();
+
+    void add(String url) {
+      final String name = getName(url);
+      List<String> urls = myUrlsByName.get(name);
+      if (urls == null) {
+        urls = new SmartList<String>();
+        myUrlsByName.put(name, urls);
+      }
+      if (!urls.contains(url)) {
+        urls.add(url);
+      }
+    }
+
+    boolean contains(VirtualFile dir) {
+      if (dir.getParent() == null) {
+        // file system roots may be named differently from the last segment of their url
+        for (List<String> urls : myUrlsByName.values()) {
+          if (urls.contains(dir.getUrl())) return true;
+        }
+        return false;
+      }
+
+      final List<String> urls = myUrlsByName.get(dir.getName());
+      if (urls == null) return false;
+      for (String url : urls) {
+        if (dir instanceof NewVirtualFile ? ((NewVirtualFile)dir).isUrlEqualTo(url) : url.equals(dir.getUrl())) return true;
+      }
+      return false;
+    }
+
+    ExcludeUrls copy() {
+      final ExcludeUrls copy = new ExcludeUrls();
+      for (Map.Entry<String, List<String>> entry : myUrlsByName.entrySet()) {
+        copy.myUrlsByName.put(entry.getKey(), new SmartList<String>(entry.getValue()));
+      }
+      return copy;
+    }
+
+    private static String getName(String url) {
+      final int end = url.endsWith("/") ? url.length() - 1 : url.length();
+      return url.substring(url.lastIndexOf('/', end - 1) + 1, end);
+    }
+  }
+
   private class IndexState {
-    final Map<VirtualFile, Set<String>> myExcludeRootsMap = new THashMap<VirtualFile, Set<String>>();
+    final Map<VirtualFile, ExcludeUrls> myExcludeRootsMap = new THashMap<VirtualFile, ExcludeUrls>();
     final Set<VirtualFile> myProjectExcludeRoots = new THashSet<VirtualFile>();
     final Map<VirtualFile, DirectoryInfo> myDirToInfoMap = new THashMap<VirtualFile, DirectoryInfo>();
     final Map<String, List<VirtualFile>> myPackageNameToDirsMap = new THashMap<String, List<VirtualFile>>();
@@ -449,8 +500,8 @@ public class DirectoryIndexImpl extends DirectoryIndex implements ProjectCompone
     }
 
     private boolean isExcluded(VirtualFile root, VirtualFile dir) {
-      Set<String> excludes = myExcludeRootsMap.get(root);
-      return excludes != null && excludes.contains(dir.getUrl());
+      ExcludeUrls excludes = myExcludeRootsMap.get(root);
+      return excludes != null && excludes.contains(dir);
     }
 
     private void initModuleContents(Module module, boolean reverseAllSets, ProgressIndicator progress) {
@@ -802,14 +853,14 @@ public class DirectoryIndexImpl extends DirectoryIndex implements ProjectCompone
       }
     }
 
-    private void putForFileAndAllAncestors(Map<VirtualFile, Set<String>> map, VirtualFile file, String value) {
+    private void putForFileAndAllAncestors(Map<VirtualFile, ExcludeUrls> map, VirtualFile file, String value) {
       while (true) {
-        Set<String> set = map.get(file);
-        if (set == null) {
-          set = new HashSet<String>();
-          map.put(file, set);
+        ExcludeUrls urls = map.get(file);
+        if (urls == null) {
+          urls = new ExcludeUrls();
+          map.put(file, urls);
         }
-        set.add(value);
+        urls.add(value);
 
         file = file.getParent();
         if (file == null) break;
@@ -831,8 +882,8 @@ public class DirectoryIndexImpl extends DirectoryIndex implements ProjectCompone
     public IndexState copy() {
       IndexState copy = new IndexState();
 
-      for (Map.Entry<VirtualFile, Set<String>> entry : myExcludeRootsMap.entrySet()) {
-        copy.myExcludeRootsMap.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+      for (Map.Entry<VirtualFile, ExcludeUrls> entry : myExcludeRootsMap.entrySet()) {
+        copy.myExcludeRootsMap.put(entry.getKey(), entry.getValue().copy());
       }
 
       copy.myProjectExcludeRoots.addAll(myProjectExcludeRoots);
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.impl;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.util.ProgressIndicatorBase;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.Ref;
+import com.intellij.psi.FileViewProvider;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.impl.source.PsiFileImpl;
+import com.intellij.psi.impl.source.text.BlockSupportImpl;
+import com.intellij.psi.impl.source.text.DiffLog;
+import com.intellij.psi.impl.source.tree.FileElement;
+import com.intellij.psi.text.BlockSupport;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import java.util.List;
+
+/**
+ * Reparses a changed document on a pooled thread and diffs the result against the current tree, so that the commit on the dispatch
+ * thread only applies the ready changes instead of reparsing. The work gives way to write actions, and the result is dropped
+ * as soon as the document changes again.
+ * <p/>
+ * Enabled with -Didea.background.commit=true.
+ */
+class BackgroundDocumentCommitter {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.psi.impl.BackgroundDocumentCommitter");
+
+  @NonNls private static final String ENABLED_PROPERTY = "idea.background.commit";
+
+  private static final Key<Result> RESULT_KEY = Key.create("BACKGROUND_COMMIT_RESULT");
+  private static final Key<ProgressIndicator> PROGRESS_KEY = Key.create("BACKGROUND_COMMIT_PROGRESS");
+
+  private final Project myProject;
+  private final PsiDocumentManagerImpl myDocumentManager;
+  private volatile boolean myEnabled = Boolean.getBoolean(ENABLED_PROPERTY);
+  private int myAppliedCount;
+
+  static class Result {
+    private final long myModificationStamp;
+    private final PsiFile myFile;
+    private final FileElement myTree;
+    private final DiffLog myLog;
+
+    private Result(long modificationStamp, PsiFile file, FileElement tree, DiffLog log) {
+      myModificationStamp = modificationStamp;
+      myFile = file;
+      myTree = tree;
+      myLog = log;
+    }
+  }
+
+  BackgroundDocumentCommitter(@NotNull Project project, @NotNull PsiDocumentManagerImpl documentManager) {
+    myProject = project;
+    myDocumentManager = documentManager;
+  }
+
+  /**
+   * Called on every change of a document with PSI, drops the result for its previous text and reparses it in background if enabled.
+   */
+  void documentChanged(@NotNull final Document document) {
+    document.putUserData(RESULT_KEY, null);
+    final ProgressIndicator previous = document.getUserData(PROGRESS_KEY);
+    if (previous != null) {
+      previous.cancel();
+    }
+    if (!myEnabled) return;
+
+    final ProgressIndicator indicator = new ProgressIndicatorBase();
+    document.putUserData(PROGRESS_KEY, indicator);
+    final long modificationStamp = document.getModificationStamp();
+    final ModalityState modalityState = ModalityState.current();
+    ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+      public void run() {
+        try {
+          final Ref<Result> result = Ref.create(null);
+          // reparsed again after the write actions interrupting it, unless they change the document and cancel the indicator
+          ProgressIndicatorUtils.runWithWriteActionPriority(new Runnable() {
+            public void run() {
+              if (myProject.isDisposed()) return;
+              result.set(computeResult(document, modificationStamp));
+            }
+          }, indicator);
+          if (result.isNull() || indicator.isCanceled()) return;
+
+          document.putUserData(RESULT_KEY, result.get());
+          ApplicationManager.getApplication().invokeLater(new Runnable() {
+            public void run() {
+              if (myProject.isDisposed() || document.getModificationStamp() != modificationStamp) return;
+              myDocumentManager.commitDocument(document);
+            }
+          }, modalityState);
+        }
+        catch (ProcessCanceledException ignored) {
+          // the document has changed again
+        }
+        catch (Throwable e) {
+          LOG.error(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Needs read access.
+   *
+   * @return null if the document has changed or can't be reparsed in background
+   */
+  @Nullable
+  Result computeResult(@NotNull Document document, long modificationStamp) {
+    if (document.getModificationStamp() != modificationStamp || !myDocumentManager.isUncommited(document)) return null;
+    if (document.getUserData(BlockSupport.DO_NOT_REPARSE_INCREMENTALLY) != null) return null;
+
+    final FileViewProvider viewProvider = myDocumentManager.getCachedViewProvider(document);
+    if (viewProvider == null) return null;
+    final List<PsiFile> files = viewProvider.getAllFiles();
+    if (files.size() != 1 || !(files.get(0) instanceof PsiFileImpl)) return null;
+
+    final PsiFileImpl file = (PsiFileImpl)files.get(0);
+    final FileElement tree = file.getTreeElement();
+    if (tree == null || !file.isValid()) return null;
+
+    final DiffLog log = BlockSupportImpl.calcReparseLog(file, document.getText());
+    return log == null ? null : new Result(modificationStamp, file, tree, log);
+  }
+
+  void putResult(@NotNull Document document, @Nullable Result result) {
+    document.putUserData(RESULT_KEY, result);
+  }
+
+  /**
+   * Applies the changes computed in background if they are still valid for the current document text and file tree.
+   *
+   * @return false if there were no such changes, the file should be reparsed then
+   */
+  boolean applyReparseLog(@NotNull Document document, @NotNull PsiFile file) {
+    final DiffLog log = takeReparseLog(document, file);
+    if (log == null) return false;
+    BlockSupportImpl.applyReparseLog((PsiFileImpl)file, log);
+    myAppliedCount++;
+    return true;
+  }
+
+  @Nullable
+  private static DiffLog takeReparseLog(@NotNull Document document, @NotNull PsiFile file) {
+    final Result result = document.getUserData(RESULT_KEY);
+    if (result == null) return null;
+    document.putUserData(RESULT_KEY, null);
+
+    if (result.myModificationStamp != document.getModificationStamp() || result.myFile != file) return null;
+    if (!(file instanceof PsiFileImpl) || ((PsiFileImpl)file).getTreeElement() != result.myTree) return null;
+    return result.myLog;
+  }
+
+  @TestOnly
+  void setEnabled(boolean enabled) {
+    myEnabled = enabled;
+  }
+
+  /**
+   * @return number of commits which have applied the changes computed in background instead of reparsing
+   */
+  @TestOnly
+  int getAppliedCount() {
+    return myAppliedCount;
+  }
+}
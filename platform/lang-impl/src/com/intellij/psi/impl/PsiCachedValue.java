@@ -22,9 +22,13 @@ import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
 import com.intellij.util.CachedValueBase;
+import com.intellij.util.PushingModificationTracker;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.List;
+
 /**
  * @author Dmitry Avdeev
  */
@@ -57,6 +61,27 @@ public abstract class PsiCachedValue<T> extends CachedValueBase<T> {
 
   }
 
+  @Override
+  protected boolean collectPushingTrackers(Object dependency, List<PushingModificationTracker> trackers) {
+    final PsiModificationTracker modificationTracker = myManager.getModificationTracker();
+    if (modificationTracker instanceof PsiModificationTrackerImpl) {
+      final PsiModificationTrackerImpl trackerImpl = (PsiModificationTrackerImpl)modificationTracker;
+      if (dependency instanceof PsiDirectory) {
+        trackers.add(trackerImpl.getDirectoryTracker((PsiDirectory)dependency));
+        trackers.add(trackerImpl.getAllDirectoriesTracker());
+        return true;
+      }
+      final PushingModificationTracker tracker = dependency instanceof Key ? trackerImpl.getTracker((Key)dependency)
+                                               : dependency == trackerImpl ? trackerImpl.getTracker(PsiModificationTracker.MODIFICATION_COUNT)
+                                               : null;
+      if (tracker != null) {
+        trackers.add(tracker);
+        return true;
+      }
+    }
+    return super.collectPushingTrackers(dependency, trackers);
+  }
+
   @Override
   protected long getTimeStamp(Object dependency) {
 
@@ -73,6 +73,7 @@ public class PsiDocumentManagerImpl extends PsiDocumentManager implements Projec
   private final BlockSupportImpl myBlockSupport;
   private volatile boolean myIsCommitInProgress;
   private final PsiToDocumentSynchronizer mySynchronizer;
+  private final BackgroundDocumentCommitter myBackgroundCommitter;
 
   private final List<Listener> myListeners = new ArrayList<Listener>();
   private Listener[] myCachedListeners = null; //guarded by mylisteners
@@ -89,6 +90,7 @@ public class PsiDocumentManagerImpl extends PsiDocumentManager implements Projec
     mySmartPointerManager = (SmartPointerManagerImpl)smartPointerManager;
     myBlockSupport = (BlockSupportImpl)blockSupport;
     mySynchronizer = new PsiToDocumentSynchronizer(this, bus);
+    myBackgroundCommitter = new BackgroundDocumentCommitter(project, this);
     myPsiManager.addPsiTreeChangeListener(mySynchronizer);
     editorFactory.getEventMulticaster().addDocumentListener(this, myProject);
   }
@@ -477,7 +479,9 @@ public class PsiDocumentManagerImpl extends PsiDocumentManager implements Projec
         endOffset = document.getTextLength();
         lengthShift = document.getTextLength() - file.getTextLength();
       }
-      myBlockSupport.reparseRange(file, startOffset, endOffset, lengthShift, chars);
+      if (data != null || !myBackgroundCommitter.applyReparseLog(document, file)) {
+        myBlockSupport.reparseRange(file, startOffset, endOffset, lengthShift, chars);
+      }
 
       textBlock.unlock();
       textBlock.clear();
@@ -556,6 +560,7 @@ public class PsiDocumentManagerImpl extends PsiDocumentManager implements Projec
 
       if (file.isPhysical()) {
         if (mySmartPointerManager != null) { // mock tests
+          SmartPointerManagerImpl.storeSyncOffsets(file);
           SmartPointerManagerImpl.fastenBelts(file);
         }
       }
@@ -600,6 +605,9 @@ public class PsiDocumentManagerImpl extends PsiDocumentManager implements Projec
     if (commitNecessary && ApplicationManager.getApplication().getCurrentWriteAction(ExternalChangeAction.class) != null){
       commitDocument(document);
     }
+    else if (commitNecessary) {
+      myBackgroundCommitter.documentChanged(document);
+    }
   }
 
   public TextBlock getTextBlock(Document document, PsiFile file) {
@@ -690,6 +698,10 @@ public class PsiDocumentManagerImpl extends PsiDocumentManager implements Projec
     return mySynchronizer;
   }
 
+  BackgroundDocumentCommitter getBackgroundCommitter() {
+    return myBackgroundCommitter;
+  }
+
   public boolean isCommittingDocument(final Document doc) {
     return doc.getUserData(KEY_COMMITING) == Boolean.TRUE;
   }
@@ -28,20 +28,41 @@ import com.intellij.ProjectTopics;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.roots.ModuleRootListener;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDirectory;
+import com.intellij.psi.PsiElement;
 import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.util.PushingModificationTracker;
 import com.intellij.util.messages.MessageBus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class PsiModificationTrackerImpl implements PsiModificationTracker, PsiTreeChangePreprocessor {
-  private volatile long myModificationCount = 0;
-  private volatile long myOutOfCodeBlockModificationCount = 0;
-  private volatile long myJavaStructureModificationCount = 0;
+  private static final Key<PushingModificationTracker> DIRECTORY_TRACKER = Key.create("PsiModificationTrackerImpl.DIRECTORY_TRACKER");
+
+  private final PushingModificationTracker myModificationTracker = new PushingModificationTracker(MODIFICATION_COUNT.toString());
+  private final PushingModificationTracker myOutOfCodeBlockTracker = new PushingModificationTracker(OUT_OF_CODE_BLOCK_MODIFICATION_COUNT.toString());
+  private final PushingModificationTracker myJavaStructureTracker = new PushingModificationTracker(JAVA_STRUCTURE_MODIFICATION_COUNT.toString());
+  // incremented on roots changes, when FileManager may forget the directories and stop sending their events;
+  // the values depending on a single directory subscribe to it too
+  private final PushingModificationTracker myAllDirectoriesTracker = new PushingModificationTracker("all directories");
   private volatile long myAnnotationModificationCount = 0;
   private final Listener myPublisher;
 
   public PsiModificationTrackerImpl(Project project) {
     final MessageBus bus = project.getMessageBus();
     myPublisher = bus.syncPublisher(ProjectTopics.MODIFICATION_TRACKER);
+    bus.connect().subscribe(ProjectTopics.PROJECT_ROOTS, new ModuleRootListener() {
+      public void beforeRootsChange(ModuleRootEvent event) {
+      }
+
+      public void rootsChanged(ModuleRootEvent event) {
+        myAllDirectoriesTracker.incModificationCount();
+      }
+    });
     bus.connect().subscribe(DumbService.DUMB_MODE, new DumbService.DumbModeListener() {
 
       public void enteredDumbMode() {
@@ -59,13 +80,13 @@ public class PsiModificationTrackerImpl implements PsiModificationTracker, PsiTr
   }
 
   public void incCounter(){
-    myModificationCount++;
-    myJavaStructureModificationCount++;
+    myModificationTracker.incModificationCount();
+    myJavaStructureTracker.incModificationCount();
     incOutOfCodeBlockModificationCounter();
   }
 
   public void incOutOfCodeBlockModificationCounter() {
-    myOutOfCodeBlockModificationCount++;
+    myOutOfCodeBlockTracker.incModificationCount();
     myPublisher.modificationCountChanged();
   }
 
@@ -74,27 +95,70 @@ public class PsiModificationTrackerImpl implements PsiModificationTracker, PsiTr
   }
 
   public void treeChanged(PsiTreeChangeEventImpl event) {
-    myModificationCount++;
+    myModificationTracker.incModificationCount();
     if (event.getParent() instanceof PsiDirectory) {
       incOutOfCodeBlockModificationCounter();
     }
 
+    directoryChanged(event.getParent());
+    directoryChanged(event.getOldParent());
+    directoryChanged(event.getNewParent());
+    // a deleted, moved or renamed directory itself
+    directoryChanged(event.getChild());
+    directoryChanged(event.getOldChild());
+    directoryChanged(event.getNewChild());
+    directoryChanged(event.getElement());
+
     myPublisher.modificationCountChanged();
   }
 
+  private static void directoryChanged(@Nullable PsiElement element) {
+    if (!(element instanceof PsiDirectory)) return;
+    final PushingModificationTracker tracker = ((PsiDirectory)element).getVirtualFile().getUserData(DIRECTORY_TRACKER);
+    if (tracker != null) {
+      tracker.incModificationCount();
+    }
+  }
+
   public long getModificationCount() {
-    return myModificationCount;
+    return myModificationTracker.getModificationCount();
   }
 
   public long getOutOfCodeBlockModificationCount() {
-    return myOutOfCodeBlockModificationCount;
+    return myOutOfCodeBlockTracker.getModificationCount();
   }
 
   public long getJavaStructureModificationCount() {
-    return myJavaStructureModificationCount;
+    return myJavaStructureTracker.getModificationCount();
   }
 
   public long getAnnotationModificationCount() {
     return myAnnotationModificationCount;
   }
+
+  /**
+   * @return the tracker pushing the changes of the given counter key to the cached values, null for an unknown key
+   */
+  @Nullable
+  public PushingModificationTracker getTracker(@NotNull Key key) {
+    if (key == MODIFICATION_COUNT) return myModificationTracker;
+    if (key == OUT_OF_CODE_BLOCK_MODIFICATION_COUNT) return myOutOfCodeBlockTracker;
+    if (key == JAVA_STRUCTURE_MODIFICATION_COUNT) return myJavaStructureTracker;
+    return null;
+  }
+
+  /**
+   * @return the tracker incremented when the children of the directory or the directory itself change
+   */
+  @NotNull
+  public PushingModificationTracker getDirectoryTracker(@NotNull PsiDirectory directory) {
+    final VirtualFile file = directory.getVirtualFile();
+    final PushingModificationTracker tracker = file.getUserData(DIRECTORY_TRACKER);
+    return tracker != null ? tracker : file.putUserDataIfAbsent(DIRECTORY_TRACKER, new PushingModificationTracker(file.getPath()));
+  }
+
+  @NotNull
+  PushingModificationTracker getAllDirectoriesTracker() {
+    return myAllDirectoriesTracker;
+  }
 }
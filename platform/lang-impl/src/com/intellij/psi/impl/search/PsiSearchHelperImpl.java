@@ -17,6 +17,7 @@
 package com.intellij.psi.impl.search;
 
 import com.intellij.codeInsight.CommentUtil;
+import com.intellij.concurrency.Job;
 import com.intellij.concurrency.JobUtil;
 import com.intellij.ide.todo.TodoConfiguration;
 import com.intellij.ide.todo.TodoIndexPatternProvider;
@@ -27,6 +28,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
 import com.intellij.openapi.roots.ProjectFileIndex;
 import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.util.Computable;
@@ -197,7 +199,7 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
         public boolean process(PsiElement scopeElement) {
           return processElementsWithWordInScopeElement(scopeElement, processor, text, caseSensitively, ignoreInjectedPsi, progress);
         }
-      }, false, progress);
+      }, false, progress, Job.SEARCH_PRIORITY);
     }
   }
 
@@ -288,7 +290,7 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
           }
           return !canceled.get();
         }
-      }, false, progress);
+      }, false, progress, Job.SEARCH_PRIORITY);
 
       if (pceThrown.get()) {
         throw new ProcessCanceledException();
@@ -304,20 +306,28 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
     }
   }
 
-  private List<VirtualFile> getFilesWithText(@NotNull GlobalSearchScope scope,
+  private List<VirtualFile> getFilesWithText(@NotNull final GlobalSearchScope scope,
                                          final short searchContext,
                                          final boolean caseSensitively,
-                                         @NotNull String text,
+                                         @NotNull final String text,
                                          ProgressIndicator progress) {
     myManager.startBatchFilesProcessingMode();
     try {
       final List<VirtualFile> result = new ArrayList<VirtualFile>();
-      if (!processFilesWithText(scope, searchContext, caseSensitively, text, new Processor<PsiFile>() {
-        public boolean process(PsiFile file) {
-          result.add(file.getViewProvider().getVirtualFile());
-          return true;
+      final boolean[] completed = {false};
+      // the index lookup has no side effects, so it gives way to write actions and is started over after them
+      ProgressIndicatorUtils.runWithWriteActionPriority(new Runnable() {
+        public void run() {
+          result.clear();
+          completed[0] = processFilesWithText(scope, searchContext, caseSensitively, text, new Processor<PsiFile>() {
+            public boolean process(PsiFile file) {
+              result.add(file.getViewProvider().getVirtualFile());
+              return true;
+            }
+          }, ProgressManager.getInstance().getProgressIndicator());
         }
-      }, progress)) {
+      }, progress);
+      if (!completed[0]) {
         return Collections.emptyList();
       }
       return result;
@@ -40,13 +40,13 @@ class InjectedSelfElementInfo extends SelfElementInfo {
     return myDocument.injectedToHost(textRange);
   }
 
-  protected int getSyncEndOffset() {
-    int syncEndOffset = super.getSyncEndOffset();
+  protected int getSyncEndOffset(@NotNull TextRange syncRange) {
+    int syncEndOffset = super.getSyncEndOffset(syncRange);
     return myDocument == null ? syncEndOffset : myDocument.hostToInjected(syncEndOffset);
   }
 
-  protected int getSyncStartOffset() {
-    int syncStartOffset = super.getSyncStartOffset();
+  protected int getSyncStartOffset(@NotNull TextRange syncRange) {
+    int syncStartOffset = super.getSyncStartOffset(syncRange);
     return myDocument == null ? syncStartOffset : myDocument.hostToInjected(syncStartOffset);
   }
 }
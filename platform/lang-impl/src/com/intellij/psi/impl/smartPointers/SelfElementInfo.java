@@ -33,11 +33,8 @@ import org.jetbrains.annotations.Nullable;
 */
 class SelfElementInfo implements SmartPointerElementInfo {
   private static final Logger LOG = Logger.getInstance("#com.intellij.psi.impl.smartPointers.SelfElementInfo");
-  protected PsiFile myFile;
-  private final RangeMarker myMarker;
-  private int mySyncStartOffset;
-  private int mySyncEndOffset;
-  private boolean mySyncMarkerIsValid;
+  protected volatile PsiFile myFile;
+  private final SyncedRangeMarker myMarker;
   private Class myType;
   private final Project myProject;
 
@@ -51,16 +48,11 @@ class SelfElementInfo implements SmartPointerElementInfo {
     final PsiDocumentManager documentManager = PsiDocumentManager.getInstance(myProject);
 
     if (documentManager.isUncommited(document)) {
-      mySyncMarkerIsValid = false;
-      myMarker = document.createRangeMarker(0, 0, false);
+      myMarker = new SyncedRangeMarker(document.createRangeMarker(0, 0, false), null);
     }
     else {
-      myMarker = document.createRangeMarker(range.getStartOffset(), range.getEndOffset(), true);
-      range = getPersistentAnchorRange(anchor, document);
-
-      mySyncStartOffset = range.getStartOffset();
-      mySyncEndOffset = range.getEndOffset();
-      mySyncMarkerIsValid = true;
+      RangeMarker marker = document.createRangeMarker(range.getStartOffset(), range.getEndOffset(), true);
+      myMarker = new SyncedRangeMarker(marker, getPersistentAnchorRange(anchor, document));
       myType = anchor.getClass();
     }
   }
@@ -74,24 +66,20 @@ class SelfElementInfo implements SmartPointerElementInfo {
   }
 
   public void documentAndPsiInSync() {
-    if (!myMarker.isValid()) {
-      mySyncMarkerIsValid = false;
-      return;
-    }
-
-    mySyncStartOffset = myMarker.getStartOffset();
-    mySyncEndOffset = myMarker.getEndOffset();
+    myMarker.documentAndPsiInSync();
   }
 
   public PsiElement restoreElement() {
-    if (!mySyncMarkerIsValid) return null;
-    myFile = restoreFile(myFile, myProject);
-    if (myFile == null) return null;
+    final TextRange syncRange = myMarker.getSyncRange(myFile);
+    if (syncRange == null) return null;
+    final PsiFile file = restoreFile(myFile, myProject);
+    if (file == null) return null;
+    myFile = file;
 
-    final int syncStartOffset = getSyncStartOffset();
-    final int syncEndOffset = getSyncEndOffset();
+    final int syncStartOffset = getSyncStartOffset(syncRange);
+    final int syncEndOffset = getSyncEndOffset(syncRange);
 
-    PsiElement anchor = myFile.getViewProvider().findElementAt(syncStartOffset, myFile.getLanguage());
+    PsiElement anchor = file.getViewProvider().findElementAt(syncStartOffset, file.getLanguage());
     if (anchor == null) return null;
 
     TextRange range = anchor.getTextRange();
@@ -115,9 +103,7 @@ class SelfElementInfo implements SmartPointerElementInfo {
 
   @Override
   public void dispose() {
-    if (myMarker != null) {
-      myMarker.dispose();
-    }
+    myMarker.dispose();
   }
 
   @Nullable
@@ -136,11 +122,11 @@ class SelfElementInfo implements SmartPointerElementInfo {
     return file;
   }
 
-  protected int getSyncEndOffset() {
-    return mySyncEndOffset;
+  protected int getSyncEndOffset(@NotNull TextRange syncRange) {
+    return syncRange.getEndOffset();
   }
 
-  protected int getSyncStartOffset() {
-    return mySyncStartOffset;
+  protected int getSyncStartOffset(@NotNull TextRange syncRange) {
+    return syncRange.getStartOffset();
   }
 }
@@ -33,9 +33,11 @@ import java.util.Set;
 public class SmartPointerManagerImpl extends SmartPointerManager {
   private static final Logger LOG = Logger.getInstance("#com.intellij.psi.impl.smartPointers.SmartPointerManagerImpl");
 
-  private static final Key<ArrayList<WeakReference<SmartPointerEx>>> SMART_POINTERS_IN_PSI_FILE_KEY = Key.create(
+  private static final Key<PointerList> SMART_POINTERS_IN_PSI_FILE_KEY = Key.create(
     "SMART_POINTERS_IN_DOCUMENT_KEY");
   private static final Key<Boolean> BELTS_ARE_FASTEN_KEY = Key.create("BELTS_ARE_FASTEN_KEY");
+  // the range markers haven't moved since the document and PSI were synchronized, so they hold the offsets to restore the pointers by
+  private static final Key<Boolean> MARKERS_ARE_IN_SYNC_KEY = Key.create("MARKERS_ARE_IN_SYNC_KEY");
 
   private final Project myProject;
 
@@ -49,16 +51,13 @@ public class SmartPointerManagerImpl extends SmartPointerManager {
 
       file.putUserData(BELTS_ARE_FASTEN_KEY, Boolean.TRUE);
 
-      ArrayList<WeakReference<SmartPointerEx>> pointers = file.getUserData(SMART_POINTERS_IN_PSI_FILE_KEY);
+      PointerList pointers = file.getUserData(SMART_POINTERS_IN_PSI_FILE_KEY);
       if (pointers == null) return;
 
-      int index = 0;
-      for (int i = 0; i < pointers.size(); i++) {
-        WeakReference<SmartPointerEx> reference = pointers.get(i);
+      for (WeakReference<SmartPointerEx> reference : pointers) {
         SmartPointerEx pointer = reference.get();
         if (pointer != null) {
           pointer.fastenBelt();
-          pointers.set(index++, reference);
         }
       }
 
@@ -69,10 +68,7 @@ public class SmartPointerManagerImpl extends SmartPointerManager {
         fastenBelts(injectedfile);
       }
 
-      int size = pointers.size();
-      for (int i = size - 1; i >= index; i--) {
-        pointers.remove(i);
-      }
+      pointers.removeCollected();
     }
   }
 
@@ -96,18 +92,13 @@ public class SmartPointerManagerImpl extends SmartPointerManager {
     }
   }
 
+  /**
+   * Doesn't touch the pointers: they take the offsets of their range markers when restored or when the document is about to be
+   * changed, see {@link #storeSyncOffsets(PsiFile)}. So a bulk change of PSI doesn't walk all the pointers of a file after each step.
+   */
   private static void _synchronizePointers(final PsiFile file) {
-    ArrayList<WeakReference<SmartPointerEx>> pointers = file.getUserData(SMART_POINTERS_IN_PSI_FILE_KEY);
-    if (pointers == null) return;
-
-    int index = 0;
-    for (int i = 0; i < pointers.size(); i++) {
-      WeakReference<SmartPointerEx> reference = pointers.get(i);
-      SmartPointerEx pointer = reference.get();
-      if (pointer != null) {
-        pointer.documentAndPsiInSync();
-        pointers.set(index++, reference);
-      }
+    if (file.getUserData(SMART_POINTERS_IN_PSI_FILE_KEY) != null) {
+      file.putUserData(MARKERS_ARE_IN_SYNC_KEY, Boolean.TRUE);
     }
 
     final PsiDocumentManager psiDocumentManager = PsiDocumentManager.getInstance(file.getProject());
@@ -116,13 +107,41 @@ public class SmartPointerManagerImpl extends SmartPointerManager {
       if (injectedfile == null) continue;
       _synchronizePointers(injectedfile);
     }
+  }
 
-    int size = pointers.size();
-    for (int i = size - 1; i >= index; i--) {
-      pointers.remove(i);
+  /**
+   * Called before the document of the file is changed without PSI, after which the range markers no longer match the PSI
+   * until the next commit.
+   */
+  public static void storeSyncOffsets(PsiFile file) {
+    synchronized (file) {
+      final PsiDocumentManager psiDocumentManager = PsiDocumentManager.getInstance(file.getProject());
+      for(Document document:InjectedLanguageUtil.getCachedInjectedDocuments(file)) {
+        PsiFile injectedfile = psiDocumentManager.getPsiFile(document);
+        if (injectedfile == null) continue;
+        storeSyncOffsets(injectedfile);
+      }
+
+      if (!areMarkersInSync(file)) return;
+      file.putUserData(MARKERS_ARE_IN_SYNC_KEY, null);
+
+      PointerList pointers = file.getUserData(SMART_POINTERS_IN_PSI_FILE_KEY);
+      if (pointers == null) return;
+
+      for (WeakReference<SmartPointerEx> reference : pointers) {
+        SmartPointerEx pointer = reference.get();
+        if (pointer != null) {
+          pointer.documentAndPsiInSync();
+        }
+      }
+      pointers.removeCollected();
     }
   }
 
+  static boolean areMarkersInSync(final PsiFile file) {
+    return file.getUserData(MARKERS_ARE_IN_SYNC_KEY) == Boolean.TRUE;
+  }
+
   @NotNull
   public <E extends PsiElement> SmartPsiElementPointer<E> createSmartPsiElementPointer(E element) {
     if (!element.isValid()) {
@@ -159,9 +178,9 @@ public class SmartPointerManagerImpl extends SmartPointerManager {
           }
         }
 
-        ArrayList<WeakReference<SmartPointerEx>> pointers = file.getUserData(SMART_POINTERS_IN_PSI_FILE_KEY);
+        PointerList pointers = file.getUserData(SMART_POINTERS_IN_PSI_FILE_KEY);
         if (pointers == null) {
-          pointers = new ArrayList<WeakReference<SmartPointerEx>>();
+          pointers = new PointerList();
           file.putUserData(SMART_POINTERS_IN_PSI_FILE_KEY, pointers);
         }
         pointers.add(new WeakReference<SmartPointerEx>(pointer));
@@ -173,6 +192,35 @@ public class SmartPointerManagerImpl extends SmartPointerManager {
     }
   }
 
+  /**
+   * The collected pointers are otherwise removed only before the document is edited, so the list also drops them when it has
+   * doubled since the last removal: each pointer is then checked an amortized constant number of times.
+   */
+  private static class PointerList extends ArrayList<WeakReference<SmartPointerEx>> {
+    private static final int MIN_CLEANUP_SIZE = 64;
+    private int myCleanupSize = MIN_CLEANUP_SIZE;
+
+    @Override
+    public boolean add(WeakReference<SmartPointerEx> reference) {
+      if (size() >= myCleanupSize) {
+        removeCollected();
+      }
+      return super.add(reference);
+    }
+
+    void removeCollected() {
+      int index = 0;
+      for (int i = 0; i < size(); i++) {
+        WeakReference<SmartPointerEx> reference = get(i);
+        if (reference.get() != null) {
+          set(index++, reference);
+        }
+      }
+      removeRange(index, size());
+      myCleanupSize = Math.max(MIN_CLEANUP_SIZE, 2 * index);
+    }
+  }
+
   private static boolean areBeltsFastened(final PsiFile file) {
     return file.getUserData(BELTS_ARE_FASTEN_KEY) == Boolean.TRUE;
   }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.impl.smartPointers;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.RangeMarker;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Range marker of a marker-based element info together with the range the marker had when the document and PSI were last in sync.
+ * The element infos read the range only through {@link #getSyncRange(PsiFile)}, which takes it from the marker first if the markers
+ * of the file haven't moved since the last synchronization, see {@link SmartPointerManagerImpl#areMarkersInSync(PsiFile)}.
+ * <p/>
+ * Pointers are restored in concurrent read actions, so the range is an immutable object replaced as a whole.
+ */
+class SyncedRangeMarker {
+  private final RangeMarker myMarker;
+  // null when the marker became invalid
+  private volatile TextRange mySyncRange;
+
+  SyncedRangeMarker(@NotNull RangeMarker marker, @Nullable TextRange syncRange) {
+    myMarker = marker;
+    mySyncRange = syncRange;
+  }
+
+  public Document getDocument() {
+    return myMarker.getDocument();
+  }
+
+  public void documentAndPsiInSync() {
+    final TextRange syncRange = mySyncRange;
+    if (syncRange == null) return;
+    if (!myMarker.isValid()) {
+      mySyncRange = null;
+      return;
+    }
+
+    final int startOffset = myMarker.getStartOffset();
+    final int endOffset = myMarker.getEndOffset();
+    if (syncRange.getStartOffset() != startOffset || syncRange.getEndOffset() != endOffset) {
+      mySyncRange = new TextRange(startOffset, endOffset);
+    }
+  }
+
+  @Nullable
+  public TextRange getSyncRange(@NotNull PsiFile file) {
+    if (SmartPointerManagerImpl.areMarkersInSync(file)) {
+      documentAndPsiInSync();
+    }
+    return mySyncRange;
+  }
+
+  public void dispose() {
+    myMarker.dispose();
+  }
+}
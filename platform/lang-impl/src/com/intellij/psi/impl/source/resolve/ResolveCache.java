@@ -24,9 +24,13 @@ import com.intellij.psi.PsiReference;
 import com.intellij.psi.ResolveResult;
 import com.intellij.psi.impl.PsiManagerEx;
 import com.intellij.reference.SoftReference;
+import com.intellij.util.Function;
+import com.intellij.util.KeyedStatistics;
 import com.intellij.util.containers.ConcurrentWeakHashMap;
 import com.intellij.util.containers.ContainerUtil;
 import gnu.trove.THashSet;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.lang.ref.Reference;
@@ -35,19 +39,23 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ResolveCache {
-  private static final Key<MapPair<PsiPolyVariantReference, Reference<ResolveResult[]>>> JAVA_RESOLVE_MAP = Key.create("ResolveCache.JAVA_RESOLVE_MAP");
-  private static final Key<MapPair<PsiReference, Reference<PsiElement>>> RESOLVE_MAP = Key.create("ResolveCache.RESOLVE_MAP");
-  private static final Key<MapPair<PsiPolyVariantReference, Reference<ResolveResult[]>>> JAVA_RESOLVE_MAP_INCOMPLETE = Key.create("ResolveCache.JAVA_RESOLVE_MAP_INCOMPLETE");
-  private static final Key<MapPair<PsiReference, Reference<PsiElement>>> RESOLVE_MAP_INCOMPLETE = Key.create("ResolveCache.RESOLVE_MAP_INCOMPLETE");
-
-  private final Map<PsiPolyVariantReference,Reference<ResolveResult[]>>[] myPolyVariantResolveMaps = new Map[4];
-  private final Map<PsiReference,Reference<PsiElement>>[] myResolveMaps = new Map[4];
-  private final AtomicInteger myClearCount = new AtomicInteger(0);
+  // the default weak maps have two segments only, and the resolve cache is hit by every highlighting and inspection thread
+  private static final int CONCURRENCY_LEVEL = Math.max(4, Math.min(32, Runtime.getRuntime().availableProcessors() * 4));
+  private static final boolean COLLECT_STATISTICS = Boolean.getBoolean("idea.resolve.cache.statistics");
+
+  private final ResolveMaps myPhysicalMaps = new ResolveMaps();
+  private final ResolveMaps myNonPhysicalMaps = new ResolveMaps();
   private final PsiManagerEx myManager;
 
   private final List<Runnable> myRunnablesToRunOnDropCaches = ContainerUtil.createEmptyCOWList();
+  private final KeyedStatistics<Class, ResolveStatistics> myStatistics = new KeyedStatistics<Class, ResolveStatistics>(new Function<Class, ResolveStatistics>() {
+    public ResolveStatistics fun(Class refClass) {
+      return new ResolveStatistics();
+    }
+  });
 
   public interface AbstractResolver<TRef extends PsiReference,TResult> {
     TResult resolve(TRef ref, boolean incompleteCode);
@@ -60,30 +68,42 @@ public class ResolveCache {
 
   public ResolveCache(PsiManagerEx manager) {
     myManager = manager;
-    myPolyVariantResolveMaps[0] = getOrCreateWeakMap(JAVA_RESOLVE_MAP, true);
-    myPolyVariantResolveMaps[1] = getOrCreateWeakMap(JAVA_RESOLVE_MAP_INCOMPLETE, true);
-    myResolveMaps[0] = getOrCreateWeakMap(RESOLVE_MAP, true);
-    myResolveMaps[1] = getOrCreateWeakMap(RESOLVE_MAP_INCOMPLETE, true);
+    myManager.registerRunnableToRunOnChange(new Runnable() {
+      public void run() {
+        myPhysicalMaps.clear();
+      }
+    });
+    myManager.registerRunnableToRunOnAnyChange(new Runnable() {
+      public void run() {
+        myNonPhysicalMaps.clear();
+      }
+    });
+  }
 
-    myPolyVariantResolveMaps[2] = getOrCreateWeakMap(JAVA_RESOLVE_MAP, false);
-    myPolyVariantResolveMaps[3] = getOrCreateWeakMap(JAVA_RESOLVE_MAP_INCOMPLETE, false);
+  private static class ResolveMaps {
+    private final ConcurrentMap<PsiPolyVariantReference, Reference<ResolveResult[]>> myPolyVariantResolveMap = createMap();
+    private final ConcurrentMap<PsiPolyVariantReference, Reference<ResolveResult[]>> myPolyVariantResolveMapIncomplete = createMap();
+    private final ConcurrentMap<PsiReference, Reference<PsiElement>> myResolveMap = createMap();
+    private final ConcurrentMap<PsiReference, Reference<PsiElement>> myResolveMapIncomplete = createMap();
+    // incremented before the maps are cleared, a result resolved before that is dropped by the resolving thread
+    private final AtomicInteger myClearCount = new AtomicInteger();
 
-    myResolveMaps[2] = getOrCreateWeakMap(RESOLVE_MAP, false);
-    myResolveMaps[3] = getOrCreateWeakMap(RESOLVE_MAP_INCOMPLETE, false);
+    private static <K, V> ConcurrentMap<K, V> createMap() {
+      return new ConcurrentWeakHashMap<K, V>(100, 0.75f, CONCURRENCY_LEVEL);
+    }
+
+    private void clear() {
+      myClearCount.incrementAndGet();
+      myPolyVariantResolveMap.clear();
+      myPolyVariantResolveMapIncomplete.clear();
+      myResolveMap.clear();
+      myResolveMapIncomplete.clear();
+    }
   }
 
   public void clearCache() {
-    myClearCount.incrementAndGet();
-    myPolyVariantResolveMaps[0].clear();
-    myPolyVariantResolveMaps[1].clear();
-    myResolveMaps[0].clear();
-    myResolveMaps[1].clear();
-
-    myPolyVariantResolveMaps[2].clear();
-    myPolyVariantResolveMaps[3].clear();
-
-    myResolveMaps[2].clear();
-    myResolveMaps[3].clear();
+    myPhysicalMaps.clear();
+    myNonPhysicalMaps.clear();
 
     for (Runnable r : myRunnablesToRunOnDropCaches) {
       r.run();
@@ -99,15 +119,18 @@ public class ResolveCache {
   @Nullable
   private <TRef extends PsiReference, TResult> TResult resolve(TRef ref,
                                         AbstractResolver<TRef, TResult> resolver,
-                                        Map<? super TRef,Reference<TResult>>[] maps,
+                                        ResolveMaps maps,
+                                        Map<? super TRef,Reference<TResult>> map,
                                         boolean needToPreventRecursion,
                                         boolean incompleteCode) {
     ProgressManager.checkCanceled();
 
-    int clearCountOnStart = myClearCount.intValue();
-
-    boolean physical = ref.getElement().isPhysical();
-    TResult result = getCached(ref, maps, physical, incompleteCode);
+    final int clearCount = maps.myClearCount.get();
+    Reference<TResult> reference = map.get(ref);
+    TResult result = reference == null ? null : reference.get();
+    if (COLLECT_STATISTICS) {
+      myStatistics.get(ref.getClass()).record(result != null);
+    }
     if (result != null) {
       return result;
     }
@@ -121,15 +144,27 @@ public class ResolveCache {
         unlockElement(ref);
       }
     }
-    cache(ref, result, maps, physical, incompleteCode, clearCountOnStart);
+    map.put(ref, new SoftReference<TResult>(result));
+    if (maps.myClearCount.get() != clearCount) {
+      // the cache was cleared while resolving, and the result may be computed from the PSI before the change
+      map.remove(ref);
+    }
     return result;
   }
 
+  @NotNull
+  private ResolveMaps getMaps(PsiReference ref) {
+    return ref.getElement().isPhysical() ? myPhysicalMaps : myNonPhysicalMaps;
+  }
+
    public <T extends PsiPolyVariantReference> ResolveResult[] resolveWithCaching(T ref,
                                             PolyVariantResolver<T> resolver,
                                             boolean needToPreventRecursion,
                                             boolean incompleteCode) {
-    ResolveResult[] result = resolve(ref, resolver, myPolyVariantResolveMaps, needToPreventRecursion, incompleteCode);
+    final ResolveMaps maps = getMaps(ref);
+    final Map<PsiPolyVariantReference, Reference<ResolveResult[]>> map =
+      incompleteCode ? maps.myPolyVariantResolveMapIncomplete : maps.myPolyVariantResolveMap;
+    ResolveResult[] result = resolve(ref, resolver, maps, map, needToPreventRecursion, incompleteCode);
     return result == null ? ResolveResult.EMPTY_ARRAY : result;
   }
 
@@ -137,7 +172,8 @@ public class ResolveCache {
                                        Resolver resolver,
                                        boolean needToPreventRecursion,
                                        boolean incompleteCode) {
-    return resolve(ref, resolver, myResolveMaps, needToPreventRecursion, incompleteCode);
+    final ResolveMaps maps = getMaps(ref);
+    return resolve(ref, resolver, maps, incompleteCode ? maps.myResolveMapIncomplete : maps.myResolveMap, needToPreventRecursion, incompleteCode);
   }
 
   private static final ThreadLocal<Set<PsiElement>> blockedElements = new ThreadLocal<Set<PsiElement>>() {
@@ -157,22 +193,34 @@ public class ResolveCache {
     blocked.remove(ref.getElement());
   }
 
-  private static int getIndex(boolean physical, boolean incompleteCode){
-    return (physical ? 0 : 1) << 1 | (incompleteCode ? 1 : 0);
+  /**
+   * Cache hits and misses per reference class, collected with -Didea.resolve.cache.statistics=true only.
+   */
+  @NonNls
+  @NotNull
+  public String getStatistics() {
+    return myStatistics.report(Integer.MAX_VALUE, new Function<ResolveStatistics, Long>() {
+      public Long fun(ResolveStatistics statistics) {
+        return statistics.myHits.get() + statistics.myMisses.get();
+      }
+    });
   }
 
-  private static <TRef, TResult> TResult getCached(TRef ref, Map<? super TRef,Reference<TResult>>[] maps, boolean physical, boolean incompleteCode){
-    int index = getIndex(physical, incompleteCode);
-    Reference<TResult> reference = maps[index].get(ref);
-    if(reference == null) return null;
-    return reference.get();
-  }
+  private static class ResolveStatistics {
+    private final AtomicLong myHits = new AtomicLong();
+    private final AtomicLong myMisses = new AtomicLong();
 
-  private <TRef extends PsiReference, TResult> void cache(TRef ref, TResult result, Map<? super TRef,Reference<TResult>>[] maps, boolean physical, boolean incompleteCode, final int clearCountOnStart) {
-    if (clearCountOnStart != myClearCount.intValue() && result != null) return;
+    private void record(boolean hit) {
+      (hit ? myHits : myMisses).incrementAndGet();
+    }
 
-    int index = getIndex(physical, incompleteCode);
-    maps[index].put(ref, new SoftReference<TResult>(result/*, myQueue*/));
+    @NonNls
+    @Override
+    public String toString() {
+      final long hits = myHits.get();
+      final long total = hits + myMisses.get();
+      return "hits " + hits + " of " + total + (total == 0 ? "" : " (" + hits * 100 / total + "%)");
+    }
   }
 
   public <K,V> ConcurrentMap<K,V> getOrCreateWeakMap(final Key<MapPair<K, V>> key, boolean forPhysical) {
@@ -184,7 +232,6 @@ public class ResolveCache {
       myManager.registerRunnableToRunOnChange(
         new Runnable() {
           public void run() {
-            myClearCount.incrementAndGet();
             _pair.physicalMap.clear();
           }
         }
@@ -192,7 +239,6 @@ public class ResolveCache {
       myManager.registerRunnableToRunOnAnyChange(
         new Runnable() {
           public void run() {
-            myClearCount.incrementAndGet();
             _pair.nonPhysicalMap.clear();
           }
         }
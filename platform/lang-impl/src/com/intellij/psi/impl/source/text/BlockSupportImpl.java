@@ -49,6 +49,7 @@ import com.intellij.util.CharTable;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.diff.DiffTree;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class BlockSupportImpl extends BlockSupport {
   private static final Logger LOG = Logger.getInstance("#com.intellij.psi.impl.source.text.BlockSupportImpl");
@@ -272,6 +273,72 @@ public class BlockSupportImpl extends BlockSupport {
     }
   }
 
+  /**
+   * Parses the new text into a copy of the file and diffs it against the current tree without changing the latter,
+   * so it needs read access only and can run in background. Apply the result with {@link #applyReparseLog}.
+   *
+   * @return null if the file can't be merged this way, it should be reparsed as usual then
+   */
+  @Nullable
+  public static DiffLog calcReparseLog(@NotNull PsiFileImpl fileImpl, @NotNull CharSequence newFileText) {
+    final FileElement oldFileElement = fileImpl.getTreeElement();
+    if (oldFileElement == null || fileImpl instanceof PsiCodeFragment) return null;
+    if (oldFileElement.getElementType() instanceof ITemplateDataElementType || isTooDeep(fileImpl)) return null;
+    if (fileImpl.getUserData(DO_NOT_REPARSE_INCREMENTALLY) != null) return null;
+
+    final FileViewProvider viewProvider = fileImpl.getViewProvider();
+    final FileType fileType = viewProvider.getVirtualFile().getFileType();
+    final LightVirtualFile lightFile = new LightVirtualFile(fileImpl.getName(), fileType, newFileText, viewProvider.getVirtualFile().getCharset(),
+                                                            fileImpl.getModificationStamp());
+    try {
+      final PsiFileImpl newFile = (PsiFileImpl)viewProvider.createCopy(lightFile).getPsi(fileImpl.getLanguage());
+      if (newFile == null) return null;
+      newFile.setOriginalFile(fileImpl);
+
+      final FileElement newFileElement = (FileElement)newFile.getNode();
+      if (isTooDeep(newFileElement.getFirstChildNode())) return null;
+      TreeUtil.ensureParsedRecursively(oldFileElement);
+
+      final DiffLog log = new DiffLog();
+      DiffTree.diff(new ASTStructure(oldFileElement), new ASTStructure(newFileElement), new ASTShallowComparator(), log);
+      return log;
+    }
+    finally {
+      ((PsiManagerEx)fileImpl.getManager()).getFileManager().setViewProvider(lightFile, null);
+    }
+  }
+
+  /**
+   * Applies the changes found by {@link #calcReparseLog}; the tree of the file must not have changed since they were computed.
+   */
+  public static void applyReparseLog(@NotNull final PsiFileImpl file, @NotNull final DiffLog log) {
+    file.getManager().performActionWithFormatterDisabled(new Runnable() {
+      public void run() {
+        file.getViewProvider().beforeContentsSynchronized();
+        synchronized (PsiLock.LOCK) {
+          try {
+            final PomModel model = PomManager.getModel(file.getProject());
+            model.runTransaction(new PomTransactionBase(file, model.getModelAspect(TreeAspect.class)) {
+              public PomModelEvent runInner() {
+                final ASTDiffBuilder builder = new ASTDiffBuilder(file);
+                log.replay(builder);
+                file.subtreeChanged();
+
+                return new TreeAspectEvent(model, builder.getEvent());
+              }
+            });
+          }
+          catch (IncorrectOperationException e) {
+            LOG.error(e);
+          }
+          finally {
+            ((PsiManagerEx)file.getManager()).invalidateFile(file);
+          }
+        }
+      }
+    });
+  }
+
   private static void sendPsiBeforeEvent(final PsiFile scope) {
     if (!scope.isPhysical()) return;
     final PsiManagerImpl manager = (PsiManagerImpl)scope.getManager();
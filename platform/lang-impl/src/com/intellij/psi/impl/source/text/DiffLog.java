@@ -0,0 +1,69 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.impl.source.text;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.util.diff.DiffTreeChangeBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the changes found by {@link com.intellij.util.diff.DiffTree} instead of applying them, so that the diff can be computed
+ * with read access only and replayed into an {@link ASTDiffBuilder} later, provided the old tree hasn't changed in between.
+ */
+public class DiffLog implements DiffTreeChangeBuilder<ASTNode, ASTNode> {
+  private final List<LogEntry> myEntries = new ArrayList<LogEntry>();
+
+  private interface LogEntry {
+    void apply(@NotNull ASTDiffBuilder builder);
+  }
+
+  public void nodeReplaced(@NotNull final ASTNode oldChild, @NotNull final ASTNode newChild) {
+    myEntries.add(new LogEntry() {
+      public void apply(@NotNull ASTDiffBuilder builder) {
+        builder.nodeReplaced(oldChild, newChild);
+      }
+    });
+  }
+
+  public void nodeDeleted(@NotNull final ASTNode oldParent, @NotNull final ASTNode oldNode) {
+    myEntries.add(new LogEntry() {
+      public void apply(@NotNull ASTDiffBuilder builder) {
+        builder.nodeDeleted(oldParent, oldNode);
+      }
+    });
+  }
+
+  public void nodeInserted(@NotNull final ASTNode oldParent, @NotNull final ASTNode newNode, final int pos) {
+    myEntries.add(new LogEntry() {
+      public void apply(@NotNull ASTDiffBuilder builder) {
+        builder.nodeInserted(oldParent, newNode, pos);
+      }
+    });
+  }
+
+  public boolean isEmpty() {
+    return myEntries.isEmpty();
+  }
+
+  void replay(@NotNull ASTDiffBuilder builder) {
+    for (LogEntry entry : myEntries) {
+      entry.apply(builder);
+    }
+  }
+}
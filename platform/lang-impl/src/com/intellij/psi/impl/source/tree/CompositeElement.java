@@ -51,7 +51,6 @@ public class CompositeElement extends TreeElement {
   private TreeElement firstChild = null;
   private TreeElement lastChild = null;
 
-  private volatile int myModificationsCount = 0;
   private static final int NOT_CACHED = -239;
   private volatile int myCachedLength = NOT_CACHED;
   private volatile int myHC = -1;
@@ -62,10 +61,6 @@ public class CompositeElement extends TreeElement {
     super(type);
   }
 
-  public int getModificationCount() {
-    return myModificationsCount;
-  }
-
   public Object clone() {
     CompositeElement clone = (CompositeElement)super.clone();
 
@@ -73,7 +68,6 @@ public class CompositeElement extends TreeElement {
       clone.clearCaches();
       clone.firstChild = null;
       clone.lastChild = null;
-      clone.myModificationsCount = 0;
       clone.myWrapper = null;
       for (ASTNode child = rawFirstChild(); child != null; child = child.getTreeNext()) {
         clone.rawAddChildren((TreeElement)child.clone());
@@ -113,8 +107,6 @@ public class CompositeElement extends TreeElement {
     }
     super.clearCaches();
     myCachedLength = NOT_CACHED;
-
-    myModificationsCount++;
     myHC = -1;
     
     clearRelativeOffsets(rawFirstChild());
@@ -17,6 +17,8 @@ package com.intellij.lang;
 
 import com.intellij.lang.impl.PsiBuilderImpl;
 import com.intellij.lexer.LexerBase;
+import com.intellij.lexer.RestartableLexer;
+import com.intellij.openapi.util.UserDataHolderBase;
 import com.intellij.psi.TokenType;
 import com.intellij.psi.impl.DebugUtil;
 import com.intellij.psi.impl.source.tree.ASTStructure;
@@ -33,9 +35,12 @@ import org.junit.Test;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 
@@ -569,6 +574,178 @@ public class PsiBuilderQuickTest {
     );
   }
 
+  @Test
+  public void testIncrementalRelexing() {
+    final UserDataHolderBase holder = new UserDataHolderBase();
+    final MyStatefulLexer lexer = new MyStatefulLexer();
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      text.append("abc 12 \"str ").append(i).append("\" ");
+    }
+    String previous = text.toString();
+    assertLexemes(new PsiBuilderImpl(lexer, TokenSet.EMPTY, TokenSet.EMPTY, previous, holder, null), previous);
+    final int fullLexing = lexer.myAdvances;
+
+    lexer.myAdvances = 0;
+    text.insert(text.length() / 2, "x");
+    assertLexemes(new PsiBuilderImpl(lexer, TokenSet.EMPTY, TokenSet.EMPTY, text.toString(), holder, previous), text.toString());
+    assertTrue(lexer.myAdvances + " of " + fullLexing, lexer.myAdvances < 10);
+    assertTrue(PsiBuilderImpl.getReusedLexemeCount(holder) > fullLexing - 10);
+    previous = text.toString();
+
+    // an opened string changes the lexemes up to the end of the text
+    lexer.myAdvances = 0;
+    text.insert(10, "\"");
+    assertLexemes(new PsiBuilderImpl(lexer, TokenSet.EMPTY, TokenSet.EMPTY, text.toString(), holder, previous), text.toString());
+    assertTrue(lexer.myAdvances + " of " + fullLexing, lexer.myAdvances > fullLexing / 2);
+    previous = text.toString();
+
+    final Random random = new Random(42);
+    final String alphabet = "ab1 \"";
+    for (int i = 0; i < 500; i++) {
+      final int offset = random.nextInt(text.length() + 1);
+      if (random.nextBoolean() && offset < text.length()) {
+        text.delete(offset, Math.min(text.length(), offset + random.nextInt(5) + 1));
+      }
+      else {
+        text.insert(offset, alphabet.charAt(random.nextInt(alphabet.length())));
+      }
+      assertLexemes(new PsiBuilderImpl(lexer, TokenSet.EMPTY, TokenSet.EMPTY, text.toString(), holder, previous), text.toString());
+      previous = text.toString();
+    }
+  }
+
+  @Test
+  public void testNoIncrementalRelexingOfChangedCachedText() {
+    final UserDataHolderBase holder = new UserDataHolderBase();
+    final MyStatefulLexer lexer = new MyStatefulLexer();
+    final String text = "abc 12 \"str\" abc";
+    assertLexemes(new PsiBuilderImpl(lexer, TokenSet.EMPTY, TokenSet.EMPTY, text, holder, null), text);
+
+    // the lexemes kept in the holder were taken from another text
+    final String newText = "abc 12 \"str\" abcd";
+    lexer.myAdvances = 0;
+    assertLexemes(new PsiBuilderImpl(lexer, TokenSet.EMPTY, TokenSet.EMPTY, newText, holder, "abc 1 \"str\" abc"), newText);
+    assertEquals(0, PsiBuilderImpl.getReusedLexemeCount(holder));
+
+    // the lexer doesn't keep its whole state in getState()
+    final UserDataHolderBase otherHolder = new UserDataHolderBase();
+    final MyTestLexer notRestartable = new MyTestLexer();
+    new PsiBuilderImpl(notRestartable, TokenSet.EMPTY, TokenSet.EMPTY, "ab", otherHolder, null);
+    new PsiBuilderImpl(notRestartable, TokenSet.EMPTY, TokenSet.EMPTY, "abc", otherHolder, "ab");
+    assertEquals(0, PsiBuilderImpl.getReusedLexemeCount(otherHolder));
+  }
+
+  @Test
+  public void testNestedBuilderInSameThread() {
+    final String expected = "Element(ROOT)\n" +
+                            "  PsiElement(LETTER)('a')\n" +
+                            "  Element(OTHER)\n" +
+                            "    PsiElement(OTHER)('(')\n" +
+                            "    PsiElement(LETTER)('b')\n" +
+                            "    PsiElement(OTHER)(')')\n" +
+                            "  Element(OTHER)\n" +
+                            "    PsiElement(LETTER)('c')\n";
+    final PsiBuilder outer = new PsiBuilderImpl(new MyTestLexer(), WHITESPACE_SET, COMMENT_SET, "a(b)c");
+    final PsiBuilder.Marker outerRoot = outer.mark();
+    PsiBuilderUtil.advance(outer, 1);
+    final PsiBuilder.Marker outerMarker = outer.mark();
+
+    // e.g. a lazy element parsed while the outer builder is still parsing, its markers go to the pools of the thread
+    doTest("a(b)c", new Parser() {
+      @Override
+      public void parse(PsiBuilder builder) {
+        PsiBuilderUtil.advance(builder, 1);
+        final PsiBuilder.Marker marker = builder.mark();
+        PsiBuilderUtil.advance(builder, 3);
+        marker.done(OTHER);
+        builder.mark().done(OTHER);
+        PsiBuilderUtil.advance(builder, 1);
+      }
+    }, "Element(ROOT)\n" +
+       "  PsiElement(LETTER)('a')\n" +
+       "  Element(OTHER)\n" +
+       "    PsiElement(OTHER)('(')\n" +
+       "    PsiElement(LETTER)('b')\n" +
+       "    PsiElement(OTHER)(')')\n" +
+       "  Element(OTHER)\n" +
+       "    <empty list>\n" +
+       "  PsiElement(LETTER)('c')\n");
+
+    PsiBuilderUtil.advance(outer, 3);
+    outerMarker.done(OTHER);
+    final PsiBuilder.Marker last = outer.mark();
+    PsiBuilderUtil.advance(outer, 1);
+    last.done(OTHER);
+    outerRoot.done(ROOT);
+    assertEquals(expected, DebugUtil.lightTreeToString(outer.getLightTree(), false));
+    assertEquals(expected, DebugUtil.nodeTreeToString(outer.getTreeBuilt(), false));
+  }
+
+  /**
+   * The builders of a thread share the lexeme arrays, the production list and the markers, so a full parse allocates
+   * little besides the tree once the thread has parsed something.
+   */
+  @Test
+  public void testFullParseAllocations() throws Exception {
+    final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+    final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)bean;
+    if (!threadBean.isThreadAllocatedMemorySupported() || !threadBean.isThreadAllocatedMemoryEnabled()) return;
+
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      text.append("a(b)c ");
+    }
+    final long[] allocated = new long[2];
+    final Thread thread = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 0; i < allocated.length; i++) {
+          final long start = threadBean.getThreadAllocatedBytes(getId());
+          parseGroups(text);
+          allocated[i] = threadBean.getThreadAllocatedBytes(getId()) - start;
+        }
+      }
+    };
+    // loads the classes, which would be counted as allocations of the measured thread otherwise
+    parseGroups(text);
+    thread.start();
+    thread.join();
+
+    // the lexemes alone take 8 bytes per lexeme, 12000 lexemes here
+    assertTrue(allocated[1] + " of " + allocated[0], allocated[0] - allocated[1] > 12000 * 8);
+  }
+
+  private static void parseGroups(final CharSequence text) {
+    final PsiBuilder builder = new PsiBuilderImpl(new MyTestLexer(), WHITESPACE_SET, COMMENT_SET, text);
+    final PsiBuilder.Marker root = builder.mark();
+    while (!builder.eof()) {
+      if (builder.getTokenType() == OTHER) {
+        final PsiBuilder.Marker group = builder.mark();
+        PsiBuilderUtil.advance(builder, 3);
+        group.done(OTHER);
+      }
+      else {
+        builder.advanceLexer();
+      }
+    }
+    root.done(ROOT);
+    builder.getTreeBuilt();
+  }
+
+  private static void assertLexemes(final PsiBuilder builder, final String text) {
+    final MyStatefulLexer lexer = new MyStatefulLexer();
+    lexer.start(text);
+    while (lexer.getTokenType() != null) {
+      assertEquals(lexer.getTokenType(), builder.getTokenType());
+      assertEquals(lexer.getTokenStart(), builder.getCurrentOffset());
+      lexer.advance();
+      builder.advanceLexer();
+    }
+    assertTrue(builder.eof());
+  }
+
   private static void doFailTest(final String text, final Parser parser, final String expected) {
     final PrintStream std = System.err;
     //noinspection IOResourceOpenedButNotSafelyClosed
@@ -642,6 +819,92 @@ public class PsiBuilderQuickTest {
     }
   }
 
+  /**
+   * Lexes runs of letters, digits and whitespace; the text in double quotes is a single comment token in the state 1.
+   */
+  private static class MyStatefulLexer extends LexerBase implements RestartableLexer {
+    private CharSequence myBuffer = "";
+    private int myBufferEnd;
+    private int myState;
+    private int myStart;
+    private int myEnd;
+    private int myAdvances;
+
+    @Override
+    public void start(CharSequence buffer, int startOffset, int endOffset, int initialState) {
+      myBuffer = buffer;
+      myBufferEnd = endOffset;
+      myState = initialState;
+      myEnd = startOffset;
+      locateToken();
+    }
+
+    private void locateToken() {
+      myStart = myEnd;
+      if (myStart >= myBufferEnd) return;
+      final char c = myBuffer.charAt(myStart);
+      if (c == '"') {
+        myEnd++;
+      }
+      else if (myState == 1) {
+        while (myEnd < myBufferEnd && myBuffer.charAt(myEnd) != '"') myEnd++;
+      }
+      else if (Character.isLetter(c)) {
+        while (myEnd < myBufferEnd && Character.isLetter(myBuffer.charAt(myEnd))) myEnd++;
+      }
+      else if (Character.isDigit(c)) {
+        while (myEnd < myBufferEnd && Character.isDigit(myBuffer.charAt(myEnd))) myEnd++;
+      }
+      else {
+        while (myEnd < myBufferEnd && Character.isWhitespace(myBuffer.charAt(myEnd))) myEnd++;
+        if (myEnd == myStart) myEnd++;
+      }
+    }
+
+    @Override
+    public int getState() {
+      return myState;
+    }
+
+    @Override
+    public IElementType getTokenType() {
+      if (myStart >= myBufferEnd) return null;
+      final char c = myBuffer.charAt(myStart);
+      if (c == '"') return OTHER;
+      if (myState == 1) return COMMENT;
+      if (Character.isLetter(c)) return LETTER;
+      if (Character.isDigit(c)) return DIGIT;
+      return TokenType.WHITE_SPACE;
+    }
+
+    @Override
+    public int getTokenStart() {
+      return myStart;
+    }
+
+    @Override
+    public int getTokenEnd() {
+      return myEnd;
+    }
+
+    @Override
+    public void advance() {
+      myAdvances++;
+      if (myStart < myBufferEnd && myBuffer.charAt(myStart) == '"') myState = 1 - myState;
+      locateToken();
+    }
+
+    @Override
+    public CharSequence getBufferSequence() {
+      return myBuffer;
+    }
+
+    @Override
+    public int getBufferEnd() {
+      return myBufferEnd;
+    }
+  }
+
   private static class NullStream extends OutputStream {
     @Override
     public void write(final int b) throws IOException { }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.impl.source.resolve;
+
+import com.intellij.mock.MockPsiManager;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.impl.ProgressManagerImpl;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.PsiReferenceBase;
+import com.intellij.psi.impl.FakePsiElement;
+import com.intellij.testFramework.PlatformLiteFixture;
+import com.intellij.util.ArrayUtil;
+
+public class ResolveCacheTest extends PlatformLiteFixture {
+  private ResolveCache myCache;
+  private final PsiReference myRef = new PsiReferenceBase<PsiElement>(new Element("ref"), new TextRange(0, 3)) {
+    public PsiElement resolve() {
+      throw new UnsupportedOperationException();
+    }
+
+    public Object[] getVariants() {
+      return ArrayUtil.EMPTY_OBJECT_ARRAY;
+    }
+  };
+  private int myResolveCount;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    initApplication();
+    registerComponentInstance(getApplication().getPicoContainer(), ProgressManager.class, new ProgressManagerImpl(getApplication()));
+    myCache = new MockPsiManager().getResolveCache();
+  }
+
+  public void testClearedResultsAreResolvedAgain() {
+    final PsiElement[] target = {new Element("a")};
+    final ResolveCache.Resolver resolver = new ResolveCache.Resolver() {
+      public PsiElement resolve(PsiReference ref, boolean incompleteCode) {
+        myResolveCount++;
+        return target[0];
+      }
+    };
+
+    final PsiElement a = target[0];
+    assertSame(a, myCache.resolveWithCaching(myRef, resolver, false, false));
+    assertSame(a, myCache.resolveWithCaching(myRef, resolver, false, false));
+    assertEquals(1, myResolveCount);
+
+    myCache.clearCache();
+    target[0] = new Element("b");
+    assertSame(target[0], myCache.resolveWithCaching(myRef, resolver, false, false));
+    assertEquals(2, myResolveCount);
+  }
+
+  public void testResultResolvedBeforeClearIsNotCached() {
+    final PsiElement stale = new Element("stale");
+    final PsiElement fresh = new Element("fresh");
+    final ResolveCache.Resolver resolver = new ResolveCache.Resolver() {
+      public PsiElement resolve(PsiReference ref, boolean incompleteCode) {
+        if (myResolveCount++ == 0) {
+          // the PSI changes while the first resolve is running
+          myCache.clearCache();
+          return stale;
+        }
+        return fresh;
+      }
+    };
+
+    assertSame(stale, myCache.resolveWithCaching(myRef, resolver, true, false));
+    assertSame(fresh, myCache.resolveWithCaching(myRef, resolver, true, false));
+    assertSame(fresh, myCache.resolveWithCaching(myRef, resolver, true, false));
+    assertEquals(2, myResolveCount);
+  }
+
+  private static class Element extends FakePsiElement {
+    private final String myName;
+
+    private Element(String name) {
+      myName = name;
+    }
+
+    public PsiElement getParent() {
+      return null;
+    }
+
+    @Override
+    public String getName() {
+      return myName;
+    }
+
+    @Override
+    public String toString() {
+      return myName;
+    }
+  }
+}
@@ -25,6 +25,11 @@ import java.util.concurrent.Callable;
 public interface Job<T> {
   // the lower the priority the more important the task is
   int DEFAULT_PRIORITY = 100;
+  // the scheduler keeps separate queues for highlighting (up to this priority), search (up to this one), default
+  // and indexing (this priority and less important) jobs
+  int HIGHLIGHTING_PRIORITY = 50;
+  int SEARCH_PRIORITY = 80;
+  int INDEXING_PRIORITY = 200;
 
   String getTitle();
 
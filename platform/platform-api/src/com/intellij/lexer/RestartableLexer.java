@@ -0,0 +1,24 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.lexer;
+
+/**
+ * Marks a lexer which keeps all its state in {@link Lexer#getState()}: started at the start of any of its tokens with the state
+ * it has returned there, it produces the same tokens as before. Highlighting lexers are restarted this way anyway, parser lexers
+ * implement this interface to let the parser relex only the changed part of a file on reparse.
+ */
+public interface RestartableLexer {
+}
@@ -39,12 +39,13 @@ public abstract class ProgressManager {
 
   public abstract ProgressIndicator getProgressIndicator();
 
-  protected static boolean ourNeedToCheckCancel = false;
+  // volatile, so that the read isn't hoisted out of the loops calling checkCanceled()
+  protected static volatile boolean ourNeedToCheckCancel = false;
   public static void checkCanceled() throws ProcessCanceledException {
-    // smart optimization! There's a thread started in ProgressManagerImpl, that set's this flag up once in 10 milliseconds
+    // smart optimization! The flag is raised by cancelled indicators and by a thread started in ProgressManagerImpl once in 10 milliseconds,
+    // doCheckCanceled() puts it down unless some thread under a cancelled indicator hasn't checked yet
     if (ourNeedToCheckCancel) {
       getInstance().doCheckCanceled();
-      ourNeedToCheckCancel = false;
     }
   }
 
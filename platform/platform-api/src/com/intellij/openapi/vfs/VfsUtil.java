@@ -26,6 +26,7 @@ import com.intellij.openapi.util.ThrowableComputable;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.encoding.EncodingManager;
+import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.Function;
 import com.intellij.util.PathUtil;
@@ -83,6 +84,17 @@ public class VfsUtil {
     }
   }
 
+  /**
+   * Compares paths of the files the same way as <code>file1.getPath().compareTo(file2.getPath())</code> does
+   * but without building the path strings for files in the persistent file systems.
+   */
+  public static int comparePaths(@NotNull VirtualFile file1, @NotNull VirtualFile file2) {
+    if (file1 instanceof NewVirtualFile && file2 instanceof NewVirtualFile) {
+      return ((NewVirtualFile)file1).comparePathTo((NewVirtualFile)file2);
+    }
+    return file1.getPath().compareTo(file2.getPath());
+  }
+
   /**
    * Gets the relative path of <code>file</code> to its <code>ancestor</code>. Uses <code>separator</code> for
    * separating files.
@@ -93,6 +93,35 @@ public abstract class NewVirtualFile extends VirtualFile implements VirtualFileW
 
   public abstract int getId();
 
+  /**
+   * Appends {@link #getPath()} of this file to the builder. Implementations share the path prefixes with the parents
+   * and don't need to build the intermediate string.
+   */
+  public void appendPath(@NotNull StringBuilder builder) {
+    builder.append(getPath());
+  }
+
+  /**
+   * @return <code>getPath().equals(path)</code>, computed without building the path string where possible
+   */
+  public boolean isPathEqualTo(@NotNull String path) {
+    return getPath().equals(path);
+  }
+
+  /**
+   * @return <code>getUrl().equals(url)</code>, computed without building the url string where possible
+   */
+  public boolean isUrlEqualTo(@NotNull String url) {
+    return getUrl().equals(url);
+  }
+
+  /**
+   * @return <code>getPath().compareTo(other.getPath())</code>, computed without building the path strings where possible
+   */
+  public int comparePathTo(@NotNull NewVirtualFile other) {
+    return getPath().compareTo(other.getPath());
+  }
+
   @Nullable
   public abstract NewVirtualFile findChildById(int id);
 
@@ -15,13 +15,13 @@
  */
 package com.intellij.util;
 
-import com.intellij.concurrency.JobScheduler;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Disposer;
+import com.intellij.util.concurrency.TimerWheel;
 import com.intellij.util.ui.update.Activatable;
 import com.intellij.util.ui.update.UiNotifyConnector;
 import org.jetbrains.annotations.NotNull;
@@ -31,9 +31,8 @@ import java.awt.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Alarm implements Disposable {
   private static final Logger LOG = Logger.getInstance("#com.intellij.util.Alarm");
@@ -47,10 +46,21 @@ public class Alarm implements Disposable {
 
   private static final ThreadPoolExecutor ourSharedExecutorService = ConcurrencyUtil.newSingleThreadExecutor("Alarm pool(shared)", Thread.NORM_PRIORITY - 2);
 
+  private static final int TICK_MILLIS = 10;
+  // all the alarms share a single timer, the expired requests are passed to the EDT or to the alarm executor
+  private static final TimerWheel ourTimer = new TimerWheel("Alarm timer", TICK_MILLIS, 512);
+  private static final AtomicInteger ourCoalescedCount = new AtomicInteger();
+  private static final KeyedStatistics<Class, AtomicInteger> ourRequestCounts = new KeyedStatistics<Class, AtomicInteger>(new Function<Class, AtomicInteger>() {
+    public AtomicInteger fun(Class aClass) {
+      return new AtomicInteger();
+    }
+  });
+
   private final Object LOCK = new Object();
   private final ThreadToUse myThreadToUse;
 
   private JComponent myActivationComponent;
+  private boolean myCoalesceRequests;
 
   public void dispose() {
     myDisposed = true;
@@ -122,9 +132,30 @@ public class Alarm implements Disposable {
   }
 
   private void _add(final Request requestToSchedule) {
-    final ScheduledFuture<?> future = JobScheduler.getScheduler().schedule(requestToSchedule, requestToSchedule.myDelay, TimeUnit.MILLISECONDS);
-    requestToSchedule.setFuture(future);
+    final long deadline = System.currentTimeMillis() + requestToSchedule.myDelay;
+    if (myCoalesceRequests) {
+      for (Request request : myRequests) {
+        if (request.isSameAs(requestToSchedule, deadline)) {
+          ourCoalescedCount.incrementAndGet();
+          return;
+        }
+      }
+    }
+
+    requestToSchedule.myDeadline = deadline;
     myRequests.add(requestToSchedule);
+    countRequest(requestToSchedule.getTask());
+    if (requestToSchedule.myDelay <= 0) {
+      // the timer would delay it up to a tick
+      requestToSchedule.run();
+    }
+    else {
+      requestToSchedule.myTimeout = ourTimer.schedule(requestToSchedule, requestToSchedule.myDelay);
+    }
+  }
+
+  private static void countRequest(Runnable task) {
+    ourRequestCounts.get(task.getClass()).incrementAndGet();
   }
 
   private void flushPending() {
@@ -189,8 +220,10 @@ public class Alarm implements Disposable {
   private class Request implements Runnable {
     private Runnable myTask;
     private final ModalityState myModalityState;
+    private TimerWheel.Timeout myTimeout;
     private Future<?> myFuture;
     private final int myDelay;
+    private long myDeadline;
 
     private Request(final Runnable task, final ModalityState modalityState, int delayMillis) {
       myTask = task;
@@ -258,8 +291,12 @@ public class Alarm implements Disposable {
       return myTask;
     }
 
-    public void setFuture(final ScheduledFuture<?> future) {
-      myFuture = future;
+    /**
+     * A request to run the same task in the same modality state within the same timer tick is run just once.
+     */
+    private boolean isSameAs(Request request, long deadline) {
+      return myTask != null && myTask == request.myTask && Math.abs(myDeadline - deadline) < TICK_MILLIS &&
+             (myModalityState == null ? request.myModalityState == null : myModalityState.equals(request.myModalityState));
     }
 
     public ModalityState getModalityState() {
@@ -268,6 +305,9 @@ public class Alarm implements Disposable {
 
     private void cancel() {
       synchronized (LOCK) {
+        if (myTimeout != null) {
+          myTimeout.cancel();
+        }
         if (myFuture != null) {
           myFuture.cancel(false);
         }
@@ -291,7 +331,29 @@ public class Alarm implements Disposable {
     return this;
   }
 
+  /**
+   * Makes the alarm run a request only once if the same runnable is added again in the same modality state and is due within
+   * the same timer tick as a pending one. Off by default, since callers may rely on each request being run.
+   */
+  public Alarm setCoalesceRequests(boolean coalesce) {
+    synchronized (LOCK) {
+      myCoalesceRequests = coalesce;
+    }
+    return this;
+  }
+
   public boolean isDisposed() {
     return myDisposed;
   }
+
+  /**
+   * @return activity of all the alarms: the timer counters and the most frequently scheduled request classes
+   */
+  public static String getStatistics() {
+    return "Timer: " + ourTimer + "; coalesced: " + ourCoalescedCount.get() + '\n' + ourRequestCounts.report(20, new Function<AtomicInteger, Long>() {
+      public Long fun(AtomicInteger count) {
+        return (long)count.get();
+      }
+    });
+  }
 }
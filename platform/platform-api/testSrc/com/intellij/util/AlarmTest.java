@@ -0,0 +1,108 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.Disposer;
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AlarmTest extends TestCase {
+  private Disposable myDisposable;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDisposable = Disposer.newDisposable();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Disposer.dispose(myDisposable);
+    super.tearDown();
+  }
+
+  public void testSameRequestsRunEachWithoutCoalescing() throws Exception {
+    assertEquals(10, runSameRequestTenTimes(new Alarm(Alarm.ThreadToUse.OWN_THREAD, myDisposable)));
+  }
+
+  public void testSameRequestsCoalesced() throws Exception {
+    assertEquals(1, runSameRequestTenTimes(new Alarm(Alarm.ThreadToUse.OWN_THREAD, myDisposable).setCoalesceRequests(true)));
+  }
+
+  private static int runSameRequestTenTimes(Alarm alarm) throws InterruptedException {
+    final AtomicInteger count = new AtomicInteger();
+    final Runnable request = new Runnable() {
+      public void run() {
+        count.incrementAndGet();
+      }
+    };
+    // a deadline far enough to let all the requests be added within one timer tick
+    for (int i = 0; i < 10; i++) {
+      alarm.addRequest(request, 500);
+    }
+    waitForRequests(alarm);
+    flush(alarm);
+    return count.get();
+  }
+
+  public void testZeroDelayRequestRunsAfterEarlierOnes() throws Exception {
+    final Alarm alarm = new Alarm(Alarm.ThreadToUse.OWN_THREAD, myDisposable);
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicInteger order = new AtomicInteger();
+    final AtomicInteger delayedOrder = new AtomicInteger();
+    alarm.addRequest(new Runnable() {
+      public void run() {
+        delayedOrder.set(order.incrementAndGet());
+      }
+    }, 1000);
+    alarm.addRequest(new Runnable() {
+      public void run() {
+        order.incrementAndGet();
+        done.countDown();
+      }
+    }, 0);
+
+    // a zero delay request doesn't wait for the timer, so it runs before the delayed one
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(1, alarm.getActiveRequestCount());
+    assertEquals(0, delayedOrder.get());
+    waitForRequests(alarm);
+    flush(alarm);
+    assertEquals(2, delayedOrder.get());
+  }
+
+  // the own thread of the alarm runs the requests one by one, so the ones passed to it before are done when this one runs
+  private static void flush(Alarm alarm) throws InterruptedException {
+    final CountDownLatch flushed = new CountDownLatch(1);
+    alarm.addRequest(new Runnable() {
+      public void run() {
+        flushed.countDown();
+      }
+    }, 0);
+    assertTrue(flushed.await(10, TimeUnit.SECONDS));
+  }
+
+  private static void waitForRequests(Alarm alarm) throws InterruptedException {
+    for (int i = 0; i < 500 && alarm.getActiveRequestCount() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, alarm.getActiveRequestCount());
+  }
+}
@@ -30,8 +30,6 @@ import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class JobImpl<T> implements Job<T> {
-  private static volatile long ourJobsCounter = 0;
-  private final long myJobIndex = ourJobsCounter++;
   private final int myPriority;
   private final List<PrioritizedFutureTask<T>> myFutures = new ArrayList<PrioritizedFutureTask<T>>();
   private volatile boolean canceled = false;
@@ -79,7 +77,7 @@ public class JobImpl<T> implements Job<T> {
     checkNotScheduled();
 
     PrioritizedFutureTask<T> future =
-      new PrioritizedFutureTask<T>(callable, this, myJobIndex, JobSchedulerImpl.currentTaskIndex(), myPriority, myFailFastOnAcquireReadAction){
+      new PrioritizedFutureTask<T>(callable, this, myPriority, myFailFastOnAcquireReadAction){
         @Override
         protected void done() {
           super.done();
@@ -117,14 +115,14 @@ public class JobImpl<T> implements Job<T> {
 
     submitTasks(tasks, callerHasReadAccess, false);
 
+    // run our own tasks not yet taken by the workers instead of blocking: the pool can be busy with the callers of nested jobs
+    // http://gafter.blogspot.com/2006/11/thread-pool-puzzler.html
+    for (PrioritizedFutureTask task : tasks) {
+      if (isDone()) break;
+      task.run();
+    }
     // in case of imbalanced tasks one huge task can stuck running and we would fall to waitForTermination instead of doing useful work
-    //// http://gafter.blogspot.com/2006/11/thread-pool-puzzler.html
-    //for (PrioritizedFutureTask task : tasks) {
-    //  task.run();
-    //}
-    //
-    while (!isDone() && JobSchedulerImpl.stealAndRunTask()) {
-      int i = 0;
+    while (!isDone() && JobSchedulerImpl.stealAndRunTask(myPriority)) {
     }
 
     waitForTermination();
@@ -20,34 +20,49 @@
 package com.intellij.concurrency;
 
 import com.intellij.openapi.Disposable;
+import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.ThreadFactory;
+import java.util.ArrayDeque;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Work-stealing scheduler: every worker has its own task deques, tasks submitted from a worker go to its own deque
+ * and are taken from the tail by the owner and from the head by idle workers. Tasks submitted from other threads go to
+ * shared submission queues. Both are split into lanes by job priority (see {@link Job#HIGHLIGHTING_PRIORITY}),
+ * more important lanes are always polled first.
+ */
 @NonNls
 public class JobSchedulerImpl extends JobScheduler implements Disposable {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.concurrency.JobSchedulerImpl");
+
   public static final int CORES_COUNT = /*1;//*/ Runtime.getRuntime().availableProcessors();
 
-  private static final ThreadFactory WORKERS_FACTORY = new ThreadFactory() {
-    private int threadSeq;
+  private static final int LANES_COUNT = 4;
 
-    public synchronized Thread newThread(final Runnable r) {
-      @NonNls String name = "JobScheduler pool " + threadSeq + "/" + CORES_COUNT;
-      final Thread thread = new Thread(r, name);
-      thread.setPriority(Thread.NORM_PRIORITY);
-      threadSeq++;
-      return thread;
-    }
-  };
+  private static final TaskDeque[] ourSubmissionQueues = new TaskDeque[LANES_COUNT];
+  private static final Worker[] ourWorkers = new Worker[CORES_COUNT];
+
+  private static final String[] LANE_NAMES = {"highlighting", "search", "default", "indexing"};
 
-  private static final PriorityBlockingQueue<Runnable> ourQueue = new PriorityBlockingQueue<Runnable>();
-  private static final MyExecutor ourExecutor = new MyExecutor();
+  private static final AtomicLong ourSubmittedCount = new AtomicLong();
+  private static final AtomicLong ourStealCount = new AtomicLong();
+  private static final AtomicInteger ourIdleWorkers = new AtomicInteger();
+  private static final Object ourIdleLock = new Object();
 
-  static int currentTaskIndex() {
-    return ourQueue.size();
+  static {
+    for (int i = 0; i < LANES_COUNT; i++) {
+      ourSubmissionQueues[i] = new TaskDeque();
+    }
+    for (int i = 0; i < CORES_COUNT; i++) {
+      ourWorkers[i] = new Worker(i);
+    }
+    for (Worker worker : ourWorkers) {
+      worker.start();
+    }
   }
 
   public <T> Job<T> createJob(String title, int priority) {
@@ -58,32 +73,230 @@ public class JobSchedulerImpl extends JobScheduler implements Disposable {
     ((ThreadPoolExecutor)getScheduler()).getQueue().clear();
   }
 
-  static boolean stealAndRunTask() {
-    Runnable task = ourQueue.poll();
-    if (task == null) return false;
+  private static int getLane(int priority) {
+    if (priority <= Job.HIGHLIGHTING_PRIORITY) return 0;
+    if (priority <= Job.SEARCH_PRIORITY) return 1;
+    if (priority < Job.INDEXING_PRIORITY) return 2;
+    return 3;
+  }
 
-    task.run();
+  /**
+   * @return priority of the task being run by the current thread if it is a scheduler worker, so that nested jobs stay in the same lane
+   */
+  static int getCurrentPriority(int defaultPriority) {
+    final Thread thread = Thread.currentThread();
+    if (thread instanceof Worker) {
+      final int priority = ((Worker)thread).myCurrentPriority;
+      if (priority >= 0) return priority;
+    }
+    return defaultPriority;
+  }
 
+  /**
+   * Runs one pending task at least as important as the priority given in the current thread.
+   * @return false if there were no such tasks
+   */
+  static boolean stealAndRunTask(int priority) {
+    final Thread thread = Thread.currentThread();
+    final Worker worker = thread instanceof Worker ? (Worker)thread : null;
+    final PrioritizedFutureTask task = findTask(worker, getLane(priority));
+    if (task == null) return false;
+
+    if (worker != null) {
+      worker.runTask(task);
+    }
+    else {
+      task.run();
+    }
     return true;
   }
 
+  /**
+   * Lets a long task run by a worker (e.g. indexing a file after another) run the pending tasks of the more important lanes
+   * between its steps, so they don't wait for it to finish. Does nothing in other threads.
+   */
+  public static void runMoreImportantTasks() {
+    final Thread thread = Thread.currentThread();
+    if (!(thread instanceof Worker)) return;
+    final Worker worker = (Worker)thread;
+    if (worker.myCurrentPriority < 0) return;
+    final int lane = getLane(worker.myCurrentPriority);
+    if (lane == 0) return;
+
+    PrioritizedFutureTask task;
+    while ((task = findTask(worker, lane - 1)) != null) {
+      worker.runTask(task);
+    }
+  }
+
   static void submitTask(PrioritizedFutureTask future, boolean callerHasReadAccess, boolean reportExceptions) {
     future.beforeRun(callerHasReadAccess, reportExceptions);
-    ourExecutor.executeTask(future);
+
+    final int lane = getLane(future.getPriority());
+    final Thread thread = Thread.currentThread();
+    if (thread instanceof Worker) {
+      ((Worker)thread).myLanes[lane].addLast(future);
+    }
+    else {
+      ourSubmissionQueues[lane].addLast(future);
+    }
+
+    ourSubmittedCount.incrementAndGet();
+    if (ourIdleWorkers.get() > 0) {
+      synchronized (ourIdleLock) {
+        ourIdleLock.notify();
+      }
+    }
+  }
+
+  @Nullable
+  private static PrioritizedFutureTask findTask(@Nullable Worker worker, int maxLane) {
+    for (int lane = 0; lane <= maxLane; lane++) {
+      PrioritizedFutureTask task = worker == null ? null : worker.myLanes[lane].pollLast();
+      if (task != null) return task;
+
+      task = ourSubmissionQueues[lane].pollFirst();
+      if (task != null) return task;
+
+      final int start = worker == null ? 0 : worker.myIndex + 1;
+      for (int i = 0; i < ourWorkers.length; i++) {
+        final Worker victim = ourWorkers[(start + i) % ourWorkers.length];
+        if (victim == worker) continue;
+        task = victim.myLanes[lane].pollFirst();
+        if (task != null) {
+          ourStealCount.incrementAndGet();
+          return task;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return number of tasks of the lane submitted but not yet started by any thread
+   */
+  private static int getQueueDepth(int lane) {
+    int result = ourSubmissionQueues[lane].size();
+    for (Worker worker : ourWorkers) {
+      result += worker.myLanes[lane].size();
+    }
+    return result;
+  }
+
+  /**
+   * @return number of tasks submitted but not yet started by any thread
+   */
+  public static int getQueueDepth() {
+    int result = 0;
+    for (int lane = 0; lane < LANES_COUNT; lane++) {
+      result += getQueueDepth(lane);
+    }
+    return result;
+  }
+
+  public static long getSubmittedCount() {
+    return ourSubmittedCount.get();
   }
 
-  private static class MyExecutor extends ThreadPoolExecutor {
-    private MyExecutor() {
-      super(CORES_COUNT, Integer.MAX_VALUE, 60 * 10, TimeUnit.SECONDS, ourQueue, WORKERS_FACTORY);
+  /**
+   * @return number of tasks taken by a worker from the deque of another worker
+   */
+  public static long getStealCount() {
+    return ourStealCount.get();
+  }
+
+  /**
+   * @return submitted and stolen task counters and the number of tasks waiting in every lane
+   */
+  public static String getStatistics() {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("Workers: ").append(CORES_COUNT).append(", idle: ").append(ourIdleWorkers.get()).append('\n');
+    builder.append("Submitted: ").append(getSubmittedCount()).append(", stolen: ").append(getStealCount()).append('\n');
+    for (int lane = 0; lane < LANES_COUNT; lane++) {
+      builder.append("Waiting in ").append(LANE_NAMES[lane]).append(" lane: ").append(getQueueDepth(lane)).append('\n');
     }
+    return builder.toString();
+  }
+
+  private static class TaskDeque {
+    private final ArrayDeque<PrioritizedFutureTask> myTasks = new ArrayDeque<PrioritizedFutureTask>();
 
-    private void executeTask(final PrioritizedFutureTask task) {
-      super.execute(task);
+    private synchronized void addLast(PrioritizedFutureTask task) {
+      myTasks.addLast(task);
+    }
+
+    @Nullable
+    private synchronized PrioritizedFutureTask pollLast() {
+      return myTasks.pollLast();
+    }
+
+    @Nullable
+    private synchronized PrioritizedFutureTask pollFirst() {
+      return myTasks.pollFirst();
+    }
+
+    private synchronized int size() {
+      int result = 0;
+      for (PrioritizedFutureTask task : myTasks) {
+        if (!task.isStarted()) result++;
+      }
+      return result;
+    }
+  }
+
+  private static class Worker extends Thread {
+    private final int myIndex;
+    private final TaskDeque[] myLanes = new TaskDeque[LANES_COUNT];
+    private int myCurrentPriority = -1;
+
+    private Worker(int index) {
+      super("JobScheduler pool " + index + "/" + CORES_COUNT);
+      myIndex = index;
+      for (int i = 0; i < LANES_COUNT; i++) {
+        myLanes[i] = new TaskDeque();
+      }
+      setPriority(Thread.NORM_PRIORITY);
+      setDaemon(true);
     }
 
     @Override
-    public void execute(Runnable command) {
-      throw new IllegalStateException("Use executeTask() to submit PrioritizedFutureTasks only");
+    public void run() {
+      while (true) {
+        final long submitted = ourSubmittedCount.get();
+        final PrioritizedFutureTask task = findTask(this, LANES_COUNT - 1);
+        if (task != null) {
+          runTask(task);
+          continue;
+        }
+
+        synchronized (ourIdleLock) {
+          ourIdleWorkers.incrementAndGet();
+          try {
+            if (ourSubmittedCount.get() == submitted) {
+              ourIdleLock.wait();
+            }
+          }
+          catch (InterruptedException ignored) {
+          }
+          finally {
+            ourIdleWorkers.decrementAndGet();
+          }
+        }
+      }
+    }
+
+    private void runTask(PrioritizedFutureTask task) {
+      final int oldPriority = myCurrentPriority;
+      myCurrentPriority = task.getPriority();
+      try {
+        task.run();
+      }
+      catch (Throwable e) {
+        LOG.error(e);
+      }
+      finally {
+        myCurrentPriority = oldPriority;
+      }
     }
   }
 }
@@ -42,8 +42,10 @@ public class JobUtil {
 
   private static <T> boolean invokeConcurrentlyForAll(@NotNull final List<T> things,
                                                       @NotNull final Processor<T> thingProcessor,
-                                                      boolean failFastOnAcquireReadAction) throws ProcessCanceledException {
-    final Job<String> job = new JobImpl<String>(Job.DEFAULT_PRIORITY, failFastOnAcquireReadAction);
+                                                      boolean failFastOnAcquireReadAction,
+                                                      int priority) throws ProcessCanceledException {
+    // nested jobs are at least as important as the task they are started from, e.g. a search started by highlighting
+    final Job<String> job = new JobImpl<String>(Math.min(priority, JobSchedulerImpl.getCurrentPriority(priority)), failFastOnAcquireReadAction);
 
     final int chunkSize = Math.max(1, things.size() / JobSchedulerImpl.CORES_COUNT / 100);
     for (int i = 0; i < things.size(); i += chunkSize) {
@@ -98,6 +100,18 @@ public class JobUtil {
                                                             @NotNull final Processor<T> thingProcessor,
                                                             boolean failFastOnAcquireReadAction,
                                                             ProgressIndicator progress) throws ProcessCanceledException {
+    return invokeConcurrentlyUnderProgress(things, thingProcessor, failFastOnAcquireReadAction, progress, Job.DEFAULT_PRIORITY);
+  }
+
+  /**
+   * Same as {@link #invokeConcurrentlyUnderProgress(List, Processor, boolean, ProgressIndicator)}, the tasks are queued in the lane
+   * of the given priority, see {@link Job#HIGHLIGHTING_PRIORITY}.
+   */
+  public static <T> boolean invokeConcurrentlyUnderProgress(@NotNull List<T> things,
+                                                            @NotNull final Processor<T> thingProcessor,
+                                                            boolean failFastOnAcquireReadAction,
+                                                            ProgressIndicator progress,
+                                                            int priority) throws ProcessCanceledException {
     if (things.isEmpty()) {
       return true;
     }
@@ -118,7 +132,7 @@ public class JobUtil {
         }, wrapper);
         return result[0];
       }
-    }, failFastOnAcquireReadAction);
+    }, failFastOnAcquireReadAction, priority);
   }
 
   public static Job<Void> submitToJobThread(@NotNull final Runnable action, int priority) {
@@ -27,27 +27,24 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-class PrioritizedFutureTask<T> extends FutureTask<T> implements Comparable<PrioritizedFutureTask> {
+class PrioritizedFutureTask<T> extends FutureTask<T> {
   private static final Logger LOG = Logger.getInstance("#com.intellij.concurrency.PrioritizedFutureTask");
   private final JobImpl<T> myJob;
-  private final long myJobIndex;
-  private final int myTaskIndex;
   private final int myPriority;
   private final boolean myFailFastOnAcquireReadAction;
   private volatile boolean myParentThreadHasReadAccess;
   private volatile boolean myReportExceptions;
+  // the task can be run by a pool worker or by the thread waiting for its job, whichever comes first
+  private final AtomicBoolean myStarted = new AtomicBoolean();
 
   PrioritizedFutureTask(final Callable<T> callable,
                         JobImpl<T> job,
-                        long jobIndex,
-                        int taskIndex,
                         int priority,
                         boolean failFastOnAcquireReadAction) {
     super(callable);
     myJob = job;
-    myJobIndex = jobIndex;
-    myTaskIndex = taskIndex;
     myPriority = priority;
     myFailFastOnAcquireReadAction = failFastOnAcquireReadAction;
   }
@@ -57,8 +54,18 @@ class PrioritizedFutureTask<T> extends FutureTask<T> implements Comparable<Prior
     myReportExceptions = reportExceptions;
   }
 
+  public int getPriority() {
+    return myPriority;
+  }
+
+  public boolean isStarted() {
+    return myStarted.get();
+  }
+
   @Override
   public void run() {
+    if (!myStarted.compareAndSet(false, true)) return;
+
     Runnable runnable = new Runnable() {
       public void run() {
         try {
@@ -113,11 +120,4 @@ class PrioritizedFutureTask<T> extends FutureTask<T> implements Comparable<Prior
       runnable.run();
     }
   }
-
-  public int compareTo(final PrioritizedFutureTask o) {
-    int priorityDelta = myPriority - o.myPriority;
-    if (priorityDelta != 0) return priorityDelta;
-    if (myJobIndex != o.myJobIndex) return myJobIndex < o.myJobIndex ? -1 : 1;
-    return myTaskIndex - o.myTaskIndex;
-  }
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.diagnostic;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durations in power-of-two microsecond buckets: bucket i counts durations in [2^(i-1), 2^i) microseconds.
+ * <p/>
+ * Every thread records into its own counters, so recording doesn't contend with other threads; the counters are merged
+ * when the statistics are requested.
+ */
+public class Histogram {
+  private static final int BUCKETS = 32;
+  private static final int MIN_SWEEP_THRESHOLD = 16;
+
+  private final Map<Thread, Counters> myThreadCounters = new ConcurrentHashMap<Thread, Counters>();
+  private final ThreadLocal<Counters> myCounters = new ThreadLocal<Counters>() {
+    @Override
+    protected Counters initialValue() {
+      final Counters counters = new Counters();
+      myThreadCounters.put(Thread.currentThread(), counters);
+      if (myThreadCounters.size() >= mySweepThreshold) {
+        sweepDeadThreads();
+      }
+      return counters;
+    }
+  };
+  // counters of the threads that have died, guarded by this
+  private final Counters myRetired = new Counters();
+  // incremented on reset, the counters of older generations are ignored and cleared by their threads on the next add
+  private volatile int myGeneration;
+  // the dead threads are swept out when the number of threads doubles since the last sweep, so short-lived threads don't pile up
+  private volatile int mySweepThreshold = MIN_SWEEP_THRESHOLD;
+
+  public void add(long nanos) {
+    final Counters counters = myCounters.get();
+    final int generation = myGeneration;
+    if (counters.myGeneration != generation) {
+      counters.clear(generation);
+    }
+    counters.add(nanos);
+  }
+
+  public synchronized void reset() {
+    myGeneration++;
+    myRetired.clear(myGeneration);
+  }
+
+  private synchronized void sweepDeadThreads() {
+    if (myThreadCounters.size() < mySweepThreshold) return;
+    retireDeadThreads();
+    mySweepThreshold = Math.max(MIN_SWEEP_THRESHOLD, 2 * myThreadCounters.size());
+  }
+
+  // guarded by this
+  private void retireDeadThreads() {
+    final int generation = myGeneration;
+    for (Iterator<Map.Entry<Thread, Counters>> it = myThreadCounters.entrySet().iterator(); it.hasNext();) {
+      final Map.Entry<Thread, Counters> entry = it.next();
+      if (entry.getKey().isAlive()) continue;
+      it.remove();
+      final Counters counters = entry.getValue();
+      if (counters.myGeneration == generation) {
+        myRetired.addAll(counters);
+      }
+    }
+  }
+
+  @NotNull
+  private synchronized Counters merge() {
+    retireDeadThreads();
+    final int generation = myGeneration;
+    final Counters result = new Counters();
+    result.addAll(myRetired);
+    for (Counters counters : myThreadCounters.values()) {
+      if (counters.myGeneration == generation) {
+        result.addAll(counters);
+      }
+    }
+    return result;
+  }
+
+  int getThreadCount() {
+    return myThreadCounters.size();
+  }
+
+  public long getCount() {
+    return merge().myCount;
+  }
+
+  public long getMaxNanos() {
+    return merge().myMaxNanos;
+  }
+
+  public long getTotalNanos() {
+    return merge().myTotalNanos;
+  }
+
+  /**
+   * @return number of durations less than 2^bucket microseconds but not less than half of that
+   */
+  public long getBucketCount(int bucket) {
+    return merge().myBuckets[bucket];
+  }
+
+  @Nullable
+  private static String bucketLimit(int bucket) {
+    if (bucket == BUCKETS - 1) return null;
+    final long micros = 1L << bucket;
+    return micros < 1000 ? micros + "us" : micros / 1000 + "ms";
+  }
+
+  public void appendJson(@NotNull StringBuilder builder) {
+    final Counters counters = merge();
+    builder.append("{\"count\": ").append(counters.myCount)
+      .append(", \"totalMs\": ").append(TimeUnit.NANOSECONDS.toMillis(counters.myTotalNanos))
+      .append(", \"maxMs\": ").append(TimeUnit.NANOSECONDS.toMillis(counters.myMaxNanos))
+      .append(", \"buckets\": {");
+    boolean first = true;
+    for (int i = 0; i < BUCKETS; i++) {
+      final long count = counters.myBuckets[i];
+      if (count == 0) continue;
+      if (!first) builder.append(", ");
+      first = false;
+      final String limit = bucketLimit(i);
+      builder.append('"').append(limit == null ? "more" : "<" + limit).append("\": ").append(count);
+    }
+    builder.append("}}");
+  }
+
+  @Override
+  public String toString() {
+    final Counters counters = merge();
+    final StringBuilder builder = new StringBuilder();
+    builder.append("count=").append(counters.myCount)
+      .append(" total=").append(TimeUnit.NANOSECONDS.toMillis(counters.myTotalNanos)).append("ms")
+      .append(" max=").append(TimeUnit.NANOSECONDS.toMillis(counters.myMaxNanos)).append("ms\n");
+    for (int i = 0; i < BUCKETS; i++) {
+      final long count = counters.myBuckets[i];
+      if (count == 0) continue;
+      final String limit = bucketLimit(i);
+      builder.append(limit == null ? "more" : "<" + limit).append('\t').append(count).append('\n');
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Written by a single thread. The count is volatile and written last, so a reader that has seen it sees the rest as well.
+   */
+  private static class Counters {
+    private final long[] myBuckets = new long[BUCKETS];
+    private long myTotalNanos;
+    private long myMaxNanos;
+    private volatile long myCount;
+    private volatile int myGeneration;
+
+    private void add(long nanos) {
+      final long micros = nanos / 1000;
+      myBuckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))]++;
+      myTotalNanos += nanos;
+      if (nanos > myMaxNanos) {
+        myMaxNanos = nanos;
+      }
+      myCount++;
+    }
+
+    private void addAll(@NotNull Counters counters) {
+      final long count = counters.myCount;
+      for (int i = 0; i < BUCKETS; i++) {
+        myBuckets[i] += counters.myBuckets[i];
+      }
+      myTotalNanos += counters.myTotalNanos;
+      myMaxNanos = Math.max(myMaxNanos, counters.myMaxNanos);
+      myCount += count;
+    }
+
+    private void clear(int generation) {
+      Arrays.fill(myBuckets, 0);
+      myTotalNanos = 0;
+      myMaxNanos = 0;
+      myCount = 0;
+      myGeneration = generation;
+    }
+  }
+}
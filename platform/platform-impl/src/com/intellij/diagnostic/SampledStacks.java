@@ -0,0 +1,60 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.diagnostic;
+
+import com.intellij.openapi.util.Factory;
+import com.intellij.util.Function;
+import com.intellij.util.KeyedStatistics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Records of the thread stacks seen by a sampler, keyed by the top frames of the stack. The number of distinct stacks is bounded,
+ * so a sampler left on for the whole session doesn't grow without limit.
+ */
+public class SampledStacks<T> extends KeyedStatistics<String, T> {
+  private static final int MAX_STACKS = 500;
+  private static final int MAX_KEY_FRAMES = 12;
+
+  public SampledStacks(@NotNull final Factory<T> factory) {
+    super(new Function<String, T>() {
+      public T fun(String key) {
+        return factory.create();
+      }
+    });
+  }
+
+  /**
+   * @return the record of the current stack of the thread, null if the thread has no stack or there are too many stacks already
+   */
+  @Nullable
+  public T getRecord(@NotNull Thread thread) {
+    final String key = getKey(thread.getStackTrace());
+    if (key.length() == 0) return null;
+    final T record = find(key);
+    if (record != null || size() >= MAX_STACKS) return record;
+    return get(key);
+  }
+
+  @NotNull
+  private static String getKey(@NotNull StackTraceElement[] stack) {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < stack.length && i < MAX_KEY_FRAMES; i++) {
+      builder.append(stack[i]).append('\n');
+    }
+    return builder.toString();
+  }
+}
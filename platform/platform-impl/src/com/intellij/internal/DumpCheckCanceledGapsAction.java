@@ -0,0 +1,51 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.internal;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.progress.impl.CheckCanceledSampler;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the code running without cancellation checks, as sampled by {@link CheckCanceledSampler}, to the log directory.
+ */
+public class DumpCheckCanceledGapsAction extends AnAction implements DumbAware {
+  public void actionPerformed(AnActionEvent e) {
+    final CheckCanceledSampler sampler = CheckCanceledSampler.getInstance();
+    if (sampler == null) return;
+    final File file = new File(PathManager.getLogPath(), "checkCanceledGaps-" + System.currentTimeMillis() + ".txt");
+    try {
+      FileUtil.writeToFile(file, sampler.toString().getBytes());
+      Messages.showInfoMessage(e.getData(PlatformDataKeys.PROJECT), sampler.getGaps().size() + " stacks saved to " + file, "checkCanceled() Gaps");
+    }
+    catch (IOException ex) {
+      Messages.showErrorDialog(e.getData(PlatformDataKeys.PROJECT), "Cannot save " + file + ": " + ex.getMessage(), "checkCanceled() Gaps");
+    }
+  }
+
+  @Override
+  public void update(AnActionEvent e) {
+    e.getPresentation().setEnabled(CheckCanceledSampler.getInstance() != null);
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.internal;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.application.impl.ActionsLockProfiler;
+import com.intellij.openapi.application.impl.ApplicationImpl;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes read/write lock statistics collected by {@link ActionsLockProfiler} to the log directory.
+ */
+public class DumpLockStatisticsAction extends AnAction implements DumbAware {
+  public void actionPerformed(AnActionEvent e) {
+    final ActionsLockProfiler profiler = ((ApplicationImpl)ApplicationManager.getApplication()).getLockProfiler();
+    final File file = new File(PathManager.getLogPath(), "lockStatistics-" + System.currentTimeMillis() + ".json");
+    try {
+      FileUtil.writeToFile(file, profiler.toJson().getBytes());
+      Messages.showInfoMessage(e.getData(PlatformDataKeys.PROJECT), profiler + "\nSaved to " + file, "Lock Statistics");
+    }
+    catch (IOException ex) {
+      Messages.showErrorDialog(e.getData(PlatformDataKeys.PROJECT), "Cannot save " + file + ": " + ex.getMessage(), "Lock Statistics");
+    }
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.internal;
+
+import com.intellij.concurrency.JobSchedulerImpl;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.ui.Messages;
+
+/**
+ * Shows how many tasks were submitted to the job scheduler and stolen by its workers from each other, and how many wait in every lane.
+ */
+public class ShowJobSchedulerStatisticsAction extends AnAction implements DumbAware {
+  public void actionPerformed(AnActionEvent e) {
+    Messages.showInfoMessage(e.getData(PlatformDataKeys.PROJECT), JobSchedulerImpl.getStatistics(), "Job Scheduler Statistics");
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.internal;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.application.impl.ApplicationImpl;
+import com.intellij.openapi.application.impl.PooledTaskMonitor;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the pooled thread tasks running now and the statistics collected by {@link PooledTaskMonitor} to the log directory.
+ */
+public class ShowPooledThreadTasksAction extends AnAction implements DumbAware {
+  public void actionPerformed(AnActionEvent e) {
+    final PooledTaskMonitor monitor = ((ApplicationImpl)ApplicationManager.getApplication()).getPooledTaskMonitor();
+    final String report = monitor.toString();
+    final File file = new File(PathManager.getLogPath(), "pooledThreadTasks-" + System.currentTimeMillis() + ".txt");
+    try {
+      FileUtil.writeToFile(file, report.getBytes());
+      Messages.showInfoMessage(e.getData(PlatformDataKeys.PROJECT), monitor.getRunningTasks().size() + " tasks running now\nSaved to " + file,
+                               "Pooled Thread Tasks");
+    }
+    catch (IOException ex) {
+      Messages.showErrorDialog(e.getData(PlatformDataKeys.PROJECT), "Cannot save " + file + ": " + ex.getMessage(), "Pooled Thread Tasks");
+    }
+  }
+}
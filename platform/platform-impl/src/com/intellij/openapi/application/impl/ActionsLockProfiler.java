@@ -0,0 +1,315 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.application.impl;
+
+import com.intellij.concurrency.JobScheduler;
+import com.intellij.diagnostic.Histogram;
+import com.intellij.diagnostic.SampledStacks;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Factory;
+import com.intellij.util.Function;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Always-on statistics of the application read/write lock: how long read actions hold it, how long write actions wait for it,
+ * and what the read actions were doing while a write action was waiting (sampled stacks of the reader threads).
+ * <p/>
+ * When a write action waits longer than the dump threshold, a snapshot with the stacks of all the current readers is written
+ * to the log directory.
+ */
+public class ActionsLockProfiler {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.application.impl.ActionsLockProfiler");
+
+  @NonNls private static final String SAMPLE_THRESHOLD_PROPERTY = "idea.write.action.wait.sample.ms";
+  @NonNls private static final String DUMP_THRESHOLD_PROPERTY = "idea.write.action.wait.dump.ms";
+  private static final int MIN_READERS_SWEEP_THRESHOLD = 16;
+
+  private final long mySampleThresholdMs;
+  private final long myDumpThresholdMs;
+
+  private final Histogram myReadHoldTimes = new Histogram();
+  private final Histogram myWriteWaitTimes = new Histogram();
+
+  // the threads that have taken the read lock; the dead ones are dropped when the map doubles in size since the last sweep
+  private final Map<Thread, ReaderState> myReaders = new ConcurrentHashMap<Thread, ReaderState>();
+  private volatile int myReadersSweepThreshold = MIN_READERS_SWEEP_THRESHOLD;
+  private final ThreadLocal<ReaderState> myReaderState = new ThreadLocal<ReaderState>() {
+    @Override
+    protected ReaderState initialValue() {
+      final ReaderState state = new ReaderState();
+      myReaders.put(Thread.currentThread(), state);
+      if (myReaders.size() >= myReadersSweepThreshold) {
+        sweepDeadReaders();
+      }
+      return state;
+    }
+  };
+  private final SampledStacks<AtomicInteger> myBlockingStacks = new SampledStacks<AtomicInteger>(new Factory<AtomicInteger>() {
+    public AtomicInteger create() {
+      return new AtomicInteger();
+    }
+  });
+
+  // System.nanoTime() when the current write action started to wait, 0 if none is waiting
+  private volatile long myWriteWaitStart;
+  private volatile long myDumpedWaitStart;
+  private ScheduledFuture<?> mySampler;
+
+  public ActionsLockProfiler() {
+    this(Long.getLong(SAMPLE_THRESHOLD_PROPERTY, 100), Long.getLong(DUMP_THRESHOLD_PROPERTY, 3000));
+  }
+
+  ActionsLockProfiler(long sampleThresholdMs, long dumpThresholdMs) {
+    mySampleThresholdMs = sampleThresholdMs;
+    myDumpThresholdMs = dumpThresholdMs;
+  }
+
+  synchronized void startSampling() {
+    if (mySampler != null || mySampleThresholdMs <= 0) return;
+    mySampler = JobScheduler.getScheduler().scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          sample();
+        }
+        catch (Throwable e) {
+          LOG.error(e);
+        }
+      }
+    }, mySampleThresholdMs, mySampleThresholdMs, TimeUnit.MILLISECONDS);
+  }
+
+  synchronized void stopSampling() {
+    if (mySampler != null) {
+      mySampler.cancel(false);
+      mySampler = null;
+    }
+  }
+
+  private synchronized void sweepDeadReaders() {
+    if (myReaders.size() < myReadersSweepThreshold) return;
+    for (Iterator<Thread> it = myReaders.keySet().iterator(); it.hasNext();) {
+      if (!it.next().isAlive()) {
+        it.remove();
+      }
+    }
+    myReadersSweepThreshold = Math.max(MIN_READERS_SWEEP_THRESHOLD, 2 * myReaders.size());
+  }
+
+  int getReaderThreadCount() {
+    return myReaders.size();
+  }
+
+  long readLockAcquired() {
+    final long start = System.nanoTime();
+    final ReaderState state = myReaderState.get();
+    if (state.myDepth++ == 0) {
+      state.myAcquired = start;
+    }
+    return start;
+  }
+
+  void readLockReleased(long acquired) {
+    final ReaderState state = myReaderState.get();
+    if (--state.myDepth == 0) {
+      state.myAcquired = 0;
+    }
+    myReadHoldTimes.add(System.nanoTime() - acquired);
+  }
+
+  long writeLockRequested() {
+    final long start = System.nanoTime();
+    myWriteWaitStart = start;
+    return start;
+  }
+
+  void writeLockAcquired(long requested) {
+    myWriteWaitStart = 0;
+    myWriteWaitTimes.add(System.nanoTime() - requested);
+  }
+
+  /**
+   * Records the stacks of the current readers if a write action has been waiting for longer than the sample threshold.
+   */
+  void sample() {
+    final long waitStart = myWriteWaitStart;
+    if (waitStart == 0) return;
+    final long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStart);
+    if (waitedMs < mySampleThresholdMs) return;
+
+    for (Thread reader : getCurrentReaders().keySet()) {
+      final AtomicInteger count = myBlockingStacks.getRecord(reader);
+      if (count != null) {
+        count.incrementAndGet();
+      }
+    }
+
+    if (myDumpThresholdMs > 0 && waitedMs >= myDumpThresholdMs && myDumpedWaitStart != waitStart) {
+      myDumpedWaitStart = waitStart;
+      dumpSnapshot(waitedMs);
+    }
+  }
+
+  /**
+   * @return threads holding the read lock now, with System.nanoTime() when they acquired it
+   */
+  @NotNull
+  private Map<Thread, Long> getCurrentReaders() {
+    final Map<Thread, Long> result = new HashMap<Thread, Long>();
+    for (Iterator<Map.Entry<Thread, ReaderState>> it = myReaders.entrySet().iterator(); it.hasNext();) {
+      final Map.Entry<Thread, ReaderState> entry = it.next();
+      final long acquired = entry.getValue().myAcquired;
+      if (acquired != 0) {
+        result.put(entry.getKey(), acquired);
+      }
+      else if (!entry.getKey().isAlive()) {
+        it.remove();
+      }
+    }
+    return result;
+  }
+
+  private void dumpSnapshot(long waitedMs) {
+    final String fileName = "writeActionWait-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".txt";
+    final File file = new File(PathManager.getLogPath(), fileName);
+    try {
+      final Writer writer = new OutputStreamWriter(new FileOutputStream(file));
+      try {
+        writer.write(getSnapshot(waitedMs));
+        writer.write("\n");
+        writer.write(toJson());
+      }
+      finally {
+        writer.close();
+      }
+      LOG.info("Write action has been waiting for " + waitedMs + "ms, readers dumped to " + file);
+    }
+    catch (IOException e) {
+      LOG.info("Cannot dump readers to " + file + ": " + e.getMessage());
+    }
+  }
+
+  @NotNull
+  String getSnapshot(long waitedMs) {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("Write action waiting for ").append(waitedMs).append("ms\n");
+    final long now = System.nanoTime();
+    for (Map.Entry<Thread, Long> entry : getCurrentReaders().entrySet()) {
+      final Thread reader = entry.getKey();
+      builder.append('\n').append(reader.getName())
+        .append(" holds read lock for ").append(TimeUnit.NANOSECONDS.toMillis(now - entry.getValue())).append("ms\n");
+      for (StackTraceElement element : reader.getStackTrace()) {
+        builder.append("\tat ").append(element).append('\n');
+      }
+    }
+    return builder.toString();
+  }
+
+  @NotNull
+  public Histogram getReadHoldTimes() {
+    return myReadHoldTimes;
+  }
+
+  @NotNull
+  public Histogram getWriteWaitTimes() {
+    return myWriteWaitTimes;
+  }
+
+  /**
+   * @return sampled reader stacks with the number of times they were seen blocking a write action, most frequent first
+   */
+  @NotNull
+  public List<Map.Entry<String, Integer>> getBlockingStacks() {
+    final List<Map.Entry<String, Integer>> result = new ArrayList<Map.Entry<String, Integer>>();
+    final List<Map.Entry<String, AtomicInteger>> stacks = myBlockingStacks.getHeaviest(new Function<AtomicInteger, Long>() {
+      public Long fun(AtomicInteger count) {
+        return (long)count.get();
+      }
+    });
+    for (Map.Entry<String, AtomicInteger> entry : stacks) {
+      result.add(new AbstractMap.SimpleEntry<String, Integer>(entry.getKey(), entry.getValue().get()));
+    }
+    return result;
+  }
+
+  public void reset() {
+    myReadHoldTimes.reset();
+    myWriteWaitTimes.reset();
+    myBlockingStacks.clear();
+  }
+
+  @NonNls
+  @NotNull
+  public String toJson() {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("{\n  \"readHold\": ");
+    myReadHoldTimes.appendJson(builder);
+    builder.append(",\n  \"writeWait\": ");
+    myWriteWaitTimes.appendJson(builder);
+    builder.append(",\n  \"blockingStacks\": [");
+    boolean first = true;
+    for (Map.Entry<String, Integer> entry : getBlockingStacks()) {
+      builder.append(first ? "\n" : ",\n");
+      first = false;
+      builder.append("    {\"samples\": ").append(entry.getValue()).append(", \"stack\": \"");
+      appendEscaped(builder, entry.getKey());
+      builder.append("\"}");
+    }
+    builder.append("\n  ]\n}\n");
+    return builder.toString();
+  }
+
+  @NonNls
+  @NotNull
+  @Override
+  public String toString() {
+    return "Read lock hold times:\n" + myReadHoldTimes + "\nWrite lock wait times:\n" + myWriteWaitTimes;
+  }
+
+  private static void appendEscaped(StringBuilder builder, String s) {
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      switch (c) {
+        case '"': builder.append("\\\""); break;
+        case '\\': builder.append("\\\\"); break;
+        case '\n': builder.append("\\n"); break;
+        case '\t': builder.append("\\t"); break;
+        default:
+          if (c < ' ') {
+            builder.append(String.format("\\u%04x", (int)c));
+          }
+          else {
+            builder.append(c);
+          }
+      }
+    }
+  }
+
+  private static class ReaderState {
+    // written by the owner thread only
+    private int myDepth;
+    private volatile long myAcquired;
+  }
+}
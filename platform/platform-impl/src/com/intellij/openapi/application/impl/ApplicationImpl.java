@@ -61,6 +61,7 @@ import com.intellij.util.Consumer;
 import com.intellij.util.EventDispatcher;
 import com.intellij.util.ReflectionCache;
 import com.intellij.util.concurrency.ReentrantWriterPreferenceReadWriteLock;
+import com.intellij.util.containers.ConcurrentHashSet;
 import com.intellij.util.containers.Stack;
 import com.intellij.util.ui.UIUtil;
 import org.jetbrains.annotations.NonNls;
@@ -74,6 +75,7 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -94,6 +96,10 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
 
   private final ReentrantWriterPreferenceReadWriteLock myActionsLock = new ReentrantWriterPreferenceReadWriteLock();
   private final Stack<Runnable> myWriteActionsStack = new Stack<Runnable>(); // accessed from EDT only, no need to sync
+  private final ActionsLockProfiler myLockProfiler = new ActionsLockProfiler();
+  // indicators of the read actions to cancel as soon as a write action is requested, see ProgressIndicatorUtils
+  private final Set<ProgressIndicator> myWriteActionPriorityIndicators = new ConcurrentHashSet<ProgressIndicator>();
+  private volatile boolean myWriteActionPending;
 
   private volatile Runnable myExceptionalThreadWithReadAccessRunnable;
 
@@ -142,6 +148,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
       }
     }
   );
+  private final PooledTaskMonitor myPooledTaskMonitor = new PooledTaskMonitor(ourThreadExecutorsService);
   private boolean myIsFiringLoadingEvent = false;
   @NonNls private static final String WAS_EVER_SHOWN = "was.ever.shown";
 
@@ -198,6 +205,10 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
     myHeadlessMode = isHeadless;
     myCommandLineMode = isCommandLine;
 
+    if (!isUnitTestMode) {
+      myLockProfiler.startSampling();
+    }
+
     loadApplicationComponents();
 
     if (myTestModeFlag) {
@@ -377,7 +388,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
   }
 
   public Future<?> executeOnPooledThread(@NotNull final Runnable action) {
-    return ourThreadExecutorsService.submit(new Runnable() {
+    final FutureTask<?> future = new FutureTask<Object>(new Runnable() {
       public void run() {
         try {
           action.run();
@@ -392,12 +403,14 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
           Thread.interrupted(); // reset interrupted status
         }
       }
-    });
+    }, null);
+    myPooledTaskMonitor.execute(future, action);
+    return future;
   }
 
   @Override
   public <T> Future<T> executeOnPooledThread(@NotNull final Callable<T> action) {
-    return ourThreadExecutorsService.submit(new Callable<T>() {
+    final FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
       public T call() {
         try {
           return action.call();
@@ -414,6 +427,8 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
         return null;
       }
     });
+    myPooledTaskMonitor.execute(future, action);
+    return future;
   }
 
   private static Thread ourDispatchThread = null;
@@ -505,6 +520,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
     disposeComponents();
 
     ourThreadExecutorsService.shutdownNow();
+    myLockProfiler.stopSampling();
     super.dispose();
   }
 
@@ -766,10 +782,12 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
       throw new RuntimeInterruptedException(e);
     }
 
+    final long acquired = myLockProfiler.readLockAcquired();
     try {
       action.run();
     }
     finally {
+      myLockProfiler.readLockReleased(acquired);
       myActionsLock.readLock().release();
     }
   }
@@ -828,12 +846,21 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
 
     LOG.assertTrue(myActionsLock.isWriteLockAcquired(Thread.currentThread())
                    || !Thread.holdsLock(PsiLock.LOCK), "Thread must not hold PsiLock while performing writeAction");
+    final long requested = myLockProfiler.writeLockRequested();
+    myWriteActionPending = true;
+    for (ProgressIndicator indicator : myWriteActionPriorityIndicators) {
+      indicator.cancel();
+    }
     try {
       myActionsLock.writeLock().acquire();
     }
     catch (InterruptedException e) {
       throw new RuntimeInterruptedException(e);
     }
+    finally {
+      myWriteActionPending = false;
+      myLockProfiler.writeLockAcquired(requested);
+    }
     stopped.set(true);
 
     try {
@@ -1002,6 +1029,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
      * see {@link com.intellij.util.concurrency.ReentrantWriterPreferenceReadWriteLock#allowReader()} */
     boolean mustAcquire = !isReadAccessAllowed();
 
+    long acquired = 0;
     if (mustAcquire) {
       LOG.assertTrue(myTestModeFlag || !Thread.holdsLock(PsiLock.LOCK), "Thread must not hold PsiLock while performing readAction");
       try {
@@ -1010,6 +1038,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
       catch (InterruptedException e) {
         throw new RuntimeInterruptedException(e);
       }
+      acquired = myLockProfiler.readLockAcquired();
     }
 
     try {
@@ -1017,6 +1046,7 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
     }
     finally {
       if (mustAcquire) {
+        myLockProfiler.readLockReleased(acquired);
         myActionsLock.readLock().release();
       }
     }
@@ -1060,6 +1090,31 @@ public class ApplicationImpl extends ComponentManagerImpl implements Application
                    "Write access is allowed inside write-action only (see com.intellij.openapi.application.Application.runWriteAction())");
   }
 
+  public boolean isWriteActionPending() {
+    return myWriteActionPending;
+  }
+
+  /**
+   * The indicator will be cancelled when a write action is requested, until it is removed.
+   */
+  public void addWriteActionPriorityIndicator(@NotNull ProgressIndicator indicator) {
+    myWriteActionPriorityIndicators.add(indicator);
+  }
+
+  public void removeWriteActionPriorityIndicator(@NotNull ProgressIndicator indicator) {
+    myWriteActionPriorityIndicators.remove(indicator);
+  }
+
+  @NotNull
+  public ActionsLockProfiler getLockProfiler() {
+    return myLockProfiler;
+  }
+
+  @NotNull
+  public PooledTaskMonitor getPooledTaskMonitor() {
+    return myPooledTaskMonitor;
+  }
+
   public boolean isWriteAccessAllowed() {
     return myActionsLock.isWriteLockAcquired(Thread.currentThread());
   }
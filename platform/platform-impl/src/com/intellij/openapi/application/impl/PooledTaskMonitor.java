@@ -0,0 +1,280 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.application.impl;
+
+import com.intellij.diagnostic.Histogram;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.Function;
+import com.intellij.util.KeyedStatistics;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the tasks of {@link ApplicationImpl#executeOnPooledThread(Runnable)} on the pool, tagging them by the class of the submitted action
+ * (anonymous classes are tagged by their outer class). Collects queue wait and run time histograms per tag and knows what is running now.
+ * <p/>
+ * The number of concurrently running tasks can be limited per tag with -Didea.pooled.thread.limits=tag1=limit1,tag2=limit2;
+ * the tasks over the limit wait until a task with the same tag finishes.
+ * <p/>
+ * A task waiting for its own subtask with the same tag would deadlock once the limit is reached, so a task holding a slot may have one
+ * such subtask running outside the limit at a time. Its further subtasks, and the subtasks of the subtask, wait for the limit as usual,
+ * so a tag never runs more than twice its limit, and a task waiting for more than one subtask of its own tag at a time may still deadlock.
+ */
+public class PooledTaskMonitor {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.application.impl.PooledTaskMonitor");
+
+  @NonNls private static final String LIMITS_PROPERTY = "idea.pooled.thread.limits";
+
+  private final Executor myExecutor;
+  private final Map<String, Integer> myLimits;
+  private final KeyedStatistics<String, TagStatistics> myStatistics;
+  private final Map<Thread, Task> myRunningTasks = new ConcurrentHashMap<Thread, Task>();
+
+  public PooledTaskMonitor(@NotNull Executor executor) {
+    this(executor, parseLimits(System.getProperty(LIMITS_PROPERTY)));
+  }
+
+  PooledTaskMonitor(@NotNull Executor executor, @NotNull Map<String, Integer> limits) {
+    myExecutor = executor;
+    myLimits = limits;
+    myStatistics = new KeyedStatistics<String, TagStatistics>(new Function<String, TagStatistics>() {
+      public TagStatistics fun(String tag) {
+        final Integer limit = myLimits.get(tag);
+        return new TagStatistics(limit == null ? 0 : limit.intValue());
+      }
+    });
+  }
+
+  @NotNull
+  static Map<String, Integer> parseLimits(String property) {
+    final Map<String, Integer> limits = new HashMap<String, Integer>();
+    if (property == null) return limits;
+    for (String limit : StringUtil.split(property, ",")) {
+      final int eq = limit.indexOf('=');
+      try {
+        limits.put(limit.substring(0, eq).trim(), Integer.parseInt(limit.substring(eq + 1).trim()));
+      }
+      catch (RuntimeException e) {
+        LOG.warn("Invalid " + LIMITS_PROPERTY + " entry: " + limit);
+      }
+    }
+    return limits;
+  }
+
+  public static class TagStatistics {
+    private final Histogram myQueueWaitTimes = new Histogram();
+    private final Histogram myRunTimes = new Histogram();
+    private final int myLimit;
+    // guarded by this
+    private int myRunning;
+    private final Queue<Task> myWaiting = new LinkedList<Task>();
+
+    private TagStatistics(int limit) {
+      myLimit = limit;
+    }
+
+    /**
+     * @return times from submission to start, including the time spent waiting for the concurrency limit
+     */
+    @NotNull
+    public Histogram getQueueWaitTimes() {
+      return myQueueWaitTimes;
+    }
+
+    @NotNull
+    public Histogram getRunTimes() {
+      return myRunTimes;
+    }
+
+    public int getLimit() {
+      return myLimit;
+    }
+
+    public synchronized int getRunningCount() {
+      return myRunning;
+    }
+
+    public synchronized int getWaitingCount() {
+      return myWaiting.size();
+    }
+  }
+
+  private class Task implements Runnable {
+    private final Runnable myRunnable;
+    private final String myTag;
+    private final TagStatistics myTagStatistics;
+    // the task this one was submitted from if it runs outside the limit, null if it holds a slot
+    private final Task myParent;
+    private final AtomicBoolean myNestedRunning = new AtomicBoolean();
+    private final long mySubmitted = System.nanoTime();
+    private volatile long myStarted;
+
+    private Task(Runnable runnable, String tag, TagStatistics statistics, @Nullable Task parent) {
+      myRunnable = runnable;
+      myTag = tag;
+      myTagStatistics = statistics;
+      myParent = parent;
+    }
+
+    public void run() {
+      myStarted = System.nanoTime();
+      myTagStatistics.myQueueWaitTimes.add(myStarted - mySubmitted);
+      final Thread thread = Thread.currentThread();
+      myRunningTasks.put(thread, this);
+      try {
+        myRunnable.run();
+      }
+      finally {
+        myRunningTasks.remove(thread);
+        myTagStatistics.myRunTimes.add(System.nanoTime() - myStarted);
+        if (myParent == null) {
+          taskFinished(myTagStatistics);
+        }
+        else {
+          myParent.myNestedRunning.set(false);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param submitted the action given by the client, its class is the tag of the task
+   */
+  public void execute(@NotNull Runnable task, @NotNull Object submitted) {
+    final String tag = getTag(submitted.getClass());
+    final TagStatistics statistics = myStatistics.get(tag);
+    final Task current = myRunningTasks.get(Thread.currentThread());
+    if (current != null && current.myTag.equals(tag) && current.myParent == null && current.myNestedRunning.compareAndSet(false, true)) {
+      try {
+        myExecutor.execute(new Task(task, tag, statistics, current));
+      }
+      catch (RejectedExecutionException e) {
+        current.myNestedRunning.set(false);
+        throw e;
+      }
+      return;
+    }
+
+    final Task toRun = new Task(task, tag, statistics, null);
+    synchronized (statistics) {
+      if (statistics.myLimit > 0 && statistics.myRunning >= statistics.myLimit) {
+        statistics.myWaiting.offer(toRun);
+        return;
+      }
+      statistics.myRunning++;
+    }
+
+    try {
+      myExecutor.execute(toRun);
+    }
+    catch (RejectedExecutionException e) {
+      synchronized (statistics) {
+        statistics.myRunning--;
+      }
+      throw e;
+    }
+  }
+
+  private void taskFinished(TagStatistics statistics) {
+    final Task next;
+    synchronized (statistics) {
+      next = statistics.myWaiting.poll();
+      if (next == null) {
+        statistics.myRunning--;
+        return;
+      }
+    }
+    // the finished task passes its slot to the next waiting one
+    try {
+      myExecutor.execute(next);
+    }
+    catch (RejectedExecutionException e) {
+      LOG.debug(e);
+    }
+  }
+
+  @NotNull
+  static String getTag(@NotNull Class aClass) {
+    String name = aClass.getName();
+    int dollar = name.lastIndexOf('$');
+    while (dollar > 0 && dollar < name.length() - 1 && Character.isDigit(name.charAt(dollar + 1))) {
+      name = name.substring(0, dollar);
+      dollar = name.lastIndexOf('$');
+    }
+    return name;
+  }
+
+  @NotNull
+  public Map<String, TagStatistics> getStatistics() {
+    return myStatistics.asMap();
+  }
+
+  /**
+   * @return tag, running time and thread of the tasks running now, the longest running first
+   */
+  @NotNull
+  public List<String> getRunningTasks() {
+    final long now = System.nanoTime();
+    final List<Map.Entry<Thread, Task>> running = new ArrayList<Map.Entry<Thread, Task>>(myRunningTasks.entrySet());
+    Collections.sort(running, new Comparator<Map.Entry<Thread, Task>>() {
+      public int compare(Map.Entry<Thread, Task> o1, Map.Entry<Thread, Task> o2) {
+        final long started1 = o1.getValue().myStarted;
+        final long started2 = o2.getValue().myStarted;
+        return started1 < started2 ? -1 : started1 == started2 ? 0 : 1;
+      }
+    });
+
+    final List<String> result = new ArrayList<String>();
+    for (Map.Entry<Thread, Task> entry : running) {
+      final Task task = entry.getValue();
+      result.add(task.myTag + " " + TimeUnit.NANOSECONDS.toMillis(now - task.myStarted) + "ms in " + entry.getKey().getName());
+    }
+    return result;
+  }
+
+  @NonNls
+  @NotNull
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("Running now:\n");
+    for (String task : getRunningTasks()) {
+      builder.append(task).append('\n');
+    }
+
+    final List<Map.Entry<String, TagStatistics>> statistics = myStatistics.getHeaviest(new Function<TagStatistics, Long>() {
+      public Long fun(TagStatistics tagStatistics) {
+        return tagStatistics.getRunTimes().getTotalNanos();
+      }
+    });
+    for (Map.Entry<String, TagStatistics> entry : statistics) {
+      final TagStatistics tagStatistics = entry.getValue();
+      builder.append('\n').append(entry.getKey());
+      if (tagStatistics.getLimit() > 0) {
+        builder.append(" (limit ").append(tagStatistics.getLimit()).append(", waiting ").append(tagStatistics.getWaitingCount()).append(')');
+      }
+      builder.append("\nQueue wait times: ").append(tagStatistics.getQueueWaitTimes());
+      builder.append("Run times: ").append(tagStatistics.getRunTimes());
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.progress.impl;
+
+import com.intellij.concurrency.JobScheduler;
+import com.intellij.diagnostic.SampledStacks;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Factory;
+import com.intellij.util.Function;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the code which runs under a progress indicator without calling {@link com.intellij.openapi.progress.ProgressManager#checkCanceled()}
+ * for a long time, so that it can't be cancelled quickly. When enabled, every check records its time, and the threads which haven't
+ * checked for longer than the threshold are sampled. The report lists the sampled stacks with the longest gaps first.
+ * <p/>
+ * Enabled with -Didea.check.canceled.sampling.ms=&lt;gap threshold&gt;, every check takes the slow path then.
+ */
+public class CheckCanceledSampler {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.progress.impl.CheckCanceledSampler");
+
+  @NonNls private static final String THRESHOLD_PROPERTY = "idea.check.canceled.sampling.ms";
+  private static final long THRESHOLD_MS = Long.getLong(THRESHOLD_PROPERTY, 0);
+
+  private static final CheckCanceledSampler ourInstance = THRESHOLD_MS > 0 ? new CheckCanceledSampler(THRESHOLD_MS) : null;
+
+  private final long myThresholdMs;
+  private final Map<Thread, ThreadState> myThreads = new ConcurrentHashMap<Thread, ThreadState>();
+  private final ThreadLocal<ThreadState> myThreadState = new ThreadLocal<ThreadState>() {
+    @Override
+    protected ThreadState initialValue() {
+      return new ThreadState();
+    }
+  };
+  private final SampledStacks<Gap> myGaps = new SampledStacks<Gap>(new Factory<Gap>() {
+    public Gap create() {
+      return new Gap();
+    }
+  });
+  private ScheduledFuture<?> mySampler;
+
+  private static class ThreadState {
+    private volatile long myLastCheck;
+    private int myDepth;
+  }
+
+  public static class Gap {
+    private int mySamples;
+    private long myMaxMs;
+
+    public synchronized int getSamples() {
+      return mySamples;
+    }
+
+    public synchronized long getMaxMs() {
+      return myMaxMs;
+    }
+
+    private synchronized void sampled(long gapMs) {
+      mySamples++;
+      myMaxMs = Math.max(myMaxMs, gapMs);
+    }
+  }
+
+  CheckCanceledSampler(long thresholdMs) {
+    myThresholdMs = thresholdMs;
+  }
+
+  /**
+   * @return the sampler if it's enabled by the system property, null otherwise
+   */
+  public static CheckCanceledSampler getInstance() {
+    return ourInstance;
+  }
+
+  synchronized void startSampling() {
+    if (mySampler != null) return;
+    final long period = Math.max(1, myThresholdMs / 2);
+    mySampler = JobScheduler.getScheduler().scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          sample();
+        }
+        catch (Throwable e) {
+          LOG.error(e);
+        }
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  synchronized void stopSampling() {
+    if (mySampler != null) {
+      mySampler.cancel(false);
+      mySampler = null;
+    }
+  }
+
+  void processStarted() {
+    final ThreadState state = myThreadState.get();
+    if (state.myDepth++ == 0) {
+      state.myLastCheck = System.nanoTime();
+      myThreads.put(Thread.currentThread(), state);
+    }
+  }
+
+  void processFinished() {
+    final ThreadState state = myThreadState.get();
+    if (--state.myDepth == 0) {
+      myThreads.remove(Thread.currentThread());
+    }
+  }
+
+  void checked() {
+    myThreadState.get().myLastCheck = System.nanoTime();
+  }
+
+  /**
+   * Records the stacks of the threads under progress which haven't checked for cancellation for longer than the threshold.
+   */
+  void sample() {
+    final long now = System.nanoTime();
+    for (Map.Entry<Thread, ThreadState> entry : myThreads.entrySet()) {
+      final long gapMs = TimeUnit.NANOSECONDS.toMillis(now - entry.getValue().myLastCheck);
+      if (gapMs < myThresholdMs) continue;
+
+      final Gap gap = myGaps.getRecord(entry.getKey());
+      if (gap != null) {
+        gap.sampled(gapMs);
+      }
+    }
+  }
+
+  /**
+   * @return sampled stacks of the code running without cancellation checks, the longest gaps first
+   */
+  @NotNull
+  public List<Map.Entry<String, Gap>> getGaps() {
+    return myGaps.getHeaviest(new Function<Gap, Long>() {
+      public Long fun(Gap gap) {
+        return gap.getMaxMs();
+      }
+    });
+  }
+
+  public void reset() {
+    myGaps.clear();
+  }
+
+  @NonNls
+  public String toString() {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("checkCanceled() gaps longer than ").append(myThresholdMs).append("ms\n");
+    for (Map.Entry<String, Gap> entry : getGaps()) {
+      final Gap gap = entry.getValue();
+      builder.append("\nmax ").append(gap.getMaxMs()).append("ms, ").append(gap.getSamples()).append(" samples\n").append(entry.getKey());
+    }
+    return builder.toString();
+  }
+}
@@ -43,6 +43,8 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class ProgressManagerImpl extends ProgressManager {
@@ -59,8 +61,25 @@ public class ProgressManagerImpl extends ProgressManager {
   private static final boolean DISABLED = Comparing.equal(System.getProperty(PROCESS_CANCELED_EXCEPTION), "disabled");
 
   private static final Map<String, Long> myWastedTime = new THashMap<String, Long>();
+  // every check takes the slow path while sampling
+  private static final CheckCanceledSampler SAMPLER = CheckCanceledSampler.getInstance();
+
+  // the flags of the threads running under some indicator; each flag knows its indicators, so registering doesn't take a global lock
+  private static final Map<CancelFlag, Boolean> ourThreadFlags = new ConcurrentHashMap<CancelFlag, Boolean>();
+  private static final ThreadLocal<CancelFlag> ourThreadFlag = new ThreadLocal<CancelFlag>() {
+    @Override
+    protected CancelFlag initialValue() {
+      return new CancelFlag();
+    }
+  };
+  // the number of raised thread flags, the global flag isn't put down while there are any
+  private static final AtomicInteger ourRaisedFlagCount = new AtomicInteger();
 
   public ProgressManagerImpl(Application application) {
+    if (SAMPLER != null) {
+      SAMPLER.startSampling();
+      ourNeedToCheckCancel = true;
+    }
     if (!application.isUnitTestMode() && !DISABLED) {
       final Thread thread = new Thread(NAME) {
         public void run() {
@@ -81,6 +100,11 @@ public class ProgressManagerImpl extends ProgressManager {
 
   @Override
   protected void doCheckCanceled() throws ProcessCanceledException {
+    if (SAMPLER != null) {
+      SAMPLER.checked();
+    }
+    final CancelFlag flag = ourThreadFlag.get();
+    flag.lower();
     final ProgressIndicator progress = getProgressIndicator();
     if (progress != null) {
       try {
@@ -88,27 +112,106 @@ public class ProgressManagerImpl extends ProgressManager {
       }
       catch (ProcessCanceledException e) {
         if (DISABLED) {
+          putDownGlobalFlag();
           return;
         }
         if (Thread.holdsLock(PsiLock.LOCK)) {
           ourLockedCheckCounter++;
           if (ourLockedCheckCounter > 10) {
             ourLockedCheckCounter = 0;
-            ourNeedToCheckCancel = true;
+            // keep checking until the lock is released
+            flag.raise();
+            return;
           }
         }
         else {
           ourLockedCheckCounter = 0;
+          putDownGlobalFlag();
           throw e;
         }
       }
     }
+    putDownGlobalFlag();
   }
 
-  public static void canceled() {
+  private static void putDownGlobalFlag() {
+    ourNeedToCheckCancel = false;
+    // a thread flag raised before this point is seen here, one raised after it raises the global flag again by itself
+    if (ourRaisedFlagCount.get() > 0 || SAMPLER != null) {
+      ourNeedToCheckCancel = true;
+    }
+  }
+
+  /**
+   * Raises the flags of the threads running under the indicator, so they see the cancellation on their next check whichever thread
+   * checks first.
+   */
+  public static void canceled(@NotNull ProgressIndicator indicator) {
+    for (CancelFlag flag : ourThreadFlags.keySet()) {
+      if (flag.runsUnder(indicator)) {
+        flag.raise();
+      }
+    }
     ourNeedToCheckCancel = true;
   }
 
+  static int getThreadsUnderProgressCount() {
+    return ourThreadFlags.size();
+  }
+
+  private static void registerThread(@NotNull ProgressIndicator indicator, @NotNull CancelFlag flag) {
+    if (flag.enter(indicator)) {
+      ourThreadFlags.put(flag, Boolean.TRUE);
+    }
+  }
+
+  private static void unregisterThread(@NotNull ProgressIndicator indicator, @NotNull CancelFlag flag) {
+    if (flag.exit(indicator)) {
+      ourThreadFlags.remove(flag);
+    }
+  }
+
+  /**
+   * Raised for a thread when an indicator it runs under is cancelled, and put down when the thread checks for cancellation.
+   */
+  private static class CancelFlag {
+    private final AtomicBoolean myRaised = new AtomicBoolean();
+    // the indicators the thread runs under, innermost last; changed by the owner thread only, guarded by this
+    private final List<ProgressIndicator> myIndicators = new ArrayList<ProgressIndicator>(2);
+
+    /**
+     * @return true if the thread wasn't running under any indicator before
+     */
+    synchronized boolean enter(@NotNull ProgressIndicator indicator) {
+      myIndicators.add(indicator);
+      return myIndicators.size() == 1;
+    }
+
+    /**
+     * @return true if the thread doesn't run under any indicator now
+     */
+    synchronized boolean exit(@NotNull ProgressIndicator indicator) {
+      myIndicators.remove(myIndicators.lastIndexOf(indicator));
+      return myIndicators.isEmpty();
+    }
+
+    synchronized boolean runsUnder(@NotNull ProgressIndicator indicator) {
+      return myIndicators.contains(indicator);
+    }
+
+    void raise() {
+      if (myRaised.compareAndSet(false, true)) {
+        ourRaisedFlagCount.incrementAndGet();
+      }
+    }
+
+    void lower() {
+      if (myRaised.compareAndSet(true, false)) {
+        ourRaisedFlagCount.decrementAndGet();
+      }
+    }
+  }
+
   private static class NonCancelableIndicator extends EmptyProgressIndicator implements NonCancelableSection {
     private final ProgressIndicator myOld;
 
@@ -222,18 +325,31 @@ public class ProgressManagerImpl extends ProgressManager {
   public void executeProcessUnderProgress(@NotNull Runnable process, ProgressIndicator progress) throws ProcessCanceledException {
     ProgressIndicator oldIndicator = myThreadIndicator.get();
 
-    if (progress != null) myThreadIndicator.set(progress);
+    final CancelFlag flag = progress != null ? ourThreadFlag.get() : null;
+    if (progress != null) {
+      myThreadIndicator.set(progress);
+      registerThread(progress, flag);
+    }
     myCurrentProgressCount.incrementAndGet();
 
     final boolean modal = progress != null && progress.isModal();
     if (modal) myCurrentModalProgressCount.incrementAndGet();
     if (progress == null || progress instanceof ProgressWindow) myCurrentUnsafeProgressCount.incrementAndGet();
+    if (SAMPLER != null) SAMPLER.processStarted();
 
     try {
       process.run();
     }
     finally {
+      if (SAMPLER != null) SAMPLER.processFinished();
       myThreadIndicator.set(oldIndicator);
+      if (progress != null) {
+        unregisterThread(progress, flag);
+        flag.lower();
+        if (oldIndicator != null && oldIndicator.isCanceled()) {
+          flag.raise();
+        }
+      }
 
       myCurrentProgressCount.decrementAndGet();
       if (modal) myCurrentModalProgressCount.decrementAndGet();
@@ -498,6 +614,11 @@ public class ProgressManagerImpl extends ProgressManager {
 
   @TestOnly
   public static void setNeedToCheckCancel(boolean needToCheckCancel) {
-    ourNeedToCheckCancel = needToCheckCancel;
+    ourNeedToCheckCancel = needToCheckCancel || SAMPLER != null;
+  }
+
+  @TestOnly
+  public static boolean isNeedToCheckCancel() {
+    return ourNeedToCheckCancel;
   }
 }
@@ -167,7 +167,7 @@ public class ProgressIndicatorBase extends UserDataHolderBase implements Progres
   public void cancel() {
     myCanceled = true;
 
-    ProgressManagerImpl.canceled();
+    ProgressManagerImpl.canceled(this);
 
     delegateRunningChange(CANCEL_ACTION);
   }
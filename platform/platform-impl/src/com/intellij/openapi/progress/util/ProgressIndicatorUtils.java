@@ -0,0 +1,142 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.progress.util;
+
+import com.intellij.openapi.application.ApplicationAdapter;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.impl.ApplicationImpl;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Read actions which give way to write actions: as soon as a write action is requested, the progress indicator of such a read action
+ * is cancelled, so the next {@link ProgressManager#checkCanceled()} inside it throws and the read lock is released.
+ */
+public class ProgressIndicatorUtils {
+  // how often the parent progress is checked while waiting for a write action
+  private static final int CHECK_CANCELED_MILLIS = 50;
+
+  private ProgressIndicatorUtils() {
+  }
+
+  /**
+   * If the calling thread already has read access the action is just run, since the lock can't be released in the middle of it.
+   *
+   * @param parent the progress of the caller, cancelling it cancels the action as well
+   * @return true if the action has completed, false if it was cancelled to let a write action run
+   * @throws ProcessCanceledException if the parent progress has been cancelled
+   */
+  public static boolean runInReadActionWithWriteActionPriority(@NotNull final Runnable action, @Nullable ProgressIndicator parent) {
+    final ApplicationImpl application = (ApplicationImpl)ApplicationManager.getApplication();
+    if (application.isReadAccessAllowed()) {
+      action.run();
+      return true;
+    }
+
+    final ProgressIndicator indicator = new WriteActionPriorityIndicator(parent);
+    // started before registration, since start() would reset the cancellation made by a write action
+    indicator.start();
+    application.addWriteActionPriorityIndicator(indicator);
+    try {
+      if (application.isWriteActionPending()) return false;
+
+      final boolean[] completed = {false};
+      application.runReadAction(new Runnable() {
+        public void run() {
+          // a write action may have been run while we were waiting for the lock
+          if (indicator.isCanceled()) return;
+          try {
+            ProgressManager.getInstance().runProcess(action, indicator);
+            completed[0] = true;
+          }
+          catch (ProcessCanceledException ignored) {
+          }
+        }
+      });
+      if (!completed[0] && parent != null) {
+        parent.checkCanceled();
+      }
+      return completed[0];
+    }
+    finally {
+      application.removeWriteActionPriorityIndicator(indicator);
+      if (indicator.isRunning()) {
+        indicator.stop();
+      }
+    }
+  }
+
+  /**
+   * Runs the action with write action priority again and again until it completes, waiting for the write actions that interrupt it.
+   * The action is restarted from the beginning, so it should keep track of the work already done (e.g. processed files)
+   * and skip it on restart.
+   *
+   * @throws ProcessCanceledException if the parent progress has been cancelled
+   */
+  public static void runWithWriteActionPriority(@NotNull Runnable action, @Nullable ProgressIndicator parent) {
+    final ApplicationImpl application = (ApplicationImpl)ApplicationManager.getApplication();
+    while (!runInReadActionWithWriteActionPriority(action, parent)) {
+      waitForPendingWriteActions(application, parent);
+    }
+  }
+
+  /**
+   * Returns once no write action waits for the lock. The one holding it already is waited for by the read action started next.
+   */
+  private static void waitForPendingWriteActions(@NotNull ApplicationImpl application, @Nullable ProgressIndicator parent) {
+    final Object lock = new Object();
+    final ApplicationAdapter listener = new ApplicationAdapter() {
+      @Override
+      public void writeActionFinished(Object action) {
+        synchronized (lock) {
+          lock.notifyAll();
+        }
+      }
+    };
+    application.addApplicationListener(listener);
+    try {
+      synchronized (lock) {
+        // the flag is reset when the writer gets the lock, and it is only released after the listener is notified
+        while (application.isWriteActionPending()) {
+          if (parent != null) parent.checkCanceled();
+          lock.wait(CHECK_CANCELED_MILLIS);
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      throw new ProcessCanceledException();
+    }
+    finally {
+      application.removeApplicationListener(listener);
+    }
+  }
+
+  private static class WriteActionPriorityIndicator extends ProgressIndicatorBase {
+    private final ProgressIndicator myParent;
+
+    private WriteActionPriorityIndicator(@Nullable ProgressIndicator parent) {
+      myParent = parent;
+    }
+
+    @Override
+    public boolean isCanceled() {
+      return super.isCanceled() || myParent != null && myParent.isCanceled();
+    }
+  }
+}
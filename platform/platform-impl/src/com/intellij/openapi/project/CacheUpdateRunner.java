@@ -26,6 +26,7 @@ import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.util.ProgressIndicatorBase;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
 import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -140,7 +141,7 @@ class CacheUpdateRunner {
         threadsCount = Math.min(PROC_COUNT, 4);
       }
       if (threadsCount == 1) {
-        Runnable process = new MyRunnable(innerIndicator, queue, isFinished, progressUpdater, processInReadAction, application);
+        Runnable process = new MyRunnable(innerIndicator, queue, isFinished, progressUpdater, processInReadAction);
         ProgressManager.getInstance().runProcess(process, innerIndicator);
       }
       else {
@@ -149,7 +150,7 @@ class CacheUpdateRunner {
         for (int i = 0; i < threadsCount; i++) {
           final Ref<Boolean> ref = new Ref<Boolean>(Boolean.FALSE);
           finishedRefs[i] = ref;
-          Runnable process = new MyRunnable(innerIndicator, queue, ref, progressUpdater, processInReadAction, application);
+          Runnable process = new MyRunnable(innerIndicator, queue, ref, progressUpdater, processInReadAction);
           futures[i] = ApplicationManager.getApplication().executeOnPooledThread(getProcessWrapper(process));
         }
         try {
@@ -185,19 +186,17 @@ class CacheUpdateRunner {
     private final Ref<Boolean> myFinished;
     private final Consumer<VirtualFile> myProgressUpdater;
     private final boolean myProcessInReadAction;
-    private final Application myApplication;
 
     public MyRunnable(ProgressIndicatorBase innerIndicator,
                       FileContentQueue queue,
                       Ref<Boolean> finished,
                       Consumer<VirtualFile> progressUpdater,
-                      boolean processInReadAction, Application application) {
+                      boolean processInReadAction) {
       myInnerIndicator = innerIndicator;
       myQueue = queue;
       myFinished = finished;
       myProgressUpdater = progressUpdater;
       myProcessInReadAction = processInReadAction;
-      myApplication = application;
     }
 
     public void run() {
@@ -224,7 +223,9 @@ class CacheUpdateRunner {
             }
           };
           if (myProcessInReadAction) {
-            myApplication.runReadAction(action);
+            // a write action cancels the inner indicator, so the indexer gives up the lock at its next checkCanceled() and the file
+            // goes back to the queue, even when this thread runs without the indicator
+            ProgressIndicatorUtils.runWithWriteActionPriority(action, myInnerIndicator);
           }
           else {
             action.run();
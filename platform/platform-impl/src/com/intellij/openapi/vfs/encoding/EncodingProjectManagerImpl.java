@@ -90,7 +90,7 @@ public class EncodingProjectManagerImpl extends EncodingProjectManager {
     ContainerUtil.quickSort(files, new Comparator<VirtualFile>() {
       public int compare(final VirtualFile o1, final VirtualFile o2) {
         if (o1 == null || o2 == null) return o1 == null ? o2 == null ? 0 : 1 : -1;
-        return o1.getPath().compareTo(o2.getPath());
+        return VfsUtil.comparePaths(o1, o2);
       }
     });
     for (VirtualFile file : files) {
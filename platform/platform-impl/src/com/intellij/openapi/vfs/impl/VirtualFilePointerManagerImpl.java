@@ -29,6 +29,7 @@ import com.intellij.openapi.vfs.*;
 import com.intellij.openapi.vfs.ex.VirtualFileManagerEx;
 import com.intellij.openapi.vfs.ex.temp.TempFileSystem;
 import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
 import com.intellij.openapi.vfs.newvfs.events.*;
 import com.intellij.openapi.vfs.pointers.*;
 import com.intellij.util.messages.MessageBus;
@@ -45,6 +46,8 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
 
   // guarded by this
   private final Map<VirtualFilePointerListener, TreeMap<String, VirtualFilePointerImpl>> myUrlToPointerMaps = new LinkedHashMap<VirtualFilePointerListener, TreeMap<String, VirtualFilePointerImpl>>();
+  // all the pointers from myUrlToPointerMaps by path segments, guarded by this
+  private final VirtualFilePointerTrie myPointerTrie = new VirtualFilePointerTrie();
 
   // compare by identity because VirtualFilePointerContainer has too smart equals
   // guarded by myContainers
@@ -71,7 +74,11 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
     TreeMap<String, VirtualFilePointerImpl> urlToPointer = myUrlToPointerMaps.get(listener);
     if (urlToPointer == null && ApplicationManager.getApplication().isUnitTestMode()) return;
     assert urlToPointer != null;
-    urlToPointer.remove(VfsUtil.urlToPath(url));
+    final String path = VfsUtil.urlToPath(url);
+    final VirtualFilePointerImpl pointer = urlToPointer.remove(path);
+    if (pointer != null) {
+      myPointerTrie.remove(path, pointer);
+    }
     if (urlToPointer.isEmpty()) {
       myUrlToPointerMaps.remove(listener);
     }
@@ -104,22 +111,19 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
     }
   }
 
-  private void addPointersUnder(String path, boolean allowSameFSOptimization, List<VirtualFilePointer> pointers) {
+  private void addPointersUnder(final String path, final boolean allowSameFSOptimization, final List<VirtualFilePointer> pointers) {
     final boolean urlFromJarFS = allowSameFSOptimization && path.indexOf(JarFileSystem.JAR_SEPARATOR) > 0;
-    for (TreeMap<String, VirtualFilePointerImpl> urlToPointer : myUrlToPointerMaps.values()) {
-      for (String pointerUrl : urlToPointer.keySet()) {
+    myPointerTrie.processCandidates(path, new VirtualFilePointerTrie.PointerProcessor() {
+      public void process(@NotNull String pointerUrl, @NotNull VirtualFilePointerImpl pointer) {
         final boolean pointerFromJarFS = allowSameFSOptimization && pointerUrl.indexOf(JarFileSystem.JAR_SEPARATOR) > 0;
         if (urlFromJarFS != pointerFromJarFS) {
-          continue; // optimization: consider pointers from the same FS as the url specified
+          return; // optimization: consider pointers from the same FS as the url specified
         }
         if (startsWith(path, pointerUrl)) {
-          VirtualFilePointer pointer = urlToPointer.get(pointerUrl);
-          if (pointer != null) {
-            pointers.add(pointer);
-          }
+          pointers.add(pointer);
         }
       }
-    }
+    });
   }
 
   private static boolean startsWith(final String url, final String pointerUrl) {
@@ -148,6 +152,7 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
   @TestOnly
   public synchronized void cleanupForNextTest() {
     myUrlToPointerMaps.clear();
+    myPointerTrie.clear();
     myContainers.clear();
   }
 
@@ -280,6 +285,7 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
     if (pointer == null) {
       pointer = new VirtualFilePointerImpl(file, url, myVirtualFileManager, listener, parentDisposable);
       urlToPointer.put(path, pointer);
+      myPointerTrie.add(path, pointer);
     }
     return pointer;
   }
@@ -446,7 +452,15 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
           }
           else if (event instanceof VFileCopyEvent) {
             final VFileCopyEvent copyEvent = (VFileCopyEvent)event;
-            String url = copyEvent.getNewParent().getPath() + "/" + copyEvent.getFile().getName();
+            final StringBuilder builder = new StringBuilder();
+            final VirtualFile newParent = copyEvent.getNewParent();
+            if (newParent instanceof NewVirtualFile) {
+              ((NewVirtualFile)newParent).appendPath(builder);
+            }
+            else {
+              builder.append(newParent.getPath());
+            }
+            String url = builder.append('/').append(copyEvent.getFile().getName()).toString();
             addPointersUnder(url, false, toFireEvents);
           }
           else if (event instanceof VFileMoveEvent) {
@@ -509,6 +523,8 @@ public class VirtualFilePointerManagerImpl extends VirtualFilePointerManager imp
             if (pointer != null) {
               String path = VfsUtil.urlToPath(pointer.getUrl());
               urlToPointer.put(path, pointer);
+              myPointerTrie.remove(url, pointer);
+              myPointerTrie.add(path, pointer);
             }
           }
         }
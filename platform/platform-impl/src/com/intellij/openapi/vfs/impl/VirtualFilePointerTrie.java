@@ -0,0 +1,158 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.impl;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.JarFileSystem;
+import com.intellij.util.SmartList;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of virtual file pointers by the segments of their paths, so that a file event only visits
+ * the pointers in the subtree of the changed path instead of all the registered ones.
+ * <p/>
+ * Jar entries are stored under the "x.jar!" segment next to the "x.jar" segment of the jar file itself.
+ *
+ * Not thread safe, guarded by the {@link VirtualFilePointerManagerImpl} lock.
+ */
+class VirtualFilePointerTrie {
+  private final Node myRoot = new Node();
+
+  private static class Node {
+    private Map<String, Node> myChildren;
+    private String myPath;
+    private List<VirtualFilePointerImpl> myPointers;
+
+    private boolean isEmpty() {
+      return (myChildren == null || myChildren.isEmpty()) && (myPointers == null || myPointers.isEmpty());
+    }
+  }
+
+  public void add(@NotNull String path, @NotNull VirtualFilePointerImpl pointer) {
+    Node node = myRoot;
+    int start = 0;
+    while (start <= path.length()) {
+      final int end = nextSeparator(path, start);
+      final String key = toKey(path.substring(start, end));
+      if (node.myChildren == null) {
+        node.myChildren = new THashMap<String, Node>();
+      }
+      Node child = node.myChildren.get(key);
+      if (child == null) {
+        child = new Node();
+        node.myChildren.put(key, child);
+      }
+      node = child;
+      start = end + 1;
+    }
+
+    if (node.myPointers == null) {
+      node.myPointers = new SmartList<VirtualFilePointerImpl>();
+      node.myPath = path;
+    }
+    node.myPointers.add(pointer);
+  }
+
+  public void remove(@NotNull String path, @NotNull VirtualFilePointerImpl pointer) {
+    remove(myRoot, path, 0, pointer);
+  }
+
+  private static void remove(Node node, String path, int start, VirtualFilePointerImpl pointer) {
+    if (start > path.length()) {
+      if (node.myPointers != null) {
+        node.myPointers.remove(pointer);
+      }
+      return;
+    }
+    if (node.myChildren == null) return;
+
+    final int end = nextSeparator(path, start);
+    final String key = toKey(path.substring(start, end));
+    final Node child = node.myChildren.get(key);
+    if (child == null) return;
+
+    remove(child, path, end + 1, pointer);
+    if (child.isEmpty()) {
+      node.myChildren.remove(key);
+    }
+  }
+
+  public void clear() {
+    myRoot.myChildren = null;
+    myRoot.myPointers = null;
+  }
+
+  public interface PointerProcessor {
+    void process(@NotNull String pointerPath, @NotNull VirtualFilePointerImpl pointer);
+  }
+
+  /**
+   * Processes all the pointers whose paths start with the path given, either by path segments or as plain strings
+   * within the last segment (so "x.jar" finds pointers under "x.jar!/" too). Callers are expected to filter out the
+   * pointers they are not interested in.
+   */
+  public void processCandidates(@NotNull String path, @NotNull PointerProcessor processor) {
+    if (path.endsWith(JarFileSystem.JAR_SEPARATOR)) {
+      path = path.substring(0, path.length() - JarFileSystem.JAR_SEPARATOR.length());
+    }
+    path = StringUtil.trimEnd(path, "/");
+
+    Node node = myRoot;
+    int start = 0;
+    int end = nextSeparator(path, start);
+    while (end < path.length()) {
+      node = node.myChildren == null ? null : node.myChildren.get(toKey(path.substring(start, end)));
+      if (node == null) return;
+      start = end + 1;
+      end = nextSeparator(path, start);
+    }
+
+    if (node.myChildren == null) return;
+    final String lastKey = toKey(path.substring(start));
+    for (Map.Entry<String, Node> entry : node.myChildren.entrySet()) {
+      if (entry.getKey().startsWith(lastKey)) {
+        processSubtree(entry.getValue(), processor);
+      }
+    }
+  }
+
+  private static void processSubtree(Node node, PointerProcessor processor) {
+    if (node.myPointers != null) {
+      for (VirtualFilePointerImpl pointer : node.myPointers) {
+        processor.process(node.myPath, pointer);
+      }
+    }
+    if (node.myChildren != null) {
+      for (Node child : node.myChildren.values()) {
+        processSubtree(child, processor);
+      }
+    }
+  }
+
+  private static int nextSeparator(String path, int start) {
+    final int end = path.indexOf('/', start);
+    return end < 0 ? path.length() : end;
+  }
+
+  private static String toKey(String segment) {
+    return SystemInfo.isFileSystemCaseSensitive ? segment : segment.toLowerCase();
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.impl.jar;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.IOUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Entry table of a jar as found in its central directory: names, sizes, timestamps and local header offsets.
+ * Tables are persisted under the system directory keyed by jar length and timestamp, so opening a library root
+ * doesn't need to parse the zip at all, and entry contents are read straight from a mapped view of the jar.
+ * <p/>
+ * Only plain (non-zip64, single volume) archives without encrypted or data descriptor entries are supported;
+ * {@link #parse(ByteBuffer)} returns null for everything else and callers should fall back to {@link java.util.zip.ZipFile}.
+ */
+class JarEntryTable {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vfs.impl.jar.JarEntryTable");
+
+  @NonNls private static final String INDEX_FOLDER = "jars.index";
+  private static final int VERSION = 2;
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_HEADER_SIGNATURE = 0x06054b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_HEADER_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  private static final int ENCRYPTED_FLAG = 0x1;
+  private static final int DATA_DESCRIPTOR_FLAG = 0x8;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  final String[] names;
+  final int[] methods;
+  final long[] times;
+  final long[] sizes;
+  final long[] compressedSizes;
+  final long[] offsets;
+
+  private JarEntryTable(int count) {
+    names = new String[count];
+    methods = new int[count];
+    times = new long[count];
+    sizes = new long[count];
+    compressedSizes = new long[count];
+    offsets = new long[count];
+  }
+
+  public int size() {
+    return names.length;
+  }
+
+  @Nullable
+  static JarEntryTable parse(@NotNull ByteBuffer jar) {
+    final ByteBuffer buffer = jar.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    final int end = findEndHeader(buffer);
+    if (end < 0) return null;
+
+    final int disk = buffer.getShort(end + 4) & 0xFFFF;
+    final int cdDisk = buffer.getShort(end + 6) & 0xFFFF;
+    final int count = buffer.getShort(end + 10) & 0xFFFF;
+    final long cdOffset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+    if (disk != 0 || cdDisk != 0 || count == 0xFFFF || cdOffset == 0xFFFFFFFFL) return null; // multi-volume or zip64
+
+    final JarEntryTable table = new JarEntryTable(count);
+    int pos = (int)cdOffset;
+    for (int i = 0; i < count; i++) {
+      if (pos + CENTRAL_HEADER_SIZE > buffer.limit() || buffer.getInt(pos) != CENTRAL_HEADER_SIGNATURE) return null;
+
+      final int flags = buffer.getShort(pos + 8) & 0xFFFF;
+      if ((flags & (ENCRYPTED_FLAG | DATA_DESCRIPTOR_FLAG)) != 0) return null;
+
+      final int method = buffer.getShort(pos + 10) & 0xFFFF;
+      final long dosTime = buffer.getInt(pos + 12) & 0xFFFFFFFFL;
+      final long compressedSize = buffer.getInt(pos + 20) & 0xFFFFFFFFL;
+      final long size = buffer.getInt(pos + 24) & 0xFFFFFFFFL;
+      final int nameLength = buffer.getShort(pos + 28) & 0xFFFF;
+      final int extraLength = buffer.getShort(pos + 30) & 0xFFFF;
+      final int commentLength = buffer.getShort(pos + 32) & 0xFFFF;
+      final long offset = buffer.getInt(pos + 42) & 0xFFFFFFFFL;
+      if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) return null;
+
+      final byte[] name = new byte[nameLength];
+      final ByteBuffer nameBuffer = buffer.duplicate();
+      nameBuffer.position(pos + CENTRAL_HEADER_SIZE);
+      nameBuffer.get(name);
+
+      table.names[i] = new String(name, UTF8);
+      table.methods[i] = method;
+      table.times[i] = dosToJavaTime(dosTime);
+      table.sizes[i] = size;
+      table.compressedSizes[i] = compressedSize;
+      table.offsets[i] = offset;
+
+      pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+    }
+    return table;
+  }
+
+  private static int findEndHeader(ByteBuffer buffer) {
+    final int limit = buffer.limit();
+    final int min = Math.max(0, limit - END_HEADER_SIZE - MAX_COMMENT_SIZE);
+    for (int pos = limit - END_HEADER_SIZE; pos >= min; pos--) {
+      if (buffer.getInt(pos) == END_HEADER_SIGNATURE) return pos;
+    }
+    return -1;
+  }
+
+  private static long dosToJavaTime(long dosTime) {
+    final Calendar calendar = Calendar.getInstance();
+    calendar.clear();
+    calendar.set((int)(((dosTime >> 25) & 0x7f) + 1980),
+                 (int)(((dosTime >> 21) & 0x0f) - 1),
+                 (int)((dosTime >> 16) & 0x1f),
+                 (int)((dosTime >> 11) & 0x1f),
+                 (int)((dosTime >> 5) & 0x3f),
+                 (int)((dosTime << 1) & 0x3e));
+    return calendar.getTimeInMillis();
+  }
+
+  @NotNull
+  byte[] readContent(@NotNull ByteBuffer jar, int index) throws IOException {
+    final ByteBuffer buffer = jar.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    final int header = (int)offsets[index];
+    if (header + LOCAL_HEADER_SIZE > buffer.limit() || buffer.getInt(header) != LOCAL_HEADER_SIGNATURE) {
+      throw new IOException("Invalid local header for " + names[index]);
+    }
+
+    final int nameLength = buffer.getShort(header + 26) & 0xFFFF;
+    final int extraLength = buffer.getShort(header + 28) & 0xFFFF;
+    final int dataStart = header + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    final int compressedSize = (int)compressedSizes[index];
+    if (dataStart + compressedSize > buffer.limit()) {
+      throw new IOException("Truncated entry " + names[index]);
+    }
+
+    buffer.position(dataStart);
+    buffer.limit(dataStart + compressedSize);
+
+    final byte[] result = new byte[(int)sizes[index]];
+    if (methods[index] == ZipEntry.STORED) {
+      buffer.get(result);
+      return result;
+    }
+    if (methods[index] != ZipEntry.DEFLATED) {
+      throw new IOException("Unsupported compression method " + methods[index] + " for " + names[index]);
+    }
+
+    final byte[] compressed = new byte[compressedSize];
+    buffer.get(compressed);
+    final Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(compressed);
+      int read = 0;
+      while (read < result.length) {
+        final int n = inflater.inflate(result, read, result.length - read);
+        if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+        read += n;
+      }
+      if (read != result.length) {
+        throw new IOException("Corrupted entry " + names[index] + ": expected " + result.length + " bytes, got " + read);
+      }
+    }
+    catch (DataFormatException e) {
+      throw new IOException("Corrupted entry " + names[index] + ": " + e.getMessage());
+    }
+    finally {
+      inflater.end();
+    }
+    return result;
+  }
+
+  private static File getIndexFile(File originalJar) {
+    final String name = originalJar.getName() + "." + Integer.toHexString(originalJar.getPath().hashCode());
+    return new File(PathManager.getSystemPath() + File.separatorChar + INDEX_FOLDER, name);
+  }
+
+  /**
+   * @return persisted table for the jar if it was saved for the same jar length and timestamp
+   */
+  @Nullable
+  static JarEntryTable load(@NotNull File originalJar) {
+    return load(originalJar, getIndexFile(originalJar));
+  }
+
+  @Nullable
+  static JarEntryTable load(@NotNull File originalJar, @NotNull File indexFile) {
+    if (!indexFile.exists()) return null;
+
+    try {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+      try {
+        if (in.readInt() != VERSION || in.readLong() != originalJar.length() || in.readLong() != originalJar.lastModified()) return null;
+
+        final JarEntryTable table = new JarEntryTable(DataInputOutputUtil.readINT(in));
+        for (int i = 0; i < table.names.length; i++) {
+          table.names[i] = IOUtil.readString(in);
+          table.methods[i] = DataInputOutputUtil.readINT(in);
+          table.times[i] = in.readLong();
+          table.sizes[i] = in.readLong();
+          table.compressedSizes[i] = in.readLong();
+          table.offsets[i] = in.readLong();
+        }
+        return table;
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot load jar entry table for " + originalJar + ": " + e.getMessage());
+      FileUtil.delete(indexFile);
+      return null;
+    }
+  }
+
+  void save(@NotNull File originalJar) {
+    save(originalJar, getIndexFile(originalJar));
+  }
+
+  void save(@NotNull File originalJar, @NotNull File indexFile) {
+    final File folder = indexFile.getParentFile();
+    if (!folder.exists() && !folder.mkdirs()) return;
+
+    try {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+      try {
+        out.writeInt(VERSION);
+        out.writeLong(originalJar.length());
+        out.writeLong(originalJar.lastModified());
+        DataInputOutputUtil.writeINT(out, names.length);
+        for (int i = 0; i < names.length; i++) {
+          IOUtil.writeString(names[i], out);
+          DataInputOutputUtil.writeINT(out, methods[i]);
+          out.writeLong(times[i]);
+          out.writeLong(sizes[i]);
+          out.writeLong(compressedSizes[i]);
+          out.writeLong(offsets[i]);
+        }
+      }
+      finally {
+        out.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save jar entry table for " + originalJar + ": " + e.getMessage());
+      FileUtil.delete(indexFile);
+    }
+  }
+}
@@ -19,6 +19,7 @@
  */
 package com.intellij.openapi.vfs.impl.jar;
 
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.application.PathManager;
@@ -34,6 +35,7 @@ import com.intellij.openapi.vfs.newvfs.FileSystemInterface;
 import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.TimedReference;
+import com.intellij.util.io.ReadOnlyMappedBufferWrapper;
 import gnu.trove.THashMap;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -41,6 +43,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Map;
@@ -53,6 +56,8 @@ public class JarHandler implements FileSystemInterface {
 
   private final Object lock = new Object();
   private final TimedReference<ZipFile> myZipFile = new TimedReference<ZipFile>(null);
+  private final TimedReference<MappedJar> myMappedJar = new TimedReference<MappedJar>(null);
+  private SoftReference<JarEntryTable> myEntryTable = new SoftReference<JarEntryTable>(null);
   private final JarFileSystemImpl myFileSystem;
   private final String myBasePath;
   private SoftReference<Map<String, EntryInfo>> myRelPathsToEntries = new SoftReference<Map<String, EntryInfo>>(null);
@@ -67,6 +72,56 @@ public class JarHandler implements FileSystemInterface {
     final boolean isDirectory;
     private final String shortName;
     final EntryInfo parent;
+
+    // position in the jar entry table, -1 for implied directories and jars read through ZipFile
+    int index = -1;
+    long length = 0;
+    long timeStamp = -1L;
+  }
+
+  /**
+   * Mapped view of the jar. It is unmapped when the timed reference expires, or as soon as the last reader releases it
+   * if the reference expires in the middle of a read.
+   */
+  private static class MappedJar implements Disposable {
+    private final ReadOnlyMappedBufferWrapper myWrapper;
+    private int myReaders;
+    private boolean myDisposed;
+
+    private MappedJar(@NotNull File file) {
+      myWrapper = new ReadOnlyMappedBufferWrapper(file, 0);
+    }
+
+    /**
+     * @return the mapped buffer to be {@link #release() released} after reading, or null if the jar is already unmapped or can't be mapped
+     */
+    @Nullable
+    synchronized ByteBuffer acquire() {
+      if (myDisposed) return null;
+      final ByteBuffer buffer;
+      try {
+        buffer = myWrapper.buf();
+      }
+      catch (IOException e) {
+        return null;
+      }
+      myReaders++;
+      return buffer;
+    }
+
+    synchronized void release() {
+      if (--myReaders == 0 && myDisposed) {
+        myWrapper.unmap();
+      }
+    }
+
+    public synchronized void dispose() {
+      if (myDisposed) return;
+      myDisposed = true;
+      if (myReaders == 0) {
+        myWrapper.unmap();
+      }
+    }
   }
 
   public JarHandler(final JarFileSystemImpl fileSystem, String path) {
@@ -88,7 +143,9 @@ public class JarHandler implements FileSystemInterface {
   public VirtualFile markDirty() {
     synchronized (lock) {
       myRelPathsToEntries.clear();
+      myEntryTable.clear();
       myZipFile.set(null);
+      unmapJar();
 
       final NewVirtualFile root = (NewVirtualFile)
         JarFileSystem.getInstance().findFileByPath(myBasePath + JarFileSystem.JAR_SEPARATOR);
@@ -105,17 +162,30 @@ public class JarHandler implements FileSystemInterface {
     synchronized (lock) {
       Map<String, EntryInfo> map = myRelPathsToEntries.get();
       if (map == null) {
-        final ZipFile zip = getZip();
-
         map = new THashMap<String, EntryInfo>();
+
+        final JarEntryTable table = getEntryTable();
+        if (table != null) {
+          map.put("", new EntryInfo("", null, true));
+          for (int i = 0; i < table.size(); i++) {
+            final EntryInfo info = addEntry(table.names[i], map);
+            info.index = i;
+            info.length = table.sizes[i];
+            info.timeStamp = table.times[i];
+          }
+          myRelPathsToEntries = new SoftReference<Map<String, EntryInfo>>(map);
+          return map;
+        }
+
+        final ZipFile zip = getZip();
         if (zip != null) {
           map.put("", new EntryInfo("", null, true));
           final Enumeration<? extends ZipEntry> entries = zip.entries();
           while (entries.hasMoreElements()) {
             ZipEntry entry = entries.nextElement();
-            final String name = entry.getName();
-            final boolean isDirectory = name.endsWith("/");
-            getOrCreate(isDirectory ? name.substring(0, name.length() - 1) : name, isDirectory, map);
+            final EntryInfo info = addEntry(entry.getName(), map);
+            info.length = entry.getSize();
+            info.timeStamp = entry.getTime();
           }
 
           myRelPathsToEntries = new SoftReference<Map<String, EntryInfo>>(map);
@@ -125,6 +195,60 @@ public class JarHandler implements FileSystemInterface {
     }
   }
 
+  private static EntryInfo addEntry(String name, Map<String, EntryInfo> map) {
+    final boolean isDirectory = name.endsWith("/");
+    return getOrCreate(isDirectory ? name.substring(0, name.length() - 1) : name, isDirectory, map);
+  }
+
+  /**
+   * Entry table is taken from the persistent cache if the jar didn't change since it was saved,
+   * otherwise the central directory is parsed from the mapped jar once and saved for the next startup.
+   */
+  @Nullable
+  private JarEntryTable getEntryTable() {
+    JarEntryTable table = myEntryTable.get();
+    if (table == null) {
+      final File originalFile = getOriginalFile();
+      table = JarEntryTable.load(originalFile);
+      if (table == null) {
+        final MappedJar jar = getMappedJar();
+        if (jar == null) return null;
+        final ByteBuffer buffer = jar.acquire();
+        if (buffer == null) return null;
+        try {
+          table = JarEntryTable.parse(buffer);
+        }
+        finally {
+          jar.release();
+        }
+        if (table == null) return null;
+        table.save(originalFile);
+      }
+      myEntryTable = new SoftReference<JarEntryTable>(table);
+    }
+    return table;
+  }
+
+  @Nullable
+  private MappedJar getMappedJar() {
+    MappedJar jar = myMappedJar.get();
+    if (jar == null) {
+      final File file = getMirrorFile(getOriginalFile());
+      if (!file.isFile() || file.length() > Integer.MAX_VALUE) return null;
+      jar = new MappedJar(file);
+      myMappedJar.set(jar);
+    }
+    return jar;
+  }
+
+  private void unmapJar() {
+    final MappedJar jar = myMappedJar.get();
+    myMappedJar.set(null);
+    if (jar != null) {
+      jar.dispose();
+    }
+  }
+
   private static EntryInfo getOrCreate(String entryName, boolean isDirectory, Map<String, EntryInfo> map) {
     EntryInfo info = map.get(entryName);
     if (info == null) {
@@ -247,8 +371,8 @@ public class JarHandler implements FileSystemInterface {
 
   public long getLength(final VirtualFile file) {
     synchronized (lock) {
-      final ZipEntry entry = convertToEntry(file);
-      return entry != null ? entry.getSize() : 0;
+      final EntryInfo info = getEntryInfo(file);
+      return info != null ? info.length : 0;
     }
   }
 
@@ -260,6 +384,21 @@ public class JarHandler implements FileSystemInterface {
   @NotNull
   public byte[] contentsToByteArray(final VirtualFile file) throws IOException {
     synchronized (lock) {
+      final EntryInfo info = getEntryInfo(file);
+      if (info != null && info.index >= 0) {
+        final JarEntryTable table = getEntryTable();
+        final MappedJar jar = getMappedJar();
+        final ByteBuffer buffer = table != null && jar != null && info.index < table.size() ? jar.acquire() : null;
+        if (buffer != null) {
+          try {
+            return table.readContent(buffer, info.index);
+          }
+          finally {
+            jar.release();
+          }
+        }
+      }
+
       final ZipEntry entry = convertToEntry(file);
       if (entry == null) {
         return new byte[0];
@@ -283,8 +422,8 @@ public class JarHandler implements FileSystemInterface {
   public long getTimeStamp(final VirtualFile file) {
     if (file.getParent() == null) return -1L; // Optimization
     synchronized (lock) {
-      final ZipEntry entry = convertToEntry(file);
-      return entry != null ? entry.getTime() : -1L;
+      final EntryInfo info = getEntryInfo(file);
+      return info != null ? info.timeStamp : -1L;
     }
   }
 
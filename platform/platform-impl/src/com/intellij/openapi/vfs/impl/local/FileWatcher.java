@@ -39,6 +39,7 @@ import java.util.*;
 public class FileWatcher {
   @NonNls public static final String PROPERTY_WATCHER_DISABLED = "filewatcher.disabled";
   @NonNls private static final String PROPERTY_WATCHER_EXECUTABLE_PATH = "idea.filewatcher.executable.path";
+  @NonNls private static final String PROPERTY_POLLING_WATCHER_DISABLED = "idea.filewatcher.polling.disabled";
 
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vfs.impl.local.FileWatcher");
 
@@ -63,6 +64,7 @@ public class FileWatcher {
   private Process notifierProcess;
   private BufferedReader notifierReader;
   private BufferedWriter notifierWriter;
+  private volatile PollingFileWatcher myPollingWatcher;
 
   private static final FileWatcher ourInstance = new FileWatcher();
   private int attemptCount = 0;
@@ -85,22 +87,53 @@ public class FileWatcher {
     catch (IOException ignore) {
     }
 
+    // the native watcher may be replaced by the polling one later, so the hook stops whichever is running
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      public void run() {
+        isShuttingDown = true;
+        shutdownProcess();
+        if (myPollingWatcher != null) {
+          myPollingWatcher.stop();
+        }
+      }
+    }, "FileWatcher shutdown hook"));
+
     if (notifierProcess != null) {
       LOG.info("Native file watcher is operational.");
       new WatchForChangesThread().start();
-
-      Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
-        public void run() {
-          isShuttingDown = true;
-          shutdownProcess();
-        }
-      }, "FileWatcher shutdown hook"));
     }
     else {
       LOG.info("Native file watcher failed to startup.");
+      if (!"true".equals(System.getProperty(PROPERTY_WATCHER_DISABLED))) {
+        startPollingWatcher();
+      }
     }
   }
 
+  private void startPollingWatcher() {
+    if ("true".equals(System.getProperty(PROPERTY_POLLING_WATCHER_DISABLED))) return;
+
+    synchronized (LOCK) {
+      if (myPollingWatcher != null) return;
+      myPollingWatcher = new PollingFileWatcher(new PollingFileWatcher.Owner() {
+        public void setManualWatchRoots(List<String> roots) {
+          FileWatcher.this.setManualWatchRoots(roots);
+        }
+
+        public boolean isWatcheable(String path) {
+          return FileWatcher.this.isWatcheable(path);
+        }
+
+        public void onPathChange(ChangeKind changeKind, String path) {
+          FileWatcher.this.onPathChange(changeKind, path);
+        }
+      });
+      myPollingWatcher.setWatchRoots(myRecursiveWatchRoots, myFlatWatchRoots);
+    }
+    myPollingWatcher.start();
+    LOG.info("In-process polling file watcher is operational.");
+  }
+
   public List<String> getDirtyPaths() {
     synchronized (LOCK) {
       final List<String> result = myDirtyPaths;
@@ -140,7 +173,10 @@ public class FileWatcher {
         myRecursiveWatchRoots = recursive;
         myFlatWatchRoots = flat;
 
-        if (isAlive()) {
+        if (myPollingWatcher != null) {
+          myPollingWatcher.setWatchRoots(recursive, flat);
+        }
+        else if (isAlive()) {
           writeLine(ROOTS_COMMAND);
           myMapping.clear();
 
@@ -160,7 +196,7 @@ public class FileWatcher {
   }
 
   private boolean isAlive() {
-    if (!isOperational()) return false;
+    if (notifierProcess == null) return false;
 
     try {
       notifierProcess.exitValue();
@@ -172,7 +208,7 @@ public class FileWatcher {
     return false;
   }
 
-  private void setManualWatchRoots(List<String> roots) {
+  void setManualWatchRoots(List<String> roots) {
     synchronized (LOCK) {
       myManualWatchRoots = roots;
     }
@@ -225,7 +261,7 @@ public class FileWatcher {
   }
 
   public boolean isOperational() {
-    return notifierProcess != null;
+    return notifierProcess != null || myPollingWatcher != null;
   }
 
   private class WatchForChangesThread extends Thread {
@@ -250,6 +286,7 @@ public class FileWatcher {
           if (GIVEUP_COMMAND.equals(command)) {
             LOG.info("Filewatcher gives up to operate on this platform");
             shutdownProcess();
+            startPollingWatcher();
             return;
           }
 
@@ -316,6 +353,7 @@ public class FileWatcher {
         reset();
         shutdownProcess();
         LOG.info("Watcher terminated and attempt to restart has failed. Exiting watching thread.", e);
+        startPollingWatcher();
       }
     }
   }
@@ -359,7 +397,7 @@ public class FileWatcher {
     return line;
   }
 
-  private boolean isWatcheable(final String path) {
+  boolean isWatcheable(final String path) {
     if (path == null) return false;
 
     synchronized (LOCK) {
@@ -383,7 +421,7 @@ public class FileWatcher {
     return false;
   }
 
-  private void onPathChange(final ChangeKind changeKind, final String path) {
+  void onPathChange(final ChangeKind changeKind, final String path) {
     synchronized (LOCK) {
       switch (changeKind) {
         case STATS:
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.impl.local;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.watcher.ChangeKind;
+import com.intellij.util.ArrayUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * In-process replacement for the native fsnotifier, used when the executable is missing or gives up.
+ * Watched directories are registered recursively. Every cycle only the directories are stat'ed: a directory is listed and its
+ * files are stat'ed again only when its own timestamp has changed, and then only the directories and files that actually changed
+ * are reported to {@link FileWatcher}. A directory that hasn't changed is polled less and less often, down to once in
+ * {@link #MAX_BACK_OFF} cycles, so large idle trees cost little.
+ * <p/>
+ * A file changed in place doesn't touch the timestamp of its directory, so such changes are only seen while the directory
+ * itself has changed recently, see {@link DirSnapshot#isRacy()}. Files replaced by a rename, as editors and version control
+ * tools usually save them, are always seen.
+ * <p/>
+ * Changes found during one cycle are coalesced: a directory with too many changed children is reported as a single
+ * flat {@link ChangeKind#DIRTY} rescan, and a cycle that overflows completely is reported as
+ * {@link ChangeKind#RECDIRTY} for the affected watch roots only.
+ */
+class PollingFileWatcher {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vfs.impl.local.PollingFileWatcher");
+
+  @NonNls private static final String PROPERTY_INTERVAL = "idea.filewatcher.polling.interval";
+  @NonNls private static final String PROPERTY_MAX_DIRS = "idea.filewatcher.polling.max.dirs";
+
+  private static final int INTERVAL = Integer.getInteger(PROPERTY_INTERVAL, 2000);
+  private static final int MAX_WATCHED_DIRS = Integer.getInteger(PROPERTY_MAX_DIRS, 100000);
+  private static final int MAX_EVENTS_PER_DIR = 100;
+  private static final int MAX_EVENTS_PER_CYCLE = 5000;
+  private static final int MAX_BACK_OFF = 8;
+  // directory timestamps may be as coarse as two seconds, a directory changed this recently may change again unnoticed
+  private static final long RACY_WINDOW = 2000;
+
+  interface Owner {
+    void setManualWatchRoots(List<String> roots);
+
+    boolean isWatcheable(String path);
+
+    void onPathChange(ChangeKind changeKind, String path);
+  }
+
+  private final Owner myOwner;
+  private final int myInterval;
+  private final Object LOCK = new Object();
+
+  private List<String> myRecursiveRoots = Collections.emptyList();
+  private List<String> myFlatRoots = Collections.emptyList();
+  private boolean myRootsChanged = false;
+  private volatile boolean myStopped = false;
+  private volatile Thread myThread;
+
+  // accessed from the polling thread only
+  private final Map<String, DirSnapshot> myDirs = new LinkedHashMap<String, DirSnapshot>();
+  private long myCycle;
+
+  PollingFileWatcher(Owner owner) {
+    this(owner, INTERVAL);
+  }
+
+  PollingFileWatcher(Owner owner, int interval) {
+    myOwner = owner;
+    myInterval = interval;
+  }
+
+  void start() {
+    final Thread thread = new Thread(new Runnable() {
+      public void run() {
+        pollLoop();
+      }
+    }, "PollingFileWatcher");
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.setDaemon(true);
+    myThread = thread;
+    thread.start();
+  }
+
+  void stop() {
+    myStopped = true;
+    final Thread thread = myThread;
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  void setWatchRoots(List<String> recursive, List<String> flat) {
+    synchronized (LOCK) {
+      myRecursiveRoots = new ArrayList<String>(recursive);
+      myFlatRoots = new ArrayList<String>(flat);
+      myRootsChanged = true;
+    }
+  }
+
+  private void pollLoop() {
+    while (!myStopped) {
+      try {
+        List<String> recursive = null;
+        List<String> flat = null;
+        synchronized (LOCK) {
+          if (myRootsChanged) {
+            recursive = myRecursiveRoots;
+            flat = myFlatRoots;
+            myRootsChanged = false;
+          }
+        }
+        if (recursive != null) {
+          registerRoots(recursive, flat);
+        }
+        else {
+          poll();
+        }
+      }
+      catch (Throwable e) {
+        LOG.error(e);
+      }
+
+      try {
+        Thread.sleep(myInterval);
+      }
+      catch (InterruptedException e) {
+        //normal situation
+      }
+    }
+  }
+
+  void registerRoots(List<String> recursive, List<String> flat) {
+    myDirs.clear();
+
+    final List<String> unwatcheable = new ArrayList<String>();
+    for (String root : recursive) {
+      final File file = new File(root);
+      if (file.isDirectory()) {
+        if (!registerRecursively(file)) {
+          unwatcheable.add(root);
+        }
+      }
+      else {
+        registerFlat(file.getParentFile());
+      }
+    }
+    for (String root : flat) {
+      final File file = new File(root);
+      registerFlat(file.isDirectory() ? file : file.getParentFile());
+    }
+
+    if (!unwatcheable.isEmpty()) {
+      LOG.info("Too many directories to watch, falling back to manual refresh for " + unwatcheable);
+    }
+    myOwner.setManualWatchRoots(unwatcheable);
+  }
+
+  private void registerFlat(@Nullable File dir) {
+    if (dir == null || myDirs.containsKey(dir.getPath())) return;
+    final DirSnapshot snapshot = DirSnapshot.take(dir, false);
+    if (snapshot != null) {
+      myDirs.put(dir.getPath(), snapshot);
+    }
+  }
+
+  /**
+   * @return false if the watched directory limit was hit before the whole subtree was registered
+   */
+  private boolean registerRecursively(File root) {
+    final LinkedList<File> queue = new LinkedList<File>();
+    queue.add(root);
+    while (!queue.isEmpty()) {
+      if (myDirs.size() >= MAX_WATCHED_DIRS) return false;
+
+      final File dir = queue.removeFirst();
+      final DirSnapshot snapshot = DirSnapshot.take(dir, true);
+      if (snapshot == null) continue;
+      myDirs.put(dir.getPath(), snapshot);
+
+      for (int i = 0; i < snapshot.names.length; i++) {
+        if (snapshot.directories[i]) {
+          queue.add(new File(dir, snapshot.names[i]));
+        }
+      }
+    }
+    return true;
+  }
+
+  void poll() {
+    final Set<Pair<ChangeKind, String>> events = new LinkedHashSet<Pair<ChangeKind, String>>();
+    final List<File> created = new ArrayList<File>();
+    final List<String> deleted = new ArrayList<String>();
+    myCycle++;
+
+    for (Map.Entry<String, DirSnapshot> entry : myDirs.entrySet()) {
+      final String path = entry.getKey();
+      final DirSnapshot old = entry.getValue();
+      if (old.nextCycle > myCycle) continue;
+
+      final File dir = new File(path);
+      if (dir.lastModified() == old.stamp && !old.isRacy()) {
+        old.backOff();
+        old.nextCycle = myCycle + old.backOff;
+        continue;
+      }
+
+      final DirSnapshot current = DirSnapshot.take(dir, old.recursive);
+      if (current == null) {
+        // a deleted directory is reported by its parent if the parent is watched, its watched subdirectories aren't reported at all
+        final String parent = dir.getParent();
+        final DirSnapshot parentSnapshot = parent == null ? null : myDirs.get(parent);
+        if (parentSnapshot != null) {
+          parentSnapshot.nextCycle = myCycle;
+        }
+        else {
+          events.add(Pair.create(ChangeKind.DELETE, path));
+        }
+        deleted.add(path);
+        continue;
+      }
+      entry.setValue(current);
+      if (old.sameAs(current)) {
+        current.backOff = old.backOff;
+        current.backOff();
+        current.nextCycle = myCycle + current.backOff;
+        continue;
+      }
+
+      final List<Pair<ChangeKind, String>> dirEvents = diff(dir, old, current, created, deleted);
+      if (dirEvents.size() > MAX_EVENTS_PER_DIR) {
+        events.add(Pair.create(ChangeKind.DIRTY, path));
+      }
+      else {
+        events.addAll(dirEvents);
+      }
+    }
+
+    for (String path : deleted) {
+      unregisterRecursively(path);
+    }
+
+    boolean overflow = false;
+    for (File dir : created) {
+      if (!registerRecursively(dir)) {
+        overflow = true;
+      }
+    }
+
+    if (overflow || events.size() > MAX_EVENTS_PER_CYCLE) {
+      LOG.info("Too many file system events (" + events.size() + "), rescanning affected roots");
+      for (String root : collectAffectedRoots(events)) {
+        myOwner.onPathChange(ChangeKind.RECDIRTY, root);
+      }
+      return;
+    }
+
+    for (Pair<ChangeKind, String> event : events) {
+      if (myOwner.isWatcheable(event.second)) {
+        myOwner.onPathChange(event.first, event.second);
+      }
+    }
+  }
+
+  private static List<Pair<ChangeKind, String>> diff(File dir, DirSnapshot old, DirSnapshot current, List<File> created, List<String> deleted) {
+    final List<Pair<ChangeKind, String>> events = new ArrayList<Pair<ChangeKind, String>>();
+    if (old.stamp != current.stamp) {
+      events.add(Pair.create(ChangeKind.STATS, dir.getPath()));
+    }
+
+    int i = 0;
+    int j = 0;
+    while (i < old.names.length || j < current.names.length) {
+      final int c = i == old.names.length ? 1 : j == current.names.length ? -1 : old.names[i].compareTo(current.names[j]);
+      if (c < 0) {
+        final String path = new File(dir, old.names[i]).getPath();
+        events.add(Pair.create(ChangeKind.DELETE, path));
+        if (old.directories[i]) deleted.add(path);
+        i++;
+      }
+      else if (c > 0) {
+        final File file = new File(dir, current.names[j]);
+        events.add(Pair.create(ChangeKind.CREATE, file.getPath()));
+        if (current.directories[j] && current.recursive) created.add(file);
+        j++;
+      }
+      else {
+        if (old.directories[i] != current.directories[j]) {
+          final File file = new File(dir, current.names[j]);
+          events.add(Pair.create(ChangeKind.DELETE, file.getPath()));
+          events.add(Pair.create(ChangeKind.CREATE, file.getPath()));
+          if (old.directories[i]) deleted.add(file.getPath());
+          if (current.directories[j] && current.recursive) created.add(file);
+        }
+        else if (!current.directories[j] && old.stamps[i] != current.stamps[j]) {
+          events.add(Pair.create(ChangeKind.CHANGE, new File(dir, current.names[j]).getPath()));
+        }
+        i++;
+        j++;
+      }
+    }
+    return events;
+  }
+
+  private void unregisterRecursively(String path) {
+    for (Iterator<String> it = myDirs.keySet().iterator(); it.hasNext();) {
+      if (FileUtil.startsWith(it.next(), path)) {
+        it.remove();
+      }
+    }
+  }
+
+  private Set<String> collectAffectedRoots(Set<Pair<ChangeKind, String>> events) {
+    final List<String> roots;
+    synchronized (LOCK) {
+      roots = new ArrayList<String>(myRecursiveRoots);
+      roots.addAll(myFlatRoots);
+    }
+
+    final Set<String> result = new LinkedHashSet<String>();
+    NextEvent:
+    for (Pair<ChangeKind, String> event : events) {
+      for (String root : roots) {
+        if (FileUtil.startsWith(event.second, root)) {
+          result.add(root);
+          continue NextEvent;
+        }
+      }
+      final File parent = new File(event.second).getParentFile();
+      result.add(parent != null ? parent.getPath() : event.second);
+    }
+    return result;
+  }
+
+  @TestOnly
+  int getBackOff(String path) {
+    final DirSnapshot snapshot = myDirs.get(path);
+    return snapshot != null ? snapshot.backOff : 0;
+  }
+
+  private static class DirSnapshot {
+    private final boolean recursive;
+    private final long stamp;
+    private final long taken;
+    private final String[] names;
+    private final long[] stamps;
+    private final boolean[] directories;
+    // the directory is polled again in this many cycles if it hasn't changed, and at the cycle below
+    private int backOff = 1;
+    private long nextCycle;
+
+    private DirSnapshot(boolean recursive, long stamp, long taken, String[] names, long[] stamps, boolean[] directories) {
+      this.recursive = recursive;
+      this.stamp = stamp;
+      this.taken = taken;
+      this.names = names;
+      this.stamps = stamps;
+      this.directories = directories;
+    }
+
+    /**
+     * Lists the directory and stats its children, the directory timestamp is taken before the listing.
+     */
+    @Nullable
+    private static DirSnapshot take(File dir, boolean recursive) {
+      final long taken = System.currentTimeMillis();
+      final long stamp = dir.lastModified();
+      if (!dir.isDirectory()) return null;
+
+      String[] names = dir.list();
+      if (names == null) names = ArrayUtil.EMPTY_STRING_ARRAY;
+      Arrays.sort(names);
+
+      final long[] stamps = new long[names.length];
+      final boolean[] directories = new boolean[names.length];
+      for (int i = 0; i < names.length; i++) {
+        final File child = new File(dir, names[i]);
+        directories[i] = child.isDirectory();
+        stamps[i] = directories[i] ? 0 : child.lastModified() * 31 + child.length();
+      }
+      return new DirSnapshot(recursive, stamp, taken, names, stamps, directories);
+    }
+
+    /**
+     * @return true if the directory changed too shortly before it was listed, so its unchanged timestamp can't be trusted
+     */
+    private boolean isRacy() {
+      return taken - stamp < RACY_WINDOW;
+    }
+
+    private void backOff() {
+      backOff = Math.min(backOff * 2, MAX_BACK_OFF);
+    }
+
+    private boolean sameAs(DirSnapshot other) {
+      return stamp == other.stamp &&
+             Arrays.equals(names, other.names) &&
+             Arrays.equals(stamps, other.stamps) &&
+             Arrays.equals(directories, other.directories);
+    }
+  }
+}
@@ -45,7 +45,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
   private final NewVirtualFileSystem myFS;
 
   // guarded by this
-  private Object myChildren; // Either HashMap<String, VFile> or VFile[]
+  private Object myChildren; // Either HashMap<String, VFile> or VFile[] sorted by name, see compareNames()
 
   public VirtualDirectoryImpl(@NotNull String name, final VirtualDirectoryImpl parent, @NotNull NewVirtualFileSystem fs, final int id) {
     super(name, parent, id);
@@ -87,11 +87,8 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
       a = asArray();
     }
     if (a != null) {
-      Object encoded = encodeName(name);
-      byte[] bytes = encoded instanceof byte[] ? (byte[])encoded : null;
-      for (VirtualFile file : a) {
-        if (namesEqual(name, bytes, file)) return (NewVirtualFile)file;
-      }
+      final int idx = indexOf(a, name);
+      if (idx >= 0) return a[idx];
 
       return createIfNotFound ? createAndFindChildWithEventFire(name) : null;
     }
@@ -126,19 +123,31 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
     return null;
   }
 
-  private boolean namesEqual(String name, byte[] encoded, VirtualFile file) {
-    if (encoded != null && file instanceof VirtualFileSystemEntry) {
-      Object o = ((VirtualFileSystemEntry)file).rawName();
-      if (!(o instanceof byte[])) return false;
-
-      if (encoded.length != ((byte[])o).length) return false;
-    }
+  private int compareNames(String name1, String name2) {
+    return getFileSystem().isCaseSensitive() ? name1.compareTo(name2) : name1.compareToIgnoreCase(name2);
+  }
 
-    final String name2 = file.getName();
-    if (getFileSystem().isCaseSensitive()) {
-      return name.equals(name2);
+  /**
+   * @return index of the child with the given name in the sorted children array,
+   *         or <code>-(insertion point) - 1</code> if there's no such child
+   */
+  private int indexOf(@NotNull VirtualFile[] children, @NotNull String name) {
+    int low = 0;
+    int high = children.length - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int c = compareNames(children[mid].getName(), name);
+      if (c < 0) {
+        low = mid + 1;
+      }
+      else if (c > 0) {
+        high = mid - 1;
+      }
+      else {
+        return mid;
+      }
     }
-    return name.equalsIgnoreCase(name2);
+    return -(low + 1);
   }
 
   @NotNull
@@ -183,13 +192,8 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
   public synchronized NewVirtualFile findChildIfCached(@NotNull String name) {
     final VirtualFile[] a = asArray();
     if (a != null) {
-      Object encoded = encodeName(name);
-      byte[] bytes = encoded instanceof byte[] ? (byte[])encoded : null;
-      for (VirtualFile file : a) {
-        if (namesEqual(name, bytes, file)) return (NewVirtualFile)file;
-      }
-
-      return null;
+      final int idx = indexOf(a, name);
+      return idx >= 0 ? (NewVirtualFile)a[idx] : null;
     }
 
     final Map<String, VirtualFile> map = asMap();
@@ -257,6 +261,11 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
 
         children[i] = child != null && child != NullVirtualFile.INSTANCE ? child : createChild(name, childId);
       }
+      Arrays.sort(children, new Comparator<VirtualFile>() {
+        public int compare(VirtualFile o1, VirtualFile o2) {
+          return compareNames(o1.getName(), o2.getName());
+        }
+      });
     }
 
     if (getId() > 0) {
@@ -337,7 +346,13 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
   public synchronized void addChild(@NotNull VirtualFile file) {
     final VirtualFile[] a = asArray();
     if (a != null) {
-      myChildren = ArrayUtil.append(a, file);
+      int idx = indexOf(a, file.getName());
+      if (idx < 0) idx = -idx - 1;
+      final VirtualFile[] children = new VirtualFile[a.length + 1];
+      System.arraycopy(a, 0, children, 0, idx);
+      children[idx] = file;
+      System.arraycopy(a, idx, children, idx + 1, a.length - idx);
+      myChildren = children;
     }
     else {
       final Map<String, VirtualFile> m = ensureAsMap();
@@ -41,6 +41,7 @@ public abstract class VirtualFileSystemEntry extends NewVirtualFile {
   protected static final PersistentFS ourPersistence = (PersistentFS)ManagingFS.getInstance();
   private static final byte DIRTY_FLAG = 0x01;
   private static final String EMPTY = "";
+  @NonNls private static final String URL_SEPARATOR = "://";
 
   private volatile Object myName;
   private volatile VirtualDirectoryImpl myParent;
@@ -102,35 +103,161 @@ public abstract class VirtualFileSystemEntry extends NewVirtualFile {
     return myParent;
   }
 
-  protected void appendPathOnFileSystem(StringBuilder builder, boolean includeFSBaseUrl) {
-    if (myParent != null) {
-      myParent.appendPathOnFileSystem(builder, includeFSBaseUrl);
+  private static int nameLength(Object name) {
+    return name instanceof String ? ((String)name).length() : ((byte[])name).length;
+  }
+
+  private static char nameCharAt(Object name, int index) {
+    return name instanceof String ? ((String)name).charAt(index) : (char)((byte[])name)[index];
+  }
+
+  /**
+   * Path is the names of this file and all its parents joined with '/', the separator is omitted after the root
+   * if the root name already ends with '/' (e.g. "/" or "x.jar!/").
+   */
+  private boolean hasSeparatorBefore() {
+    final VirtualFileSystemEntry parent = myParent;
+    if (parent == null || rawName() == EMPTY) return false;
+    if (parent.myParent != null) return true;
+
+    final Object rootName = parent.rawName();
+    final int length = nameLength(rootName);
+    return length > 0 && nameCharAt(rootName, length - 1) != '/';
+  }
+
+  private int getPathLength() {
+    int length = 0;
+    for (VirtualFileSystemEntry entry = this; entry != null; entry = entry.myParent) {
+      length += nameLength(entry.rawName());
+      if (entry.hasSeparatorBefore()) length++;
     }
-    else {
-      if (includeFSBaseUrl) {
-        builder.append(getFileSystem().getProtocol()).append("://");
+    return length;
+  }
+
+  /**
+   * Fills the path backwards so that it ends right before <code>end</code>.
+   */
+  private void fillPath(char[] chars, int end) {
+    int pos = end;
+    for (VirtualFileSystemEntry entry = this; entry != null; entry = entry.myParent) {
+      final Object name = entry.rawName();
+      final int length = nameLength(name);
+      pos -= length;
+      for (int i = 0; i < length; i++) {
+        chars[pos + i] = nameCharAt(name, i);
+      }
+      if (entry.hasSeparatorBefore()) {
+        chars[--pos] = '/';
       }
     }
+  }
 
-    Object o = rawName();
-    if (o == EMPTY) return;
-
-    final int oldLen = builder.length();
-    if (oldLen > 0 && builder.charAt(oldLen - 1) != '/') {
-      builder.append('/');
+  @Override
+  public void appendPath(@NotNull StringBuilder builder) {
+    final int start = builder.length();
+    int pos = start + getPathLength();
+    builder.setLength(pos);
+    for (VirtualFileSystemEntry entry = this; entry != null; entry = entry.myParent) {
+      final Object name = entry.rawName();
+      final int length = nameLength(name);
+      pos -= length;
+      for (int i = 0; i < length; i++) {
+        builder.setCharAt(pos + i, nameCharAt(name, i));
+      }
+      if (entry.hasSeparatorBefore()) {
+        builder.setCharAt(--pos, '/');
+      }
     }
+  }
 
-    if (o instanceof String) {
-      builder.append((String)o);
-    } else {
-      byte[] bytes = (byte[]) o;
-      int len = bytes.length;
-      int start = builder.length();
-      builder.setLength(start + len);
-      for (int i = 0; i < len; i++) {
-        builder.setCharAt(start + i, (char)bytes[i]);
+  @Override
+  public boolean isPathEqualTo(@NotNull String path) {
+    return pathMatches(path, 0);
+  }
+
+  private boolean pathMatches(String s, int start) {
+    int pos = s.length();
+    for (VirtualFileSystemEntry entry = this; entry != null; entry = entry.myParent) {
+      final Object name = entry.rawName();
+      final int length = nameLength(name);
+      pos -= length;
+      if (pos < start) return false;
+      for (int i = 0; i < length; i++) {
+        if (s.charAt(pos + i) != nameCharAt(name, i)) return false;
+      }
+      if (entry.hasSeparatorBefore()) {
+        if (pos == start || s.charAt(--pos) != '/') return false;
       }
     }
+    return pos == start;
+  }
+
+  @Override
+  public boolean isUrlEqualTo(@NotNull String url) {
+    final String protocol = getFileSystem().getProtocol();
+    final int prefixLength = protocol.length() + URL_SEPARATOR.length();
+    return url.length() >= prefixLength &&
+           url.startsWith(protocol) &&
+           url.startsWith(URL_SEPARATOR, protocol.length()) &&
+           pathMatches(url, prefixLength);
+  }
+
+  @Override
+  public int comparePathTo(@NotNull NewVirtualFile other) {
+    if (!(other instanceof VirtualFileSystemEntry)) return super.comparePathTo(other);
+    VirtualFileSystemEntry a = this;
+    VirtualFileSystemEntry b = (VirtualFileSystemEntry)other;
+    if (a == b) return 0;
+
+    int depthA = a.getDepth();
+    int depthB = b.getDepth();
+    final boolean aDeeper = depthA > depthB;
+    while (depthA > depthB) {
+      a = a.myParent;
+      depthA--;
+    }
+    while (depthB > depthA) {
+      b = b.myParent;
+      depthB--;
+    }
+    if (a == b) {
+      // one is an ancestor of the other, so its path is a prefix of the other one
+      return aDeeper ? 1 : -1;
+    }
+
+    while (a.myParent != b.myParent) {
+      a = a.myParent;
+      b = b.myParent;
+    }
+    if (a.myParent == null) {
+      // different roots, their names have all the separator peculiarities
+      return getPath().compareTo(other.getPath());
+    }
+
+    // paths are equal up to the names of a and b, siblings under the same parent
+    final Object nameA = a.rawName();
+    final Object nameB = b.rawName();
+    final int lengthA = nameLength(nameA);
+    final int lengthB = nameLength(nameB);
+    for (int i = 0; i < Math.min(lengthA, lengthB); i++) {
+      final char cA = nameCharAt(nameA, i);
+      final char cB = nameCharAt(nameB, i);
+      if (cA != cB) return cA - cB;
+    }
+    if (lengthA == lengthB) return 0;
+    // the shorter name is followed by a separator if the path goes deeper, otherwise the path ends there
+    if (lengthA < lengthB) {
+      return a != this ? '/' - nameCharAt(nameB, lengthA) : -1;
+    }
+    return b != other ? nameCharAt(nameA, lengthB) - '/' : 1;
+  }
+
+  private int getDepth() {
+    int depth = 0;
+    for (VirtualFileSystemEntry entry = myParent; entry != null; entry = entry.myParent) {
+      depth++;
+    }
+    return depth;
   }
 
   public boolean isDirty() {
@@ -170,16 +297,20 @@ public abstract class VirtualFileSystemEntry extends NewVirtualFile {
 
   @NotNull
   public String getUrl() {
-    StringBuilder builder = new StringBuilder();
-    appendPathOnFileSystem(builder, true);
-    return builder.toString();
+    final String protocol = getFileSystem().getProtocol();
+    final int prefixLength = protocol.length() + URL_SEPARATOR.length();
+    final char[] chars = new char[prefixLength + getPathLength()];
+    protocol.getChars(0, protocol.length(), chars, 0);
+    URL_SEPARATOR.getChars(0, URL_SEPARATOR.length(), chars, protocol.length());
+    fillPath(chars, chars.length);
+    return new String(chars);
   }
 
   @NotNull
   public String getPath() {
-    StringBuilder builder = new StringBuilder();
-    appendPathOnFileSystem(builder, false);
-    return builder.toString();
+    final char[] chars = new char[getPathLength()];
+    fillPath(chars, chars.length);
+    return new String(chars);
   }
 
   public void delete(final Object requestor) throws IOException {
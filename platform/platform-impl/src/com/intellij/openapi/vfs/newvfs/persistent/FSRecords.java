@@ -30,6 +30,7 @@ import com.intellij.openapi.util.io.ByteSequence;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.containers.IntArrayList;
+import com.intellij.util.containers.OffHeapIntArrayList;
 import com.intellij.util.io.PagedFileStorage;
 import com.intellij.util.io.PersistentStringEnumerator;
 import com.intellij.util.io.ResizeableMappedFile;
@@ -37,7 +38,6 @@ import com.intellij.util.io.storage.AbstractStorage;
 import com.intellij.util.io.storage.HeavyProcessLatch;
 import com.intellij.util.io.storage.RefCountingStorage;
 import com.intellij.util.io.storage.Storage;
-import gnu.trove.TIntArrayList;
 import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -45,6 +45,8 @@ import org.jetbrains.annotations.Nullable;
 import javax.swing.*;
 import java.awt.*;
 import java.io.*;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -52,7 +54,7 @@ import java.util.concurrent.TimeUnit;
 public class FSRecords implements Forceable {
   private static final Logger LOG = Logger.getInstance("#com.intellij.vfs.persistent.FSRecords");
 
-  private static final int VERSION = 12;
+  private static final int VERSION = 14;
 
   private static final int PARENT_OFFSET = 0;
   private static final int PARENT_SIZE = 4;
@@ -107,7 +109,8 @@ public class FSRecords implements Forceable {
     private static Storage myAttributes;
     private static RefCountingStorage myContents;
     private static ResizeableMappedFile myRecords;
-    private static final TIntArrayList myFreeRecords = new TIntArrayList();
+    // as many entries as there are deleted records, kept off the heap for the whole session
+    private static OffHeapIntArrayList myFreeRecords;
 
     private static boolean myDirty = false;
     private static ScheduledFuture<?> myFlushingFuture;
@@ -131,6 +134,7 @@ public class FSRecords implements Forceable {
       LOG.assertTrue(filelength % RECORD_SIZE == 0);
 
       int count = filelength / RECORD_SIZE;
+      myFreeRecords = new OffHeapIntArrayList();
       for (int n = 2; n < count; n++) {
         if ((getFlags(n) & FREE_RECORD_FLAG) != 0) {
           addFreeRecord(n);
@@ -418,6 +422,11 @@ public class FSRecords implements Forceable {
         myRecords.close();
         myRecords = null;
       }
+
+      if (myFreeRecords != null) {
+        myFreeRecords.dispose();
+        myFreeRecords = null;
+      }
     }
 
     private static void markClean() {
@@ -743,20 +752,39 @@ public class FSRecords implements Forceable {
     }
   }
 
-  public static void updateList(int id, int[] children) {
+  /**
+   * Children are stored sorted, by their name ids on case-sensitive file systems and by their case-folded names otherwise,
+   * see {@link #findChild(int[], String, boolean)}.
+   */
+  public static void updateList(int id, int[] children, boolean caseSensitive) {
     synchronized (lock) {
       try {
         DbConnection.markDirty();
-        final DataOutputStream record = writeAttribute(id, CHILDREN_ATT, false);
-        record.writeInt(children.length);
+        final long[] sorted = new long[children.length];
+        int count = 0;
         for (int child : children) {
           if (child == id) {
             LOG.error("Cyclic parent child relations");
           }
           else {
-            record.writeInt(child);
+            sorted[count++] = ((long)getRecordInt(child, NAME_OFFSET) << 32) | (child & 0xFFFFFFFFL);
           }
         }
+        Arrays.sort(sorted, 0, count);
+
+        final int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+          result[i] = (int)sorted[i];
+        }
+        if (!caseSensitive) {
+          sortByFoldedNames(result);
+        }
+
+        final DataOutputStream record = writeAttribute(id, CHILDREN_ATT, false);
+        record.writeInt(count);
+        for (int child : result) {
+          record.writeInt(child);
+        }
         record.close();
       }
       catch (Throwable e) {
@@ -765,6 +793,70 @@ public class FSRecords implements Forceable {
     }
   }
 
+  /**
+   * Stable sort by case-folded names, so names differing in case only stay ordered by their name ids.
+   */
+  private static void sortByFoldedNames(int[] children) {
+    final String[] names = new String[children.length];
+    final Integer[] order = new Integer[children.length];
+    for (int i = 0; i < children.length; i++) {
+      names[i] = getName(children[i]);
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer o1, Integer o2) {
+        return names[o1.intValue()].compareToIgnoreCase(names[o2.intValue()]);
+      }
+    });
+
+    final int[] copy = children.clone();
+    for (int i = 0; i < children.length; i++) {
+      children[i] = copy[order[i].intValue()];
+    }
+  }
+
+  /**
+   * @param children list of children as returned by {@link #list(int)}
+   * @param caseSensitive whether the list was stored for a case-sensitive file system
+   * @return id of the child with the given name or 0 if there is none
+   */
+  public static int findChild(int[] children, String name, boolean caseSensitive) {
+    synchronized (lock) {
+      try {
+        final int nameId = caseSensitive ? getNames().tryEnumerate(name) : 0;
+        if (caseSensitive && nameId == 0) return 0;
+
+        int low = 0;
+        int high = children.length - 1;
+        while (low <= high) {
+          final int mid = (low + high) >>> 1;
+          final int c;
+          if (caseSensitive) {
+            final int midNameId = getRecordInt(children[mid], NAME_OFFSET);
+            c = midNameId < nameId ? -1 : midNameId == nameId ? 0 : 1;
+          }
+          else {
+            c = getName(children[mid]).compareToIgnoreCase(name);
+          }
+
+          if (c < 0) {
+            low = mid + 1;
+          }
+          else if (c > 0) {
+            high = mid - 1;
+          }
+          else {
+            return children[mid];
+          }
+        }
+        return 0;
+      }
+      catch (Throwable e) {
+        throw DbConnection.handleError(e);
+      }
+    }
+  }
+
   private static void incModCount(int id) {
     ourLocalModificationCount++;
     final int count = getModCount() + 1;
@@ -1196,6 +1288,7 @@ public class FSRecords implements Forceable {
       try {
         DbConnection.force();
         DbConnection.closeFiles();
+        DbConnection.refCount = 0; // so that the next connect() opens the files again
       }
       catch (Throwable e) {
         throw DbConnection.handleError(e);
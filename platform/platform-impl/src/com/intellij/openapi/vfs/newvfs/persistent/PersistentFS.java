@@ -35,11 +35,12 @@ import com.intellij.openapi.vfs.newvfs.impl.FakeVirtualFile;
 import com.intellij.openapi.vfs.newvfs.impl.VirtualDirectoryImpl;
 import com.intellij.openapi.vfs.newvfs.impl.VirtualFileSystemEntry;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.containers.ConcurrentIntObjectHashMap;
 import com.intellij.util.containers.ContainerUtil;
-import com.intellij.util.containers.StripedLockIntObjectConcurrentHashMap;
 import com.intellij.util.io.DupOutputStream;
 import com.intellij.util.io.ReplicatorInputStream;
 import com.intellij.util.messages.MessageBus;
+import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -175,12 +176,15 @@ public class PersistentFS extends ManagingFS implements ApplicationComponent {
     }
 
     final int[] childrenIds = ArrayUtil.newIntArray(names.length);
+    final TObjectIntHashMap<String> currentNameToId = new TObjectIntHashMap<String>(currentNames.length);
+    for (int i = 0; i < currentNames.length; i++) {
+      currentNameToId.put(currentNames[i], currentIds[i]);
+    }
 
     for (int i = 0; i < names.length; i++) {
       final String name = names[i];
-      int idx = ArrayUtil.indexOf(currentNames, name);
-      if (idx >= 0) {
-        childrenIds[i] = currentIds[idx];
+      if (currentNameToId.containsKey(name)) {
+        childrenIds[i] = currentNameToId.get(name);
       }
       else {
         int childId = FSRecords.createRecord();
@@ -189,7 +193,7 @@ public class PersistentFS extends ManagingFS implements ApplicationComponent {
       }
     }
 
-    FSRecords.updateList(id, childrenIds);
+    FSRecords.updateList(id, childrenIds, delegate.isCaseSensitive());
     int flags = FSRecords.getFlags(id);
     FSRecords.setFlags(id, flags | CHILDREN_CACHED_FLAG, true);
 
@@ -354,15 +358,14 @@ public class PersistentFS extends ManagingFS implements ApplicationComponent {
     final int parentId = getFileId(parent);
 
     final int[] children = FSRecords.list(parentId);
-    for (final int childId : children) {
-      if (namesEqual(delegate, childName, FSRecords.getName(childId))) return childId;
-    }
+    final int childId = FSRecords.findChild(children, childName, delegate.isCaseSensitive());
+    if (childId != 0) return childId;
 
     VirtualFile fake = new FakeVirtualFile(parent, childName);
     if (delegate.exists(fake)) {
       int child = FSRecords.createRecord();
       copyRecordFromDelegateFS(child, parentId, fake, delegate);
-      FSRecords.updateList(parentId, ArrayUtil.append(children, child));
+      FSRecords.updateList(parentId, ArrayUtil.append(children, child), delegate.isCaseSensitive());
       return child;
     }
 
@@ -716,7 +719,7 @@ public class PersistentFS extends ManagingFS implements ApplicationComponent {
   }
 
   //guarded by dirCacheReadLock/dirCacheWriteLock
-  private final StripedLockIntObjectConcurrentHashMap<NewVirtualFile> myIdToDirCache = new StripedLockIntObjectConcurrentHashMap<NewVirtualFile>();
+  private final ConcurrentIntObjectHashMap<NewVirtualFile> myIdToDirCache = new ConcurrentIntObjectHashMap<NewVirtualFile>();
 
   public void clearIdCache() {
     myIdToDirCache.clear();
@@ -841,16 +844,16 @@ public class PersistentFS extends ManagingFS implements ApplicationComponent {
       int childId = FSRecords.createRecord();
       copyRecordFromDelegateFS(childId, parentId, fakeFile, delegate);
 
-      appendIdToParentList(parentId, childId);
+      appendIdToParentList(parentId, childId, delegate.isCaseSensitive());
       final VirtualDirectoryImpl dir = (VirtualDirectoryImpl)parent;
       dir.addChild(dir.createChild(name, childId));
     }
   }
 
-  private static void appendIdToParentList(final int parentId, final int childId) {
+  private static void appendIdToParentList(final int parentId, final int childId, final boolean caseSensitive) {
     int[] childrenlist = FSRecords.list(parentId);
     childrenlist = ArrayUtil.append(childrenlist, childId);
-    FSRecords.updateList(parentId, childrenlist);
+    FSRecords.updateList(parentId, childrenlist, caseSensitive);
   }
 
   private void executeDelete(final VirtualFile file) {
@@ -868,7 +871,7 @@ public class PersistentFS extends ManagingFS implements ApplicationComponent {
       FSRecords.deleteRecordRecursively(id);
 
       if (parentId != 0) {
-        removeIdFromParentList(parentId, id);
+        removeIdFromParentList(parentId, id, getDelegate(file).isCaseSensitive());
         VirtualDirectoryImpl directory = (VirtualDirectoryImpl)file.getParent();
         assert directory != null;
 
@@ -898,16 +901,23 @@ public class PersistentFS extends ManagingFS implements ApplicationComponent {
     }
   }
 
-  private static void removeIdFromParentList(final int parentId, final int id) {
+  private static void removeIdFromParentList(final int parentId, final int id, final boolean caseSensitive) {
     int[] childList = FSRecords.list(parentId);
     childList = ArrayUtil.remove(childList, ArrayUtil.indexOf(childList, id));
-    FSRecords.updateList(parentId, childList);
+    FSRecords.updateList(parentId, childList, caseSensitive);
   }
 
   private static void executeRename(final VirtualFile file, final String newName) {
     ((VirtualFileSystemEntry)file).setName(newName);
     final int id = getFileId(file);
     FSRecords.setName(id, newName);
+
+    final VirtualFile parent = file.getParent();
+    if (parent != null) {
+      // name has changed, so the parent's children list needs to be resorted
+      final int parentId = getFileId(parent);
+      FSRecords.updateList(parentId, FSRecords.list(parentId), getDelegate(file).isCaseSensitive());
+    }
   }
 
   private static void executeSetWritable(final VirtualFile file, final boolean writableFlag) {
@@ -953,8 +963,9 @@ public class PersistentFS extends ManagingFS implements ApplicationComponent {
     final int newParentId = getFileId(newParent);
     final int oldParentId = getFileId(what.getParent());
 
-    removeIdFromParentList(oldParentId, whatId);
-    appendIdToParentList(newParentId, whatId);
+    final boolean caseSensitive = getDelegate(what).isCaseSensitive();
+    removeIdFromParentList(oldParentId, whatId, caseSensitive);
+    appendIdToParentList(newParentId, whatId, caseSensitive);
 
     ((VirtualFileSystemEntry)what).setParent(newParent);
     FSRecords.setParent(whatId, newParentId);
@@ -76,17 +76,30 @@ public class RefreshWorker {
           VirtualDirectoryImpl dir = (VirtualDirectoryImpl)file;
           final boolean fullSync = dir.allChildrenLoaded();
           if (fullSync) {
-            Set<String> currentNames = new HashSet<String>(Arrays.asList(persistence.list(file)));
-            Set<String> uptodateNames = new HashSet<String>(Arrays.asList(VfsUtil.filterNames(delegate.list(file))));
-
-            Set<String> newNames = new HashSet<String>(uptodateNames);
-            newNames.removeAll(currentNames);
-
-            Set<String> deletedNames = new HashSet<String>(currentNames);
-            deletedNames.removeAll(uptodateNames);
-
-            for (String name : deletedNames) {
-              scheduleDeletion(file.findChild(name));
+            final String[] currentNames = persistence.list(file).clone();
+            final String[] uptodateNames = VfsUtil.filterNames(delegate.list(file)).clone();
+            Arrays.sort(currentNames);
+            Arrays.sort(uptodateNames);
+
+            // both lists are sorted, so a single merge pass finds deleted and new names
+            Set<String> deletedNames = new HashSet<String>();
+            List<String> newNames = new ArrayList<String>();
+            int i = 0;
+            int j = 0;
+            while (i < currentNames.length || j < uptodateNames.length) {
+              final int c = i == currentNames.length ? 1 : j == uptodateNames.length ? -1 : currentNames[i].compareTo(uptodateNames[j]);
+              if (c < 0) {
+                final String name = currentNames[i++];
+                deletedNames.add(name);
+                scheduleDeletion(file.findChild(name));
+              }
+              else if (c > 0) {
+                newNames.add(uptodateNames[j++]);
+              }
+              else {
+                i++;
+                j++;
+              }
             }
 
             for (String name : newNames) {
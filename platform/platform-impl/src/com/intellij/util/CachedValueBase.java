@@ -20,23 +20,34 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.ModificationTracker;
 import com.intellij.openapi.util.Ref;
 import com.intellij.psi.util.CachedValueProvider;
 import com.intellij.reference.SoftReference;
 import gnu.trove.TLongArrayList;
+import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.lang.ref.Reference;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Dmitry Avdeev
  */
 public abstract class CachedValueBase<T> {
   private static final Logger LOG = Logger.getInstance("#com.intellij.psi.impl.CachedValueImpl");
+  private static final boolean COLLECT_STATISTICS = Boolean.getBoolean("idea.cached.value.statistics");
+  private static final KeyedStatistics<Class, ComputeStatistics> ourStatistics = new KeyedStatistics<Class, ComputeStatistics>(new Function<Class, ComputeStatistics>() {
+    public ComputeStatistics fun(Class providerClass) {
+      return new ComputeStatistics();
+    }
+  });
   private final MyTimedReference<T> myData = new MyTimedReference<T>();
 
   protected Data<T> computeData(T value, Object[] dependencies) {
@@ -46,9 +57,14 @@ public abstract class CachedValueBase<T> {
 
     TLongArrayList timeStamps = new TLongArrayList(dependencies.length);
     List<Object> deps = new ArrayList<Object>(dependencies.length);
-    collectDependencies(timeStamps, deps, dependencies);
+    List<PushingModificationTracker> pushingTrackers = new SmartList<PushingModificationTracker>();
+    collectDependencies(timeStamps, deps, pushingTrackers, dependencies);
 
-    return new Data<T>(value, ArrayUtil.toObjectArray(deps), timeStamps.toNativeArray());
+    Data<T> data = new Data<T>(value, ArrayUtil.toObjectArray(deps), timeStamps.toNativeArray());
+    for (PushingModificationTracker tracker : pushingTrackers) {
+      tracker.addDependent(data);
+    }
+    return data;
   }
 
   protected void setValue(final T value, final CachedValueProvider.Result<T> result) {
@@ -102,6 +118,7 @@ public abstract class CachedValueBase<T> {
   }
 
   protected boolean isUpToDate(@NotNull Data data) {
+    if (data.myInvalidatedBy != null) return false;
     if (data.myTimeStamps == null) return true;
 
     for (int i = 0; i < data.myDependencies.length; i++) {
@@ -118,19 +135,33 @@ public abstract class CachedValueBase<T> {
     return timeStamp < 0 || timeStamp != oldTimeStamp;
   }
 
-  protected void collectDependencies(TLongArrayList timeStamps, List<Object> resultingDeps, Object[] dependencies) {
+  protected void collectDependencies(TLongArrayList timeStamps,
+                                     List<Object> resultingDeps,
+                                     List<PushingModificationTracker> pushingTrackers,
+                                     Object[] dependencies) {
     for (Object dependency : dependencies) {
       if (dependency == null || dependency == ObjectUtils.NULL) continue;
       if (dependency instanceof Object[]) {
-        collectDependencies(timeStamps, resultingDeps, (Object[])dependency);
+        collectDependencies(timeStamps, resultingDeps, pushingTrackers, (Object[])dependency);
       }
-      else {
+      else if (!collectPushingTrackers(dependency, pushingTrackers)) {
         resultingDeps.add(dependency);
         timeStamps.add(getTimeStamp(dependency));
       }
     }
   }
 
+  /**
+   * @return true if the dependency is tracked by the pushing trackers added to the list, and doesn't need to be polled
+   */
+  protected boolean collectPushingTrackers(Object dependency, List<PushingModificationTracker> trackers) {
+    if (dependency instanceof PushingModificationTracker) {
+      trackers.add((PushingModificationTracker)dependency);
+      return true;
+    }
+    return false;
+  }
+
   protected long getTimeStamp(Object dependency) {
     if (dependency instanceof ModificationTracker) {
       return ((ModificationTracker)dependency).getModificationCount();
@@ -166,6 +197,7 @@ public abstract class CachedValueBase<T> {
     private final T myValue;
     private final Object[] myDependencies;
     private final long[] myTimeStamps;
+    private volatile Object myInvalidatedBy;
 
     public Data(final T value, final Object[] dependencies, final long[] timeStamps) {
       myValue = value;
@@ -173,6 +205,10 @@ public abstract class CachedValueBase<T> {
       myTimeStamps = timeStamps;
     }
 
+    void invalidate(@NotNull PushingModificationTracker tracker) {
+      myInvalidatedBy = tracker;
+    }
+
     public void dispose() {
       if (myValue instanceof Disposable) {
         Disposer.dispose((Disposable)myValue);
@@ -187,6 +223,10 @@ public abstract class CachedValueBase<T> {
       return value == ObjectUtils.NULL ? null : value;
     }
 
+    if (COLLECT_STATISTICS) {
+      return computeWithStatistics(param);
+    }
+
     // compute outside lock to avoid deadlock
     CachedValueProvider.Result<T> result = doCompute(param);
 
@@ -195,6 +235,81 @@ public abstract class CachedValueBase<T> {
 
   protected abstract <P> CachedValueProvider.Result<T> doCompute(P param);
 
+  public abstract Object getValueProvider();
+
+  private <P> T computeWithStatistics(P param) {
+    final Data<T> staleData = myData.getData();
+    final Object outdated = staleData == null ? null : findOutdatedDependency(staleData);
+
+    final long start = System.nanoTime();
+    CachedValueProvider.Result<T> result = doCompute(param);
+    final long time = System.nanoTime() - start;
+
+    ourStatistics.get(getValueProvider().getClass()).record(time, outdated == null ? null : describeDependency(outdated));
+    return setValue(result);
+  }
+
+  @Nullable
+  private Object findOutdatedDependency(@NotNull Data data) {
+    if (data.myInvalidatedBy != null) return data.myInvalidatedBy;
+    if (data.myTimeStamps == null) return null;
+    for (int i = 0; i < data.myDependencies.length; i++) {
+      Object dependency = data.myDependencies[i];
+      if (dependency != null && isDependencyOutOfDate(dependency, data.myTimeStamps[i])) return dependency;
+    }
+    return null;
+  }
+
+  @NonNls
+  private static String describeDependency(@NotNull Object dependency) {
+    return dependency instanceof Key || dependency instanceof PushingModificationTracker ? dependency.toString() : dependency.getClass().getName();
+  }
+
+  /**
+   * The providers which took the most time to recompute their values and the dependencies which made them recompute,
+   * collected with -Didea.cached.value.statistics=true only.
+   */
+  @NonNls
+  @NotNull
+  public static String getStatistics() {
+    if (!COLLECT_STATISTICS) return "Run with -Didea.cached.value.statistics=true to collect the statistics";
+
+    return ourStatistics.report(20, new Function<ComputeStatistics, Long>() {
+      public Long fun(ComputeStatistics statistics) {
+        return statistics.myTime.get();
+      }
+    });
+  }
+
+  private static class ComputeStatistics {
+    private final AtomicInteger myCount = new AtomicInteger();
+    private final AtomicLong myTime = new AtomicLong();
+    private final KeyedStatistics<String, AtomicInteger> myInvalidations = new KeyedStatistics<String, AtomicInteger>(new Function<String, AtomicInteger>() {
+      public AtomicInteger fun(String dependency) {
+        return new AtomicInteger();
+      }
+    });
+
+    private void record(long time, @Nullable String invalidatedBy) {
+      myCount.incrementAndGet();
+      myTime.addAndGet(time);
+      if (invalidatedBy != null) {
+        myInvalidations.get(invalidatedBy).incrementAndGet();
+      }
+    }
+
+    @NonNls
+    @Override
+    public String toString() {
+      final StringBuilder builder = new StringBuilder();
+      builder.append("computed ").append(myCount.get()).append(" times in ").append(myTime.get() / 1000000).append("ms");
+      if (myInvalidations.size() > 0) {
+        builder.append(", invalidated by ").append(new TreeMap<String, AtomicInteger>(myInvalidations.asMap()));
+      }
+      return builder.toString();
+    }
+  }
+
   private static class MyTimedReference<T> extends TimedReference<SoftReference<Data<T>>> {
     private boolean myIsLocked;
 
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util;
+
+import com.intellij.openapi.util.ModificationTracker;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A modification tracker which invalidates the cached values depending on it when it's incremented, instead of being polled
+ * by each of them on every access. A value subscribes when it's computed and is dropped from the subscribers on the next increment;
+ * the subscribers are held weakly, so an unused value can still be collected.
+ */
+public class PushingModificationTracker implements ModificationTracker {
+  private final String myName;
+  private volatile long myModificationCount;
+  // guarded by this
+  private List<WeakReference<CachedValueBase.Data>> myDependents = new ArrayList<WeakReference<CachedValueBase.Data>>();
+  private int myCleanupThreshold = 64;
+
+  public PushingModificationTracker(@NonNls @NotNull String name) {
+    myName = name;
+  }
+
+  public long getModificationCount() {
+    return myModificationCount;
+  }
+
+  public void incModificationCount() {
+    final List<WeakReference<CachedValueBase.Data>> dependents;
+    synchronized (this) {
+      myModificationCount++;
+      if (myDependents.isEmpty()) return;
+      dependents = myDependents;
+      myDependents = new ArrayList<WeakReference<CachedValueBase.Data>>();
+      myCleanupThreshold = 64;
+    }
+
+    for (WeakReference<CachedValueBase.Data> reference : dependents) {
+      final CachedValueBase.Data data = reference.get();
+      if (data != null) {
+        data.invalidate(this);
+      }
+    }
+  }
+
+  synchronized void addDependent(@NotNull CachedValueBase.Data data) {
+    if (myDependents.size() >= myCleanupThreshold) {
+      for (Iterator<WeakReference<CachedValueBase.Data>> iterator = myDependents.iterator(); iterator.hasNext();) {
+        if (iterator.next().get() == null) iterator.remove();
+      }
+      myCleanupThreshold = Math.max(64, myDependents.size() * 2);
+    }
+    myDependents.add(new WeakReference<CachedValueBase.Data>(data));
+  }
+
+  synchronized int getDependentCount() {
+    return myDependents.size();
+  }
+
+  @Override
+  public String toString() {
+    return myName;
+  }
+}
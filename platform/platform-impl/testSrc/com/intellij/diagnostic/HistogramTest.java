@@ -0,0 +1,78 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.diagnostic;
+
+import junit.framework.TestCase;
+
+public class HistogramTest extends TestCase {
+  public void testHistogramBuckets() {
+    final Histogram histogram = new Histogram();
+    histogram.add(500);          // <1us
+    histogram.add(1500);         // <2us
+    histogram.add(3000 * 1000);  // 3ms, <4096us
+
+    assertEquals(3, histogram.getCount());
+    assertEquals(3000 * 1000, histogram.getMaxNanos());
+    assertEquals(1, histogram.getBucketCount(0));
+    assertEquals(1, histogram.getBucketCount(1));
+    assertEquals(1, histogram.getBucketCount(12));
+  }
+
+  public void testHistogramMergesThreadsAndResets() throws Exception {
+    final Histogram histogram = new Histogram();
+    histogram.add(500);
+    final Thread thread = new Thread("recorder") {
+      @Override
+      public void run() {
+        histogram.add(1500);
+        histogram.add(2000 * 1000);
+      }
+    };
+    thread.start();
+    thread.join();
+
+    assertEquals(3, histogram.getCount());
+    assertEquals(2000 * 1000, histogram.getMaxNanos());
+    // the counters of the dead thread are kept once they are merged
+    assertEquals(3, histogram.getCount());
+
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    histogram.add(1500);
+    assertEquals(1, histogram.getCount());
+    assertEquals(1, histogram.getBucketCount(1));
+    assertEquals(0, histogram.getBucketCount(0));
+  }
+
+  public void testDeadThreadsDroppedWithoutReports() throws Exception {
+    final Histogram histogram = new Histogram();
+    for (int i = 0; i < 100; i++) {
+      final Thread thread = new Thread("recorder " + i) {
+        @Override
+        public void run() {
+          histogram.add(1500);
+        }
+      };
+      thread.start();
+      thread.join();
+      // the counters of the dead threads are retired when new threads come, not only when the histogram is reported
+      assertTrue(String.valueOf(histogram.getThreadCount()), histogram.getThreadCount() < 20);
+    }
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(100, histogram.getBucketCount(1));
+  }
+}
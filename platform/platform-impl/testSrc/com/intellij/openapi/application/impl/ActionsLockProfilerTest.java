@@ -0,0 +1,93 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.application.impl;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+public class ActionsLockProfilerTest extends TestCase {
+  public void testSamplesReadersBlockingWriteAction() throws Exception {
+    final ActionsLockProfiler profiler = new ActionsLockProfiler(1, 0);
+    final CountDownLatch readerStarted = new CountDownLatch(1);
+    final CountDownLatch writerWaiting = new CountDownLatch(1);
+
+    final Thread reader = new Thread("reader") {
+      @Override
+      public void run() {
+        final long acquired = profiler.readLockAcquired();
+        readerStarted.countDown();
+        try {
+          holdReadLock(writerWaiting);
+        }
+        finally {
+          profiler.readLockReleased(acquired);
+        }
+      }
+    };
+    reader.start();
+    readerStarted.await();
+
+    final long requested = profiler.writeLockRequested();
+    Thread.sleep(10);
+    profiler.sample();
+    writerWaiting.countDown();
+    reader.join();
+    profiler.writeLockAcquired(requested);
+
+    assertEquals(1, profiler.getReadHoldTimes().getCount());
+    assertEquals(1, profiler.getWriteWaitTimes().getCount());
+    final List<Map.Entry<String, Integer>> stacks = profiler.getBlockingStacks();
+    assertEquals(1, stacks.size());
+    assertTrue(stacks.get(0).getKey(), stacks.get(0).getKey().contains("holdReadLock"));
+
+    final String json = profiler.toJson();
+    assertTrue(json, json.contains("\"readHold\": {\"count\": 1"));
+    assertTrue(json, json.contains("\"samples\": 1"));
+
+    // nothing is sampled when no write action is waiting
+    profiler.sample();
+    assertEquals(1, (int)profiler.getBlockingStacks().get(0).getValue());
+  }
+
+  public void testDeadReadersDroppedWithoutSampling() throws Exception {
+    final ActionsLockProfiler profiler = new ActionsLockProfiler(0, 0);
+    for (int i = 0; i < 100; i++) {
+      final Thread reader = new Thread("reader " + i) {
+        @Override
+        public void run() {
+          profiler.readLockReleased(profiler.readLockAcquired());
+        }
+      };
+      reader.start();
+      reader.join();
+    }
+
+    assertEquals(100, profiler.getReadHoldTimes().getCount());
+    assertTrue(String.valueOf(profiler.getReaderThreadCount()), profiler.getReaderThreadCount() < 20);
+  }
+
+  private static void holdReadLock(CountDownLatch latch) {
+    try {
+      latch.await();
+    }
+    catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
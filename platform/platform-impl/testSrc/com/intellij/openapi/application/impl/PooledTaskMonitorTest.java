@@ -0,0 +1,195 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.application.impl;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PooledTaskMonitorTest extends TestCase {
+  private ExecutorService myExecutor;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myExecutor = Executors.newCachedThreadPool();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myExecutor.shutdownNow();
+    super.tearDown();
+  }
+
+  private static class LimitedTask implements Runnable {
+    private final AtomicInteger myRunning;
+    private final AtomicInteger myMaxRunning;
+    private final CountDownLatch myDone;
+
+    private LimitedTask(AtomicInteger running, AtomicInteger maxRunning, CountDownLatch done) {
+      myRunning = running;
+      myMaxRunning = maxRunning;
+      myDone = done;
+    }
+
+    public void run() {
+      final int running = myRunning.incrementAndGet();
+      synchronized (myMaxRunning) {
+        myMaxRunning.set(Math.max(myMaxRunning.get(), running));
+      }
+      try {
+        Thread.sleep(10);
+      }
+      catch (InterruptedException ignored) {
+      }
+      myRunning.decrementAndGet();
+      myDone.countDown();
+    }
+  }
+
+  public void testConcurrencyLimit() throws Exception {
+    final String tag = LimitedTask.class.getName();
+    final PooledTaskMonitor monitor = new PooledTaskMonitor(myExecutor, Collections.singletonMap(tag, 2));
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(20);
+    for (int i = 0; i < 20; i++) {
+      final LimitedTask task = new LimitedTask(running, maxRunning, done);
+      monitor.execute(task, task);
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertTrue(String.valueOf(maxRunning.get()), maxRunning.get() <= 2);
+
+    final PooledTaskMonitor.TagStatistics statistics = monitor.getStatistics().get(tag);
+    assertEquals(20, statistics.getQueueWaitTimes().getCount());
+    assertEquals(0, statistics.getWaitingCount());
+    // the monitor finishes its bookkeeping after the task itself
+    for (int i = 0; i < 100 && statistics.getRunningCount() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, statistics.getRunningCount());
+    assertEquals(20, statistics.getRunTimes().getCount());
+  }
+
+  public void testNestedTaskWithSameTagRunsOutsideLimit() throws Exception {
+    final String tag = getClass().getName();
+    final PooledTaskMonitor monitor = new PooledTaskMonitor(myExecutor, Collections.singletonMap(tag, 1));
+    final CountDownLatch done = new CountDownLatch(1);
+    final Runnable outer = new Runnable() {
+      public void run() {
+        final CountDownLatch nestedDone = new CountDownLatch(1);
+        final Runnable nested = new Runnable() {
+          public void run() {
+            nestedDone.countDown();
+          }
+        };
+        monitor.execute(nested, nested);
+        try {
+          if (nestedDone.await(10, TimeUnit.SECONDS)) {
+            done.countDown();
+          }
+        }
+        catch (InterruptedException ignored) {
+        }
+      }
+    };
+    monitor.execute(outer, outer);
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    final PooledTaskMonitor.TagStatistics statistics = monitor.getStatistics().get(tag);
+    assertEquals(0, statistics.getWaitingCount());
+    for (int i = 0; i < 100 && statistics.getRunningCount() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, statistics.getRunningCount());
+  }
+
+  public void testFanOutWithSameTagStaysLimited() throws Exception {
+    final String tag = getClass().getName();
+    final PooledTaskMonitor monitor = new PooledTaskMonitor(myExecutor, Collections.singletonMap(tag, 1));
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(10);
+    final Runnable outer = new Runnable() {
+      public void run() {
+        for (int i = 0; i < 10; i++) {
+          final Runnable subtask = new Runnable() {
+            public void run() {
+              final int count = running.incrementAndGet();
+              synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), count));
+              }
+              try {
+                Thread.sleep(10);
+              }
+              catch (InterruptedException ignored) {
+              }
+              running.decrementAndGet();
+              done.countDown();
+            }
+          };
+          monitor.execute(subtask, subtask);
+        }
+      }
+    };
+    monitor.execute(outer, outer);
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    // only one subtask may run outside the limit next to the slot holder
+    assertTrue(String.valueOf(maxRunning.get()), maxRunning.get() <= 2);
+  }
+
+  public void testRunningTasksSnapshot() throws Exception {
+    final PooledTaskMonitor monitor = new PooledTaskMonitor(myExecutor, Collections.<String, Integer>emptyMap());
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch finish = new CountDownLatch(1);
+    final Runnable task = new Runnable() {
+      public void run() {
+        started.countDown();
+        try {
+          finish.await();
+        }
+        catch (InterruptedException ignored) {
+        }
+      }
+    };
+    monitor.execute(task, task);
+    started.await();
+
+    assertEquals(1, monitor.getRunningTasks().size());
+    assertTrue(monitor.getRunningTasks().get(0), monitor.getRunningTasks().get(0).startsWith(getClass().getName() + " "));
+    finish.countDown();
+  }
+
+  public void testTags() {
+    assertEquals(getClass().getName(), PooledTaskMonitor.getTag(new Runnable() {
+      public void run() {
+      }
+    }.getClass()));
+    assertEquals(LimitedTask.class.getName(), PooledTaskMonitor.getTag(LimitedTask.class));
+  }
+
+  public void testParseLimits() {
+    final Map<String, Integer> limits = PooledTaskMonitor.parseLimits("com.foo.Indexer=2, com.bar.Search = 1,broken");
+    assertEquals(2, limits.size());
+    assertEquals(2, limits.get("com.foo.Indexer").intValue());
+    assertEquals(1, limits.get("com.bar.Search").intValue());
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.progress.impl;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+public class CheckCanceledSamplerTest extends TestCase {
+  private CheckCanceledSampler mySampler;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mySampler = new CheckCanceledSampler(20);
+  }
+
+  public void testSamplesThreadNotCheckingForCancellation() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch sampled = new CountDownLatch(1);
+    final Thread thread = new Thread("not checking") {
+      @Override
+      public void run() {
+        mySampler.processStarted();
+        try {
+          started.countDown();
+          waitWithoutChecks(sampled);
+        }
+        finally {
+          mySampler.processFinished();
+        }
+      }
+    };
+    thread.start();
+    started.await();
+    Thread.sleep(50);
+    mySampler.sample();
+    sampled.countDown();
+    thread.join();
+
+    final List<Map.Entry<String, CheckCanceledSampler.Gap>> gaps = mySampler.getGaps();
+    assertEquals(1, gaps.size());
+    assertTrue(gaps.get(0).getKey(), gaps.get(0).getKey().contains("waitWithoutChecks"));
+    assertTrue(gaps.get(0).getValue().getMaxMs() >= 20);
+
+    // the thread isn't under progress anymore
+    mySampler.sample();
+    assertEquals(1, mySampler.getGaps().get(0).getValue().getSamples());
+  }
+
+  public void testCheckingThreadIsNotSampled() throws Exception {
+    mySampler.processStarted();
+    try {
+      final long end = System.currentTimeMillis() + 50;
+      while (System.currentTimeMillis() < end) {
+        mySampler.checked();
+      }
+      mySampler.sample();
+    }
+    finally {
+      mySampler.processFinished();
+    }
+    assertTrue(mySampler.getGaps().isEmpty());
+  }
+
+  private static void waitWithoutChecks(CountDownLatch latch) {
+    try {
+      latch.await();
+    }
+    catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.progress.impl;
+
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.util.ProgressIndicatorBase;
+import com.intellij.openapi.util.EmptyRunnable;
+import com.intellij.testFramework.PlatformLiteFixture;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ProgressManagerImplTest extends PlatformLiteFixture {
+  private ProgressManagerImpl myManager;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    initApplication();
+    myManager = new ProgressManagerImpl(getApplication());
+    ProgressManagerImpl.setNeedToCheckCancel(false);
+  }
+
+  public void testCheckInOtherThreadDoesNotHideCancellation() throws Exception {
+    final ProgressIndicatorBase indicator = new ProgressIndicatorBase();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch canceled = new CountDownLatch(1);
+    final AtomicBoolean seen = new AtomicBoolean();
+    final Thread thread = new Thread("under progress") {
+      @Override
+      public void run() {
+        myManager.runProcess(new Runnable() {
+          public void run() {
+            started.countDown();
+            try {
+              canceled.await();
+              checkCanceled();
+            }
+            catch (ProcessCanceledException e) {
+              seen.set(true);
+            }
+            catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        }, indicator);
+      }
+    };
+    thread.start();
+    started.await();
+    indicator.cancel();
+    // a thread which doesn't run under the indicator checks first
+    checkCanceled();
+    canceled.countDown();
+    thread.join();
+
+    assertTrue(seen.get());
+    checkCanceled();
+    assertFalse(ProgressManagerImpl.isNeedToCheckCancel());
+  }
+
+  public void testFlagPutDownWhenProcessEnds() throws Exception {
+    final ProgressIndicatorBase indicator = new ProgressIndicatorBase();
+    myManager.runProcess(new Runnable() {
+      public void run() {
+        indicator.cancel();
+      }
+    }, indicator);
+    assertTrue(ProgressManagerImpl.isNeedToCheckCancel());
+
+    checkCanceled();
+    assertFalse(ProgressManagerImpl.isNeedToCheckCancel());
+  }
+
+  public void testCancelReachesThreadsUnderNestedIndicators() throws Exception {
+    final ProgressIndicatorBase outer = new ProgressIndicatorBase();
+    final Thread[] threads = new Thread[4];
+    final CountDownLatch started = new CountDownLatch(threads.length);
+    final CountDownLatch canceled = new CountDownLatch(1);
+    final AtomicInteger seen = new AtomicInteger();
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread("under progress " + i) {
+        @Override
+        public void run() {
+          myManager.executeProcessUnderProgress(new Runnable() {
+            public void run() {
+              // what a parallel job does for every element
+              for (int j = 0; j < 1000; j++) {
+                myManager.executeProcessUnderProgress(EmptyRunnable.getInstance(), outer);
+              }
+              myManager.executeProcessUnderProgress(new Runnable() {
+                public void run() {
+                  started.countDown();
+                  try {
+                    canceled.await();
+                  }
+                  catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                  }
+                }
+              }, new ProgressIndicatorBase());
+              try {
+                checkCanceled();
+              }
+              catch (ProcessCanceledException e) {
+                seen.incrementAndGet();
+              }
+            }
+          }, outer);
+        }
+      };
+      threads[i].start();
+    }
+    started.await();
+    assertEquals(threads.length, ProgressManagerImpl.getThreadsUnderProgressCount());
+    outer.cancel();
+    checkCanceled();
+    canceled.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(threads.length, seen.get());
+    assertEquals(0, ProgressManagerImpl.getThreadsUnderProgressCount());
+  }
+
+  // what ProgressManager.checkCanceled() does, without the application service
+  private void checkCanceled() {
+    if (ProgressManagerImpl.isNeedToCheckCancel()) {
+      myManager.doCheckCanceled();
+    }
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.impl.jar;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.*;
+
+public class JarEntryTableTest extends TestCase {
+  private static final byte[] STORED = "stored content".getBytes();
+  private static final byte[] DEFLATED = createContent();
+
+  private File myTempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myTempDir = FileUtil.createTempDirectory("jarEntryTable", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myTempDir);
+    super.tearDown();
+  }
+
+  private static byte[] createContent() {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      builder.append("line ").append(i).append('\n');
+    }
+    return builder.toString().getBytes();
+  }
+
+  private static ZipEntry createEntry(String name, int method, byte[] content) {
+    final ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(method);
+    entry.setSize(content.length);
+    final CRC32 crc = new CRC32();
+    crc.update(content);
+    entry.setCrc(crc.getValue());
+    if (method == ZipEntry.STORED) {
+      entry.setCompressedSize(content.length);
+    }
+    else {
+      final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      deflater.setInput(content);
+      deflater.finish();
+      final byte[] buffer = new byte[content.length + 64];
+      int compressedSize = 0;
+      while (!deflater.finished()) {
+        compressedSize += deflater.deflate(buffer);
+      }
+      deflater.end();
+      entry.setCompressedSize(compressedSize);
+    }
+    return entry;
+  }
+
+  /**
+   * @param withSizes whether the sizes are known upfront, the deflated entry is written with a data descriptor otherwise
+   */
+  private static byte[] createJar(boolean withSizes) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final ZipOutputStream out = new ZipOutputStream(bytes);
+    try {
+      out.putNextEntry(createEntry("META-INF/", ZipEntry.STORED, new byte[0]));
+      out.closeEntry();
+      out.putNextEntry(createEntry("a/Stored.txt", ZipEntry.STORED, STORED));
+      out.write(STORED);
+      out.closeEntry();
+      out.putNextEntry(withSizes ? createEntry("a/b/Deflated.txt", ZipEntry.DEFLATED, DEFLATED) : new ZipEntry("a/b/Deflated.txt"));
+      out.write(DEFLATED);
+      out.closeEntry();
+    }
+    finally {
+      out.close();
+    }
+    return bytes.toByteArray();
+  }
+
+  private File writeJar(byte[] content) throws IOException {
+    final File jar = new File(myTempDir, "test.jar");
+    FileUtil.writeToFile(jar, content);
+    return jar;
+  }
+
+  private static int find(byte[] bytes, int signature) {
+    for (int i = 0; i + 4 <= bytes.length; i++) {
+      if (getInt(bytes, i) == signature) return i;
+    }
+    fail("Signature not found: " + Integer.toHexString(signature));
+    return -1;
+  }
+
+  private static int getInt(byte[] bytes, int pos) {
+    return (bytes[pos] & 0xFF) | (bytes[pos + 1] & 0xFF) << 8 | (bytes[pos + 2] & 0xFF) << 16 | (bytes[pos + 3] & 0xFF) << 24;
+  }
+
+  private static void putShort(byte[] bytes, int pos, int value) {
+    bytes[pos] = (byte)value;
+    bytes[pos + 1] = (byte)(value >> 8);
+  }
+
+  private static void putInt(byte[] bytes, int pos, int value) {
+    putShort(bytes, pos, value);
+    putShort(bytes, pos + 2, value >> 16);
+  }
+
+  public void testParseMatchesZipFile() throws IOException {
+    final byte[] content = createJar(true);
+    final JarEntryTable table = JarEntryTable.parse(ByteBuffer.wrap(content));
+    assertNotNull(table);
+    assertEquals(3, table.size());
+
+    final ZipFile zip = new ZipFile(writeJar(content));
+    try {
+      for (int i = 0; i < table.size(); i++) {
+        final ZipEntry entry = zip.getEntry(table.names[i]);
+        assertNotNull(table.names[i], entry);
+        assertEquals(entry.getMethod(), table.methods[i]);
+        assertEquals(entry.getSize(), table.sizes[i]);
+        assertEquals(entry.getCompressedSize(), table.compressedSizes[i]);
+        assertEquals(entry.getTime(), table.times[i]);
+
+        final InputStream stream = zip.getInputStream(entry);
+        try {
+          assertTrue(table.names[i], Arrays.equals(FileUtil.loadBytes(stream, (int)entry.getSize()), table.readContent(ByteBuffer.wrap(content), i)));
+        }
+        finally {
+          stream.close();
+        }
+      }
+    }
+    finally {
+      zip.close();
+    }
+  }
+
+  public void testReadContent() throws IOException {
+    final byte[] content = createJar(true);
+    final ByteBuffer buffer = ByteBuffer.wrap(content);
+    final JarEntryTable table = JarEntryTable.parse(buffer);
+    assertNotNull(table);
+    assertEquals(0, table.readContent(buffer, 0).length);
+    assertTrue(Arrays.equals(STORED, table.readContent(buffer, 1)));
+    assertTrue(Arrays.equals(DEFLATED, table.readContent(buffer, 2)));
+    assertEquals(0, buffer.position());
+  }
+
+  public void testCorruptedLocalHeader() throws IOException {
+    final byte[] content = createJar(true);
+    final JarEntryTable table = JarEntryTable.parse(ByteBuffer.wrap(content));
+    assertNotNull(table);
+    putInt(content, (int)table.offsets[2], 0);
+    try {
+      table.readContent(ByteBuffer.wrap(content), 2);
+      fail();
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  public void testDataDescriptorRejected() throws IOException {
+    assertNull(JarEntryTable.parse(ByteBuffer.wrap(createJar(false))));
+  }
+
+  public void testZip64Rejected() throws IOException {
+    final byte[] offset = createJar(true);
+    putInt(offset, find(offset, 0x02014b50) + 42, 0xFFFFFFFF);
+    assertNull(JarEntryTable.parse(ByteBuffer.wrap(offset)));
+
+    final byte[] count = createJar(true);
+    final int end = find(count, 0x06054b50);
+    putShort(count, end + 8, 0xFFFF);
+    putShort(count, end + 10, 0xFFFF);
+    assertNull(JarEntryTable.parse(ByteBuffer.wrap(count)));
+  }
+
+  public void testNotAZip() {
+    assertNull(JarEntryTable.parse(ByteBuffer.wrap(STORED)));
+  }
+
+  public void testPersistence() throws IOException {
+    final byte[] content = createJar(true);
+    final File jar = writeJar(content);
+    final File indexFile = new File(new File(myTempDir, "index"), "test.jar.index");
+    final JarEntryTable table = JarEntryTable.parse(ByteBuffer.wrap(content));
+    assertNotNull(table);
+    table.save(jar, indexFile);
+    assertTrue(indexFile.isFile());
+
+    final JarEntryTable loaded = JarEntryTable.load(jar, indexFile);
+    assertNotNull(loaded);
+    assertTrue(Arrays.equals(table.names, loaded.names));
+    assertTrue(Arrays.equals(table.methods, loaded.methods));
+    assertTrue(Arrays.equals(table.times, loaded.times));
+    assertTrue(Arrays.equals(table.sizes, loaded.sizes));
+    assertTrue(Arrays.equals(table.compressedSizes, loaded.compressedSizes));
+    assertTrue(Arrays.equals(table.offsets, loaded.offsets));
+    assertTrue(Arrays.equals(DEFLATED, loaded.readContent(ByteBuffer.wrap(content), 2)));
+  }
+
+  public void testStaleIndexIgnored() throws IOException {
+    final byte[] content = createJar(true);
+    final File jar = writeJar(content);
+    final File indexFile = new File(myTempDir, "test.jar.index");
+    final JarEntryTable table = JarEntryTable.parse(ByteBuffer.wrap(content));
+    assertNotNull(table);
+    table.save(jar, indexFile);
+
+    assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+    assertNull(JarEntryTable.load(jar, indexFile));
+
+    table.save(jar, indexFile);
+    assertNotNull(JarEntryTable.load(jar, indexFile));
+    FileUtil.writeToFile(jar, createJar(false));
+    assertNull(JarEntryTable.load(jar, indexFile));
+  }
+
+  public void testMissingOrCorruptedIndex() throws IOException {
+    final File jar = writeJar(createJar(true));
+    final File indexFile = new File(myTempDir, "test.jar.index");
+    assertNull(JarEntryTable.load(jar, indexFile));
+
+    FileUtil.writeToFile(indexFile, new byte[]{0, 0, 0, 2, 0});
+    assertNull(JarEntryTable.load(jar, indexFile));
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.impl.local;
+
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.watcher.ChangeKind;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class PollingFileWatcherTest extends TestCase {
+  private File myRoot;
+  private final List<Pair<ChangeKind, String>> myEvents = new ArrayList<Pair<ChangeKind, String>>();
+  private List<String> myManualRoots;
+
+  private final PollingFileWatcher.Owner myOwner = new PollingFileWatcher.Owner() {
+    public void setManualWatchRoots(List<String> roots) {
+      myManualRoots = roots;
+    }
+
+    public boolean isWatcheable(String path) {
+      return true;
+    }
+
+    public void onPathChange(ChangeKind changeKind, String path) {
+      synchronized (myEvents) {
+        myEvents.add(Pair.create(changeKind, path));
+        myEvents.notifyAll();
+      }
+    }
+  };
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myRoot = FileUtil.createTempDirectory("pollingWatcher", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myRoot);
+    super.tearDown();
+  }
+
+  private PollingFileWatcher createWatcher() {
+    final PollingFileWatcher watcher = new PollingFileWatcher(myOwner);
+    watcher.registerRoots(Collections.singletonList(myRoot.getPath()), Collections.<String>emptyList());
+    return watcher;
+  }
+
+  private List<Pair<ChangeKind, String>> takeEvents() {
+    synchronized (myEvents) {
+      final List<Pair<ChangeKind, String>> events = new ArrayList<Pair<ChangeKind, String>>(myEvents);
+      myEvents.clear();
+      return events;
+    }
+  }
+
+  /**
+   * Polls until some events are reported, a directory that backed off is checked at least once in eight cycles.
+   */
+  private List<Pair<ChangeKind, String>> pollEvents(PollingFileWatcher watcher) {
+    List<Pair<ChangeKind, String>> events = Collections.emptyList();
+    for (int i = 0; i < 8 && events.isEmpty(); i++) {
+      watcher.poll();
+      events = takeEvents();
+    }
+    return events;
+  }
+
+  private static void assertEvent(List<Pair<ChangeKind, String>> events, ChangeKind kind, File file) {
+    assertTrue(events.toString(), events.contains(Pair.create(kind, file.getPath())));
+  }
+
+  private static File createFile(File dir, String name, String content) throws IOException {
+    final File file = new File(dir, name);
+    FileUtil.writeToFile(file, content.getBytes());
+    return file;
+  }
+
+  public void testCreateModifyDelete() throws IOException {
+    final File dir = new File(myRoot, "dir");
+    assertTrue(dir.mkdir());
+    final PollingFileWatcher watcher = createWatcher();
+    assertEquals(Collections.<String>emptyList(), myManualRoots);
+    watcher.poll();
+    assertEquals(Collections.<Pair<ChangeKind, String>>emptyList(), takeEvents());
+
+    final File file = createFile(dir, "a.txt", "a");
+    assertEvent(pollEvents(watcher), ChangeKind.CREATE, file);
+
+    // replaced through a rename, as editors save files
+    final File temp = createFile(dir, "a.txt.tmp", "modified");
+    assertTrue(temp.renameTo(file));
+    assertEvent(pollEvents(watcher), ChangeKind.CHANGE, file);
+
+    assertTrue(file.delete());
+    assertEvent(pollEvents(watcher), ChangeKind.DELETE, file);
+  }
+
+  public void testCreatedDirectoryIsWatched() throws IOException {
+    final PollingFileWatcher watcher = createWatcher();
+    final File dir = new File(myRoot, "created");
+    assertTrue(dir.mkdir());
+    assertEvent(pollEvents(watcher), ChangeKind.CREATE, dir);
+
+    final File file = createFile(dir, "b.txt", "b");
+    assertEvent(pollEvents(watcher), ChangeKind.CREATE, file);
+
+    FileUtil.delete(dir);
+    final List<Pair<ChangeKind, String>> events = new ArrayList<Pair<ChangeKind, String>>();
+    for (int i = 0; i < 8 && !events.contains(Pair.create(ChangeKind.DELETE, dir.getPath())); i++) {
+      events.addAll(pollEvents(watcher));
+    }
+    assertEvent(events, ChangeKind.DELETE, dir);
+    assertEquals(0, watcher.getBackOff(dir.getPath()));
+  }
+
+  public void testFilesListedOnlyWhenDirectoryChanges() throws IOException {
+    final File file = createFile(myRoot, "e.txt", "e");
+    assertTrue(myRoot.setLastModified(System.currentTimeMillis() - 10000));
+    final PollingFileWatcher watcher = createWatcher();
+
+    // doesn't touch the directory timestamp
+    FileUtil.writeToFile(file, "changed in place".getBytes());
+    assertEquals(Collections.<Pair<ChangeKind, String>>emptyList(), pollEvents(watcher));
+
+    final File created = createFile(myRoot, "f.txt", "f");
+    final List<Pair<ChangeKind, String>> events = pollEvents(watcher);
+    assertEvent(events, ChangeKind.CREATE, created);
+    assertEvent(events, ChangeKind.CHANGE, file);
+  }
+
+  public void testBackOff() throws IOException {
+    final PollingFileWatcher watcher = createWatcher();
+    final String path = myRoot.getPath();
+    assertEquals(1, watcher.getBackOff(path));
+
+    int polls = 0;
+    while (watcher.getBackOff(path) < 8) {
+      watcher.poll();
+      assertTrue(++polls < 100);
+    }
+    assertEquals(Collections.<Pair<ChangeKind, String>>emptyList(), takeEvents());
+
+    // an idle directory is still checked at least once in its back-off period
+    final File file = createFile(myRoot, "c.txt", "c");
+    assertEvent(pollEvents(watcher), ChangeKind.CREATE, file);
+    assertEquals(1, watcher.getBackOff(path));
+  }
+
+  public void testPollingThread() throws Exception {
+    final PollingFileWatcher watcher = new PollingFileWatcher(myOwner, 10);
+    watcher.setWatchRoots(Collections.singletonList(myRoot.getPath()), Collections.<String>emptyList());
+    watcher.start();
+    try {
+      // let it register the roots first
+      Thread.sleep(100);
+      final File file = createFile(myRoot, "d.txt", "d");
+      final long deadline = System.currentTimeMillis() + 10000;
+      synchronized (myEvents) {
+        while (!myEvents.contains(Pair.create(ChangeKind.CREATE, file.getPath())) && System.currentTimeMillis() < deadline) {
+          myEvents.wait(100);
+        }
+        assertEvent(myEvents, ChangeKind.CREATE, file);
+      }
+    }
+    finally {
+      watcher.stop();
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ArrayUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FSRecordsTest extends TestCase {
+  private File myCachesDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myCachesDir = FileUtil.createTempDirectory("fsRecords", null);
+    System.setProperty("caches_dir", myCachesDir.getPath());
+    FSRecords.connect();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FSRecords.dispose();
+    System.clearProperty("caches_dir");
+    FileUtil.delete(myCachesDir);
+    super.tearDown();
+  }
+
+  private static int createChild(int parent, String name) {
+    final int id = FSRecords.createRecord();
+    FSRecords.setParent(id, parent);
+    FSRecords.setName(id, name);
+    return id;
+  }
+
+  private static int createDirectory(boolean caseSensitive, String... names) {
+    final int parent = FSRecords.createRecord();
+    final int[] children = new int[names.length];
+    for (int i = 0; i < names.length; i++) {
+      children[i] = createChild(parent, names[i]);
+    }
+    FSRecords.updateList(parent, children, caseSensitive);
+    return parent;
+  }
+
+  private static List<String> listNames(int parent) {
+    final List<String> names = new ArrayList<String>();
+    for (int child : FSRecords.list(parent)) {
+      names.add(FSRecords.getName(child));
+    }
+    return names;
+  }
+
+  private static void assertSortedByNameIds(int parent) throws IOException {
+    final int[] children = FSRecords.list(parent);
+    for (int i = 1; i < children.length; i++) {
+      assertTrue(FSRecords.getNames().tryEnumerate(FSRecords.getName(children[i - 1])) <
+                 FSRecords.getNames().tryEnumerate(FSRecords.getName(children[i])));
+    }
+  }
+
+  public void testCaseSensitiveLookup() throws Exception {
+    final String[] names = {"b.txt", "A.txt", "a.txt", "c", "B.txt"};
+    final int parent = createDirectory(true, names);
+    assertSortedByNameIds(parent);
+
+    final int[] children = FSRecords.list(parent);
+    assertEquals(names.length, children.length);
+    for (String name : names) {
+      final int child = FSRecords.findChild(children, name, true);
+      assertEquals(name, FSRecords.getName(child));
+    }
+    assertEquals(0, FSRecords.findChild(children, "C", true));
+    assertEquals(0, FSRecords.findChild(children, "never.enumerated", true));
+    assertEquals(0, FSRecords.findChild(ArrayUtil.EMPTY_INT_ARRAY, "a.txt", true));
+  }
+
+  public void testCaseInsensitiveOrderAndLookup() {
+    final int parent = createDirectory(false, "b.txt", "C", "a2", "A1", "B");
+    assertEquals(Arrays.asList("A1", "a2", "B", "b.txt", "C"), listNames(parent));
+
+    final int[] children = FSRecords.list(parent);
+    assertEquals("A1", FSRecords.getName(FSRecords.findChild(children, "a1", false)));
+    assertEquals("b.txt", FSRecords.getName(FSRecords.findChild(children, "B.TXT", false)));
+    assertEquals("C", FSRecords.getName(FSRecords.findChild(children, "c", false)));
+    assertEquals(0, FSRecords.findChild(children, "a3", false));
+  }
+
+  public void testInsert() throws IOException {
+    final int parent = createDirectory(false, "b", "d");
+    FSRecords.updateList(parent, ArrayUtil.append(FSRecords.list(parent), createChild(parent, "C")), false);
+    FSRecords.updateList(parent, ArrayUtil.append(FSRecords.list(parent), createChild(parent, "a")), false);
+    assertEquals(Arrays.asList("a", "b", "C", "d"), listNames(parent));
+    assertEquals("C", FSRecords.getName(FSRecords.findChild(FSRecords.list(parent), "c", false)));
+
+    final int sensitiveParent = createDirectory(true, "b", "d");
+    FSRecords.updateList(sensitiveParent, ArrayUtil.append(FSRecords.list(sensitiveParent), createChild(sensitiveParent, "c")), true);
+    assertSortedByNameIds(sensitiveParent);
+    assertEquals("c", FSRecords.getName(FSRecords.findChild(FSRecords.list(sensitiveParent), "c", true)));
+  }
+
+  public void testRenameChangesSortPosition() {
+    final int parent = createDirectory(false, "a", "b", "c");
+    final int child = FSRecords.findChild(FSRecords.list(parent), "a", false);
+    FSRecords.setName(child, "D");
+    FSRecords.updateList(parent, FSRecords.list(parent), false);
+
+    assertEquals(Arrays.asList("b", "c", "D"), listNames(parent));
+    final int[] children = FSRecords.list(parent);
+    assertEquals(child, FSRecords.findChild(children, "d", false));
+    assertEquals(0, FSRecords.findChild(children, "a", false));
+  }
+
+  public void testRenameCaseSensitive() throws IOException {
+    final int parent = createDirectory(true, "a", "b", "c");
+    final int child = FSRecords.findChild(FSRecords.list(parent), "b", true);
+    FSRecords.setName(child, "renamed");
+    FSRecords.updateList(parent, FSRecords.list(parent), true);
+
+    assertSortedByNameIds(parent);
+    final int[] children = FSRecords.list(parent);
+    assertEquals(child, FSRecords.findChild(children, "renamed", true));
+    assertEquals(0, FSRecords.findChild(children, "b", true));
+    assertEquals("a", FSRecords.getName(FSRecords.findChild(children, "a", true)));
+    assertEquals("c", FSRecords.getName(FSRecords.findChild(children, "c", true)));
+  }
+
+  public void testOlderVersionIsRebuilt() throws Exception {
+    final int parent = createDirectory(false, "b", "a");
+    assertEquals(2, FSRecords.list(parent).length);
+    FSRecords.dispose();
+
+    // lists of version 13 were sorted by name ids on case-insensitive file systems too
+    final RandomAccessFile records = new RandomAccessFile(new File(myCachesDir, "records.dat"), "rw");
+    try {
+      records.writeInt(13);
+    }
+    finally {
+      records.close();
+    }
+
+    FSRecords.connect();
+    assertEquals(0, FSRecords.list(parent).length);
+    assertEquals(0, FSRecords.list(1).length);
+
+    final int rebuilt = createDirectory(false, "b", "a");
+    assertEquals(Arrays.asList("a", "b"), listNames(rebuilt));
+    FSRecords.dispose();
+
+    FSRecords.connect();
+    assertEquals(Arrays.asList("a", "b"), listNames(rebuilt));
+  }
+}
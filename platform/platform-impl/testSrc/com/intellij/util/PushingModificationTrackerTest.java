@@ -0,0 +1,132 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.testFramework.PlatformTestUtil;
+import junit.framework.TestCase;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PushingModificationTrackerTest extends TestCase {
+  private static class CountingProvider implements CachedValueProvider<Long> {
+    private final Object myDependency;
+    private final AtomicInteger myComputed = new AtomicInteger();
+
+    private CountingProvider(Object dependency) {
+      myDependency = dependency;
+    }
+
+    public Result<Long> compute() {
+      return Result.create((long)myComputed.incrementAndGet(), myDependency);
+    }
+  }
+
+  private static CachedValueImpl<Long> createValue(CachedValueProvider<Long> provider) {
+    return new CachedValueImpl<Long>(provider) {
+      @Override
+      public boolean isFromMyProject(Project project) {
+        return true;
+      }
+    };
+  }
+
+  public void testIncrementInvalidatesDependents() {
+    final PushingModificationTracker tracker = new PushingModificationTracker("test");
+    final CountingProvider provider = new CountingProvider(tracker);
+    final CachedValueImpl<Long> value = createValue(provider);
+
+    assertEquals(1, value.getValue().longValue());
+    assertEquals(1, value.getValue().longValue());
+    assertEquals(1, tracker.getDependentCount());
+
+    tracker.incModificationCount();
+    assertEquals(1, tracker.getModificationCount());
+    assertEquals(0, tracker.getDependentCount());
+    assertFalse(value.hasUpToDateValue());
+    assertEquals(2, value.getValue().longValue());
+    assertEquals(2, provider.myComputed.get());
+  }
+
+  public void testPolledDependenciesStillChecked() {
+    final PushingModificationTracker tracker = new PushingModificationTracker("test");
+    final AtomicLong polledCount = new AtomicLong();
+    final ModificationTracker polled = new ModificationTracker() {
+      public long getModificationCount() {
+        return polledCount.get();
+      }
+    };
+    final CountingProvider provider = new CountingProvider(new Object[]{tracker, polled});
+    final CachedValueImpl<Long> value = createValue(provider);
+
+    assertEquals(1, value.getValue().longValue());
+    polledCount.incrementAndGet();
+    assertEquals(2, value.getValue().longValue());
+    tracker.incModificationCount();
+    assertEquals(3, value.getValue().longValue());
+  }
+
+  public void testDependentsAreHeldWeakly() {
+    final PushingModificationTracker tracker = new PushingModificationTracker("test");
+    CachedValueImpl<Long> value = createValue(new CountingProvider(tracker));
+    value.getValue();
+    final WeakReference<CachedValueImpl<Long>> reference = new WeakReference<CachedValueImpl<Long>>(value);
+    value = null;
+
+    for (int i = 0; i < 100 && reference.get() != null; i++) {
+      System.gc();
+    }
+    assertNull(reference.get());
+    assertEquals(1, tracker.getDependentCount());
+
+    // the collected dependents are dropped when the list grows
+    for (int i = 0; i < 100; i++) {
+      createValue(new CountingProvider(tracker)).getValue();
+    }
+    assertTrue(String.valueOf(tracker.getDependentCount()), tracker.getDependentCount() <= 100);
+  }
+
+  public void testIncrementWithManyDependents() {
+    final PushingModificationTracker tracker = new PushingModificationTracker("MODIFICATION_COUNT");
+    final List<CachedValueImpl<Long>> values = new ArrayList<CachedValueImpl<Long>>();
+    for (int i = 0; i < 100000; i++) {
+      final CachedValueImpl<Long> value = createValue(new CountingProvider(tracker));
+      value.getValue();
+      values.add(value);
+    }
+
+    long start = System.currentTimeMillis();
+    tracker.incModificationCount();
+    PlatformTestUtil.assertTiming("invalidating " + values.size() + " values", 100, System.currentTimeMillis() - start);
+
+    // the invalidated values are unsubscribed, so the following changes don't visit them again until they are recomputed
+    for (int i = 0; i < 100; i++) {
+      values.get(i).getValue();
+    }
+    start = System.currentTimeMillis();
+    for (int i = 0; i < 1000; i++) {
+      tracker.incModificationCount();
+    }
+    PlatformTestUtil.assertTiming("1000 changes after invalidation", 50, System.currentTimeMillis() - start);
+    assertFalse(values.get(values.size() - 1).hasUpToDateValue());
+  }
+}
@@ -15,15 +15,20 @@
  */
 package com.intellij.testFramework;
 
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.impl.PsiBuilderImpl;
 import com.intellij.lexer.Lexer;
 import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.util.UserDataHolderBase;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
 import org.jetbrains.annotations.NonNls;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Random;
 
 /**
  * @author peter
@@ -60,6 +65,45 @@ public abstract class LexerTestCase extends UsefulTestCase {
     doTest(text);
   }
 
+  /**
+   * Edits the text at random and checks that the builder relexing only the changed part of the text gets the same lexemes as a new lexer.
+   */
+  protected void checkIncrementalRelexing(@NonNls String text, @NonNls String alphabet) {
+    final UserDataHolderBase holder = new UserDataHolderBase();
+    final Lexer lexer = createLexer();
+    final StringBuilder edited = new StringBuilder(text);
+    String previous = text;
+    assertLexemes(new PsiBuilderImpl(lexer, TokenSet.EMPTY, TokenSet.EMPTY, previous, holder, null), previous);
+    final Random random = new Random(42);
+    int reused = 0;
+    for (int i = 0; i < 300; i++) {
+      final int offset = random.nextInt(edited.length() + 1);
+      if (random.nextBoolean() && offset < edited.length()) {
+        edited.delete(offset, Math.min(edited.length(), offset + random.nextInt(5) + 1));
+      }
+      else {
+        edited.insert(offset, alphabet.charAt(random.nextInt(alphabet.length())));
+      }
+      final String current = edited.toString();
+      assertLexemes(new PsiBuilderImpl(lexer, TokenSet.EMPTY, TokenSet.EMPTY, current, holder, previous), current);
+      reused += PsiBuilderImpl.getReusedLexemeCount(holder);
+      previous = current;
+    }
+    assertTrue("no lexemes reused", reused > 0);
+  }
+
+  private void assertLexemes(PsiBuilder builder, String text) {
+    final Lexer lexer = createLexer();
+    lexer.start(text);
+    while (lexer.getTokenType() != null) {
+      assertEquals(text, lexer.getTokenType(), builder.getTokenType());
+      assertEquals(text, lexer.getTokenStart(), builder.getCurrentOffset());
+      lexer.advance();
+      builder.advanceLexer();
+    }
+    assertTrue(text, builder.eof());
+  }
+
   private static String getTokenText(Lexer lexer) {
     String text = lexer.getBufferSequence().subSequence(lexer.getTokenStart(), lexer.getTokenEnd()).toString();
     text = StringUtil.replace(text, "\n", "\\n");
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Diagnostic records kept per key (a class, a tag, a stack), created on first use and reported heaviest first.
+ */
+public class KeyedStatistics<K, T> {
+  private final ConcurrentMap<K, T> myRecords = new ConcurrentHashMap<K, T>();
+  private final Function<K, T> myFactory;
+
+  public KeyedStatistics(@NotNull Function<K, T> factory) {
+    myFactory = factory;
+  }
+
+  @NotNull
+  public T get(@NotNull K key) {
+    final T record = myRecords.get(key);
+    return record != null ? record : ConcurrencyUtil.cacheOrGet(myRecords, key, myFactory.fun(key));
+  }
+
+  @Nullable
+  public T find(@NotNull K key) {
+    return myRecords.get(key);
+  }
+
+  public int size() {
+    return myRecords.size();
+  }
+
+  public void clear() {
+    myRecords.clear();
+  }
+
+  @NotNull
+  public Map<K, T> asMap() {
+    return Collections.unmodifiableMap(myRecords);
+  }
+
+  /**
+   * @return the records sorted by the given weight, the heaviest first
+   */
+  @NotNull
+  public List<Map.Entry<K, T>> getHeaviest(@NotNull final Function<T, Long> weight) {
+    final List<Map.Entry<K, T>> entries = new ArrayList<Map.Entry<K, T>>(myRecords.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<K, T>>() {
+      public int compare(Map.Entry<K, T> o1, Map.Entry<K, T> o2) {
+        final long weight1 = weight.fun(o1.getValue());
+        final long weight2 = weight.fun(o2.getValue());
+        return weight1 < weight2 ? 1 : weight1 == weight2 ? 0 : -1;
+      }
+    });
+    return entries;
+  }
+
+  /**
+   * @return "key: record" lines for at most {@code limit} heaviest records, class keys are shown by name
+   */
+  @NonNls
+  @NotNull
+  public String report(int limit, @NotNull Function<T, Long> weight) {
+    final StringBuilder builder = new StringBuilder();
+    final List<Map.Entry<K, T>> entries = getHeaviest(weight);
+    for (int i = 0; i < Math.min(entries.size(), limit); i++) {
+      final Map.Entry<K, T> entry = entries.get(i);
+      final K key = entry.getKey();
+      builder.append(key instanceof Class ? ((Class)key).getName() : key).append(": ").append(entry.getValue()).append('\n');
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.concurrency;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel: schedules and cancels timeouts in constant time, at the cost of tick granularity.
+ * Timeouts are kept in a ring of buckets by their deadline tick and are run by a single daemon thread, which sleeps
+ * until the tick of the next occupied bucket. The tasks are expected to be short, they are usually handed off to some other thread.
+ */
+public class TimerWheel {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.util.concurrency.TimerWheel");
+
+  private final Object LOCK = new Object();
+  private final String myThreadName;
+  private final long myTickMillis;
+  private final Timeout[] myBuckets;
+  private final int myMask;
+  private final long myStartTime = System.nanoTime();
+
+  private long myLastProcessedTick;
+  // the tick the thread is sleeping until, Long.MAX_VALUE if it waits for a timeout to be scheduled
+  private long myWakeupTick = Long.MAX_VALUE;
+  private int myPendingCount;
+  private Thread myThread;
+  private boolean myShutdown;
+
+  private long myScheduledCount;
+  private long myCancelledCount;
+  private long myExpiredCount;
+  private long myWakeupCount;
+
+  /**
+   * @param wheelSize number of the buckets, rounded up to a power of two
+   */
+  public TimerWheel(@NonNls @NotNull String threadName, long tickMillis, int wheelSize) {
+    myThreadName = threadName;
+    myTickMillis = tickMillis;
+    int size = 1;
+    while (size < wheelSize) size <<= 1;
+    myBuckets = new Timeout[size];
+    myMask = size - 1;
+  }
+
+  public class Timeout {
+    private final Runnable myTask;
+    private final long myDeadlineTick;
+    private Timeout myPrev;
+    private Timeout myNext;
+    private boolean myScheduled = true;
+
+    private Timeout(Runnable task, long deadlineTick) {
+      myTask = task;
+      myDeadlineTick = deadlineTick;
+    }
+
+    /**
+     * @return false if the timeout has already expired or been cancelled
+     */
+    public boolean cancel() {
+      synchronized (LOCK) {
+        if (!myScheduled) return false;
+        unlink(this);
+        myCancelledCount++;
+        return true;
+      }
+    }
+
+    public boolean isPending() {
+      synchronized (LOCK) {
+        return myScheduled;
+      }
+    }
+  }
+
+  @NotNull
+  public Timeout schedule(@NotNull Runnable task, long delayMillis) {
+    synchronized (LOCK) {
+      if (myShutdown) throw new IllegalStateException(myThreadName + " is shut down");
+      // a timeout never fires earlier than requested, and never in the tick being processed
+      final long deadlineTick = Math.max(myLastProcessedTick + 1, (currentTime() + Math.max(delayMillis, 0) + myTickMillis - 1) / myTickMillis);
+      final Timeout timeout = new Timeout(task, deadlineTick);
+      final int index = (int)(deadlineTick & myMask);
+      timeout.myNext = myBuckets[index];
+      if (timeout.myNext != null) timeout.myNext.myPrev = timeout;
+      myBuckets[index] = timeout;
+      myPendingCount++;
+      myScheduledCount++;
+
+      if (myThread == null) {
+        myThread = new Thread(new Runnable() {
+          public void run() {
+            runTicks();
+          }
+        }, myThreadName);
+        myThread.setDaemon(true);
+        myThread.start();
+      }
+      else if (deadlineTick < myWakeupTick) {
+        LOCK.notifyAll();
+      }
+      return timeout;
+    }
+  }
+
+  private void unlink(Timeout timeout) {
+    if (timeout.myPrev != null) {
+      timeout.myPrev.myNext = timeout.myNext;
+    }
+    else {
+      myBuckets[(int)(timeout.myDeadlineTick & myMask)] = timeout.myNext;
+    }
+    if (timeout.myNext != null) {
+      timeout.myNext.myPrev = timeout.myPrev;
+    }
+    timeout.myPrev = timeout.myNext = null;
+    timeout.myScheduled = false;
+    myPendingCount--;
+  }
+
+  private long currentTime() {
+    return (System.nanoTime() - myStartTime) / 1000000;
+  }
+
+  private void runTicks() {
+    final List<Timeout> expired = new ArrayList<Timeout>();
+    while (true) {
+      synchronized (LOCK) {
+        try {
+          while (true) {
+            if (myShutdown) return;
+            myWakeupTick = myPendingCount == 0 ? Long.MAX_VALUE : findWakeupTick();
+            if (myWakeupTick == Long.MAX_VALUE) {
+              LOCK.wait();
+              continue;
+            }
+            final long wait = myWakeupTick * myTickMillis - currentTime();
+            if (wait <= 0) break;
+            LOCK.wait(wait);
+          }
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        myWakeupCount++;
+
+        final long currentTick = currentTime() / myTickMillis;
+        // after a long pause every bucket has been passed, there is no need to visit them more than once
+        final long firstTick = Math.max(myLastProcessedTick + 1, currentTick - myBuckets.length + 1);
+        for (long tick = firstTick; tick <= currentTick && myPendingCount > 0; tick++) {
+          Timeout timeout = myBuckets[(int)(tick & myMask)];
+          while (timeout != null) {
+            final Timeout next = timeout.myNext;
+            if (timeout.myDeadlineTick <= currentTick) {
+              unlink(timeout);
+              expired.add(timeout);
+            }
+            timeout = next;
+          }
+        }
+        myLastProcessedTick = currentTick;
+        myExpiredCount += expired.size();
+      }
+
+      for (Timeout timeout : expired) {
+        try {
+          timeout.myTask.run();
+        }
+        catch (Throwable e) {
+          LOG.error(e);
+        }
+      }
+      expired.clear();
+    }
+  }
+
+  /**
+   * @return the tick of the first bucket holding a timeout due in this round of the wheel, or the end of the round if there is none
+   */
+  private long findWakeupTick() {
+    final long lastTick = myLastProcessedTick + myBuckets.length;
+    for (long tick = myLastProcessedTick + 1; tick < lastTick; tick++) {
+      for (Timeout timeout = myBuckets[(int)(tick & myMask)]; timeout != null; timeout = timeout.myNext) {
+        if (timeout.myDeadlineTick <= tick) return tick;
+      }
+    }
+    return lastTick;
+  }
+
+  public void shutdown() {
+    synchronized (LOCK) {
+      myShutdown = true;
+      LOCK.notifyAll();
+    }
+  }
+
+  public int getPendingCount() {
+    synchronized (LOCK) {
+      return myPendingCount;
+    }
+  }
+
+  public long getScheduledCount() {
+    synchronized (LOCK) {
+      return myScheduledCount;
+    }
+  }
+
+  public long getCancelledCount() {
+    synchronized (LOCK) {
+      return myCancelledCount;
+    }
+  }
+
+  public long getExpiredCount() {
+    synchronized (LOCK) {
+      return myExpiredCount;
+    }
+  }
+
+  /**
+   * @return number of times the timer thread has woken up to expire timeouts
+   */
+  public long getWakeupCount() {
+    synchronized (LOCK) {
+      return myWakeupCount;
+    }
+  }
+
+  public String toString() {
+    synchronized (LOCK) {
+      return "pending: " + myPendingCount + "; scheduled: " + myScheduledCount + "; cancelled: " + myCancelledCount + "; expired: " + myExpiredCount +
+             "; wakeups: " + myWakeupCount;
+    }
+  }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free int to object map with open addressing and linear probing: neither reads nor writes take locks,
+ * and keys are stored unboxed.
+ * <p/>
+ * A key, once placed into a slot, stays there; removal leaves a tombstone value, which is dropped on the next resize.
+ * The table is resized by copying the slots one by one into the next table: a slot being copied holds a {@link Prime} box,
+ * and a copied slot holds {@link #FORWARDED}. Every thread which meets such a slot helps to copy it and then goes on
+ * in the next table, so no operation ever waits for the copy to finish.
+ * <p/>
+ * Null values are not allowed. {@link #size()} and the iteration methods take a snapshot and are linear in the capacity.
+ */
+public class ConcurrentIntObjectHashMap<V> {
+  private static final int DEFAULT_CAPACITY = 16;
+
+  // removed value, the key stays in the slot
+  private static final Object TOMBSTONE = new Object();
+  // the slot has been copied to the next table
+  private static final Object FORWARDED = new Object();
+  // expected values for putIfMatch()
+  private static final Object MATCH_ANY = new Object();
+  private static final Object MATCH_ABSENT = new Object();
+  private static final Object MATCH_NEVER_SET = new Object();
+
+  /**
+   * A live value being copied to the next table.
+   */
+  private static final class Prime {
+    private final Object myValue;
+
+    private Prime(Object value) {
+      myValue = value;
+    }
+  }
+
+  private static final class Table {
+    private final AtomicIntegerArray myKeys;
+    private final AtomicReferenceArray<Object> myValues;
+    private final int myMask;
+    private final AtomicInteger myClaimedCount = new AtomicInteger();
+    private final AtomicReference<Table> myNext = new AtomicReference<Table>();
+    private volatile boolean myCopied;
+
+    private Table(int capacity) {
+      myKeys = new AtomicIntegerArray(capacity);
+      myValues = new AtomicReferenceArray<Object>(capacity);
+      myMask = capacity - 1;
+    }
+
+    private int capacity() {
+      return myMask + 1;
+    }
+  }
+
+  private final AtomicReference<Table> myTable;
+  // 0 marks a free slot in the table, so the value of the 0 key is kept aside
+  private final AtomicReference<Object> myZeroKeyValue = new AtomicReference<Object>();
+  private final int myInitialCapacity;
+
+  public ConcurrentIntObjectHashMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public ConcurrentIntObjectHashMap(int initialCapacity) {
+    int capacity = DEFAULT_CAPACITY;
+    while (capacity * 3 / 4 < initialCapacity) capacity <<= 1;
+    myInitialCapacity = capacity;
+    myTable = new AtomicReference<Table>(new Table(capacity));
+  }
+
+  private static int hash(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  @Nullable
+  public V get(int key) {
+    if (key == 0) return (V)myZeroKeyValue.get();
+
+    Table table = currentTable();
+    while (true) {
+      int index = hash(key) & table.myMask;
+      for (int probes = 0; probes <= table.myMask; probes++) {
+        final int k = table.myKeys.get(index);
+        if (k == key) {
+          final Object value = table.myValues.get(index);
+          if (value instanceof Prime) return (V)((Prime)value).myValue;
+          if (value == FORWARDED) break;
+          return value == TOMBSTONE ? null : (V)value;
+        }
+        if (k == 0) break;
+        index = (index + 1) & table.myMask;
+      }
+
+      table = table.myNext.get();
+      if (table == null) return null;
+    }
+  }
+
+  public boolean containsKey(int key) {
+    return get(key) != null;
+  }
+
+  /**
+   * @return the previous value
+   */
+  @Nullable
+  public V put(int key, @NotNull V value) {
+    if (key == 0) return (V)myZeroKeyValue.getAndSet(value);
+    return unwrap(putIfMatch(currentTable(), key, value, MATCH_ANY));
+  }
+
+  /**
+   * @return the present value if any, null if the value given has been put
+   */
+  @Nullable
+  public V putIfAbsent(int key, @NotNull V value) {
+    if (key == 0) {
+      while (true) {
+        if (myZeroKeyValue.compareAndSet(null, value)) return null;
+        final Object current = myZeroKeyValue.get();
+        if (current != null) return (V)current;
+      }
+    }
+    return unwrap(putIfMatch(currentTable(), key, value, MATCH_ABSENT));
+  }
+
+  /**
+   * @return the removed value
+   */
+  @Nullable
+  public V remove(int key) {
+    if (key == 0) return (V)myZeroKeyValue.getAndSet(null);
+    return unwrap(putIfMatch(currentTable(), key, TOMBSTONE, MATCH_ANY));
+  }
+
+  public boolean remove(int key, @NotNull V value) {
+    return replace(key, value, null);
+  }
+
+  /**
+   * @param newValue the value to put instead of the old one, null to remove the old one
+   */
+  public boolean replace(int key, @NotNull V oldValue, @Nullable V newValue) {
+    if (key == 0) {
+      while (true) {
+        final Object current = myZeroKeyValue.get();
+        if (current == null || !current.equals(oldValue)) return false;
+        if (myZeroKeyValue.compareAndSet(current, newValue)) return true;
+      }
+    }
+    final Object previous = putIfMatch(currentTable(), key, newValue == null ? TOMBSTONE : newValue, oldValue);
+    return previous != TOMBSTONE && oldValue.equals(previous);
+  }
+
+  /**
+   * Updates which go on concurrently with clearing may survive it.
+   */
+  public void clear() {
+    myTable.set(new Table(myInitialCapacity));
+    myZeroKeyValue.set(null);
+  }
+
+  public int size() {
+    return keys().length;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @NotNull
+  public int[] keys() {
+    final TIntHashSet keys = new TIntHashSet();
+    if (myZeroKeyValue.get() != null) keys.add(0);
+    for (Table table = currentTable(); table != null; table = table.myNext.get()) {
+      for (int i = 0; i <= table.myMask; i++) {
+        final int key = table.myKeys.get(i);
+        if (key != 0 && !keys.contains(key) && get(key) != null) {
+          keys.add(key);
+        }
+      }
+    }
+    return keys.toArray();
+  }
+
+  @NotNull
+  public Collection<V> values() {
+    final List<V> values = new ArrayList<V>();
+    for (int key : keys()) {
+      final V value = get(key);
+      if (value != null) values.add(value);
+    }
+    return values;
+  }
+
+  @Nullable
+  private static <V> V unwrap(Object value) {
+    return value == null || value == TOMBSTONE ? null : (V)value;
+  }
+
+  private Table currentTable() {
+    Table table = myTable.get();
+    while (table.myCopied) {
+      myTable.compareAndSet(table, table.myNext.get());
+      table = myTable.get();
+    }
+    return table;
+  }
+
+  private static boolean matches(Object expected, Object current, Object raw) {
+    if (expected == MATCH_ANY) return true;
+    if (expected == MATCH_ABSENT) return current == TOMBSTONE;
+    if (expected == MATCH_NEVER_SET) return raw == null;
+    return current != TOMBSTONE && expected.equals(current);
+  }
+
+  /**
+   * Puts the value (TOMBSTONE to remove) if the current one matches the expected.
+   *
+   * @return the value before the update or the current value if it doesn't match, TOMBSTONE if there was none
+   */
+  private Object putIfMatch(Table table, int key, Object newValue, Object expected) {
+    outer:
+    while (true) {
+      int index = hash(key) & table.myMask;
+      int probes = 0;
+      while (true) {
+        int k = table.myKeys.get(index);
+        if (k == 0) {
+          final Table next = table.myNext.get();
+          if (next != null) {
+            // the key isn't here, and no new keys go to a table being copied
+            table = next;
+            continue outer;
+          }
+          if (newValue == TOMBSTONE || expected != MATCH_ANY && expected != MATCH_ABSENT && expected != MATCH_NEVER_SET) {
+            return TOMBSTONE;
+          }
+          if (table.myKeys.compareAndSet(index, 0, key)) {
+            if (table.myClaimedCount.incrementAndGet() > table.capacity() * 3 / 4) {
+              resize(table);
+            }
+            break;
+          }
+          k = table.myKeys.get(index);
+        }
+        if (k == key) break;
+        if (++probes > table.myMask) {
+          table = resize(table);
+          continue outer;
+        }
+        index = (index + 1) & table.myMask;
+      }
+
+      while (true) {
+        final Object raw = table.myValues.get(index);
+        if (raw instanceof Prime || raw == FORWARDED) {
+          copySlot(table, index);
+          table = table.myNext.get();
+          continue outer;
+        }
+        final Object current = raw == null ? TOMBSTONE : raw;
+        if (!matches(expected, current, raw)) return current;
+        if (current == TOMBSTONE && newValue == TOMBSTONE) return TOMBSTONE;
+        if (table.myValues.compareAndSet(index, raw, newValue)) return current;
+      }
+    }
+  }
+
+  private void copySlot(Table table, int index) {
+    final Table next = table.myNext.get();
+    while (true) {
+      final Object raw = table.myValues.get(index);
+      if (raw == FORWARDED) return;
+
+      final Prime prime;
+      if (raw instanceof Prime) {
+        prime = (Prime)raw;
+      }
+      else if (raw == null || raw == TOMBSTONE) {
+        if (table.myValues.compareAndSet(index, raw, FORWARDED)) return;
+        continue;
+      }
+      else {
+        prime = new Prime(raw);
+        if (!table.myValues.compareAndSet(index, raw, prime)) continue;
+      }
+
+      // the value goes to the next table only if nobody has touched the key there yet, so a late helper can't resurrect it
+      putIfMatch(next, table.myKeys.get(index), prime.myValue, MATCH_NEVER_SET);
+      table.myValues.compareAndSet(index, prime, FORWARDED);
+      return;
+    }
+  }
+
+  @NotNull
+  private Table resize(Table table) {
+    Table next = table.myNext.get();
+    if (next != null) return next;
+
+    int live = 0;
+    for (int i = 0; i <= table.myMask; i++) {
+      final Object value = table.myValues.get(i);
+      if (value != null && value != TOMBSTONE && value != FORWARDED) live++;
+    }
+    int capacity = table.capacity();
+    while (live * 2 >= capacity) capacity <<= 1;
+
+    if (table.myNext.compareAndSet(null, new Table(capacity))) {
+      for (int i = 0; i <= table.myMask; i++) {
+        copySlot(table, i);
+      }
+      table.myCopied = true;
+      currentTable();
+    }
+    return table.myNext.get();
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Lock-free int to object map which doesn't keep its values from being collected, see {@link ConcurrentIntObjectHashMap}.
+ * The entries of the collected values are removed on the next modification.
+ */
+abstract class ConcurrentRefValueIntObjectHashMap<V> {
+  private final ConcurrentIntObjectHashMap<IntReference<V>> myMap = new ConcurrentIntObjectHashMap<IntReference<V>>();
+  private final ReferenceQueue<V> myQueue = new ReferenceQueue<V>();
+
+  interface IntReference<V> {
+    int getKey();
+
+    V get();
+  }
+
+  @NotNull
+  protected abstract IntReference<V> createReference(int key, @NotNull V value, @NotNull ReferenceQueue<V> queue);
+
+  private void processQueue() {
+    while (true) {
+      final IntReference<V> ref = (IntReference<V>)myQueue.poll();
+      if (ref == null) break;
+      myMap.remove(ref.getKey(), ref);
+    }
+  }
+
+  @Nullable
+  public V get(int key) {
+    final IntReference<V> ref = myMap.get(key);
+    return ref == null ? null : ref.get();
+  }
+
+  public boolean containsKey(int key) {
+    return get(key) != null;
+  }
+
+  @Nullable
+  public V put(int key, @NotNull V value) {
+    processQueue();
+    final IntReference<V> old = myMap.put(key, createReference(key, value, myQueue));
+    return old == null ? null : old.get();
+  }
+
+  @Nullable
+  public V putIfAbsent(int key, @NotNull V value) {
+    processQueue();
+    final IntReference<V> newRef = createReference(key, value, myQueue);
+    while (true) {
+      final IntReference<V> old = myMap.putIfAbsent(key, newRef);
+      if (old == null) return null;
+      final V oldValue = old.get();
+      if (oldValue != null) return oldValue;
+      if (myMap.replace(key, old, newRef)) return null;
+    }
+  }
+
+  @Nullable
+  public V remove(int key) {
+    processQueue();
+    final IntReference<V> ref = myMap.remove(key);
+    return ref == null ? null : ref.get();
+  }
+
+  public boolean remove(int key, @NotNull V value) {
+    processQueue();
+    while (true) {
+      final IntReference<V> ref = myMap.get(key);
+      if (ref == null || !value.equals(ref.get())) return false;
+      if (myMap.remove(key, ref)) return true;
+    }
+  }
+
+  public void clear() {
+    myMap.clear();
+    processQueue();
+  }
+
+  /**
+   * @return number of the entries, including the collected values not yet removed
+   */
+  public int size() {
+    return myMap.size();
+  }
+
+  public boolean isEmpty() {
+    return myMap.isEmpty();
+  }
+
+  @NotNull
+  public Collection<V> values() {
+    final List<V> result = new ArrayList<V>();
+    for (IntReference<V> ref : myMap.values()) {
+      final V value = ref.get();
+      if (value != null) result.add(value);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Thread-safe {@link SLRUCache}, see {@link ConcurrentSLRUMap}. A missing value is created under the segment lock,
+ * so it's created only once per key.
+ */
+public abstract class ConcurrentSLRUCache<K, V> extends ConcurrentSLRUMap<K, V> {
+  protected ConcurrentSLRUCache(int protectedQueueSize, int probationalQueueSize) {
+    super(protectedQueueSize, probationalQueueSize);
+  }
+
+  protected ConcurrentSLRUCache(int protectedQueueSize, int probationalQueueSize, int segmentCount) {
+    super(protectedQueueSize, probationalQueueSize, segmentCount);
+  }
+
+  @NotNull
+  public abstract V createValue(K key);
+
+  @NotNull
+  public V get(K key) {
+    synchronized (getLock(key)) {
+      V value = super.get(key);
+      if (value == null) {
+        value = createValue(key);
+        put(key, value);
+      }
+      return value;
+    }
+  }
+
+  @Nullable
+  public V getIfCached(K key) {
+    return super.get(key);
+  }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Thread-safe {@link SLRUMap}: the keys are spread over independently locked segments, each of them being a segmented LRU
+ * with its share of the protected and probational queue sizes, so that threads working with different keys don't wait for each other.
+ * <p/>
+ * The queue sizes limit the total weight of the entries, which is 1 per entry unless {@link #getWeight(Object, Object)} is overridden,
+ * e.g. to limit the cache by bytes. The weight of an entry is taken once, when the entry is put.
+ * <p/>
+ * {@link #onDropFromCache(Object, Object)} is called under the lock of the segment, so it should neither take long nor use
+ * the other keys of the same map.
+ */
+public class ConcurrentSLRUMap<K, V> {
+  private static final int FACTOR = Integer.getInteger("idea.slru.factor", 1);
+  private static final int MAX_SEGMENTS = 16;
+  // smaller segments would evict the entries much earlier than a single SLRU of the same total size
+  private static final int MIN_SEGMENT_SIZE = 64;
+
+  private final Segment[] mySegments;
+  private final int mySegmentMask;
+
+  public ConcurrentSLRUMap(int protectedQueueSize, int probationalQueueSize) {
+    this(protectedQueueSize, probationalQueueSize, defaultSegmentCount(protectedQueueSize, probationalQueueSize));
+  }
+
+  /**
+   * @param segmentCount number of the independently locked segments, rounded up to a power of two
+   */
+  public ConcurrentSLRUMap(int protectedQueueSize, int probationalQueueSize, int segmentCount) {
+    int segments = 1;
+    while (segments < segmentCount) segments <<= 1;
+    mySegmentMask = segments - 1;
+    mySegments = new ConcurrentSLRUMap.Segment[segments];
+    final long protectedSize = (long)protectedQueueSize * FACTOR;
+    final long probationalSize = (long)probationalQueueSize * FACTOR;
+    for (int i = 0; i < segments; i++) {
+      mySegments[i] = new Segment(Math.max(1, (protectedSize + segments - 1) / segments),
+                                  Math.max(1, (probationalSize + segments - 1) / segments));
+    }
+  }
+
+  private static int defaultSegmentCount(int protectedQueueSize, int probationalQueueSize) {
+    final int byProcessors = Math.min(MAX_SEGMENTS, Runtime.getRuntime().availableProcessors() * 2);
+    final int bySize = Math.min(protectedQueueSize, probationalQueueSize) / MIN_SEGMENT_SIZE;
+    return Math.max(1, Math.min(byProcessors, bySize));
+  }
+
+  private static final class Node<V> {
+    private final V myValue;
+    private final int myWeight;
+
+    private Node(V value, int weight) {
+      myValue = value;
+      myWeight = weight;
+    }
+  }
+
+  private final class Segment {
+    private final long myProtectedQueueSize;
+    private final long myProbationalQueueSize;
+    private final Map<K, Node<V>> myProtectedQueue = new LinkedHashMap<K, Node<V>>(16, 0.75f, true);
+    private final Map<K, Node<V>> myProbationalQueue = new LinkedHashMap<K, Node<V>>(16, 0.75f, true);
+    private long myProtectedWeight;
+    private long myProbationalWeight;
+
+    private long myProtectedHits;
+    private long myProbationalHits;
+    private long myMisses;
+    private long myEvictions;
+
+    private Segment(long protectedQueueSize, long probationalQueueSize) {
+      myProtectedQueueSize = protectedQueueSize;
+      myProbationalQueueSize = probationalQueueSize;
+    }
+
+    @Nullable
+    private V get(K key) {
+      Node<V> node = myProtectedQueue.get(key);
+      if (node != null) {
+        myProtectedHits++;
+        return node.myValue;
+      }
+
+      node = myProbationalQueue.remove(key);
+      if (node != null) {
+        myProbationalHits++;
+        myProbationalWeight -= node.myWeight;
+        myProtectedQueue.put(getStableKey(key), node);
+        myProtectedWeight += node.myWeight;
+        shrinkProtectedQueue();
+        return node.myValue;
+      }
+
+      myMisses++;
+      return null;
+    }
+
+    private void put(K key, V value) {
+      Node<V> old = myProtectedQueue.remove(key);
+      if (old != null) {
+        myProtectedWeight -= old.myWeight;
+        onDropFromCache(key, old.myValue);
+      }
+
+      final Node<V> node = new Node<V>(value, getWeight(key, value));
+      old = myProbationalQueue.put(getStableKey(key), node);
+      myProbationalWeight += node.myWeight;
+      if (old != null) {
+        myProbationalWeight -= old.myWeight;
+        onDropFromCache(key, old.myValue);
+      }
+      shrinkProbationalQueue();
+    }
+
+    private boolean remove(K key) {
+      Node<V> node = myProtectedQueue.remove(key);
+      if (node != null) {
+        myProtectedWeight -= node.myWeight;
+        onDropFromCache(key, node.myValue);
+        return true;
+      }
+
+      node = myProbationalQueue.remove(key);
+      if (node != null) {
+        myProbationalWeight -= node.myWeight;
+        onDropFromCache(key, node.myValue);
+        return true;
+      }
+
+      return false;
+    }
+
+    private void shrinkProtectedQueue() {
+      // the most recently used entry stays even if it's heavier than the whole queue, the same in the probational one
+      while (myProtectedWeight > myProtectedQueueSize && myProtectedQueue.size() > 1) {
+        final Iterator<Map.Entry<K, Node<V>>> iterator = myProtectedQueue.entrySet().iterator();
+        final Map.Entry<K, Node<V>> eldest = iterator.next();
+        iterator.remove();
+        myProtectedWeight -= eldest.getValue().myWeight;
+        myProbationalQueue.put(eldest.getKey(), eldest.getValue());
+        myProbationalWeight += eldest.getValue().myWeight;
+      }
+      shrinkProbationalQueue();
+    }
+
+    private void shrinkProbationalQueue() {
+      while (myProbationalWeight > myProbationalQueueSize && myProbationalQueue.size() > 1) {
+        final Iterator<Map.Entry<K, Node<V>>> iterator = myProbationalQueue.entrySet().iterator();
+        final Map.Entry<K, Node<V>> eldest = iterator.next();
+        iterator.remove();
+        myProbationalWeight -= eldest.getValue().myWeight;
+        myEvictions++;
+        onDropFromCache(eldest.getKey(), eldest.getValue().myValue);
+      }
+    }
+
+    private void clear() {
+      for (Map.Entry<K, Node<V>> entry : myProtectedQueue.entrySet()) {
+        onDropFromCache(entry.getKey(), entry.getValue().myValue);
+      }
+      myProtectedQueue.clear();
+      myProtectedWeight = 0;
+
+      for (Map.Entry<K, Node<V>> entry : myProbationalQueue.entrySet()) {
+        onDropFromCache(entry.getKey(), entry.getValue().myValue);
+      }
+      myProbationalQueue.clear();
+      myProbationalWeight = 0;
+    }
+  }
+
+  private Segment segmentFor(Object key) {
+    int h = key.hashCode() * 0x9E3779B9;
+    return mySegments[(h ^ (h >>> 16)) & mySegmentMask];
+  }
+
+  @Nullable
+  public V get(K key) {
+    final Segment segment = segmentFor(key);
+    synchronized (segment) {
+      return segment.get(key);
+    }
+  }
+
+  /**
+   * @return the lock guarding the segment of the key, the map methods for the key may be called while holding it
+   */
+  @NotNull
+  Object getLock(K key) {
+    return segmentFor(key);
+  }
+
+  public void put(K key, V value) {
+    final Segment segment = segmentFor(key);
+    synchronized (segment) {
+      segment.put(key, value);
+    }
+  }
+
+  public boolean remove(K key) {
+    final Segment segment = segmentFor(key);
+    synchronized (segment) {
+      return segment.remove(key);
+    }
+  }
+
+  public void clear() {
+    for (Segment segment : mySegments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (Segment segment : mySegments) {
+      synchronized (segment) {
+        size += segment.myProtectedQueue.size() + segment.myProbationalQueue.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return a snapshot of the entries
+   */
+  @NotNull
+  public Set<Map.Entry<K, V>> entrySet() {
+    final Set<Map.Entry<K, V>> set = new HashSet<Map.Entry<K, V>>();
+    for (Segment segment : mySegments) {
+      synchronized (segment) {
+        for (Map.Entry<K, Node<V>> entry : segment.myProtectedQueue.entrySet()) {
+          set.add(new AbstractMap.SimpleImmutableEntry<K, V>(entry.getKey(), entry.getValue().myValue));
+        }
+        for (Map.Entry<K, Node<V>> entry : segment.myProbationalQueue.entrySet()) {
+          set.add(new AbstractMap.SimpleImmutableEntry<K, V>(entry.getKey(), entry.getValue().myValue));
+        }
+      }
+    }
+    return set;
+  }
+
+  /**
+   * Called under the segment lock when the entry is evicted, removed or replaced.
+   */
+  protected void onDropFromCache(K key, V value) {}
+
+  /**
+   * @return the share of the queue size the entry takes, e.g. its size in bytes
+   */
+  protected int getWeight(K key, V value) {
+    return 1;
+  }
+
+  protected K getStableKey(K key) {
+    if (key instanceof ShareableKey) {
+      return (K)((ShareableKey)key).getStableCopy();
+    }
+
+    return key;
+  }
+
+  public long getHits() {
+    long hits = 0;
+    for (Segment segment : mySegments) {
+      synchronized (segment) {
+        hits += segment.myProtectedHits + segment.myProbationalHits;
+      }
+    }
+    return hits;
+  }
+
+  public long getMisses() {
+    long misses = 0;
+    for (Segment segment : mySegments) {
+      synchronized (segment) {
+        misses += segment.myMisses;
+      }
+    }
+    return misses;
+  }
+
+  /**
+   * @return number of the entries dropped from the probational queue because of its size, not counting removed and replaced ones
+   */
+  public long getEvictions() {
+    long evictions = 0;
+    for (Segment segment : mySegments) {
+      synchronized (segment) {
+        evictions += segment.myEvictions;
+      }
+    }
+    return evictions;
+  }
+
+  @NonNls
+  @Override
+  public String toString() {
+    long protectedHits = 0;
+    long probationalHits = 0;
+    long misses = 0;
+    long evictions = 0;
+    for (Segment segment : mySegments) {
+      synchronized (segment) {
+        protectedHits += segment.myProtectedHits;
+        probationalHits += segment.myProbationalHits;
+        misses += segment.myMisses;
+        evictions += segment.myEvictions;
+      }
+    }
+    return "protected hits: " + protectedHits + ", probational hits: " + probationalHits + ", misses: " + misses +
+           ", evictions: " + evictions + ", segments: " + mySegments.length;
+  }
+}
@@ -120,7 +120,11 @@ public final class ConcurrentWeakHashMap<K,V> extends AbstractMap<K,V> implement
   }
 
   public ConcurrentWeakHashMap(int initialCapacity, float loadFactor) {
-    myMap = new ConcurrentHashMap(initialCapacity, loadFactor, 4);
+    this(initialCapacity, loadFactor, 4);
+  }
+
+  public ConcurrentWeakHashMap(int initialCapacity, float loadFactor, int concurrencyLevel) {
+    myMap = new ConcurrentHashMap(initialCapacity, loadFactor, concurrencyLevel);
   }
 
   public ConcurrentWeakHashMap(int initialCapacity) {
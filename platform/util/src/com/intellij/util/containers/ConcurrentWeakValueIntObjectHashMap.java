@@ -0,0 +1,45 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Int-keyed counterpart of {@link ConcurrentWeakValueHashMap}.
+ */
+public final class ConcurrentWeakValueIntObjectHashMap<V> extends ConcurrentRefValueIntObjectHashMap<V> {
+  private static class MyWeakReference<V> extends WeakReference<V> implements IntReference<V> {
+    private final int myKey;
+
+    private MyWeakReference(int key, V referent, ReferenceQueue<V> queue) {
+      super(referent, queue);
+      myKey = key;
+    }
+
+    public int getKey() {
+      return myKey;
+    }
+  }
+
+  @NotNull
+  @Override
+  protected IntReference<V> createReference(int key, @NotNull V value, @NotNull ReferenceQueue<V> queue) {
+    return new MyWeakReference<V>(key, value, queue);
+  }
+}
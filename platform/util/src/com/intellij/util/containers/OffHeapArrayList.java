@@ -0,0 +1,119 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.util.io.MappedBufferWrapper;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Growable array of primitives kept in a direct buffer outside of the java heap, so that large long-living tables neither take
+ * the heap nor get copied by the collector. The memory is freed by {@link #dispose()}, the list can't be used after that.
+ * <p/>
+ * Not thread-safe.
+ */
+abstract class OffHeapArrayList implements Disposable {
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private final int myElementSize;
+  private ByteBuffer myBuffer;
+  protected int mySize;
+
+  protected OffHeapArrayList(int elementSize, int initialCapacity) {
+    myElementSize = elementSize;
+    myBuffer = allocate(Math.max(initialCapacity, DEFAULT_CAPACITY));
+  }
+
+  private ByteBuffer allocate(int capacity) {
+    return ByteBuffer.allocateDirect(capacity * myElementSize).order(ByteOrder.nativeOrder());
+  }
+
+  protected final ByteBuffer buffer() {
+    if (myBuffer == null) {
+      throw new IllegalStateException("Already disposed");
+    }
+    return myBuffer;
+  }
+
+  public int size() {
+    return mySize;
+  }
+
+  public boolean isEmpty() {
+    return mySize == 0;
+  }
+
+  public int capacity() {
+    return buffer().capacity() / myElementSize;
+  }
+
+  public void ensureCapacity(int minCapacity) {
+    final int oldCapacity = capacity();
+    if (minCapacity > oldCapacity) {
+      int newCapacity = oldCapacity * 3 / 2 + 1;
+      if (newCapacity < minCapacity) {
+        newCapacity = minCapacity;
+      }
+      reallocate(newCapacity);
+    }
+  }
+
+  public void trimToSize() {
+    if (mySize < capacity()) {
+      reallocate(Math.max(mySize, DEFAULT_CAPACITY));
+    }
+  }
+
+  private void reallocate(int capacity) {
+    final ByteBuffer oldBuffer = buffer();
+    final ByteBuffer newBuffer = allocate(capacity);
+    final ByteBuffer data = oldBuffer.duplicate();
+    data.position(0).limit(mySize * myElementSize);
+    newBuffer.put(data);
+    newBuffer.clear();
+    myBuffer = newBuffer;
+    MappedBufferWrapper.cleanDirect(oldBuffer);
+  }
+
+  public void clear() {
+    mySize = 0;
+  }
+
+  protected final void checkRange(int index) {
+    if (index >= mySize || index < 0) {
+      //noinspection HardCodedStringLiteral
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mySize);
+    }
+  }
+
+  protected final int offset(int index) {
+    return index * myElementSize;
+  }
+
+  public boolean isDisposed() {
+    return myBuffer == null;
+  }
+
+  public void dispose() {
+    if (myBuffer != null) {
+      MappedBufferWrapper.cleanDirect(myBuffer);
+      myBuffer = null;
+      mySize = 0;
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+/**
+ * {@link IntArrayList} kept outside of the java heap, see {@link OffHeapArrayList}.
+ */
+public class OffHeapIntArrayList extends OffHeapArrayList {
+  public OffHeapIntArrayList(int initialCapacity) {
+    super(4, initialCapacity);
+  }
+
+  public OffHeapIntArrayList() {
+    this(0);
+  }
+
+  public int get(int index) {
+    checkRange(index);
+    return buffer().getInt(offset(index));
+  }
+
+  public int set(int index, int element) {
+    checkRange(index);
+    final int oldValue = buffer().getInt(offset(index));
+    buffer().putInt(offset(index), element);
+    return oldValue;
+  }
+
+  public void add(int element) {
+    ensureCapacity(mySize + 1);
+    buffer().putInt(offset(mySize++), element);
+  }
+
+  public int remove(int index) {
+    checkRange(index);
+    final int oldValue = buffer().getInt(offset(index));
+    for (int i = index + 1; i < mySize; i++) {
+      buffer().putInt(offset(i - 1), buffer().getInt(offset(i)));
+    }
+    mySize--;
+    return oldValue;
+  }
+
+  public boolean contains(int element) {
+    return indexOf(element) >= 0;
+  }
+
+  public int indexOf(int element) {
+    for (int i = 0; i < mySize; i++) {
+      if (element == buffer().getInt(offset(i))) return i;
+    }
+    return -1;
+  }
+
+  public int[] toArray() {
+    final int[] result = new int[mySize];
+    for (int i = 0; i < mySize; i++) {
+      result[i] = buffer().getInt(offset(i));
+    }
+    return result;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+/**
+ * {@link LongArrayList} kept outside of the java heap, see {@link OffHeapArrayList}.
+ */
+public class OffHeapLongArrayList extends OffHeapArrayList {
+  public OffHeapLongArrayList(int initialCapacity) {
+    super(8, initialCapacity);
+  }
+
+  public OffHeapLongArrayList() {
+    this(0);
+  }
+
+  public long get(int index) {
+    checkRange(index);
+    return buffer().getLong(offset(index));
+  }
+
+  public long set(int index, long element) {
+    checkRange(index);
+    final long oldValue = buffer().getLong(offset(index));
+    buffer().putLong(offset(index), element);
+    return oldValue;
+  }
+
+  public void add(long element) {
+    ensureCapacity(mySize + 1);
+    buffer().putLong(offset(mySize++), element);
+  }
+
+  public long remove(int index) {
+    checkRange(index);
+    final long oldValue = buffer().getLong(offset(index));
+    for (int i = index + 1; i < mySize; i++) {
+      buffer().putLong(offset(i - 1), buffer().getLong(offset(i)));
+    }
+    mySize--;
+    return oldValue;
+  }
+
+  public boolean contains(long element) {
+    return indexOf(element) >= 0;
+  }
+
+  public int indexOf(long element) {
+    for (int i = 0; i < mySize; i++) {
+      if (element == buffer().getLong(offset(i))) return i;
+    }
+    return -1;
+  }
+
+  public long[] toArray() {
+    final long[] result = new long[mySize];
+    for (int i = 0; i < mySize; i++) {
+      result[i] = buffer().getLong(offset(i));
+    }
+    return result;
+  }
+}
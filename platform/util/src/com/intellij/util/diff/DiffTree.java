@@ -27,6 +27,8 @@ import java.util.List;
  */
 public class DiffTree<OT, NT> {
   private static final int CHANGE_PARENT_VERSUS_CHILDREN_THRESHOLD = 20;
+  // how many children may be inserted and deleted in total between two unchanged ones for the diff to still find them
+  private static final int MAX_LOOKAHEAD = 10;
 
   private final FlyweightCapableTreeStructure<OT> myOldTree;
   private final FlyweightCapableTreeStructure<NT> myNewTree;
@@ -95,13 +97,15 @@ public class DiffTree<OT, NT> {
       return;
     }
 
+    // only the children with equal hash codes make the common suffix, so that the children of the same type don't get
+    // matched against their neighbours after an insertion or a deletion in a long list of them
     while (oldSize > 0 && newSize > 0) {
       OT oldChild1 = oldChildren[oldSize-1];
       NT newChild1 = newChildren[newSize-1];
 
       CompareResult c11 = looksEqual(comparator, oldChild1, newChild1);
 
-      if (c11 != CompareResult.EQUAL && c11 != CompareResult.DRILL_DOWN_NEEDED) {
+      if (c11 != CompareResult.EQUAL && (c11 != CompareResult.DRILL_DOWN_NEEDED || !comparator.hashCodesEqual(oldChild1, newChild1))) {
         break;
       }
       if (c11 == CompareResult.DRILL_DOWN_NEEDED) {
@@ -121,10 +125,32 @@ public class DiffTree<OT, NT> {
 
       CompareResult c11 = looksEqual(comparator, oldChild1, newChild1);
 
-      if (c11 == CompareResult.EQUAL || c11 == CompareResult.DRILL_DOWN_NEEDED) {
-        if (c11 == CompareResult.DRILL_DOWN_NEEDED) {
-          build(oldChild1, newChild1, level+1);
+      if (c11 == CompareResult.EQUAL) {
+        oldIndex++;
+        newIndex++;
+        continue;
+      }
+      if (c11 == CompareResult.DRILL_DOWN_NEEDED && comparator.hashCodesEqual(oldChild1, newChild1)) {
+        build(oldChild1, newChild1, level+1);
+        oldIndex++;
+        newIndex++;
+        continue;
+      }
+
+      if (oldChild1 != null && newChild1 != null) {
+        final int anchor = findAnchor(oldChildren, oldIndex, oldSize, newChildren, newIndex, newSize);
+        if (anchor != -1) {
+          final int oldAnchor = oldIndex + (anchor >> 16);
+          final int newAnchor = newIndex + (anchor & 0xFFFF);
+          replaceRange(level, oldNode, oldChildren, oldIndex, oldAnchor, newChildren, newIndex, newAnchor);
+          oldIndex = oldAnchor;
+          newIndex = newAnchor;
+          continue;
         }
+      }
+
+      if (c11 == CompareResult.DRILL_DOWN_NEEDED) {
+        build(oldChild1, newChild1, level+1);
         oldIndex++;
         newIndex++;
         continue;
@@ -177,6 +203,56 @@ public class DiffTree<OT, NT> {
     }
   }
 
+  /**
+   * Looks for the closest pair of children which are likely the same, i.e. have equal types and hash codes,
+   * trying the fewest insertions and deletions first.
+   * @return the offsets of the pair from the given indices packed as (old &lt;&lt; 16 | new), -1 if there's none within {@link #MAX_LOOKAHEAD}
+   */
+  private int findAnchor(OT[] oldChildren, int oldIndex, int oldSize, NT[] newChildren, int newIndex, int newSize) {
+    final ShallowNodeComparator<OT, NT> comparator = myComparator;
+    for (int distance = 1; distance <= MAX_LOOKAHEAD; distance++) {
+      for (int oldOffset = 0; oldOffset <= distance; oldOffset++) {
+        final int newOffset = distance - oldOffset;
+        if (oldIndex + oldOffset >= oldSize || newIndex + newOffset >= newSize) continue;
+
+        final OT oldChild = oldChildren[oldIndex + oldOffset];
+        final NT newChild = newChildren[newIndex + newOffset];
+        if (comparator.typesEqual(oldChild, newChild) &&
+            comparator.hashCodesEqual(oldChild, newChild) &&
+            comparator.deepEqual(oldChild, newChild) != ThreeState.NO) {
+          return oldOffset << 16 | newOffset;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Matches the children up to the anchor pair by their positions, the surplus old ones are deleted and the new ones inserted.
+   */
+  private void replaceRange(int level, OT oldNode,
+                            OT[] oldChildren, int oldStart, int oldEnd,
+                            NT[] newChildren, int newStart, int newEnd) {
+    final int common = Math.min(oldEnd - oldStart, newEnd - newStart);
+    for (int i = 0; i < common; i++) {
+      final OT oldChild = oldChildren[oldStart + i];
+      final NT newChild = newChildren[newStart + i];
+      final CompareResult c = looksEqual(myComparator, oldChild, newChild);
+      if (c == CompareResult.DRILL_DOWN_NEEDED) {
+        build(oldChild, newChild, level + 1);
+      }
+      else if (c != CompareResult.EQUAL) {
+        myConsumer.nodeReplaced(oldChild, newChild);
+      }
+    }
+    for (int i = oldStart + common; i < oldEnd; i++) {
+      myConsumer.nodeDeleted(oldNode, oldChildren[i]);
+    }
+    for (int i = newStart + common; i < newEnd; i++) {
+      myConsumer.nodeInserted(oldNode, newChildren[i], i);
+    }
+  }
+
   private CompareResult looksEqual(ShallowNodeComparator<OT, NT> comparator, OT oldChild1, NT newChild1) {
     if (oldChild1 == null || newChild1 == null) {
       return oldChild1 == newChild1 ? CompareResult.EQUAL : CompareResult.NOT_EQUAL;
@@ -87,6 +87,13 @@ public abstract class MappedBufferWrapper {
       return false;
     }
 
+    return cleanDirect(buffer);
+  }
+
+  /**
+   * Frees the memory of a direct or mapped buffer without waiting for the buffer to be collected, the buffer can't be used after that.
+   */
+  public static boolean cleanDirect(final ByteBuffer buffer) {
     return AccessController.doPrivileged(new PrivilegedAction<Object>() {
       public Object run() {
         try {
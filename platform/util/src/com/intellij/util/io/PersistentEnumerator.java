@@ -21,7 +21,7 @@ import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
 import com.intellij.util.Processor;
-import com.intellij.util.containers.SLRUMap;
+import com.intellij.util.containers.ConcurrentSLRUMap;
 import com.intellij.util.containers.ShareableKey;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
@@ -64,7 +64,12 @@ public class PersistentEnumerator<Data> implements Forceable {
   private final KeyDescriptor<Data> myDataDescriptor;
   private final byte[] myBuffer = new byte[RECORD_SIZE];
 
-  private static final CacheKey ourFlyweight = new FlyweightKey();
+  private static final ThreadLocal<CacheKey> ourFlyweight = new ThreadLocal<CacheKey>() {
+    @Override
+    protected CacheKey initialValue() {
+      return new FlyweightKey();
+    }
+  };
 
   private final File myFile;
   private static final int COLLISION_OFFSET = 0;
@@ -106,9 +111,10 @@ public class PersistentEnumerator<Data> implements Forceable {
   }
 
   private static CacheKey sharedKey(Object key, PersistentEnumerator owner) {
-    ourFlyweight.key = key;
-    ourFlyweight.owner = owner;
-    return ourFlyweight;
+    final CacheKey flyweight = ourFlyweight.get();
+    flyweight.key = key;
+    flyweight.owner = owner;
+    return flyweight;
   }
 
   protected static final PagedFileStorage.StorageLock ourLock = new PagedFileStorage.StorageLock();
@@ -119,7 +125,7 @@ public class PersistentEnumerator<Data> implements Forceable {
     ENUMERATION_CACHE_SIZE = property == null ? 8192 : Integer.valueOf(property);
   }
 
-  private static final SLRUMap<Object, Integer> ourEnumerationCache = new SLRUMap<Object, Integer>(ENUMERATION_CACHE_SIZE, ENUMERATION_CACHE_SIZE);
+  private static final ConcurrentSLRUMap<Object, Integer> ourEnumerationCache = new ConcurrentSLRUMap<Object, Integer>(ENUMERATION_CACHE_SIZE, ENUMERATION_CACHE_SIZE);
 
   @TestOnly
   public static void clearCacheForTests() {
@@ -197,11 +203,9 @@ public class PersistentEnumerator<Data> implements Forceable {
     }
   }
   
-  protected synchronized int tryEnumerate(Data value) throws IOException {
-    synchronized (ourEnumerationCache) {
-      final Integer cachedId = ourEnumerationCache.get(sharedKey(value, this));
-      if (cachedId != null) return cachedId.intValue();
-    }
+  public synchronized int tryEnumerate(Data value) throws IOException {
+    final Integer cachedId = ourEnumerationCache.get(sharedKey(value, this));
+    if (cachedId != null) return cachedId.intValue();
 
     final int id;
     synchronized (ourLock) {
@@ -209,28 +213,22 @@ public class PersistentEnumerator<Data> implements Forceable {
     }
 
     if (id != NULL_ID) {
-      synchronized (ourEnumerationCache) {
-        ourEnumerationCache.put(new CacheKey(value, this), id);
-      }
+      ourEnumerationCache.put(new CacheKey(value, this), id);
     }
 
     return id;
   }
   
   public synchronized int enumerate(Data value) throws IOException {
-    synchronized (ourEnumerationCache) {
-      final Integer cachedId = ourEnumerationCache.get(sharedKey(value, this));
-      if (cachedId != null) return cachedId.intValue();
-    }
+    final Integer cachedId = ourEnumerationCache.get(sharedKey(value, this));
+    if (cachedId != null) return cachedId.intValue();
 
     final int id;
     synchronized (ourLock) {
       id = enumerateImpl(value, true);
     }
 
-    synchronized (ourEnumerationCache) {
-      ourEnumerationCache.put(new CacheKey(value, this), id);
-    }
+    ourEnumerationCache.put(new CacheKey(value, this), id);
 
     return id;
   }
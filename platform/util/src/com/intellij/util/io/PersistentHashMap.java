@@ -23,7 +23,7 @@ import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
 import com.intellij.util.Processor;
 import com.intellij.util.containers.LimitedPool;
-import com.intellij.util.containers.SLRUCache;
+import com.intellij.util.containers.ConcurrentSLRUCache;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
@@ -92,7 +92,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumerator<Key>{
     }
   });
 
-  private final SLRUCache<Key, AppendStream> myAppendCache = new SLRUCache<Key, AppendStream>(16 * 1024, 4 * 1024) {
+  private final ConcurrentSLRUCache<Key, AppendStream> myAppendCache = new ConcurrentSLRUCache<Key, AppendStream>(16 * 1024, 4 * 1024) {
     @NotNull
     public AppendStream createValue(final Key key) {
       return myStreamPool.alloc();
@@ -20,7 +20,7 @@
 package com.intellij.util.io;
 
 import com.intellij.openapi.util.io.ByteSequence;
-import com.intellij.util.containers.SLRUCache;
+import com.intellij.util.containers.ConcurrentSLRUCache;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -239,35 +239,25 @@ public class PersistentHashMapValueStorage {
     }
   }
 
-  private static abstract class FileAccessorCache<T> extends SLRUCache<String, CacheValue<T>> {
-    private final Object myLock = new Object();
+  private static abstract class FileAccessorCache<T> extends ConcurrentSLRUCache<String, CacheValue<T>> {
     private FileAccessorCache(int protectedQueueSize, int probationalQueueSize) {
       super(protectedQueueSize, probationalQueueSize);
     }
 
     @NotNull
     public final CacheValue<T> get(String key) {
-      synchronized (myLock) {
+      while (true) {
         final CacheValue<T> value = super.get(key);
-        value.allocate();
-        return value;
+        // the value may have been dropped and disposed concurrently, it's not in the cache anymore then
+        if (value.tryAllocate()) return value;
       }
     }
 
     @Override
     public CacheValue<T> getIfCached(String key) {
-      synchronized (myLock) {
+      while (true) {
         final CacheValue<T> value = super.getIfCached(key);
-        if (value != null) {
-          value.allocate();
-        }
-        return value;
-      }
-    }
-
-    public boolean remove(String key) {
-      synchronized (myLock) {
-        return super.remove(key);
+        if (value == null || value.tryAllocate()) return value;
       }
     }
 
@@ -309,8 +299,15 @@ public class PersistentHashMapValueStorage {
       myFileAccessor = fileAccessor;
     }
 
-    public final void allocate() {
-      myRefCount.incrementAndGet();
+    /**
+     * @return false if the accessor has been already disposed
+     */
+    public final boolean tryAllocate() {
+      while (true) {
+        final int count = myRefCount.get();
+        if (count == 0) return false;
+        if (myRefCount.compareAndSet(count, count + 1)) return true;
+      }
     }
 
     public final void release() {
@@ -21,9 +21,9 @@ package com.intellij.util.io.storage;
 
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.Forceable;
+import com.intellij.util.containers.OffHeapIntArrayList;
 import com.intellij.util.io.PagePool;
 import com.intellij.util.io.RandomAccessDataFile;
-import gnu.trove.TIntArrayList;
 
 import java.io.File;
 import java.io.IOException;
@@ -46,7 +46,7 @@ public abstract class AbstractRecordsTable implements Disposable, Forceable {
 
   protected final RandomAccessDataFile myStorage;
 
-  private TIntArrayList myFreeRecordsList = null;
+  private OffHeapIntArrayList myFreeRecordsList = null;
   private boolean myIsDirty = false;
 
   public AbstractRecordsTable(final File storageFilePath, final PagePool pool) throws IOException {
@@ -109,8 +109,8 @@ public abstract class AbstractRecordsTable implements Disposable, Forceable {
     }
   }
 
-  private TIntArrayList scanForFreeRecords() throws IOException {
-    final TIntArrayList result = new TIntArrayList();
+  private OffHeapIntArrayList scanForFreeRecords() throws IOException {
+    final OffHeapIntArrayList result = new OffHeapIntArrayList();
     for (int i = 1; i <= getRecordsCount(); i++) {
       if (getSize(i) == -1) {
         result.add(i);
@@ -176,6 +176,10 @@ public abstract class AbstractRecordsTable implements Disposable, Forceable {
       markClean();
       myStorage.dispose();
     }
+    if (myFreeRecordsList != null) {
+      myFreeRecordsList.dispose();
+      myFreeRecordsList = null;
+    }
   }
 
   public void force() {
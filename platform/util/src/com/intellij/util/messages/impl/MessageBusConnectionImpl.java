@@ -41,6 +41,7 @@ public class MessageBusConnectionImpl implements MessageBusConnection {
   };
   private MessageHandler myDefaultHandler;
   private final Map<Topic, Object> mySubscriptions = new HashMap<Topic, Object>();
+  private volatile boolean myDisconnected;
 
   public MessageBusConnectionImpl(MessageBusImpl bus) {
     myBus = bus;
@@ -71,6 +72,7 @@ public class MessageBusConnectionImpl implements MessageBusConnection {
       LOG.error("Not delivered events in the queue: "+jobs);
     }
     myPendingMessages.remove();
+    myDisconnected = true;
     myBus.notifyConnectionTerminated(this);
   }
 
@@ -79,6 +81,7 @@ public class MessageBusConnectionImpl implements MessageBusConnection {
   }
 
   public void deliverImmediately() {
+    myBus.deliverSyncMessages();
     while (!myPendingMessages.get().isEmpty()) {
       myBus.deliverSingleMessage();
     }
@@ -87,7 +90,16 @@ public class MessageBusConnectionImpl implements MessageBusConnection {
   void deliverMessage(Message message) {
     final Message messageOnLocalQueue = myPendingMessages.get().poll();
     assert messageOnLocalQueue == message;
+    invokeHandler(message);
+  }
+
+  void deliverDirectly(Message message) {
+    if (!myDisconnected) {
+      invokeHandler(message);
+    }
+  }
 
+  private void invokeHandler(Message message) {
     final Topic topic = message.getTopic();
     final Object handler = mySubscriptions.get(topic);
 
@@ -111,6 +123,10 @@ public class MessageBusConnectionImpl implements MessageBusConnection {
     myPendingMessages.get().offer(message);
   }
 
+  MessageBusImpl getBus() {
+    return myBus;
+  }
+
   public String toString() {
     return mySubscriptions.keySet().toString();
   }
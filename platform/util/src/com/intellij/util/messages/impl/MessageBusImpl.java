@@ -28,32 +28,51 @@ import com.intellij.util.messages.MessageBus;
 import com.intellij.util.messages.MessageBusConnection;
 import com.intellij.util.messages.Topic;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.TestOnly;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Queue;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MessageBusImpl implements MessageBus {
   private static final Logger LOG = Logger.getInstance("#com.intellij.util.messages.impl.MessageBusImpl");
+  private static final MessageBusConnectionImpl[] NO_SUBSCRIBERS = new MessageBusConnectionImpl[0];
+  private static final boolean COLLECT_STATISTICS = Boolean.getBoolean("idea.message.bus.statistics");
+
+  // the delivery queue and the sync deliveries in progress are shared by the whole bus hierarchy and only used on the root bus
   private final ThreadLocal<Queue<DeliveryJob>> myMessageQueue = new ThreadLocal<Queue<DeliveryJob>>() {
     @Override
     protected Queue<DeliveryJob> initialValue() {
       return new ConcurrentLinkedQueue<DeliveryJob>();
     }
   };
+  private final ThreadLocal<List<SyncDelivery>> mySyncDeliveries = new ThreadLocal<List<SyncDelivery>>() {
+    @Override
+    protected List<SyncDelivery> initialValue() {
+      return new ArrayList<SyncDelivery>();
+    }
+  };
+  // incremented on the root bus whenever a subscription or a bus in the hierarchy is added or removed
+  private final AtomicInteger mySubscriptionModificationCount = new AtomicInteger();
+
   private final ConcurrentMap<Topic, Object> mySyncPublishers = new ConcurrentHashMap<Topic, Object>();
   private final ConcurrentMap<Topic, Object> myAsyncPublishers = new ConcurrentHashMap<Topic, Object>();
   private final ConcurrentMap<Topic, List<MessageBusConnectionImpl>> mySubscribers = new ConcurrentHashMap<Topic, List<MessageBusConnectionImpl>>();
+  private final ConcurrentMap<Topic, SubscribersCache> mySubscribersCache = new ConcurrentHashMap<Topic, SubscribersCache>();
+  private final ConcurrentMap<Topic, TopicStatistics> myStatistics = new ConcurrentHashMap<Topic, TopicStatistics>();
   private final List<MessageBusImpl> myChildBuses = ContainerUtil.createEmptyCOWList();
+  // checked on the root bus
+  private volatile boolean myCollectStatistics = COLLECT_STATISTICS;
 
   private static final Object NA = new Object();
   private MessageBusImpl myParentBus;
+  private final MessageBusImpl myRootBus;
 
   //is used for debugging purposes
   @SuppressWarnings({"UnusedDeclaration", "FieldCanBeLocal"})
@@ -67,6 +86,7 @@ public class MessageBusImpl implements MessageBus {
   public MessageBusImpl(final Object owner, MessageBus parentBus) {
     myOwner = owner == null ? null : owner.toString();
     myParentBus = (MessageBusImpl)parentBus;
+    myRootBus = myParentBus == null ? this : myParentBus.myRootBus;
     if (myParentBus != null) {
       myParentBus.notifyChildBusCreated(this);
       LOG.assertTrue(myParentBus.myChildBuses.contains(this));
@@ -76,11 +96,13 @@ public class MessageBusImpl implements MessageBus {
   private void notifyChildBusCreated(final MessageBusImpl childBus) {
     myChildBuses.add(childBus);
     LOG.assertTrue(childBus.myParentBus == this);
+    myRootBus.mySubscriptionModificationCount.incrementAndGet();
   }
 
   private void notifyChildBusDisposed(final MessageBusImpl childBus) {
     boolean removed = myChildBuses.remove(childBus);
     LOG.assertTrue(removed);
+    myRootBus.mySubscriptionModificationCount.incrementAndGet();
   }
 
   private static class DeliveryJob {
@@ -98,6 +120,71 @@ public class MessageBusImpl implements MessageBus {
     }
   }
 
+  /**
+   * A message sent to the subscribers directly, without queueing a job per subscriber. Nested deliveries finish the outer ones first,
+   * so the subscribers get the messages in the same order as through the queue.
+   */
+  private static class SyncDelivery {
+    private final Message myMessage;
+    private final MessageBusConnectionImpl[] mySubscribers;
+    private int myNext;
+
+    private SyncDelivery(Message message, MessageBusConnectionImpl[] subscribers) {
+      myMessage = message;
+      mySubscribers = subscribers;
+    }
+
+    private void deliver() {
+      while (myNext < mySubscribers.length) {
+        mySubscribers[myNext++].deliverDirectly(myMessage);
+      }
+    }
+  }
+
+  private static class SubscribersCache {
+    private final int myModificationCount;
+    private final MessageBusConnectionImpl[] mySubscribers;
+
+    private SubscribersCache(int modificationCount, MessageBusConnectionImpl[] subscribers) {
+      myModificationCount = modificationCount;
+      mySubscribers = subscribers;
+    }
+  }
+
+  public static class TopicStatistics {
+    private final AtomicLong myPublishCount = new AtomicLong();
+    private final AtomicLong myTotalTime = new AtomicLong();
+    private volatile long myMaxTime;
+
+    private void published(long nanos) {
+      myPublishCount.incrementAndGet();
+      if (nanos > 0) {
+        myTotalTime.addAndGet(nanos);
+        if (nanos > myMaxTime) myMaxTime = nanos;
+      }
+    }
+
+    public long getPublishCount() {
+      return myPublishCount.get();
+    }
+
+    /**
+     * @return total time in nanoseconds spent in sync publishers of the topic, including listeners of the nested messages
+     */
+    public long getTotalTime() {
+      return myTotalTime.get();
+    }
+
+    public long getMaxTime() {
+      return myMaxTime;
+    }
+
+    @Override
+    public String toString() {
+      return "published: " + getPublishCount() + "; total: " + getTotalTime() / 1000000 + "ms; max: " + getMaxTime() / 1000000 + "ms";
+    }
+  }
+
   @NotNull
   public MessageBusConnection connect() {
     checkNotDisposed();
@@ -151,15 +238,26 @@ public class MessageBusImpl implements MessageBus {
 
   public void dispose() {
     checkNotDisposed();
-    Queue<DeliveryJob> jobs = myMessageQueue.get();
-    if (!jobs.isEmpty()) {
-      LOG.error("Not delivered events in the queue: "+jobs);
+    final Queue<DeliveryJob> jobs = myRootBus.myMessageQueue.get();
+    final List<DeliveryJob> notDelivered = new ArrayList<DeliveryJob>();
+    for (Iterator<DeliveryJob> i = jobs.iterator(); i.hasNext();) {
+      final DeliveryJob job = i.next();
+      if (job.connection.getBus() == this) {
+        notDelivered.add(job);
+        i.remove();
+      }
+    }
+    if (!notDelivered.isEmpty()) {
+      LOG.error("Not delivered events in the queue: "+notDelivered);
     }
-    myMessageQueue.remove();
     if (myParentBus != null) {
       myParentBus.notifyChildBusDisposed(this);
       myParentBus = null;
     }
+    else {
+      myMessageQueue.remove();
+      mySyncDeliveries.remove();
+    }
     myDisposed = true;
   }
 
@@ -169,59 +267,141 @@ public class MessageBusImpl implements MessageBus {
 
   private void postMessage(Message message) {
     checkNotDisposed();
-    final Topic topic = message.getTopic();
-    final List<MessageBusConnectionImpl> topicSubscribers = mySubscribers.get(topic);
-    if (topicSubscribers != null) {
-      for (MessageBusConnectionImpl subscriber : topicSubscribers) {
-        myMessageQueue.get().offer(new DeliveryJob(subscriber, message));
+    final MessageBusConnectionImpl[] subscribers = getSubscribers(message.getTopic());
+    if (subscribers.length > 0) {
+      final Queue<DeliveryJob> queue = myRootBus.myMessageQueue.get();
+      for (MessageBusConnectionImpl subscriber : subscribers) {
+        queue.offer(new DeliveryJob(subscriber, message));
         subscriber.scheduleMessageDelivery(message);
       }
     }
-
-    Topic.BroadcastDirection direction = topic.getBroadcastDirection();
-
-    if (direction == Topic.BroadcastDirection.TO_CHILDREN) {
-      for (MessageBusImpl childBus : myChildBuses) {
-        childBus.postMessage(message);
-      }
-    }
-
-    if (direction == Topic.BroadcastDirection.TO_PARENT && myParentBus != null) {
-      myParentBus.postMessage(message);
+    if (myRootBus.myCollectStatistics) {
+      getStatistics(message.getTopic()).published(0);
     }
   }
 
   private void sendMessage(Message message) {
+    final boolean collectStatistics = myRootBus.myCollectStatistics;
+    final long start = collectStatistics ? System.nanoTime() : 0;
     pumpMessages();
-    postMessage(message);
-    pumpMessages();
+    checkNotDisposed();
+    final MessageBusConnectionImpl[] subscribers = getSubscribers(message.getTopic());
+    if (subscribers.length > 0) {
+      // nothing is queued after the pump, so the message can go to the subscribers directly
+      final List<SyncDelivery> deliveries = myRootBus.mySyncDeliveries.get();
+      final SyncDelivery delivery = new SyncDelivery(message, subscribers);
+      deliveries.add(delivery);
+      try {
+        delivery.deliver();
+      }
+      finally {
+        deliveries.remove(deliveries.size() - 1);
+      }
+      pumpMessages();
+    }
+    if (collectStatistics) {
+      getStatistics(message.getTopic()).published(System.nanoTime() - start);
+    }
   }
 
   private void pumpMessages() {
     checkNotDisposed();
-    if (myParentBus != null) {
-      LOG.assertTrue(myParentBus.myChildBuses.contains(this));
-      myParentBus.pumpMessages();
-    }
-    else {
-      doPumpMessages();
-    }
+    myRootBus.doPumpMessages();
   }
 
   private void doPumpMessages() {
+    deliverSyncMessages();
+    final Queue<DeliveryJob> queue = myMessageQueue.get();
     do {
-      DeliveryJob job = myMessageQueue.get().poll();
+      DeliveryJob job = queue.poll();
       if (job == null) break;
       job.connection.deliverMessage(job.message);
     }
     while (true);
+  }
+
+  /**
+   * Delivers the rest of the sync messages being sent on the current thread, they precede anything queued after them.
+   */
+  void deliverSyncMessages() {
+    final List<SyncDelivery> deliveries = myRootBus.mySyncDeliveries.get();
+    for (int i = 0; i < deliveries.size(); i++) {
+      deliveries.get(i).deliver();
+    }
+  }
 
+  /**
+   * @return the connections subscribed to the topic on this bus and on the buses in the topic broadcast direction,
+   * in the order they get the messages
+   */
+  @NotNull
+  private MessageBusConnectionImpl[] getSubscribers(@NotNull Topic topic) {
+    final int modificationCount = myRootBus.mySubscriptionModificationCount.get();
+    final SubscribersCache cache = mySubscribersCache.get(topic);
+    if (cache != null && cache.myModificationCount == modificationCount) {
+      return cache.mySubscribers;
+    }
+
+    final List<MessageBusConnectionImpl> result = new ArrayList<MessageBusConnectionImpl>();
+    final Topic.BroadcastDirection direction = topic.getBroadcastDirection();
+    if (direction == Topic.BroadcastDirection.TO_CHILDREN) {
+      collectSubscribersWithChildren(topic, result);
+    }
+    else if (direction == Topic.BroadcastDirection.TO_PARENT) {
+      // the root bus listeners come first
+      final List<MessageBusImpl> buses = new ArrayList<MessageBusImpl>();
+      for (MessageBusImpl bus = this; bus != null; bus = bus.myParentBus) {
+        buses.add(bus);
+      }
+      for (int i = buses.size() - 1; i >= 0; i--) {
+        buses.get(i).collectOwnSubscribers(topic, result);
+      }
+    }
+    else {
+      collectOwnSubscribers(topic, result);
+    }
+
+    final MessageBusConnectionImpl[] subscribers = result.isEmpty() ? NO_SUBSCRIBERS : result.toArray(new MessageBusConnectionImpl[result.size()]);
+    mySubscribersCache.put(topic, new SubscribersCache(modificationCount, subscribers));
+    return subscribers;
+  }
+
+  private void collectSubscribersWithChildren(Topic topic, List<MessageBusConnectionImpl> result) {
+    collectOwnSubscribers(topic, result);
     for (MessageBusImpl childBus : myChildBuses) {
-      LOG.assertTrue(childBus.myParentBus == this);
-      childBus.doPumpMessages();
+      childBus.collectSubscribersWithChildren(topic, result);
     }
   }
 
+  private void collectOwnSubscribers(Topic topic, List<MessageBusConnectionImpl> result) {
+    final List<MessageBusConnectionImpl> topicSubscribers = mySubscribers.get(topic);
+    if (topicSubscribers != null) {
+      result.addAll(topicSubscribers);
+    }
+  }
+
+  @NotNull
+  private TopicStatistics getStatistics(@NotNull Topic topic) {
+    TopicStatistics statistics = myStatistics.get(topic);
+    if (statistics == null) {
+      statistics = ConcurrencyUtil.cacheOrGet(myStatistics, topic, new TopicStatistics());
+    }
+    return statistics;
+  }
+
+  /**
+   * @return publish counters of the topics published through this bus, collected with -Didea.message.bus.statistics=true
+   */
+  @NotNull
+  public Map<Topic, TopicStatistics> getStatistics() {
+    return Collections.unmodifiableMap(myStatistics);
+  }
+
+  @TestOnly
+  public void setCollectStatistics(boolean collect) {
+    myRootBus.myCollectStatistics = collect;
+  }
+
   public void notifyOnSubscription(final MessageBusConnectionImpl connection, final Topic topic) {
     checkNotDisposed();
     List<MessageBusConnectionImpl> topicSubscribers = mySubscribers.get(topic);
@@ -231,6 +411,7 @@ public class MessageBusImpl implements MessageBus {
     }
 
     topicSubscribers.add(connection);
+    myRootBus.mySubscriptionModificationCount.incrementAndGet();
   }
 
   public void notifyConnectionTerminated(final MessageBusConnectionImpl connection) {
@@ -238,8 +419,9 @@ public class MessageBusImpl implements MessageBus {
     for (List<MessageBusConnectionImpl> topicSubscribers : mySubscribers.values()) {
       topicSubscribers.remove(connection);
     }
+    myRootBus.mySubscriptionModificationCount.incrementAndGet();
 
-    final Iterator<DeliveryJob> i = myMessageQueue.get().iterator();
+    final Iterator<DeliveryJob> i = myRootBus.myMessageQueue.get().iterator();
     while (i.hasNext()) {
       final DeliveryJob job = i.next();
       if (job.connection == connection) {
@@ -250,7 +432,7 @@ public class MessageBusImpl implements MessageBus {
 
   public void deliverSingleMessage() {
     checkNotDisposed();
-    final DeliveryJob job = myMessageQueue.get().poll();
+    final DeliveryJob job = myRootBus.myMessageQueue.get().poll();
     if (job == null) return;
     job.connection.deliverMessage(job.message);
   }
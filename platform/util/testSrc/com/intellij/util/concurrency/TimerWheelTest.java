@@ -0,0 +1,127 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.concurrency;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TimerWheelTest extends TestCase {
+  private TimerWheel myWheel;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    // a small wheel, so that the timeouts wrap around it
+    myWheel = new TimerWheel("Test timer", 5, 8);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myWheel.shutdown();
+    super.tearDown();
+  }
+
+  public void testTimeoutsExpireInDeadlineOrder() throws Exception {
+    final List<Integer> log = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch latch = new CountDownLatch(3);
+    final long start = System.currentTimeMillis();
+    for (final int delay : new int[]{150, 10, 70}) {
+      myWheel.schedule(new Runnable() {
+        public void run() {
+          assertTrue(System.currentTimeMillis() - start >= delay);
+          log.add(delay);
+          latch.countDown();
+        }
+      }, delay);
+    }
+
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    assertEquals("[10, 70, 150]", log.toString());
+    assertEquals(0, myWheel.getPendingCount());
+    assertEquals(3, myWheel.getExpiredCount());
+  }
+
+  public void testCancel() throws Exception {
+    final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch latch = new CountDownLatch(1);
+    final TimerWheel.Timeout cancelled = myWheel.schedule(new Runnable() {
+      public void run() {
+        log.add("cancelled");
+      }
+    }, 20);
+    myWheel.schedule(new Runnable() {
+      public void run() {
+        log.add("run");
+        latch.countDown();
+      }
+    }, 60);
+
+    assertTrue(cancelled.cancel());
+    assertFalse(cancelled.cancel());
+    assertFalse(cancelled.isPending());
+    assertEquals(1, myWheel.getPendingCount());
+
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    assertEquals("[run]", log.toString());
+    assertEquals(1, myWheel.getCancelledCount());
+  }
+
+  public void testManyTimeoutsInOneBucket() throws Exception {
+    final int count = 1000;
+    final CountDownLatch latch = new CountDownLatch(count / 2);
+    final List<TimerWheel.Timeout> timeouts = new ArrayList<TimerWheel.Timeout>();
+    for (int i = 0; i < count; i++) {
+      timeouts.add(myWheel.schedule(new Runnable() {
+        public void run() {
+          latch.countDown();
+        }
+      }, 20 + i % 2 * 40));
+    }
+    for (int i = 0; i < count; i += 2) {
+      timeouts.get(i).cancel();
+    }
+
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    Thread.sleep(100);
+    assertEquals(count / 2, myWheel.getExpiredCount());
+    assertEquals(0, myWheel.getPendingCount());
+  }
+
+  public void testSleepsUntilNextOccupiedBucket() throws Exception {
+    final TimerWheel wheel = new TimerWheel("Test timer", 5, 64);
+    try {
+      final CountDownLatch latch = new CountDownLatch(2);
+      final Runnable task = new Runnable() {
+        public void run() {
+          latch.countDown();
+        }
+      };
+      wheel.schedule(task, 200);
+      wheel.schedule(task, 100);
+
+      assertTrue(latch.await(5, TimeUnit.SECONDS));
+      assertEquals(2, wheel.getWakeupCount());
+    }
+    finally {
+      wheel.shutdown();
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentIntObjectHashMapTest extends TestCase {
+  public void testBasicOperations() {
+    final ConcurrentIntObjectHashMap<String> map = new ConcurrentIntObjectHashMap<String>();
+    assertNull(map.get(1));
+    assertNull(map.put(1, "a"));
+    assertEquals("a", map.put(1, "b"));
+    assertEquals("b", map.putIfAbsent(1, "c"));
+    assertNull(map.putIfAbsent(-5, "d"));
+    assertNull(map.putIfAbsent(0, "zero"));
+    assertEquals("zero", map.get(0));
+    assertEquals(3, map.size());
+
+    assertFalse(map.remove(1, "a"));
+    assertTrue(map.replace(1, "b", "e"));
+    assertEquals("e", map.get(1));
+    assertTrue(map.remove(1, "e"));
+    assertNull(map.get(1));
+    assertFalse(map.containsKey(1));
+    assertEquals("d", map.remove(-5));
+    assertNull(map.remove(-5));
+    assertEquals("zero", map.remove(0));
+    assertTrue(map.isEmpty());
+
+    assertNull(map.putIfAbsent(1, "f"));
+    assertEquals("f", map.get(1));
+    map.clear();
+    assertNull(map.get(1));
+  }
+
+  public void testResize() {
+    final ConcurrentIntObjectHashMap<Integer> map = new ConcurrentIntObjectHashMap<Integer>();
+    for (int i = -10000; i < 10000; i++) {
+      map.put(i, i);
+    }
+    for (int i = -10000; i < 10000; i += 2) {
+      assertEquals(Integer.valueOf(i), map.remove(i));
+    }
+    for (int i = -10000; i < 10000; i++) {
+      assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), map.get(i));
+    }
+    assertEquals(10000, map.size());
+    final int[] keys = map.keys();
+    Arrays.sort(keys);
+    assertEquals(-9999, keys[0]);
+    assertEquals(9999, keys[keys.length - 1]);
+  }
+
+  public void testRemovedKeysDoNotAccumulate() {
+    final ConcurrentIntObjectHashMap<Integer> map = new ConcurrentIntObjectHashMap<Integer>();
+    for (int i = 1; i < 100000; i++) {
+      map.put(i, i);
+      map.remove(i - 1);
+    }
+    assertEquals(1, map.size());
+    assertEquals(Integer.valueOf(99999), map.get(99999));
+  }
+
+  public void testConcurrentUpdates() throws Exception {
+    final ConcurrentIntObjectHashMap<Integer> map = new ConcurrentIntObjectHashMap<Integer>();
+    final int threads = 4;
+    final int count = 50000;
+    final AtomicInteger winners = new AtomicInteger();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final CountDownLatch start = new CountDownLatch(1);
+    final Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      workers[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 1; i <= count; i++) {
+              // shared keys, only one thread may win each of them
+              if (map.putIfAbsent(i, thread) == null) winners.incrementAndGet();
+              // own keys, which get removed again
+              final int own = -(i * threads + thread);
+              map.put(own, i);
+              assertEquals(Integer.valueOf(i), map.get(own));
+              if (i % 2 == 0) assertEquals(Integer.valueOf(i), map.remove(own));
+            }
+          }
+          catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      };
+      workers[t].start();
+    }
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    if (error.get() != null) throw new RuntimeException(error.get());
+    assertEquals(count, winners.get());
+    for (int i = 1; i <= count; i++) {
+      assertNotNull(map.get(i));
+      for (int thread = 0; thread < threads; thread++) {
+        assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), map.get(-(i * threads + thread)));
+      }
+    }
+    assertEquals(count + count * threads / 2, map.size());
+  }
+
+  public void testWeakValues() {
+    final ConcurrentWeakValueIntObjectHashMap<Object> map = new ConcurrentWeakValueIntObjectHashMap<Object>();
+    final Object held = new Object();
+    map.put(1, held);
+    map.put(2, new Object());
+    WeaksTestCase.gc();
+
+    assertSame(held, map.get(1));
+    assertNull(map.get(2));
+    map.put(3, held);
+    // the collected entry is removed once its reference gets enqueued, which happens asynchronously
+    assertEquals(2, map.values().size());
+  }
+}
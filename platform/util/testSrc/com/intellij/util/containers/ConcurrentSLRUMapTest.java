@@ -0,0 +1,139 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentSLRUMapTest extends TestCase {
+  public void testProtectedAndProbationalQueues() {
+    final List<String> dropped = new ArrayList<String>();
+    final ConcurrentSLRUMap<String, String> map = new ConcurrentSLRUMap<String, String>(2, 2, 1) {
+      @Override
+      protected void onDropFromCache(String key, String value) {
+        dropped.add(key);
+      }
+    };
+    map.put("a", "a");
+    map.put("b", "b");
+    // promoted to the protected queue
+    assertEquals("a", map.get("a"));
+    map.put("c", "c");
+    map.put("d", "d");
+    assertEquals(1, dropped.size());
+    assertEquals("b", dropped.get(0));
+    assertEquals("a", map.get("a"));
+    assertNull(map.get("b"));
+
+    assertEquals("c", map.get("c"));
+    assertEquals("d", map.get("d"));
+    // the eldest protected entry goes back to the probational queue
+    assertEquals(3, map.size());
+    map.put("e", "e");
+    map.put("f", "f");
+    assertEquals(2, dropped.size());
+    assertNull(map.get("a"));
+
+    assertEquals(2, map.getEvictions());
+    assertTrue(map.remove("e"));
+    assertFalse(map.remove("e"));
+    map.clear();
+    assertEquals(0, map.size());
+    assertEquals(6, dropped.size());
+  }
+
+  public void testStatistics() {
+    final ConcurrentSLRUMap<Integer, Integer> map = new ConcurrentSLRUMap<Integer, Integer>(10, 10, 4);
+    for (int i = 0; i < 5; i++) {
+      map.put(i, i);
+    }
+    for (int i = 0; i < 10; i++) {
+      map.get(i);
+    }
+    assertEquals(5, map.getHits());
+    assertEquals(5, map.getMisses());
+    assertEquals(0, map.getEvictions());
+  }
+
+  public void testWeightedEviction() {
+    final ConcurrentSLRUMap<Integer, byte[]> map = new ConcurrentSLRUMap<Integer, byte[]>(100, 100, 1) {
+      @Override
+      protected int getWeight(Integer key, byte[] value) {
+        return value.length;
+      }
+    };
+    map.put(1, new byte[40]);
+    map.put(2, new byte[40]);
+    map.put(3, new byte[40]);
+    assertNull(map.get(1));
+    assertEquals(1, map.getEvictions());
+
+    // heavier than the whole queue, yet it's cached until the next put
+    map.put(4, new byte[150]);
+    assertNotNull(map.get(4));
+    assertNull(map.get(2));
+    assertNull(map.get(3));
+    assertEquals(1, map.size());
+  }
+
+  public void testCacheCreatesValueOnce() throws Exception {
+    final AtomicInteger created = new AtomicInteger();
+    final ConcurrentSLRUCache<Integer, Object> cache = new ConcurrentSLRUCache<Integer, Object>(2000, 2000) {
+      @NotNull
+      @Override
+      public Object createValue(Integer key) {
+        created.incrementAndGet();
+        return new Object();
+      }
+    };
+    final int threads = 4;
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final CountDownLatch start = new CountDownLatch(1);
+    final Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      workers[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < 1000; i++) {
+              assertSame(cache.get(i), cache.get(i));
+            }
+          }
+          catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      };
+      workers[t].start();
+    }
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    if (error.get() != null) throw new RuntimeException(error.get());
+    assertEquals(1000, created.get());
+    assertEquals(1000, cache.size());
+    assertNull(cache.getIfCached(1000));
+  }
+}
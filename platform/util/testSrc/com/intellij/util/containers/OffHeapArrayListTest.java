@@ -0,0 +1,93 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+import junit.framework.TestCase;
+
+public class OffHeapArrayListTest extends TestCase {
+  public void testIntList() {
+    final OffHeapIntArrayList list = new OffHeapIntArrayList();
+    try {
+      for (int i = 0; i < 1000; i++) {
+        list.add(i * 3);
+      }
+      assertEquals(1000, list.size());
+      assertEquals(300, list.get(100));
+      assertEquals(300, list.set(100, -1));
+      assertEquals(-1, list.get(100));
+      assertEquals(100, list.indexOf(-1));
+      assertTrue(list.contains(2997));
+
+      assertEquals(0, list.remove(0));
+      assertEquals(3, list.get(0));
+      assertEquals(2997, list.remove(list.size() - 1));
+      assertEquals(998, list.size());
+      assertEquals(998, list.toArray().length);
+
+      list.trimToSize();
+      assertEquals(998, list.capacity());
+      assertEquals(2994, list.get(997));
+    }
+    finally {
+      list.dispose();
+    }
+  }
+
+  public void testLongList() {
+    final OffHeapLongArrayList list = new OffHeapLongArrayList(2);
+    try {
+      list.add(Long.MAX_VALUE);
+      list.add(Long.MIN_VALUE);
+      list.add(42);
+      assertEquals(Long.MIN_VALUE, list.get(1));
+      assertEquals(Long.MAX_VALUE, list.remove(0));
+      assertEquals(42, list.get(1));
+      list.clear();
+      assertTrue(list.isEmpty());
+    }
+    finally {
+      list.dispose();
+    }
+  }
+
+  public void testBoundsAndLifecycle() {
+    final OffHeapIntArrayList list = new OffHeapIntArrayList();
+    list.add(1);
+    try {
+      list.get(1);
+      fail();
+    }
+    catch (IndexOutOfBoundsException ignored) {
+    }
+    try {
+      list.get(-1);
+      fail();
+    }
+    catch (IndexOutOfBoundsException ignored) {
+    }
+
+    list.dispose();
+    assertTrue(list.isDisposed());
+    assertEquals(0, list.size());
+    try {
+      list.add(2);
+      fail();
+    }
+    catch (IllegalStateException ignored) {
+    }
+    list.dispose();
+  }
+}
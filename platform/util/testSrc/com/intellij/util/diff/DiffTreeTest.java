@@ -23,6 +23,7 @@ import org.jetbrains.annotations.NotNull;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 /**
  * @author max
@@ -107,6 +108,21 @@ public class DiffTreeTest extends TestCase {
     }
   }
 
+  private static class HashingNodeComparator extends NodeComparator {
+    @Override
+    public boolean hashCodesEqual(final Node node, final Node node1) {
+      return deepHashCode(node) == deepHashCode(node1);
+    }
+
+    private static int deepHashCode(Node node) {
+      int hash = node.getId();
+      for (Node child : node.getChildren()) {
+        hash = hash * 31 + deepHashCode(child);
+      }
+      return hash;
+    }
+  }
+
   public static class DiffBuilder implements DiffTreeChangeBuilder<Node, Node> {
     private final List<String> myResults = new ArrayList<String>();
 
@@ -216,6 +232,93 @@ public class DiffTreeTest extends TestCase {
     performTest(r1, r2, "REPLACED: 22 to 250");
   }
 
+  public void testDeletedFromListOfSimilarNodes() throws Exception {
+    Node r1 = new Node(0, similarNodes(0, 30));
+    Node[] children = similarNodes(0, 30);
+    Node r2 = new Node(0, concat(Arrays.copyOfRange(children, 0, 10), Arrays.copyOfRange(children, 11, 30)));
+
+    performHashingTest(r1, r2, "DELETED from 0: 1");
+  }
+
+  public void testInsertedIntoListOfSimilarNodesWithChangedLast() throws Exception {
+    Node[] children = similarNodes(0, 10);
+    Node r1 = new Node(0, concat(children, new Node(3, new Node(200))));
+    Node r2 = new Node(0, concat(Arrays.copyOfRange(children, 0, 4), new Node(2), new Node(4), Arrays.copyOfRange(children, 4, 10),
+                                 new Node(3, new Node(201))));
+
+    performHashingTest(r1, r2, "INSERTED to 0: 2 at 4", "INSERTED to 0: 4 at 5", "REPLACED: 200 to 201");
+  }
+
+  /**
+   * Replays edits typical for a long flat list, e.g. cases of a switch or constants of an enum, and reports the time of diffing
+   * each version of the list against the previous one.
+   */
+  public void testEditTracesOnLongList() throws Exception {
+    final int size = 3000;
+    final Random random = new Random(42);
+    List<Node> current = new ArrayList<Node>(Arrays.asList(similarNodes(0, size)));
+    int nextId = size;
+    for (int edit = 0; edit < 200; edit++) {
+      final List<Node> next = new ArrayList<Node>(current);
+      final int at = random.nextInt(next.size() - 10);
+      final int expectedEvents;
+      switch (edit % 4) {
+        case 0:
+          next.add(at, similarNode(nextId++));
+          expectedEvents = 1;
+          break;
+        case 1:
+          next.remove(at);
+          expectedEvents = 1;
+          break;
+        case 2:
+          next.set(at, similarNode(nextId++));
+          expectedEvents = 1;
+          break;
+        default:
+          for (int i = 0; i < 5; i++) next.add(at, similarNode(nextId++));
+          expectedEvents = 5;
+      }
+
+      final DiffBuilder result = new DiffBuilder();
+      DiffTree.diff(new TreeStructure(new Node(0, current.toArray(new Node[current.size()]))),
+                    new TreeStructure(new Node(0, next.toArray(new Node[next.size()]))), new HashingNodeComparator(), result);
+      assertEquals(result.getEvents().toString(), expectedEvents, result.getEvents().size());
+      current = next;
+    }
+  }
+
+  private static Node similarNode(int k) {
+    return new Node(1, new Node(100 + k));
+  }
+
+  private static Node[] similarNodes(int from, int to) {
+    final Node[] nodes = new Node[to - from];
+    for (int k = from; k < to; k++) {
+      nodes[k - from] = similarNode(k);
+    }
+    return nodes;
+  }
+
+  private static Node[] concat(Object... nodesOrArrays) {
+    final List<Node> result = new ArrayList<Node>();
+    for (Object o : nodesOrArrays) {
+      if (o instanceof Node[]) {
+        result.addAll(Arrays.asList((Node[])o));
+      }
+      else {
+        result.add((Node)o);
+      }
+    }
+    return result.toArray(new Node[result.size()]);
+  }
+
+  private static void performHashingTest(final Node r1, final Node r2, final String... expected) {
+    final DiffBuilder result = new DiffBuilder();
+    DiffTree.diff(new TreeStructure(r1), new TreeStructure(r2), new HashingNodeComparator(), result);
+    assertEquals(Arrays.asList(expected), result.getEvents());
+  }
+
   private static void performTest(final Node r1, final Node r2, final String... expected) {
     final DiffBuilder result = new DiffBuilder();
     DiffTree.diff(new TreeStructure(r1), new TreeStructure(r2), new NodeComparator(), result);
@@ -20,10 +20,12 @@
 package com.intellij.util.messages;
 
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.messages.impl.MessageBusImpl;
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class MessageBusTest extends TestCase {
   private MessageBus myBus;
@@ -41,6 +43,7 @@ public class MessageBusTest extends TestCase {
 
   private final static Topic<T1Listener> T1 = new Topic<T1Listener>("T1", T1Listener.class);
   private final static Topic<T2Listener> T2 = new Topic<T2Listener>("T1", T2Listener.class);
+  private final static Topic<T2Listener> T2_TO_PARENT = new Topic<T2Listener>("T2 to parent", T2Listener.class, Topic.BroadcastDirection.TO_PARENT);
 
   private class T1Handler implements T1Listener {
     private final String id;
@@ -184,6 +187,108 @@ public class MessageBusTest extends TestCase {
     assertEvents("c1:t11", "c2:t11", "c2:t21", "c1:t11:done", "c2:t12");
   }
   
+  public void testSubscriptionAfterPublishing() {
+    myBus.syncPublisher(T1).t11();
+
+    final MessageBusConnection c1 = myBus.connect();
+    c1.subscribe(T1, new T1Handler("c1"));
+    myBus.syncPublisher(T1).t11();
+
+    c1.disconnect();
+    final MessageBusConnection c2 = myBus.connect();
+    c2.subscribe(T1, new T1Handler("c2"));
+    myBus.syncPublisher(T1).t12();
+
+    assertEvents("c1:t11", "c2:t12");
+  }
+
+  public void testBroadcastToChildren() {
+    final MessageBus child1 = MessageBusFactory.newMessageBus("child1", myBus);
+    final MessageBus grandChild = MessageBusFactory.newMessageBus("grandChild", child1);
+    final MessageBus child2 = MessageBusFactory.newMessageBus("child2", myBus);
+
+    child2.connect().subscribe(T1, new T1Handler("child2"));
+    grandChild.connect().subscribe(T1, new T1Handler("grandChild"));
+    myBus.syncPublisher(T1).t11();
+
+    child1.connect().subscribe(T1, new T1Handler("child1"));
+    myBus.connect().subscribe(T1, new T1Handler("root"));
+    myBus.syncPublisher(T1).t12();
+    child1.syncPublisher(T1).t11();
+
+    grandChild.dispose();
+    myBus.syncPublisher(T1).t12();
+
+    assertEvents("grandChild:t11", "child2:t11",
+                 "root:t12", "child1:t12", "grandChild:t12", "child2:t12",
+                 "child1:t11", "grandChild:t11",
+                 "root:t12", "child1:t12", "child2:t12");
+  }
+
+  public void testBroadcastToParent() {
+    final MessageBus child = MessageBusFactory.newMessageBus("child", myBus);
+    final MessageBus grandChild = MessageBusFactory.newMessageBus("grandChild", child);
+    grandChild.connect().subscribe(T2_TO_PARENT, new T2Handler("grandChild"));
+    child.connect().subscribe(T2_TO_PARENT, new T2Handler("child"));
+    myBus.connect().subscribe(T2_TO_PARENT, new T2Handler("root"));
+
+    grandChild.syncPublisher(T2_TO_PARENT).t21();
+    child.syncPublisher(T2_TO_PARENT).t22();
+
+    assertEvents("root:t21", "child:t21", "grandChild:t21", "root:t22", "child:t22");
+  }
+
+  public void testAsyncMessagesDeliveredBeforeNextSyncMessage() {
+    final MessageBusConnection c1 = myBus.connect();
+    c1.subscribe(T1, new T1Handler("c1"));
+    c1.subscribe(T2, new T2Handler("c1"));
+
+    myBus.asyncPublisher(T2).t21();
+    myBus.asyncPublisher(T2).t22();
+    assertEvents();
+
+    myBus.syncPublisher(T1).t11();
+    assertEvents("c1:t21", "c1:t22", "c1:t11");
+  }
+
+  public void testDeliverImmediatelyInDispatch() {
+    final MessageBusConnection c1 = myBus.connect();
+    final MessageBusConnection c2 = myBus.connect();
+    c1.subscribe(T1, new T1Listener() {
+      @Override
+      public void t11() {
+        myLog.add("c1:t11");
+        c2.deliverImmediately();
+        myLog.add("c1:t11:done");
+      }
+
+      @Override
+      public void t12() {
+      }
+    });
+    c2.subscribe(T1, new T1Handler("c2"));
+
+    myBus.syncPublisher(T1).t11();
+    assertEvents("c1:t11", "c2:t11", "c1:t11:done");
+  }
+
+  public void testStatistics() {
+    final MessageBusConnection connection = myBus.connect();
+    connection.subscribe(T1, new T1Handler("c"));
+    myBus.syncPublisher(T1).t11();
+    // off by default
+    assertTrue(((MessageBusImpl)myBus).getStatistics().isEmpty());
+
+    ((MessageBusImpl)myBus).setCollectStatistics(true);
+    myBus.syncPublisher(T1).t11();
+    myBus.syncPublisher(T1).t12();
+    myBus.asyncPublisher(T1).t11();
+
+    final Map<Topic, MessageBusImpl.TopicStatistics> statistics = ((MessageBusImpl)myBus).getStatistics();
+    assertEquals(3, statistics.get(T1).getPublishCount());
+    assertNull(statistics.get(T2));
+  }
+
   private void assertEvents(String... expected) {
     String joinExpected = StringUtil.join(expected, "\n");
     String joinActual = StringUtil.join(myLog.toArray(new String[0]), "\n");
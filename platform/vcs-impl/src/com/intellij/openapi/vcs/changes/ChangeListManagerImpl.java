@@ -777,16 +777,17 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
     synchronized (myDataLock) {
       final LocalChangeList list = myWorker.getListCopy(file);
       if (list != null) {
+        final String path = file.getPath();
         for (Change change : list.getChanges()) {
           final ContentRevision afterRevision = change.getAfterRevision();
           if (afterRevision != null) {
             String revisionPath = FileUtil.toSystemIndependentName(afterRevision.getFile().getIOFile().getPath());
-            if (FileUtil.pathsEqual(revisionPath, file.getPath())) return change;
+            if (FileUtil.pathsEqual(revisionPath, path)) return change;
           }
           final ContentRevision beforeRevision = change.getBeforeRevision();
           if (beforeRevision != null) {
             String revisionPath = FileUtil.toSystemIndependentName(beforeRevision.getFile().getIOFile().getPath());
-            if (FileUtil.pathsEqual(revisionPath, file.getPath())) return change;
+            if (FileUtil.pathsEqual(revisionPath, path)) return change;
           }
         }
       }
@@ -1,13 +1,14 @@
 package org.jetbrains.idea.maven.facade.embedder;
 
-import com.intellij.util.containers.WeakValueHashMap;
+import com.intellij.util.containers.ConcurrentWeakValueIntObjectHashMap;
 import org.apache.maven.project.MavenProject;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.idea.maven.facade.NativeMavenProjectHolder;
 
 public class RemoteNativeMavenProjectHolder implements NativeMavenProjectHolder {
-  private static final WeakValueHashMap<Integer, RemoteNativeMavenProjectHolder> myMap =
-    new WeakValueHashMap<Integer, RemoteNativeMavenProjectHolder>();
+  // filled and read by the remote calls, which come in on different threads
+  private static final ConcurrentWeakValueIntObjectHashMap<RemoteNativeMavenProjectHolder> myMap =
+    new ConcurrentWeakValueIntObjectHashMap<RemoteNativeMavenProjectHolder>();
 
   private final MavenProject myMavenProject;
 
@@ -16,6 +16,7 @@
 package com.intellij.lang.properties.parsing;
 
 import com.intellij.lexer.FlexAdapter;
+import com.intellij.lexer.RestartableLexer;
 import com.intellij.lang.properties.parsing._PropertiesLexer;
 
 import java.io.Reader;
@@ -23,7 +24,7 @@ import java.io.Reader;
 /**
  * @author max
  */
-public class PropertiesLexer extends FlexAdapter {
+public class PropertiesLexer extends FlexAdapter implements RestartableLexer {
   public PropertiesLexer() {
     super(new _PropertiesLexer((Reader)null));
   }
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2000-2010 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.lang.properties;
+
+import com.intellij.lang.properties.parsing.PropertiesLexer;
+import com.intellij.lexer.Lexer;
+import com.intellij.testFramework.LexerTestCase;
+
+public class PropertiesRelexingTest extends LexerTestCase {
+  public void testRandomEdits() {
+    final StringBuilder text = new StringBuilder("# comment\n");
+    for (int i = 0; i < 50; i++) {
+      text.append("key").append(i).append(" = value ").append(i).append(" \\\n  continued\n");
+    }
+    checkIncrementalRelexing(text.toString(), "ab =:#!\\\n\t");
+  }
+
+  @Override
+  protected Lexer createLexer() {
+    return new PropertiesLexer();
+  }
+
+  @Override
+  protected String getDirPath() {
+    return "plugins/properties/testData";
+  }
+}
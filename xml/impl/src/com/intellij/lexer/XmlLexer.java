@@ -21,7 +21,11 @@ import com.intellij.psi.xml.XmlTokenType;
 
 import java.io.Reader;
 
-public class XmlLexer extends MergingLexerAdapter {
+/**
+ * The state of the flex lexer, its lexical state and the one to return to, is packed into {@link #getState()},
+ * so the lexer is restartable as long as its base lexer is.
+ */
+public class XmlLexer extends MergingLexerAdapter implements RestartableLexer {
   private final static TokenSet TOKENS_TO_MERGE = TokenSet.create(new IElementType[]{
     XmlTokenType.XML_DATA_CHARACTERS,
     XmlTokenType.XML_TAG_CHARACTERS,